@@ -0,0 +1,146 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.caprica.scriptrunner;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the overhead of delivering result set rows to listeners.
+ * <p>
+ * The baseline reads the same query directly with JDBC, the difference between that and the dispatch benchmark is the
+ * cost of the script runner and its listeners.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DispatchBenchmark {
+
+    private static final int ROWS = 10000;
+
+    private static final String QUERY = "SELECT X, 'name ' || X FROM SYSTEM_RANGE(1, " + ROWS + ")";
+
+    @State(Scope.Benchmark)
+    public static class Database {
+
+        private Connection connection;
+
+        @Setup
+        public void setup() throws SQLException {
+            connection = DriverManager.getConnection("jdbc:h2:mem:dispatch-benchmark");
+        }
+
+        @TearDown
+        public void tearDown() throws SQLException {
+            connection.close();
+        }
+
+    }
+
+    @State(Scope.Benchmark)
+    public static class Listeners {
+
+        @Param({"0", "1", "4"})
+        private int listeners;
+
+        @Param({"false", "true"})
+        private boolean async;
+
+        private final List<AsyncScriptListener> asyncListeners = new ArrayList<>();
+
+        private ScriptRunner scriptRunner;
+
+        @Setup
+        public void setup(Database database, Blackhole blackhole) {
+            scriptRunner = new ScriptRunner(database.connection);
+            for (int i = 0; i < listeners; i++) {
+                ScriptListener listener = new ConsumingListener(blackhole);
+                if (async) {
+                    AsyncScriptListener asyncListener = new AsyncScriptListener(listener);
+                    asyncListeners.add(asyncListener);
+                    listener = asyncListener;
+                }
+                scriptRunner.addScriptListener(listener);
+            }
+        }
+
+        @TearDown
+        public void tearDown() {
+            asyncListeners.forEach(AsyncScriptListener::close);
+        }
+
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void baseline(Database database, Blackhole blackhole) throws SQLException {
+        try (Statement statement = database.connection.createStatement(); ResultSet resultSet = statement.executeQuery(QUERY)) {
+            while (resultSet.next()) {
+                blackhole.consume(resultSet);
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void dispatch(Listeners listeners) {
+        listeners.scriptRunner.runScript(new StringReader(QUERY + ";"));
+    }
+
+    /**
+     * A listener that does nothing with a row other than consume it, so only the cost of delivery is measured.
+     */
+    static final class ConsumingListener extends ScriptAdapter {
+
+        private final Blackhole blackhole;
+
+        ConsumingListener(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void row(ResultSet resultSet) {
+            blackhole.consume(resultSet);
+        }
+
+    }
+
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.caprica.scriptrunner;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how quickly scripts are split into statements, without executing them.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LexerBenchmark {
+
+    @Param({"SIMPLE", "COMMENTED", "WIDE", "PROCEDURAL"})
+    private String shape;
+
+    @Param({"1000", "100000"})
+    private int statements;
+
+    private String script;
+
+    /**
+     * Reports statements per second alongside scripts per second.
+     */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Counters {
+
+        public long statements;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            statements = 0;
+        }
+
+    }
+
+    @Setup
+    public void setup() {
+        script = ScriptFixtures.script(ScriptFixtures.Shape.valueOf(shape), statements, false);
+    }
+
+    @Benchmark
+    public void split(Counters counters, Blackhole blackhole) throws IOException, SQLException {
+        ScriptLexer lexer = new ScriptLexer(new StringReader(script), ";", false, false, false);
+        lexer.run(new ScriptLexer.Handler() {
+            @Override
+            public void comment(String comment) {
+                blackhole.consume(comment);
+            }
+
+            @Override
+            public void delimiter(String delimiter) {
+                blackhole.consume(delimiter);
+            }
+
+            @Override
+            public void statement(String sql) {
+                blackhole.consume(sql);
+                counters.statements++;
+            }
+        });
+    }
+
+}
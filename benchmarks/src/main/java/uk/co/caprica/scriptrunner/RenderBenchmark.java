@@ -0,0 +1,107 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.caprica.scriptrunner;
+
+import org.h2.tools.SimpleResultSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how quickly {@link DefaultScriptListener} renders result set rows, independently of any database.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RenderBenchmark {
+
+    private static final int ROWS = 10000;
+
+    private SimpleResultSet resultSet;
+
+    private DefaultScriptListener listener;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(ROWS);
+        resultSet = new SimpleResultSet();
+        resultSet.addColumn("ID", Types.INTEGER, 10, 0);
+        resultSet.addColumn("NAME", Types.VARCHAR, 40, 0);
+        resultSet.addColumn("AMOUNT", Types.DECIMAL, 12, 2);
+        resultSet.addColumn("NOTE", Types.VARCHAR, 400, 0);
+        for (int i = 0; i < ROWS; i++) {
+            String note = i % 10 == 0 ? null : "note " + i + (i % 7 == 0 ? "\nwith a line break" : "");
+            resultSet.addRow(i, "name " + i, BigDecimal.valueOf(random.nextInt(10000000), 2), note);
+        }
+        listener = new DefaultScriptListener(new PrintWriter(new NullWriter(), true));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void render() throws SQLException {
+        resultSet.beforeFirst();
+        listener.resultSet(resultSet.getMetaData());
+        while (resultSet.next()) {
+            listener.row(resultSet);
+        }
+        listener.rowCount(ROWS);
+        listener.noMoreRows();
+    }
+
+    /**
+     * Discards everything, so only the cost of rendering is measured.
+     */
+    static final class NullWriter extends Writer {
+
+        @Override
+        public void write(char[] buffer, int offset, int length) {
+        }
+
+        @Override
+        public void write(String text, int offset, int length) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+    }
+
+}
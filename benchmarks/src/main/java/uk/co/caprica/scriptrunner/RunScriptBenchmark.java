@@ -0,0 +1,110 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.caprica.scriptrunner;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures end-to-end script execution against an in-memory H2 database.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RunScriptBenchmark {
+
+    @Param({"SIMPLE", "COMMENTED", "WIDE"})
+    private String shape;
+
+    @Param({"1000"})
+    private int statements;
+
+    @Param({"0", "100"})
+    private int batchSize;
+
+    @Param({"0", "64"})
+    private int parseAhead;
+
+    private Connection connection;
+
+    private ScriptRunner scriptRunner;
+
+    private String script;
+
+    /**
+     * Reports statements per second alongside scripts per second.
+     */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Counters {
+
+        public long statements;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            statements = 0;
+        }
+
+    }
+
+    @Setup
+    public void setup() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:run-script-benchmark");
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(ScriptFixtures.TABLE);
+        }
+        scriptRunner = new ScriptRunner(connection);
+        scriptRunner.setStopOnError(true);
+        scriptRunner.setBatchSize(batchSize);
+        scriptRunner.setParseAhead(parseAhead);
+        script = ScriptFixtures.script(ScriptFixtures.Shape.valueOf(shape), statements, true);
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        connection.close();
+    }
+
+    @Benchmark
+    public void runScript(Counters counters) {
+        scriptRunner.runScript(new StringReader(script));
+        counters.statements += statements;
+    }
+
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.caprica.scriptrunner;
+
+import java.util.Random;
+
+/**
+ * Generated scripts used by the benchmarks.
+ * <p>
+ * Scripts are generated from a fixed seed, so the same shape and size always gives exactly the same script.
+ */
+final class ScriptFixtures {
+
+    /**
+     * Shapes of script.
+     */
+    enum Shape {
+
+        /**
+         * Short single-line insert statements.
+         */
+        SIMPLE,
+
+        /**
+         * Insert statements interleaved with line and block comments, with quoted delimiters and escaped quotes.
+         */
+        COMMENTED,
+
+        /**
+         * Long multi-row insert statements spread over many lines.
+         */
+        WIDE,
+
+        /**
+         * Procedural blocks using alternative delimiters and dollar-quoted bodies, these can only be parsed, not
+         * executed by the benchmark database.
+         */
+        PROCEDURAL
+    }
+
+    static final String TABLE = "CREATE TABLE IF NOT EXISTS bench (id INT, name VARCHAR(100), amount DECIMAL(12,2), note VARCHAR(400))";
+
+    private static final long SEED = 20190101L;
+
+    private static final int WIDE_ROWS = 20;
+
+    private ScriptFixtures() {
+    }
+
+    /**
+     * Generate a script.
+     *
+     * @param shape shape of the script
+     * @param statements number of statements in the script
+     * @param truncate <code>true</code> to empty the benchmark table at the start of the script
+     * @return script
+     */
+    static String script(Shape shape, int statements, boolean truncate) {
+        Random random = new Random(SEED);
+        StringBuilder script = new StringBuilder(statements * 128);
+        if (truncate) {
+            script.append("TRUNCATE TABLE bench;\n");
+        }
+        for (int i = 0; i < statements; i++) {
+            switch (shape) {
+                case SIMPLE:
+                    simple(script, random, i);
+                    break;
+                case COMMENTED:
+                    commented(script, random, i);
+                    break;
+                case WIDE:
+                    wide(script, random, i);
+                    break;
+                case PROCEDURAL:
+                    procedural(script, random, i);
+                    break;
+            }
+        }
+        return script.toString();
+    }
+
+    private static void simple(StringBuilder script, Random random, int i) {
+        script.append("INSERT INTO bench (id, name, amount) VALUES (").append(i).append(", 'name ").append(i).append("', ").append(amount(random)).append(");\n");
+    }
+
+    private static void commented(StringBuilder script, Random random, int i) {
+        script.append("-- Statement ").append(i).append(", generated for the benchmark\n");
+        if (i % 5 == 0) {
+            script.append("/* A block comment; with a delimiter\n   spanning more than one line */\n");
+        }
+        script.append("INSERT INTO bench (id, name, amount, note) VALUES (").append(i).append(", 'it''s name ").append(i).append("; not the end', ")
+            .append(amount(random)).append(", '").append(text(random, 20 + random.nextInt(80))).append("'); -- trailing comment\n");
+    }
+
+    private static void wide(StringBuilder script, Random random, int i) {
+        script.append("INSERT INTO bench\n    (id, name, amount, note)\nVALUES\n");
+        for (int row = 0; row < WIDE_ROWS; row++) {
+            int id = i * WIDE_ROWS + row;
+            script.append(row == 0 ? "    (" : ",\n    (").append(id).append(", 'name ").append(id).append("', ").append(amount(random)).append(", '").append(text(random, 100 + random.nextInt(200))).append("')");
+        }
+        script.append(";\n\n");
+    }
+
+    private static void procedural(StringBuilder script, Random random, int i) {
+        if (i % 2 == 0) {
+            script.append("-- @DELIMITER $$\n");
+            script.append("CREATE PROCEDURE proc_").append(i).append("()\nBEGIN\n");
+            for (int line = 0, lines = 3 + random.nextInt(8); line < lines; line++) {
+                script.append("    UPDATE bench SET amount = amount + ").append(amount(random)).append(" WHERE id = ").append(line).append(";\n");
+            }
+            script.append("END$$\n-- @DELIMITER ;\n");
+        } else {
+            script.append("CREATE FUNCTION func_").append(i).append("() RETURNS void AS $body$\nBEGIN\n");
+            for (int line = 0, lines = 3 + random.nextInt(8); line < lines; line++) {
+                script.append("    PERFORM '").append(text(random, 10 + random.nextInt(30))).append("';\n");
+            }
+            script.append("END;\n$body$ LANGUAGE plpgsql;\n");
+        }
+    }
+
+    private static String amount(Random random) {
+        return random.nextInt(100000) + "." + (10 + random.nextInt(90));
+    }
+
+    private static String text(Random random, int length) {
+        char[] text = new char[length];
+        for (int i = 0; i < length; i++) {
+            text[i] = random.nextInt(6) == 0 ? ' ' : (char) ('a' + random.nextInt(26));
+        }
+        return new String(text);
+    }
+
+}
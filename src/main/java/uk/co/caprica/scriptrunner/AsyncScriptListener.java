@@ -0,0 +1,600 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.caprica.scriptrunner;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A listener that delivers events to another listener asynchronously, on a dedicated thread.
+ * <p>
+ * Events are copied into a preallocated ring buffer and delivered in order, so a slow listener does not hold up the
+ * execution of the script. The values of each row are captured in a snapshot, since the cursor of the result set will
+ * have moved on by the time the row is delivered.
+ * <p>
+ * When the buffer is full, the overflow policy determines whether row events wait for space, are dropped, or are
+ * sampled. All other events always wait for space, so the listener always sees a consistent sequence of events.
+ * <p>
+ * The end of script event waits until all events have been delivered, so the delegate listener has seen every event by
+ * the time the script runner returns. If the delegate listener failed on any event, the first failure is then thrown
+ * from the end of script event, or failing that from {@link #close()}.
+ * <p>
+ * The delivery thread is started when the first event is buffered.
+ * <p>
+ * Events that the delegate listener does not consume are discarded without being buffered.
+ * <p>
+ * Events must not be sent to this listener from more than one thread at a time.
+ */
+public class AsyncScriptListener implements ScriptListener, AutoCloseable {
+
+    /**
+     * What to do with a row event when the buffer is full.
+     */
+    public enum OverflowPolicy {
+
+        /**
+         * Wait for space in the buffer.
+         */
+        BLOCK,
+
+        /**
+         * Discard the row.
+         */
+        DROP,
+
+        /**
+         * Wait for space in the buffer for one in every "sample rate" rows, discard the others.
+         */
+        SAMPLE
+    }
+
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private static final int DEFAULT_SAMPLE_RATE = 10;
+
+    private final ScriptListener listener;
+
+    private final OverflowPolicy overflowPolicy;
+
+    /**
+     * Events consumed by the delegate listener.
+     */
+    private final Set<ScriptEvent> delivered;
+
+    private final Set<ScriptEvent> interests;
+
+    private final Slot[] slots;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition notEmpty = lock.newCondition();
+
+    private final Condition notFull = lock.newCondition();
+
+    private final Condition drained = lock.newCondition();
+
+    /**
+     * Delivery thread, started when the first event is buffered.
+     */
+    private Thread consumer;
+
+    /**
+     * First failure of the delegate listener that has not yet been thrown.
+     */
+    private Throwable failure;
+
+    /**
+     * Sequence number of the next event to deliver.
+     */
+    private long head;
+
+    /**
+     * Sequence number of the next event to publish.
+     */
+    private long tail;
+
+    private boolean closed;
+
+    private int sampleRate = DEFAULT_SAMPLE_RATE;
+
+    private int previewLength;
+
+    private long overflowCount;
+
+    private long droppedRows;
+
+    /**
+     * Meta data for the current result set, shared by the row snapshots.
+     */
+    private MetaDataSnapshot metaData;
+
+    public AsyncScriptListener(ScriptListener listener) {
+        this(listener, DEFAULT_CAPACITY, OverflowPolicy.BLOCK);
+    }
+
+    public AsyncScriptListener(ScriptListener listener, int capacity, OverflowPolicy overflowPolicy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1");
+        }
+        this.listener = listener;
+        this.overflowPolicy = overflowPolicy;
+        this.delivered = EnumSet.noneOf(ScriptEvent.class);
+        this.delivered.addAll(listener.interests());
+        Set<ScriptEvent> interests = EnumSet.copyOf(delivered);
+        // The end of script event waits for delivery, and rows can not be captured without the meta data
+        interests.add(ScriptEvent.END_SCRIPT);
+        if (interests.contains(ScriptEvent.ROW)) {
+            interests.add(ScriptEvent.RESULT_SET);
+        }
+        this.interests = Collections.unmodifiableSet(interests);
+        this.slots = new Slot[capacity];
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new Slot();
+        }
+    }
+
+    /**
+     * Set the sample rate used by the {@link OverflowPolicy#SAMPLE} policy.
+     *
+     * @param sampleRate deliver one in every this many rows while the buffer is full
+     */
+    public void setSampleRate(int sampleRate) {
+        this.sampleRate = Math.max(1, sampleRate);
+    }
+
+    /**
+     * Set the maximum length of a large value to capture with each row.
+     * <p>
+     * Values of large object, binary, and very long character columns are read through a stream and only their start is
+     * captured, as a string of up to this many characters or an array of up to this many bytes, so that the buffered rows
+     * do not hold complete large values. The rest of the value is not available to the delegate listener.
+     * <p>
+     * A value of zero, the default, captures complete values.
+     *
+     * @param previewLength maximum number of characters or bytes to capture
+     */
+    public void setPreviewLength(int previewLength) {
+        this.previewLength = Math.max(0, previewLength);
+    }
+
+    /**
+     * Get the number of row events that have been discarded because the buffer was full.
+     *
+     * @return number of discarded rows
+     */
+    public long getDroppedRows() {
+        lock.lock();
+        try {
+            return droppedRows;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Set<ScriptEvent> interests() {
+        return interests;
+    }
+
+    @Override
+    public void beginScript() {
+        publish(claim(ScriptEvent.BEGIN_SCRIPT));
+    }
+
+    @Override
+    public void beginFile(String name) {
+        Slot slot = claim(ScriptEvent.BEGIN_FILE);
+        if (slot != null) {
+            slot.text = name;
+            publish(slot);
+        }
+    }
+
+    @Override
+    public void comment(String comment) {
+        Slot slot = claim(ScriptEvent.COMMENT);
+        if (slot != null) {
+            slot.text = comment;
+            publish(slot);
+        }
+    }
+
+    @Override
+    public void sql(String sql) {
+        Slot slot = claim(ScriptEvent.SQL);
+        if (slot != null) {
+            slot.text = sql;
+            publish(slot);
+        }
+    }
+
+    @Override
+    public void plan(QueryPlan plan) {
+        Slot slot = claim(ScriptEvent.PLAN);
+        if (slot != null) {
+            slot.plan = plan;
+            publish(slot);
+        }
+    }
+
+    @Override
+    public void success() {
+        publish(claim(ScriptEvent.SUCCESS));
+    }
+
+    @Override
+    public void error(String error) {
+        Slot slot = claim(ScriptEvent.ERROR);
+        if (slot != null) {
+            slot.text = error;
+            publish(slot);
+        }
+    }
+
+    @Override
+    public void cancelled(String message) {
+        Slot slot = claim(ScriptEvent.CANCELLED);
+        if (slot != null) {
+            slot.text = message;
+            publish(slot);
+        }
+    }
+
+    @Override
+    public void retry(String message, int attempt, long delay) {
+        Slot slot = claim(ScriptEvent.RETRY);
+        if (slot != null) {
+            slot.text = message;
+            slot.counts[0] = attempt;
+            slot.duration = delay;
+            publish(slot);
+        }
+    }
+
+    @Override
+    public void updateCount(int updateCount) {
+        Slot slot = claim(ScriptEvent.UPDATE_COUNT);
+        if (slot != null) {
+            slot.counts[0] = updateCount;
+            publish(slot);
+        }
+    }
+
+    @Override
+    public void resultSet(ResultSetMetaData resultSetMetaData) {
+        try {
+            metaData = new MetaDataSnapshot(resultSetMetaData);
+        } catch (SQLException e) {
+            throw new RuntimeException("Could not capture result set meta data. Cause: " + e, e);
+        }
+        Slot slot = claim(ScriptEvent.RESULT_SET);
+        if (slot != null) {
+            slot.metaData = metaData;
+            publish(slot);
+        }
+    }
+
+    @Override
+    public void row(ResultSet resultSet) {
+        Slot slot = claim(ScriptEvent.ROW);
+        if (slot != null) {
+            try {
+                slot.row.capture(resultSet, metaData, previewLength);
+            } catch (SQLException e) {
+                // The slot is not published, so the next claim reuses it
+                slot.clear();
+                throw new RuntimeException("Could not capture row. Cause: " + e, e);
+            }
+            publish(slot);
+        }
+    }
+
+    @Override
+    public void rowCount(long rowCount) {
+        Slot slot = claim(ScriptEvent.ROW_COUNT);
+        if (slot != null) {
+            slot.rowCount = rowCount;
+            publish(slot);
+        }
+    }
+
+    @Override
+    public void noMoreRows() {
+        publish(claim(ScriptEvent.NO_MORE_ROWS));
+    }
+
+    @Override
+    public void commit() {
+        publish(claim(ScriptEvent.COMMIT));
+    }
+
+    @Override
+    public void endFile(String name, int updateCount, int successCount, int warningCount, int errorCount, long duration) {
+        Slot slot = claim(ScriptEvent.END_FILE);
+        if (slot != null) {
+            slot.text = name;
+            slot.counts[0] = updateCount;
+            slot.counts[1] = successCount;
+            slot.counts[2] = warningCount;
+            slot.counts[3] = errorCount;
+            slot.duration = duration;
+            publish(slot);
+        }
+    }
+
+    @Override
+    public void endScript(int updateCount, int successCount, int warningCount, int errorCount, long duration) {
+        Slot slot = claim(ScriptEvent.END_SCRIPT);
+        if (slot != null) {
+            slot.counts[0] = updateCount;
+            slot.counts[1] = successCount;
+            slot.counts[2] = warningCount;
+            slot.counts[3] = errorCount;
+            slot.duration = duration;
+            publish(slot);
+        }
+        awaitDrained();
+        throwFailure();
+    }
+
+    /**
+     * Stop the delivery thread, after delivering any events already in the buffer.
+     *
+     * @throws RuntimeException if the delegate listener failed and the failure has not already been thrown
+     */
+    @Override
+    public void close() {
+        Thread consumer;
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            consumer = this.consumer;
+        } finally {
+            lock.unlock();
+        }
+        if (consumer != null) {
+            try {
+                consumer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        throwFailure();
+    }
+
+    /**
+     * Throw the first failure of the delegate listener, if there was one, on the calling thread.
+     */
+    private void throwFailure() {
+        Throwable failure;
+        lock.lock();
+        try {
+            failure = this.failure;
+            this.failure = null;
+        } finally {
+            lock.unlock();
+        }
+        if (failure != null) {
+            throw new RuntimeException("Listener failed. Cause: " + failure, failure);
+        }
+    }
+
+    /**
+     * Claim the next free slot in the buffer.
+     *
+     * @param type type of event
+     * @return slot, or <code>null</code> if the event was discarded
+     */
+    private Slot claim(ScriptEvent type) {
+        if (!delivered.contains(type)) {
+            return null;
+        }
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Listener is closed");
+            }
+            if (consumer == null) {
+                consumer = new Thread(this::deliver, "script-runner-async-listener");
+                consumer.setDaemon(true);
+                consumer.start();
+            }
+            while (tail - head == slots.length) {
+                if (type == ScriptEvent.ROW && discardOverflow()) {
+                    droppedRows++;
+                    return null;
+                }
+                notFull.awaitUninterruptibly();
+            }
+            Slot slot = slots[(int) (tail % slots.length)];
+            slot.type = type;
+            return slot;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean discardOverflow() {
+        switch (overflowPolicy) {
+            case DROP:
+                return true;
+            case SAMPLE:
+                return overflowCount++ % sampleRate != 0;
+            default:
+                return false;
+        }
+    }
+
+    private void publish(Slot slot) {
+        if (slot == null) {
+            return;
+        }
+        lock.lock();
+        try {
+            tail++;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void awaitDrained() {
+        lock.lock();
+        try {
+            while (head != tail) {
+                drained.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void deliver() {
+        for (;;) {
+            Slot slot;
+            lock.lock();
+            try {
+                while (head == tail) {
+                    if (closed) {
+                        return;
+                    }
+                    notEmpty.awaitUninterruptibly();
+                }
+                slot = slots[(int) (head % slots.length)];
+            } finally {
+                lock.unlock();
+            }
+            Throwable failed = null;
+            try {
+                dispatch(slot);
+            } catch (RuntimeException | Error e) {
+                // Keep delivering, so that the publishing thread never waits forever
+                failed = e;
+            }
+            slot.clear();
+            lock.lock();
+            try {
+                if (failed != null && failure == null) {
+                    failure = failed;
+                }
+                head++;
+                notFull.signal();
+                if (head == tail) {
+                    drained.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void dispatch(Slot slot) {
+        switch (slot.type) {
+            case BEGIN_SCRIPT:
+                listener.beginScript();
+                break;
+            case BEGIN_FILE:
+                listener.beginFile(slot.text);
+                break;
+            case COMMENT:
+                listener.comment(slot.text);
+                break;
+            case SQL:
+                listener.sql(slot.text);
+                break;
+            case PLAN:
+                listener.plan(slot.plan);
+                break;
+            case SUCCESS:
+                listener.success();
+                break;
+            case ERROR:
+                listener.error(slot.text);
+                break;
+            case CANCELLED:
+                listener.cancelled(slot.text);
+                break;
+            case RETRY:
+                listener.retry(slot.text, slot.counts[0], slot.duration);
+                break;
+            case UPDATE_COUNT:
+                listener.updateCount(slot.counts[0]);
+                break;
+            case RESULT_SET:
+                listener.resultSet(slot.metaData.metaData());
+                break;
+            case ROW:
+                listener.row(slot.row.resultSet());
+                break;
+            case ROW_COUNT:
+                listener.rowCount(slot.rowCount);
+                break;
+            case NO_MORE_ROWS:
+                listener.noMoreRows();
+                break;
+            case COMMIT:
+                listener.commit();
+                break;
+            case END_FILE:
+                listener.endFile(slot.text, slot.counts[0], slot.counts[1], slot.counts[2], slot.counts[3], slot.duration);
+                break;
+            case END_SCRIPT:
+                listener.endScript(slot.counts[0], slot.counts[1], slot.counts[2], slot.counts[3], slot.duration);
+                break;
+        }
+    }
+
+    /**
+     * A reusable entry in the ring buffer.
+     */
+    private static final class Slot {
+
+        private final int[] counts = new int[4];
+
+        private final RowSnapshot row = new RowSnapshot();
+
+        private ScriptEvent type;
+
+        private String text;
+
+        private long duration;
+
+        private long rowCount;
+
+        private MetaDataSnapshot metaData;
+
+        private QueryPlan plan;
+
+        private void clear() {
+            text = null;
+            metaData = null;
+            plan = null;
+            if (type == ScriptEvent.ROW) {
+                row.clear();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,662 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package uk.co.caprica.scriptrunner;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The values of one column of a captured result set, stored by type in primitive arrays.
+ * <p>
+ * Nulls are recorded in a bitmap, and the value stored for a null is zero or empty.
+ */
+abstract class CapturedColumn {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * SQL type of the column, from {@link Types}.
+     */
+    protected final int type;
+
+    private long[] nulls = new long[1];
+
+    protected int size;
+
+    CapturedColumn(int type) {
+        this.type = type;
+    }
+
+    /**
+     * Create a column suited to the type of a result set column.
+     *
+     * @param metaData result set meta data
+     * @param column column index, starting from one
+     * @return column
+     * @throws SQLException if an error occurs
+     */
+    static CapturedColumn of(ResultSetMetaData metaData, int column) throws SQLException {
+        int type = metaData.getColumnType(column);
+        switch (type) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+                return new LongColumn(type);
+            case Types.BIGINT:
+                // An unsigned BIGINT may not fit in a long
+                return metaData.isSigned(column) ? new LongColumn(type) : new ObjectColumn(type);
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+                int precision = metaData.getPrecision(column);
+                return metaData.getScale(column) == 0 && precision > 0 && precision <= 18 ? new LongColumn(type) : new ObjectColumn(type);
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return new DoubleColumn(type);
+            case Types.BOOLEAN:
+            case Types.BIT:
+                return new BooleanColumn(type);
+            case Types.CHAR:
+            case Types.VARCHAR:
+            case Types.LONGVARCHAR:
+            case Types.NCHAR:
+            case Types.NVARCHAR:
+            case Types.LONGNVARCHAR:
+            case Types.CLOB:
+            case Types.NCLOB:
+                return new StringColumn(type);
+            case Types.DATE:
+                return new DateColumn(type);
+            case Types.TIME:
+                return new TimeColumn(type);
+            case Types.TIMESTAMP:
+                return new TimestampColumn(type);
+            default:
+                return new ObjectColumn(type);
+        }
+    }
+
+    /**
+     * Append the value of a column in the current row of a result set.
+     *
+     * @param resultSet result set
+     * @param column column index, starting from one
+     * @throws SQLException if an error occurs
+     */
+    final void add(ResultSet resultSet, int column) throws SQLException {
+        int row = size;
+        ensureCapacity(row + 1);
+        if (!read(resultSet, column, row)) {
+            int word = row >>> 6;
+            if (word >= nulls.length) {
+                nulls = Arrays.copyOf(nulls, Math.max(word + 1, nulls.length * 2));
+            }
+            nulls[word] |= 1L << row;
+        }
+        size = row + 1;
+    }
+
+    final boolean isNull(int row) {
+        int word = row >>> 6;
+        return word < nulls.length && (nulls[word] & 1L << row) != 0;
+    }
+
+    /**
+     * Release the spare capacity, once all of the values have been added.
+     */
+    final void trim() {
+        nulls = Arrays.copyOf(nulls, (size + 63) >>> 6);
+        trimToSize();
+    }
+
+    /**
+     * Read and store the value of a column.
+     *
+     * @param resultSet result set
+     * @param column column index, starting from one
+     * @param row row to store the value in, there is always capacity for it
+     * @return <code>true</code> if the value is not null
+     * @throws SQLException if an error occurs
+     */
+    abstract boolean read(ResultSet resultSet, int column, int row) throws SQLException;
+
+    abstract void ensureCapacity(int capacity);
+
+    abstract void trimToSize();
+
+    abstract Object object(int row);
+
+    long longValue(int row) {
+        Object value = object(row);
+        return value != null ? ((Number) value).longValue() : 0;
+    }
+
+    double doubleValue(int row) {
+        Object value = object(row);
+        return value != null ? ((Number) value).doubleValue() : 0;
+    }
+
+    boolean booleanValue(int row) {
+        Object value = object(row);
+        return value instanceof Boolean ? (Boolean) value : value != null && ((Number) value).intValue() != 0;
+    }
+
+    String string(int row) {
+        Object value = object(row);
+        return value != null ? value.toString() : null;
+    }
+
+    static int newCapacity(int length, int capacity) {
+        return Math.max(capacity, Math.max(INITIAL_CAPACITY, length + (length >> 1)));
+    }
+
+    /**
+     * Integer values, including decimals with no fractional part that fit in a long.
+     */
+    static final class LongColumn extends CapturedColumn {
+
+        private long[] values = new long[0];
+
+        LongColumn(int type) {
+            super(type);
+        }
+
+        @Override
+        boolean read(ResultSet resultSet, int column, int row) throws SQLException {
+            values[row] = resultSet.getLong(column);
+            return values[row] != 0 || !resultSet.wasNull();
+        }
+
+        @Override
+        void ensureCapacity(int capacity) {
+            if (values.length < capacity) {
+                values = Arrays.copyOf(values, newCapacity(values.length, capacity));
+            }
+        }
+
+        @Override
+        void trimToSize() {
+            values = Arrays.copyOf(values, size);
+        }
+
+        @Override
+        Object object(int row) {
+            if (isNull(row)) {
+                return null;
+            }
+            switch (type) {
+                case Types.BIGINT:
+                    return values[row];
+                case Types.NUMERIC:
+                case Types.DECIMAL:
+                    return BigDecimal.valueOf(values[row]);
+                default:
+                    return (int) values[row];
+            }
+        }
+
+        @Override
+        long longValue(int row) {
+            return values[row];
+        }
+
+        @Override
+        double doubleValue(int row) {
+            return values[row];
+        }
+
+        @Override
+        boolean booleanValue(int row) {
+            return values[row] != 0;
+        }
+
+        @Override
+        String string(int row) {
+            return isNull(row) ? null : Long.toString(values[row]);
+        }
+    }
+
+    static final class DoubleColumn extends CapturedColumn {
+
+        private double[] values = new double[0];
+
+        DoubleColumn(int type) {
+            super(type);
+        }
+
+        @Override
+        boolean read(ResultSet resultSet, int column, int row) throws SQLException {
+            values[row] = resultSet.getDouble(column);
+            return values[row] != 0 || !resultSet.wasNull();
+        }
+
+        @Override
+        void ensureCapacity(int capacity) {
+            if (values.length < capacity) {
+                values = Arrays.copyOf(values, newCapacity(values.length, capacity));
+            }
+        }
+
+        @Override
+        void trimToSize() {
+            values = Arrays.copyOf(values, size);
+        }
+
+        @Override
+        Object object(int row) {
+            if (isNull(row)) {
+                return null;
+            }
+            return type == Types.REAL ? (Object) (float) values[row] : (Object) values[row];
+        }
+
+        @Override
+        long longValue(int row) {
+            return (long) values[row];
+        }
+
+        @Override
+        double doubleValue(int row) {
+            return values[row];
+        }
+
+        @Override
+        boolean booleanValue(int row) {
+            return values[row] != 0;
+        }
+    }
+
+    static final class BooleanColumn extends CapturedColumn {
+
+        private long[] bits = new long[0];
+
+        BooleanColumn(int type) {
+            super(type);
+        }
+
+        @Override
+        boolean read(ResultSet resultSet, int column, int row) throws SQLException {
+            boolean value = resultSet.getBoolean(column);
+            if (value) {
+                bits[row >>> 6] |= 1L << row;
+                return true;
+            }
+            return !resultSet.wasNull();
+        }
+
+        @Override
+        void ensureCapacity(int capacity) {
+            int words = (capacity + 63) >>> 6;
+            if (bits.length < words) {
+                bits = Arrays.copyOf(bits, newCapacity(bits.length, words));
+            }
+        }
+
+        @Override
+        void trimToSize() {
+            bits = Arrays.copyOf(bits, (size + 63) >>> 6);
+        }
+
+        @Override
+        Object object(int row) {
+            return isNull(row) ? null : booleanValue(row);
+        }
+
+        @Override
+        long longValue(int row) {
+            return booleanValue(row) ? 1 : 0;
+        }
+
+        @Override
+        double doubleValue(int row) {
+            return longValue(row);
+        }
+
+        @Override
+        boolean booleanValue(int row) {
+            return (bits[row >>> 6] & 1L << row) != 0;
+        }
+    }
+
+    /**
+     * Character values, encoded against a dictionary of the distinct values in the column.
+     * <p>
+     * Columns with more distinct values than the dictionary allows, which gain little from it, switch to storing each
+     * value as UTF-8.
+     */
+    static final class StringColumn extends CapturedColumn {
+
+        private static final int MAX_DICTIONARY_SIZE = 1 << 16;
+
+        private Map<String, Integer> dictionary = new HashMap<>();
+
+        private String[] entries = new String[0];
+
+        private int[] codes = new int[0];
+
+        /**
+         * UTF-8 text of every value, once the dictionary is full.
+         */
+        private byte[] text;
+
+        /**
+         * Offset of the text of each value, and of the end of the text.
+         */
+        private int[] offsets;
+
+        StringColumn(int type) {
+            super(type);
+        }
+
+        @Override
+        boolean read(ResultSet resultSet, int column, int row) throws SQLException {
+            String value = resultSet.getString(column);
+            if (text == null) {
+                Integer code = value != null ? dictionary.get(value) : Integer.valueOf(-1);
+                if (code == null && dictionary.size() < MAX_DICTIONARY_SIZE) {
+                    code = dictionary.size();
+                    if (code == entries.length) {
+                        entries = Arrays.copyOf(entries, newCapacity(entries.length, code + 1));
+                    }
+                    entries[code] = value;
+                    dictionary.put(value, code);
+                }
+                if (code != null) {
+                    codes[row] = code;
+                    return value != null;
+                }
+                switchToText(row);
+            }
+            byte[] bytes = value != null ? value.getBytes(StandardCharsets.UTF_8) : new byte[0];
+            int start = offsets[row];
+            if (text.length - start < bytes.length) {
+                if (Integer.MAX_VALUE - start < bytes.length) {
+                    throw new IllegalStateException("Too much text to capture");
+                }
+                text = Arrays.copyOf(text, (int) Math.min(Integer.MAX_VALUE - 8, Math.max((long) start + bytes.length, text.length * 2L)));
+            }
+            System.arraycopy(bytes, 0, text, start, bytes.length);
+            offsets[row + 1] = start + bytes.length;
+            return value != null;
+        }
+
+        private void switchToText(int rows) {
+            int[] offsets = new int[newCapacity(0, codes.length + 1)];
+            byte[][] encoded = new byte[entries.length][];
+            long length = 0;
+            for (int row = 0; row < rows; row++) {
+                int code = codes[row];
+                if (code >= 0) {
+                    if (encoded[code] == null) {
+                        encoded[code] = entries[code].getBytes(StandardCharsets.UTF_8);
+                    }
+                    length += encoded[code].length;
+                }
+            }
+            if (length > Integer.MAX_VALUE - 8) {
+                throw new IllegalStateException("Too much text to capture");
+            }
+            byte[] text = new byte[(int) Math.max(length * 2, INITIAL_CAPACITY)];
+            int position = 0;
+            for (int row = 0; row < rows; row++) {
+                offsets[row] = position;
+                int code = codes[row];
+                if (code >= 0) {
+                    System.arraycopy(encoded[code], 0, text, position, encoded[code].length);
+                    position += encoded[code].length;
+                }
+            }
+            offsets[rows] = position;
+            this.text = text;
+            this.offsets = offsets;
+            dictionary = null;
+            entries = null;
+            codes = null;
+        }
+
+        @Override
+        void ensureCapacity(int capacity) {
+            if (text == null && codes.length < capacity) {
+                codes = Arrays.copyOf(codes, newCapacity(codes.length, capacity));
+            } else if (text != null && offsets.length < capacity + 1) {
+                offsets = Arrays.copyOf(offsets, newCapacity(offsets.length, capacity + 1));
+            }
+        }
+
+        @Override
+        void trimToSize() {
+            if (text == null) {
+                codes = Arrays.copyOf(codes, size);
+                entries = Arrays.copyOf(entries, dictionary.size());
+                dictionary = null;
+            } else {
+                offsets = Arrays.copyOf(offsets, size + 1);
+                text = Arrays.copyOf(text, offsets[size]);
+            }
+        }
+
+        @Override
+        Object object(int row) {
+            return string(row);
+        }
+
+        @Override
+        String string(int row) {
+            if (text == null) {
+                int code = codes[row];
+                return code >= 0 ? entries[code] : null;
+            }
+            return isNull(row) ? null : new String(text, offsets[row], offsets[row + 1] - offsets[row], StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Date values, as days since the epoch.
+     */
+    static final class DateColumn extends CapturedColumn {
+
+        private int[] days = new int[0];
+
+        DateColumn(int type) {
+            super(type);
+        }
+
+        @Override
+        boolean read(ResultSet resultSet, int column, int row) throws SQLException {
+            Object value = resultSet.getObject(column);
+            LocalDate date;
+            if (value == null) {
+                return false;
+            } else if (value instanceof Date) {
+                date = ((Date) value).toLocalDate();
+            } else if (value instanceof LocalDate) {
+                date = (LocalDate) value;
+            } else {
+                date = resultSet.getDate(column).toLocalDate();
+            }
+            days[row] = (int) date.toEpochDay();
+            return true;
+        }
+
+        @Override
+        void ensureCapacity(int capacity) {
+            if (days.length < capacity) {
+                days = Arrays.copyOf(days, newCapacity(days.length, capacity));
+            }
+        }
+
+        @Override
+        void trimToSize() {
+            days = Arrays.copyOf(days, size);
+        }
+
+        @Override
+        Object object(int row) {
+            return isNull(row) ? null : Date.valueOf(LocalDate.ofEpochDay(days[row]));
+        }
+    }
+
+    /**
+     * Time values, as nanoseconds since midnight.
+     */
+    static final class TimeColumn extends CapturedColumn {
+
+        private long[] nanos = new long[0];
+
+        TimeColumn(int type) {
+            super(type);
+        }
+
+        @Override
+        boolean read(ResultSet resultSet, int column, int row) throws SQLException {
+            Object value = resultSet.getObject(column);
+            LocalTime time;
+            if (value == null) {
+                return false;
+            } else if (value instanceof Time) {
+                time = ((Time) value).toLocalTime();
+            } else if (value instanceof LocalTime) {
+                time = (LocalTime) value;
+            } else {
+                time = resultSet.getTime(column).toLocalTime();
+            }
+            nanos[row] = time.toNanoOfDay();
+            return true;
+        }
+
+        @Override
+        void ensureCapacity(int capacity) {
+            if (nanos.length < capacity) {
+                nanos = Arrays.copyOf(nanos, newCapacity(nanos.length, capacity));
+            }
+        }
+
+        @Override
+        void trimToSize() {
+            nanos = Arrays.copyOf(nanos, size);
+        }
+
+        @Override
+        Object object(int row) {
+            return isNull(row) ? null : Time.valueOf(LocalTime.ofNanoOfDay(nanos[row]));
+        }
+    }
+
+    /**
+     * Timestamp values, as the seconds since the epoch and the nanoseconds of the local date and time, so that no time
+     * zone conversion is involved.
+     */
+    static final class TimestampColumn extends CapturedColumn {
+
+        private long[] seconds = new long[0];
+
+        private int[] nanos = new int[0];
+
+        TimestampColumn(int type) {
+            super(type);
+        }
+
+        @Override
+        boolean read(ResultSet resultSet, int column, int row) throws SQLException {
+            Object value = resultSet.getObject(column);
+            LocalDateTime timestamp;
+            if (value == null) {
+                return false;
+            } else if (value instanceof Timestamp) {
+                timestamp = ((Timestamp) value).toLocalDateTime();
+            } else if (value instanceof LocalDateTime) {
+                timestamp = (LocalDateTime) value;
+            } else {
+                timestamp = resultSet.getTimestamp(column).toLocalDateTime();
+            }
+            seconds[row] = timestamp.toEpochSecond(ZoneOffset.UTC);
+            nanos[row] = timestamp.getNano();
+            return true;
+        }
+
+        @Override
+        void ensureCapacity(int capacity) {
+            if (seconds.length < capacity) {
+                int length = newCapacity(seconds.length, capacity);
+                seconds = Arrays.copyOf(seconds, length);
+                nanos = Arrays.copyOf(nanos, length);
+            }
+        }
+
+        @Override
+        void trimToSize() {
+            seconds = Arrays.copyOf(seconds, size);
+            nanos = Arrays.copyOf(nanos, size);
+        }
+
+        @Override
+        Object object(int row) {
+            return isNull(row) ? null : Timestamp.valueOf(LocalDateTime.ofEpochSecond(seconds[row], nanos[row], ZoneOffset.UTC));
+        }
+    }
+
+    /**
+     * Values of any other type, as returned by the driver.
+     */
+    static final class ObjectColumn extends CapturedColumn {
+
+        private Object[] values = new Object[0];
+
+        ObjectColumn(int type) {
+            super(type);
+        }
+
+        @Override
+        boolean read(ResultSet resultSet, int column, int row) throws SQLException {
+            values[row] = resultSet.getObject(column);
+            return values[row] != null;
+        }
+
+        @Override
+        void ensureCapacity(int capacity) {
+            if (values.length < capacity) {
+                values = Arrays.copyOf(values, newCapacity(values.length, capacity));
+            }
+        }
+
+        @Override
+        void trimToSize() {
+            values = Arrays.copyOf(values, size);
+        }
+
+        @Override
+        Object object(int row) {
+            return values[row];
+        }
+    }
+
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package uk.co.caprica.scriptrunner;
+
+/**
+ * A result set captured in memory by a {@link ResultCaptureListener}.
+ * <p>
+ * The values are held column by column: integer, floating point, boolean, date and time columns in primitive arrays,
+ * character columns against a dictionary of their distinct values, and nulls in bitmaps. Only columns of other types,
+ * such as large decimals and binary data, hold the objects returned by the driver.
+ * <p>
+ * As with JDBC, columns are numbered from one. Rows are numbered from zero. The getters follow the JDBC conventions for
+ * nulls, so a null numeric value is returned as zero and {@link #isNull(int, int)} distinguishes it.
+ */
+public final class CapturedResult {
+
+    private final String sql;
+
+    private final String[] labels;
+
+    private final CapturedColumn[] columns;
+
+    private final int rowCount;
+
+    CapturedResult(String sql, String[] labels, CapturedColumn[] columns, int rowCount) {
+        this.sql = sql;
+        this.labels = labels;
+        this.columns = columns;
+        this.rowCount = rowCount;
+    }
+
+    /**
+     * Get the statement that produced the result set.
+     *
+     * @return statement
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    public String getColumnLabel(int column) {
+        return labels[columnIndex(column)];
+    }
+
+    /**
+     * Get the SQL type of a column.
+     *
+     * @param column column number, starting from one
+     * @return type, from {@link java.sql.Types}
+     */
+    public int getColumnType(int column) {
+        return columns[columnIndex(column)].type;
+    }
+
+    /**
+     * Find the column with the given label, ignoring case.
+     *
+     * @param label column label
+     * @return column number, starting from one
+     * @throws IllegalArgumentException if there is no such column
+     */
+    public int findColumn(String label) {
+        for (int i = 0; i < labels.length; i++) {
+            if (labels[i] != null && labels[i].equalsIgnoreCase(label)) {
+                return i + 1;
+            }
+        }
+        throw new IllegalArgumentException("No such column: " + label);
+    }
+
+    public boolean isNull(int row, int column) {
+        return column(row, column).isNull(row);
+    }
+
+    public long getLong(int row, int column) {
+        return column(row, column).longValue(row);
+    }
+
+    public int getInt(int row, int column) {
+        return (int) getLong(row, column);
+    }
+
+    public double getDouble(int row, int column) {
+        return column(row, column).doubleValue(row);
+    }
+
+    public boolean getBoolean(int row, int column) {
+        return column(row, column).booleanValue(row);
+    }
+
+    public String getString(int row, int column) {
+        return column(row, column).string(row);
+    }
+
+    /**
+     * Get a value as an object.
+     * <p>
+     * Values are returned as the types JDBC uses by default, for example {@link Integer} for an integer column and
+     * {@link java.sql.Timestamp} for a timestamp column, whatever type the driver itself returned.
+     *
+     * @param row row number, starting from zero
+     * @param column column number, starting from one
+     * @return value, may be <code>null</code>
+     */
+    public Object getObject(int row, int column) {
+        return column(row, column).object(row);
+    }
+
+    private CapturedColumn column(int row, int column) {
+        if (row < 0 || row >= rowCount) {
+            throw new IndexOutOfBoundsException("Invalid row: " + row);
+        }
+        return columns[columnIndex(column)];
+    }
+
+    private int columnIndex(int column) {
+        if (column < 1 || column > columns.length) {
+            throw new IndexOutOfBoundsException("Invalid column: " + column);
+        }
+        return column - 1;
+    }
+
+    @Override
+    public String toString() {
+        return "CapturedResult[sql=" + sql + ",columns=" + columns.length + ",rows=" + rowCount + "]";
+    }
+
+}
@@ -0,0 +1,32 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.caprica.scriptrunner;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Specification for a component that supplies a connection to a database.
+ * <p>
+ * The connection is closed once the script has been executed.
+ */
+@FunctionalInterface
+public interface ConnectionSource {
+
+    Connection getConnection() throws SQLException;
+
+}
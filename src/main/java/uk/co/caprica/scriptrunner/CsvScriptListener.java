@@ -0,0 +1,133 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package uk.co.caprica.scriptrunner;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * A listener that exports result sets to a CSV file.
+ * <p>
+ * The output follows RFC 4180: each result set starts with a header row of column labels, rows end with CR LF, and a
+ * value is quoted only if it contains the separator, a quote or a line break. Null values are written as empty values.
+ */
+public class CsvScriptListener extends ExportScriptListener {
+
+    private char separator = ',';
+
+    private boolean header = true;
+
+    /**
+     * Create a listener.
+     *
+     * @param path path to the file to write
+     */
+    public CsvScriptListener(Path path) {
+        super(path);
+    }
+
+    /**
+     * Set the character that separates values, for example a tab rather than the default comma.
+     *
+     * @param separator separator character
+     */
+    public void setSeparator(char separator) {
+        this.separator = separator;
+    }
+
+    /**
+     * Set whether or not to write a header row of column labels at the start of each result set.
+     *
+     * @param header <code>true</code> to write a header row
+     */
+    public void setHeader(boolean header) {
+        this.header = header;
+    }
+
+    @Override
+    void startResultSet(ExportWriter out, String[] labels) throws IOException {
+        if (header) {
+            for (int i = 0; i < labels.length; i++) {
+                startValue(out, i);
+                writeText(out, labels[i] != null ? labels[i] : "");
+            }
+            endRow(out);
+        }
+    }
+
+    @Override
+    void startRow(ExportWriter out) {
+    }
+
+    @Override
+    void startValue(ExportWriter out, int column) throws IOException {
+        if (column > 0) {
+            out.write(separator);
+        }
+    }
+
+    @Override
+    void writeNull(ExportWriter out) {
+    }
+
+    @Override
+    void writeQuote(ExportWriter out) {
+    }
+
+    @Override
+    void writeText(ExportWriter out, String value) throws IOException {
+        int length = value.length();
+        if (!requiresQuotes(value)) {
+            out.write(value, 0, length);
+            return;
+        }
+        out.write('"');
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            if (value.charAt(i) == '"') {
+                // Write up to and including the quote, which then starts the next run, doubling it
+                out.write(value, start, i + 1);
+                start = i;
+            }
+        }
+        out.write(value, start, length);
+        out.write('"');
+    }
+
+    @Override
+    void writeNonFinite(ExportWriter out, String value) throws IOException {
+        out.writeAscii(value);
+    }
+
+    @Override
+    void endRow(ExportWriter out) throws IOException {
+        out.write('\r');
+        out.write('\n');
+    }
+
+    private boolean requiresQuotes(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == separator || c == '"' || c == '\r' || c == '\n') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
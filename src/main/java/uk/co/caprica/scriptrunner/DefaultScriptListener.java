@@ -27,12 +27,34 @@ import java.util.Date;
 
 public class DefaultScriptListener implements ScriptListener {
 
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private static final char NEWLINE_REPLACEMENT = '\u240d';
+
     private final PrintWriter out;
 
     private String separatorLine;
-    private String templateLine;
     private String headerLine;
 
+    /**
+     * Display width of each column in the current result set.
+     */
+    private int[] columnWidths;
+
+    /**
+     * SQL type of each column in the current result set, for the columns read through a stream, otherwise zero.
+     */
+    private int[] streamedTypes;
+
+    /**
+     * Buffer, reused for every row of the current result set, sized for one complete rendered row.
+     */
+    private char[] rowBuffer;
+
+    private long rowsShown;
+
+    private long rowCount;
+
     private int MAXIMUM_DISPLAY_SIZE = 40;
 
     public DefaultScriptListener(PrintWriter out) {
@@ -45,6 +67,11 @@ public class DefaultScriptListener implements ScriptListener {
         out.printf("Begin script execution at %s%n%n", DateFormat.getTimeInstance(DateFormat.LONG).format(new Date()));
     }
 
+    @Override
+    public void beginFile(String name) {
+        out.printf("Begin file %s%n%n", name);
+    }
+
     @Override
     public void comment(String comment) {
         out.println(comment);
@@ -55,6 +82,25 @@ public class DefaultScriptListener implements ScriptListener {
         out.println(sql);
     }
 
+    @Override
+    public void plan(QueryPlan plan) {
+        out.println(plan.getText());
+        StringBuilder sb = new StringBuilder();
+        if (plan.getCost() >= 0) {
+            sb.append(String.format("Estimated cost %.2f", plan.getCost()));
+        }
+        if (plan.getRows() >= 0) {
+            sb.append(sb.length() > 0 ? ", " : "Estimated ").append(plan.getRows()).append(" row(s)");
+        }
+        if (plan.isFullScan()) {
+            sb.append(sb.length() > 0 ? ", full scan" : "Full scan");
+        }
+        if (sb.length() > 0) {
+            out.println(sb);
+        }
+        out.println();
+    }
+
     @Override
     public void success() {
     }
@@ -63,6 +109,15 @@ public class DefaultScriptListener implements ScriptListener {
     public void error(String error) {
     }
 
+    @Override
+    public void cancelled(String message) {
+    }
+
+    @Override
+    public void retry(String message, int attempt, long delay) {
+        out.printf("Retrying, attempt %d after %d ms: %s%n%n", attempt, delay, message);
+    }
+
     @Override
     public void updateCount(int updateCount) {
         out.printf("%d row(s) updated%n%n", updateCount);
@@ -71,6 +126,8 @@ public class DefaultScriptListener implements ScriptListener {
     @Override
     public void resultSet(ResultSetMetaData resultSetMetaData) {
         prepareResultSet(resultSetMetaData);
+        rowsShown = 0;
+        rowCount = 0;
 
         out.printf("%s%n", separatorLine);
         out.printf("%s%n", headerLine);
@@ -80,27 +137,76 @@ public class DefaultScriptListener implements ScriptListener {
     @Override
     public void row(ResultSet resultSet) {
         try {
-            ResultSetMetaData resultSetMetaData = resultSet.getMetaData();
-            Object[] values = new Object[resultSetMetaData.getColumnCount()];
-            for (int i = 1; i <= resultSetMetaData.getColumnCount(); i++) {
-                String value = resultSet.getString(i);
-                if (value != null) {
-                    value = value.replaceAll("\\r\\n|\\r|\\n", "\u240d");
-                } else {
-                    value = "NULL";
+            int position = 0;
+            rowBuffer[position++] = '|';
+            for (int i = 0; i < columnWidths.length; i++) {
+                if (i > 0) {
+                    rowBuffer[position++] = '|';
                 }
-                values[i-1] = value;
+                // Large values are read only as far as can be displayed, allowing for line breaks that are replaced
+                String value = streamedTypes[i] != 0 ? ValuePreview.readText(resultSet, i + 1, streamedTypes[i], columnWidths[i] * 2) : resultSet.getString(i + 1);
+                position = renderCell(value != null ? value : "NULL", columnWidths[i], position, true);
             }
-            out.printf("%s%n", String.format(templateLine, values));
+            rowBuffer[position++] = '|';
+            LINE_SEPARATOR.getChars(0, LINE_SEPARATOR.length(), rowBuffer, position);
+            // Written directly rather than printed, so there is no flush for each row even with an auto-flush writer
+            out.write(rowBuffer, 0, position + LINE_SEPARATOR.length());
+            rowsShown++;
         }
         catch (SQLException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Render a value into the row buffer, replacing line breaks, then truncating and padding to the column width.
+     *
+     * @param value value to render
+     * @param width column width
+     * @param position position in the row buffer at which to render the value
+     * @param replaceLineBreaks <code>true</code> if line breaks in the value should be replaced
+     * @return position in the row buffer after the rendered value
+     */
+    private int renderCell(String value, int width, int position, boolean replaceLineBreaks) {
+        int end = position + width;
+        int length = value.length();
+        for (int i = 0; i < length && position < end; i++) {
+            char c = value.charAt(i);
+            if (replaceLineBreaks && (c == '\r' || c == '\n')) {
+                if (c == '\r' && i + 1 < length && value.charAt(i + 1) == '\n') {
+                    i++;
+                }
+                c = NEWLINE_REPLACEMENT;
+            }
+            rowBuffer[position++] = c;
+        }
+        while (position < end) {
+            rowBuffer[position++] = ' ';
+        }
+        return position;
+    }
+
+    @Override
+    public void rowCount(long rowCount) {
+        this.rowCount = rowCount;
+    }
+
     @Override
     public void noMoreRows() {
-        out.printf("%s%n%n", separatorLine);
+        if (rowCount > rowsShown) {
+            out.printf("%s%n%d of %d row(s) shown%n%n", separatorLine, rowsShown, rowCount);
+        } else {
+            out.printf("%s%n%n", separatorLine);
+        }
+    }
+
+    @Override
+    public void commit() {
+    }
+
+    @Override
+    public void endFile(String name, int updateCount, int successCount, int warningCount, int errorCount, long duration) {
+        out.printf("End file %s: %d updates, %d successes, %d warnings, %d errors in %d.%03d seconds%n%n", name, updateCount, successCount, warningCount, errorCount, duration / 1000, duration % 1000);
     }
 
     @Override
@@ -112,43 +218,57 @@ public class DefaultScriptListener implements ScriptListener {
         out.printf("   Errors: %d%n", errorCount);
         out.printf("    Total: %d%n", successCount + warningCount + errorCount);
         out.println();
-        out.printf(" Duration: %d seconds%n", duration / 1000);
+        out.printf(" Duration: %d.%03d seconds%n", duration / 1000, duration % 1000);
         out.println();
     }
 
     private void reset() {
         this.separatorLine = null;
-        this.templateLine = null;
         this.headerLine = null;
+        this.columnWidths = null;
+        this.streamedTypes = null;
+        this.rowBuffer = null;
     }
 
     private void prepareResultSet(ResultSetMetaData resultSetMetaData) {
         try {
+            int columnCount = resultSetMetaData.getColumnCount();
+            int[] columnWidths = new int[columnCount];
+            int[] streamedTypes = new int[columnCount];
+            int rowLength = columnCount + 1;
             StringBuilder separatorLine = new StringBuilder(100);
-            StringBuilder templateLine = new StringBuilder(100);
             separatorLine.append('+');
-            templateLine.append('|');
-            for (int i = 1; i <= resultSetMetaData.getColumnCount(); i++) {
+            for (int i = 1; i <= columnCount; i++) {
                 if (i > 1) {
                     separatorLine.append('+');
-                    templateLine.append('|');
                 }
 
-                int displaySize = Math.min(MAXIMUM_DISPLAY_SIZE, resultSetMetaData.getColumnDisplaySize(i));
+                int displaySize = Math.max(0, Math.min(MAXIMUM_DISPLAY_SIZE, resultSetMetaData.getColumnDisplaySize(i)));
                 separatorLine.append(Strings.repeat("=", displaySize));
-                templateLine.append(String.format("%%-%d.%ds", displaySize, displaySize));
+                columnWidths[i-1] = displaySize;
+                int type = resultSetMetaData.getColumnType(i);
+                if (ValuePreview.isStreamed(type, resultSetMetaData.getPrecision(i))) {
+                    streamedTypes[i-1] = type;
+                }
+                rowLength += displaySize;
             }
             separatorLine.append('+');
-            templateLine.append('|');
 
-            this.templateLine = templateLine.toString();
+            this.columnWidths = columnWidths;
+            this.streamedTypes = streamedTypes;
+            this.rowBuffer = new char[rowLength + LINE_SEPARATOR.length()];
             this.separatorLine = separatorLine.toString();
 
-            Object[] labels = new Object[resultSetMetaData.getColumnCount()];
-            for (int i = 1; i <= resultSetMetaData.getColumnCount(); i++) {
-                labels[i-1] = resultSetMetaData.getColumnLabel(i);
+            int position = 0;
+            rowBuffer[position++] = '|';
+            for (int i = 1; i <= columnCount; i++) {
+                if (i > 1) {
+                    rowBuffer[position++] = '|';
+                }
+                position = renderCell(String.valueOf(resultSetMetaData.getColumnLabel(i)), columnWidths[i-1], position, false);
             }
-            this.headerLine = String.format(this.templateLine, labels);
+            rowBuffer[position++] = '|';
+            this.headerLine = new String(rowBuffer, 0, position);
         }
         catch (SQLException e) {
             e.printStackTrace();
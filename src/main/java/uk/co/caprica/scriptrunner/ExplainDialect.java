@@ -0,0 +1,47 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package uk.co.caprica.scriptrunner;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Specification for a component that asks a particular database for the plan of a statement, without executing it.
+ *
+ * @see StandardExplainDialect
+ */
+public interface ExplainDialect {
+
+    /**
+     * Get the statement that explains a statement.
+     *
+     * @param sql statement to explain, which may contain parameter markers
+     * @return explain statement
+     */
+    String explain(String sql);
+
+    /**
+     * Read the plan from the results of an explain statement.
+     *
+     * @param resultSet results of the explain statement
+     * @return plan
+     * @throws SQLException if an error occurs
+     */
+    QueryPlan plan(ResultSet resultSet) throws SQLException;
+
+}
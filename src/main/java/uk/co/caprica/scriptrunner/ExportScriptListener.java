@@ -0,0 +1,379 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package uk.co.caprica.scriptrunner;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+
+/**
+ * Base implementation for a listener that exports result sets to a file in a machine-readable format.
+ * <p>
+ * Values are read and encoded according to the column types in the result set meta data, numbers are written without
+ * creating intermediate strings, dates and times are written in ISO-8601 format, and binary values are written in
+ * base 64. Output goes through a fixed size buffer, so the memory used does not grow with the number of rows.
+ * <p>
+ * By default every result set of a script is written to the same file. Alternatively each result set can be written to
+ * its own file, named by inserting the number of the result set before the extension, so "result.csv" becomes
+ * "result-1.csv", "result-2.csv" and so on. No file is created until there is a result set to write, and the files are
+ * written afresh each time a script is run.
+ * <p>
+ * A failure to write the output fails the script, rather than silently losing rows.
+ */
+public abstract class ExportScriptListener extends ScriptAdapter implements AutoCloseable {
+
+    private static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+    private enum ValueType {
+        INTEGER,
+        BOOLEAN,
+        DECIMAL,
+        REAL,
+        DOUBLE,
+        TEMPORAL,
+        BINARY,
+        TEXT
+    }
+
+    private final Path path;
+
+    private boolean gzip;
+
+    private boolean filePerResultSet;
+
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+
+    private ExportWriter out;
+
+    private int resultSetNumber;
+
+    /**
+     * Type of each column in the current result set.
+     */
+    private ValueType[] valueTypes;
+
+    ExportScriptListener(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Set whether or not to compress the output with gzip.
+     * <p>
+     * The file name is used as given, so would normally end with ".gz".
+     *
+     * @param gzip <code>true</code> to compress the output
+     */
+    public void setGzip(boolean gzip) {
+        this.gzip = gzip;
+    }
+
+    /**
+     * Set whether or not to write each result set to its own file.
+     *
+     * @param filePerResultSet <code>true</code> for one file per result set
+     */
+    public void setFilePerResultSet(boolean filePerResultSet) {
+        this.filePerResultSet = filePerResultSet;
+    }
+
+    /**
+     * Set the size of the output buffer.
+     * <p>
+     * Sizes below 20 bytes are raised to 20, the space needed for the longest number.
+     *
+     * @param bufferSize buffer size, in bytes
+     */
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    @Override
+    public void beginScript() {
+        closeOutput();
+        resultSetNumber = 0;
+    }
+
+    @Override
+    public void resultSet(ResultSetMetaData resultSetMetaData) {
+        resultSetNumber++;
+        try {
+            int columnCount = resultSetMetaData.getColumnCount();
+            String[] labels = new String[columnCount];
+            valueTypes = new ValueType[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                labels[i] = resultSetMetaData.getColumnLabel(i + 1);
+                valueTypes[i] = valueType(resultSetMetaData, i + 1);
+            }
+            if (out == null) {
+                out = new ExportWriter(filePerResultSet ? numberedPath(resultSetNumber) : path, gzip, bufferSize);
+            }
+            startResultSet(out, labels);
+        } catch (SQLException e) {
+            throw new RuntimeException("Could not read result set meta data. Cause: " + e, e);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not export result set. Cause: " + e, e);
+        }
+    }
+
+    @Override
+    public void row(ResultSet resultSet) {
+        try {
+            startRow(out);
+            for (int i = 0; i < valueTypes.length; i++) {
+                startValue(out, i);
+                writeValue(resultSet, i + 1, valueTypes[i]);
+            }
+            endRow(out);
+        } catch (SQLException e) {
+            // Part of the row may already have been written
+            throw new RuntimeException("Could not read row. Cause: " + e, e);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not export row. Cause: " + e, e);
+        }
+    }
+
+    @Override
+    public void noMoreRows() {
+        if (filePerResultSet) {
+            closeOutput();
+        }
+    }
+
+    @Override
+    public void endScript(int updateCount, int successCount, int warningCount, int errorCount, long duration) {
+        closeOutput();
+    }
+
+    /**
+     * Close the current output file, if there is one.
+     */
+    @Override
+    public void close() {
+        closeOutput();
+    }
+
+    abstract void startResultSet(ExportWriter out, String[] labels) throws IOException;
+
+    abstract void startRow(ExportWriter out) throws IOException;
+
+    /**
+     * Start a value, writing any separator and name that precedes it.
+     *
+     * @param out output
+     * @param column index of the column, starting from zero
+     * @throws IOException if an error occurs
+     */
+    abstract void startValue(ExportWriter out, int column) throws IOException;
+
+    abstract void writeNull(ExportWriter out) throws IOException;
+
+    /**
+     * Write the quote, if any, that surrounds a value that is not a number.
+     *
+     * @param out output
+     * @throws IOException if an error occurs
+     */
+    abstract void writeQuote(ExportWriter out) throws IOException;
+
+    /**
+     * Write text, quoting and escaping it as necessary.
+     *
+     * @param out output
+     * @param value text
+     * @throws IOException if an error occurs
+     */
+    abstract void writeText(ExportWriter out, String value) throws IOException;
+
+    /**
+     * Write a floating point value that is infinite or not a number.
+     *
+     * @param out output
+     * @param value value as text
+     * @throws IOException if an error occurs
+     */
+    abstract void writeNonFinite(ExportWriter out, String value) throws IOException;
+
+    abstract void endRow(ExportWriter out) throws IOException;
+
+    private void writeValue(ResultSet resultSet, int column, ValueType valueType) throws SQLException, IOException {
+        switch (valueType) {
+            case INTEGER: {
+                long value = resultSet.getLong(column);
+                if (resultSet.wasNull()) {
+                    writeNull(out);
+                } else {
+                    out.writeLong(value);
+                }
+                break;
+            }
+            case BOOLEAN: {
+                boolean value = resultSet.getBoolean(column);
+                if (resultSet.wasNull()) {
+                    writeNull(out);
+                } else {
+                    out.writeAscii(value ? "true" : "false");
+                }
+                break;
+            }
+            case DECIMAL: {
+                BigDecimal value = resultSet.getBigDecimal(column);
+                if (value == null) {
+                    writeNull(out);
+                } else {
+                    out.writeDecimal(value);
+                }
+                break;
+            }
+            case REAL: {
+                float value = resultSet.getFloat(column);
+                if (resultSet.wasNull()) {
+                    writeNull(out);
+                } else if (Float.isFinite(value)) {
+                    out.writeFloat(value);
+                } else {
+                    writeNonFinite(out, Float.toString(value));
+                }
+                break;
+            }
+            case DOUBLE: {
+                double value = resultSet.getDouble(column);
+                if (resultSet.wasNull()) {
+                    writeNull(out);
+                } else if (Double.isFinite(value)) {
+                    out.writeDouble(value);
+                } else {
+                    writeNonFinite(out, Double.toString(value));
+                }
+                break;
+            }
+            case TEMPORAL: {
+                Object value = resultSet.getObject(column);
+                if (value == null) {
+                    writeNull(out);
+                } else {
+                    writeQuote(out);
+                    out.writeAscii(isoString(value));
+                    writeQuote(out);
+                }
+                break;
+            }
+            case BINARY: {
+                byte[] value = resultSet.getBytes(column);
+                if (value == null) {
+                    writeNull(out);
+                } else {
+                    writeQuote(out);
+                    out.writeBase64(value);
+                    writeQuote(out);
+                }
+                break;
+            }
+            default: {
+                String value = resultSet.getString(column);
+                if (value == null) {
+                    writeNull(out);
+                } else {
+                    writeText(out, value);
+                }
+                break;
+            }
+        }
+    }
+
+    /**
+     * Get the ISO-8601 representation of a date or time value.
+     * <p>
+     * The java.time classes are already represented this way, the older JDBC classes are converted to them first.
+     *
+     * @param value date or time value
+     * @return ISO-8601 representation
+     */
+    private static String isoString(Object value) {
+        if (value instanceof Timestamp) {
+            return ((Timestamp) value).toLocalDateTime().toString();
+        } else if (value instanceof Date) {
+            return ((Date) value).toLocalDate().toString();
+        } else if (value instanceof Time) {
+            return ((Time) value).toLocalTime().toString();
+        } else {
+            return value.toString();
+        }
+    }
+
+    private static ValueType valueType(ResultSetMetaData resultSetMetaData, int column) throws SQLException {
+        switch (resultSetMetaData.getColumnType(column)) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+                return ValueType.INTEGER;
+            case Types.BIGINT:
+                // An unsigned value may not fit in a long
+                return resultSetMetaData.isSigned(column) ? ValueType.INTEGER : ValueType.DECIMAL;
+            case Types.BIT:
+            case Types.BOOLEAN:
+                return ValueType.BOOLEAN;
+            case Types.DECIMAL:
+            case Types.NUMERIC:
+                return ValueType.DECIMAL;
+            case Types.REAL:
+                return ValueType.REAL;
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return ValueType.DOUBLE;
+            case Types.DATE:
+            case Types.TIME:
+            case Types.TIMESTAMP:
+            case Types.TIME_WITH_TIMEZONE:
+            case Types.TIMESTAMP_WITH_TIMEZONE:
+                return ValueType.TEMPORAL;
+            case Types.BINARY:
+            case Types.VARBINARY:
+            case Types.LONGVARBINARY:
+            case Types.BLOB:
+                return ValueType.BINARY;
+            default:
+                return ValueType.TEXT;
+        }
+    }
+
+    private Path numberedPath(int number) {
+        String name = path.getFileName().toString();
+        int extension = name.indexOf('.', 1);
+        return path.resolveSibling(extension != -1 ? name.substring(0, extension) + "-" + number + name.substring(extension) : name + "-" + number);
+    }
+
+    private void closeOutput() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                throw new RuntimeException("Could not close export file. Cause: " + e, e);
+            } finally {
+                out = null;
+            }
+        }
+    }
+
+}
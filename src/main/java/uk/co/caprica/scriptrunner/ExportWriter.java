@@ -0,0 +1,343 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package uk.co.caprica.scriptrunner;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes UTF-8 encoded output to a file through a fixed size buffer, optionally compressed with gzip.
+ * <p>
+ * Characters are encoded directly into the buffer, and the buffer is written to the file channel whenever it fills, so
+ * the memory used does not depend on the amount of output.
+ */
+final class ExportWriter implements Closeable {
+
+    /**
+     * Maximum number of bytes needed to encode one character, or one surrogate pair, as UTF-8.
+     */
+    private static final int MAXIMUM_CHARACTER_BYTES = 4;
+
+    /**
+     * Maximum number of bytes needed to write a long value, nineteen digits and a sign.
+     */
+    private static final int MAXIMUM_LONG_BYTES = 20;
+
+    /**
+     * Smallest buffer that can hold any single value written directly to the buffer.
+     */
+    private static final int MINIMUM_BUFFER_SIZE = Math.max(MAXIMUM_CHARACTER_BYTES, MAXIMUM_LONG_BYTES);
+
+    /**
+     * Largest number of digits of an unscaled value written directly to the buffer, with a sign, a decimal point and a
+     * leading zero it still fits in the space for a long value.
+     */
+    private static final int MAXIMUM_DECIMAL_DIGITS = 17;
+
+    /**
+     * Floating point values in this range are written by {@link Double#toString(double)} without an exponent.
+     */
+    private static final double MINIMUM_PLAIN_DOUBLE = 1e-3;
+
+    private static final double MAXIMUM_PLAIN_DOUBLE = 1e7;
+
+    /**
+     * Any decimal number of up to fifteen digits survives conversion to a double and back, so the shortest form of a
+     * double that was read from one is found exactly.
+     */
+    private static final int MAXIMUM_DOUBLE_DIGITS = 15;
+
+    private static final double[] POWERS_OF_TEN = new double[MAXIMUM_DECIMAL_DIGITS + 1];
+
+    private static final byte[] BASE64_DIGITS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes(StandardCharsets.US_ASCII);
+
+    static {
+        double power = 1;
+        for (int i = 0; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = power;
+            power *= 10;
+        }
+    }
+
+    private static final int GZIP_BUFFER_SIZE = 65536;
+
+    private final WritableByteChannel channel;
+
+    private final byte[] bytes;
+
+    private int position;
+
+    ExportWriter(Path path, boolean gzip, int bufferSize) throws IOException {
+        FileChannel file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        this.channel = gzip ? Channels.newChannel(new GZIPOutputStream(Channels.newOutputStream(file), GZIP_BUFFER_SIZE)) : file;
+        this.bytes = new byte[Math.max(bufferSize, MINIMUM_BUFFER_SIZE)];
+    }
+
+    void write(char c) throws IOException {
+        if (c >= 0x80) {
+            write(String.valueOf(c), 0, 1);
+            return;
+        }
+        if (position == bytes.length) {
+            flush();
+        }
+        bytes[position++] = (byte) c;
+    }
+
+    void write(byte[] value) throws IOException {
+        int offset = 0;
+        while (offset < value.length) {
+            if (position == bytes.length) {
+                flush();
+            }
+            int length = Math.min(value.length - offset, bytes.length - position);
+            System.arraycopy(value, offset, bytes, position, length);
+            position += length;
+            offset += length;
+        }
+    }
+
+    /**
+     * Write text that is known to contain only ASCII characters.
+     *
+     * @param value text to write
+     * @throws IOException if an error occurs
+     */
+    void writeAscii(String value) throws IOException {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            if (position == bytes.length) {
+                flush();
+            }
+            bytes[position++] = (byte) value.charAt(i);
+        }
+    }
+
+    /**
+     * Write text, encoded as UTF-8.
+     * <p>
+     * An unpaired surrogate is written as a question mark.
+     *
+     * @param value text to write
+     * @param start index of the first character to write
+     * @param end index after the last character to write
+     * @throws IOException if an error occurs
+     */
+    void write(String value, int start, int end) throws IOException {
+        for (int i = start; i < end; i++) {
+            if (bytes.length - position < MAXIMUM_CHARACTER_BYTES) {
+                flush();
+            }
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                bytes[position++] = (byte) c;
+            } else if (c < 0x800) {
+                bytes[position++] = (byte) (0xc0 | c >> 6);
+                bytes[position++] = (byte) (0x80 | c & 0x3f);
+            } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                bytes[position++] = (byte) (0xf0 | codePoint >> 18);
+                bytes[position++] = (byte) (0x80 | codePoint >> 12 & 0x3f);
+                bytes[position++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+                bytes[position++] = (byte) (0x80 | codePoint & 0x3f);
+            } else if (Character.isSurrogate(c)) {
+                bytes[position++] = '?';
+            } else {
+                bytes[position++] = (byte) (0xe0 | c >> 12);
+                bytes[position++] = (byte) (0x80 | c >> 6 & 0x3f);
+                bytes[position++] = (byte) (0x80 | c & 0x3f);
+            }
+        }
+    }
+
+    /**
+     * Write the decimal digits of a number, without creating a string.
+     *
+     * @param value number to write
+     * @throws IOException if an error occurs
+     */
+    void writeLong(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            writeAscii(Long.toString(value));
+            return;
+        }
+        if (bytes.length - position < MAXIMUM_LONG_BYTES) {
+            flush();
+        }
+        if (value < 0) {
+            bytes[position++] = '-';
+            value = -value;
+        }
+        int start = position;
+        do {
+            bytes[position++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        for (int i = start, j = position - 1; i < j; i++, j--) {
+            byte digit = bytes[i];
+            bytes[i] = bytes[j];
+            bytes[j] = digit;
+        }
+    }
+
+    /**
+     * Write a decimal number in the same form as {@link BigDecimal#toPlainString()}.
+     * <p>
+     * A number of up to seventeen digits is written without creating a string.
+     *
+     * @param value number to write
+     * @throws IOException if an error occurs
+     */
+    void writeDecimal(BigDecimal value) throws IOException {
+        int scale = value.scale();
+        if (scale >= 0 && scale < MAXIMUM_DECIMAL_DIGITS && value.precision() <= MAXIMUM_DECIMAL_DIGITS) {
+            writeDecimal(scale == 0 ? value.longValue() : value.unscaledValue().longValue(), scale);
+        } else {
+            writeAscii(value.toPlainString());
+        }
+    }
+
+    /**
+     * Write a finite floating point number in the same form as {@link Double#toString(double)}.
+     * <p>
+     * A number without an exponent and of up to fifteen digits is written without creating a string, using the fewest
+     * fraction digits that still give exactly the same value when read back.
+     *
+     * @param value number to write
+     * @throws IOException if an error occurs
+     */
+    void writeDouble(double value) throws IOException {
+        if (value == 0) {
+            writeAscii(Double.doubleToRawLongBits(value) == 0 ? "0.0" : "-0.0");
+            return;
+        }
+        double magnitude = Math.abs(value);
+        if (magnitude >= MINIMUM_PLAIN_DOUBLE && magnitude < MAXIMUM_PLAIN_DOUBLE) {
+            for (int scale = 1; scale < MAXIMUM_DECIMAL_DIGITS; scale++) {
+                double unscaled = Math.rint(value * POWERS_OF_TEN[scale]);
+                if (Math.abs(unscaled) >= POWERS_OF_TEN[MAXIMUM_DOUBLE_DIGITS]) {
+                    break;
+                }
+                // Both operands are exact, so the division is the value nearest to the decimal number, as when parsed
+                if (unscaled / POWERS_OF_TEN[scale] == value) {
+                    writeDecimal((long) unscaled, scale);
+                    return;
+                }
+            }
+        }
+        writeAscii(Double.toString(value));
+    }
+
+    /**
+     * Write a finite floating point number in the same form as {@link Float#toString(float)}.
+     * <p>
+     * A whole number without an exponent is written without creating a string.
+     *
+     * @param value number to write
+     * @throws IOException if an error occurs
+     */
+    void writeFloat(float value) throws IOException {
+        if (value == 0) {
+            writeAscii(Float.floatToRawIntBits(value) == 0 ? "0.0" : "-0.0");
+        } else if (value == Math.rint(value) && Math.abs(value) < MAXIMUM_PLAIN_DOUBLE) {
+            writeDecimal((long) value * 10, 1);
+        } else {
+            writeAscii(Float.toString(value));
+        }
+    }
+
+    /**
+     * Write bytes encoded in base 64, with padding, without creating an encoded copy.
+     *
+     * @param value bytes to write
+     * @throws IOException if an error occurs
+     */
+    void writeBase64(byte[] value) throws IOException {
+        int length = value.length;
+        for (int i = 0; i < length; i += 3) {
+            if (bytes.length - position < 4) {
+                flush();
+            }
+            int remaining = length - i;
+            int group = (value[i] & 0xff) << 16 | (remaining > 1 ? (value[i + 1] & 0xff) << 8 : 0) | (remaining > 2 ? value[i + 2] & 0xff : 0);
+            bytes[position++] = BASE64_DIGITS[group >> 18];
+            bytes[position++] = BASE64_DIGITS[group >> 12 & 0x3f];
+            bytes[position++] = remaining > 1 ? BASE64_DIGITS[group >> 6 & 0x3f] : (byte) '=';
+            bytes[position++] = remaining > 2 ? BASE64_DIGITS[group & 0x3f] : (byte) '=';
+        }
+    }
+
+    /**
+     * Write the digits of an unscaled value with a decimal point before the last "scale" digits.
+     *
+     * @param unscaled unscaled value, of no more than seventeen digits
+     * @param scale number of digits after the decimal point, less than seventeen
+     * @throws IOException if an error occurs
+     */
+    private void writeDecimal(long unscaled, int scale) throws IOException {
+        if (bytes.length - position < MAXIMUM_LONG_BYTES) {
+            flush();
+        }
+        if (unscaled < 0) {
+            bytes[position++] = '-';
+            unscaled = -unscaled;
+        }
+        int start = position;
+        int digits = 0;
+        do {
+            if (digits == scale && scale > 0) {
+                bytes[position++] = '.';
+            }
+            bytes[position++] = (byte) ('0' + unscaled % 10);
+            unscaled /= 10;
+            digits++;
+        } while (unscaled != 0 || digits <= scale);
+        for (int i = start, j = position - 1; i < j; i++, j--) {
+            byte digit = bytes[i];
+            bytes[i] = bytes[j];
+            bytes[j] = digit;
+        }
+    }
+
+    void flush() throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, position);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        position = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+}
@@ -0,0 +1,174 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.caprica.scriptrunner;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A durable record of the progress of a script, used to resume a script that did not complete.
+ * <p>
+ * The journal records the number of statements that have been committed, and a rolling hash of the text of those
+ * statements. When a script is resumed, that many statements are skipped and the hash of the skipped statements must
+ * match, otherwise the script is not the one that was being run.
+ * <p>
+ * The journal is a single fixed-length record that is overwritten in place at each commit point, and is deleted when
+ * the script completes.
+ */
+final class Journal implements AutoCloseable {
+
+    private static final String FORMAT = "%016x %019d\n";
+
+    private static final int RECORD_LENGTH = String.format(FORMAT, 0L, 0L).length();
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final Path path;
+
+    private final FileChannel channel;
+
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_LENGTH);
+
+    /**
+     * Number of statements to skip, from the journal of a previous run.
+     */
+    private final long resumeOrdinal;
+
+    private final long resumeHash;
+
+    private long ordinal;
+
+    private long hash = FNV_OFFSET_BASIS;
+
+    private long checkpointOrdinal;
+
+    Journal(Path path) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() > 0) {
+            String text = read().trim();
+            String[] fields = text.split(" ");
+            if (fields.length != 2) {
+                channel.close();
+                throw new IOException("Journal " + path + " is not valid: " + text);
+            }
+            resumeHash = Long.parseUnsignedLong(fields[0], 16);
+            resumeOrdinal = Long.parseLong(fields[1]);
+        } else {
+            resumeHash = FNV_OFFSET_BASIS;
+            resumeOrdinal = 0;
+        }
+        checkpointOrdinal = resumeOrdinal;
+    }
+
+    /**
+     * Is the script still being fast-forwarded to the point at which the previous run stopped?
+     *
+     * @return <code>true</code> if statements are being skipped
+     */
+    boolean skipping() {
+        return ordinal < resumeOrdinal;
+    }
+
+    /**
+     * Skip a statement that was committed by a previous run.
+     *
+     * @param sql statement
+     * @return <code>true</code> if the statement was skipped; <code>false</code> if it must be executed
+     * @throws IllegalStateException if the script does not match the journal
+     */
+    boolean skip(String sql) {
+        if (!skipping()) {
+            return false;
+        }
+        completed(sql);
+        if (ordinal == resumeOrdinal && hash != resumeHash) {
+            throw new IllegalStateException("The script does not match the journal " + path + ", the first " + ordinal + " statements are different");
+        }
+        return true;
+    }
+
+    /**
+     * Record that a statement has been executed, it is not durable until the next checkpoint.
+     *
+     * @param sql statement
+     */
+    void completed(String sql) {
+        long hash = this.hash;
+        for (int i = 0, length = sql.length(); i < length; i++) {
+            hash = (hash ^ sql.charAt(i)) * FNV_PRIME;
+        }
+        // Separate statements, so that moving text from one statement to the next changes the hash
+        this.hash = (hash ^ 0xffff) * FNV_PRIME;
+        ordinal++;
+    }
+
+    /**
+     * Durably record that all statements executed so far have been committed.
+     *
+     * @throws IOException if the journal could not be written
+     */
+    void checkpoint() throws IOException {
+        if (ordinal == checkpointOrdinal) {
+            return;
+        }
+        record.clear();
+        record.put(String.format(FORMAT, hash, ordinal).getBytes(StandardCharsets.US_ASCII));
+        record.flip();
+        while (record.hasRemaining()) {
+            channel.write(record, record.position());
+        }
+        channel.force(false);
+        checkpointOrdinal = ordinal;
+    }
+
+    /**
+     * Delete the journal, once the script has completed.
+     *
+     * @throws IOException if the journal could not be deleted
+     * @throws IllegalStateException if the script ended before reaching the point at which the previous run stopped
+     */
+    void finish() throws IOException {
+        if (skipping()) {
+            throw new IllegalStateException("The script does not match the journal " + path + ", it has only " + ordinal + " of the " + resumeOrdinal + " statements already executed");
+        }
+        channel.close();
+        Files.deleteIfExists(path);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private String read() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(channel.size(), 1024));
+        int read;
+        do {
+            read = channel.read(buffer, buffer.position());
+        } while (read > 0 && buffer.hasRemaining());
+        return new String(buffer.array(), 0, buffer.position(), StandardCharsets.US_ASCII);
+    }
+
+}
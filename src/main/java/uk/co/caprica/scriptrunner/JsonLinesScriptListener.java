@@ -0,0 +1,152 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package uk.co.caprica.scriptrunner;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+/**
+ * A listener that exports result sets to a JSON Lines file, one JSON object per row keyed by column label.
+ * <p>
+ * Numbers and booleans are written as JSON numbers and booleans, all other values as strings. Floating point values
+ * that are infinite or not a number are written as null, since JSON has no representation for them.
+ * <p>
+ * Rows from every result set are written in the same way, so to keep result sets apart use one file per result set.
+ */
+public class JsonLinesScriptListener extends ExportScriptListener {
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * Encoded name, and the separators around it, for each column in the current result set.
+     */
+    private byte[][] names;
+
+    /**
+     * Create a listener.
+     *
+     * @param path path to the file to write
+     */
+    public JsonLinesScriptListener(Path path) {
+        super(path);
+    }
+
+    @Override
+    void startResultSet(ExportWriter out, String[] labels) {
+        names = new byte[labels.length][];
+        for (int i = 0; i < labels.length; i++) {
+            StringBuilder name = new StringBuilder(labels[i] != null ? labels[i].length() + 4 : 4);
+            if (i > 0) {
+                name.append(',');
+            }
+            name.append('"');
+            appendEscaped(name, labels[i] != null ? labels[i] : "");
+            name.append("\":");
+            names[i] = name.toString().getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    @Override
+    void startRow(ExportWriter out) throws IOException {
+        out.write('{');
+    }
+
+    @Override
+    void startValue(ExportWriter out, int column) throws IOException {
+        out.write(names[column]);
+    }
+
+    @Override
+    void writeNull(ExportWriter out) throws IOException {
+        out.writeAscii("null");
+    }
+
+    @Override
+    void writeQuote(ExportWriter out) throws IOException {
+        out.write('"');
+    }
+
+    @Override
+    void writeText(ExportWriter out, String value) throws IOException {
+        out.write('"');
+        int length = value.length();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x20 || c == '"' || c == '\\') {
+                out.write(value, start, i);
+                writeEscape(out, c);
+                start = i + 1;
+            }
+        }
+        out.write(value, start, length);
+        out.write('"');
+    }
+
+    @Override
+    void writeNonFinite(ExportWriter out, String value) throws IOException {
+        writeNull(out);
+    }
+
+    @Override
+    void endRow(ExportWriter out) throws IOException {
+        out.write('}');
+        out.write('\n');
+    }
+
+    private static void writeEscape(ExportWriter out, char c) throws IOException {
+        out.write('\\');
+        switch (c) {
+            case '"':
+            case '\\':
+                out.write(c);
+                break;
+            case '\n':
+                out.write('n');
+                break;
+            case '\r':
+                out.write('r');
+                break;
+            case '\t':
+                out.write('t');
+                break;
+            default:
+                out.write('u');
+                out.write('0');
+                out.write('0');
+                out.write(HEX_DIGITS[c >> 4]);
+                out.write(HEX_DIGITS[c & 0xf]);
+                break;
+        }
+    }
+
+    private static void appendEscaped(StringBuilder builder, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < 0x20) {
+                builder.append("\\u00").append(HEX_DIGITS[c >> 4]).append(HEX_DIGITS[c & 0xf]);
+            } else {
+                builder.append(c);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,163 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.caprica.scriptrunner;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A reader that decodes a file incrementally, from a memory-mapped file if the file is small enough.
+ * <p>
+ * A mapped file stays mapped until the mapping is garbage collected, there is no way to release it explicitly, so only
+ * a file that fits in a single mapping is mapped, and nothing is copied to the heap other than the characters requested
+ * by the caller. A larger file is read through a fixed size buffer instead, rather than mapping window after window of
+ * it, so arbitrarily large files can be read.
+ */
+final class MappedFileReader extends Reader {
+
+    private static final long MAXIMUM_MAPPED_SIZE = 64L * 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final FileChannel channel;
+
+    private final CharsetDecoder decoder;
+
+    private final long size;
+
+    /**
+     * Buffer the file is read through, or <code>null</code> if the file is mapped.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * Offset in the file of the start of the current window, the mapped file or the contents of the buffer.
+     */
+    private long windowStart;
+
+    private ByteBuffer window;
+
+    private boolean finished;
+
+    /**
+     * A character decoded for a read that had room for only one of its two characters, a surrogate pair.
+     */
+    private final CharBuffer pair = CharBuffer.allocate(2);
+
+    MappedFileReader(Path path, Charset charset) throws IOException {
+        this(path, charset, MAXIMUM_MAPPED_SIZE, BUFFER_SIZE);
+    }
+
+    /**
+     * Create a reader.
+     *
+     * @param path path to the file
+     * @param charset character set of the file
+     * @param maximumMappedSize size of the largest file that is mapped
+     * @param bufferSize size of the buffer a larger file is read through, at least the longest encoding of a character
+     * @throws IOException if an error occurs
+     */
+    MappedFileReader(Path path, Charset charset, long maximumMappedSize, int bufferSize) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.decoder = charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPORT)
+            .onUnmappableCharacter(CodingErrorAction.REPORT);
+        pair.flip();
+        try {
+            this.size = channel.size();
+            this.buffer = size > maximumMappedSize ? ByteBuffer.allocate(bufferSize) : null;
+            fill(0);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+        if (pair.hasRemaining()) {
+            out.put(pair.get());
+        }
+        while (out.position() == off && !finished) {
+            boolean endOfInput = windowStart + window.limit() == size;
+            CoderResult result = decoder.decode(window, out, endOfInput);
+            if (result.isError()) {
+                result.throwException();
+            }
+            if (result.isOverflow() && out.position() == off) {
+                // The next character is a surrogate pair and there is room for only one half of it
+                pair.clear();
+                result = decoder.decode(window, pair, endOfInput);
+                if (result.isError()) {
+                    result.throwException();
+                }
+                pair.flip();
+                if (pair.hasRemaining()) {
+                    out.put(pair.get());
+                }
+            } else if (result.isUnderflow()) {
+                if (endOfInput) {
+                    finished = decoder.flush(out).isUnderflow();
+                } else {
+                    // Any bytes of a character that straddles the end of the window are included in the next window
+                    fill(windowStart + window.position());
+                }
+            }
+        }
+        int count = out.position() - off;
+        return count == 0 && finished ? -1 : count;
+    }
+
+    private void fill(long offset) throws IOException {
+        windowStart = offset;
+        if (buffer == null) {
+            window = channel.map(FileChannel.MapMode.READ_ONLY, offset, size - offset);
+            return;
+        }
+        buffer.clear();
+        long position = offset;
+        int read;
+        while (buffer.hasRemaining() && (read = channel.read(buffer, position)) != -1) {
+            position += read;
+        }
+        if (position == offset && offset < size) {
+            throw new EOFException("File was truncated while being read");
+        }
+        buffer.flip();
+        window = buffer;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
@@ -0,0 +1,172 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.caprica.scriptrunner;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Arrays;
+
+/**
+ * A copy of the commonly used properties of result set meta data, that remains valid after the result set is closed.
+ */
+final class MetaDataSnapshot implements InvocationHandler {
+
+    private final int columnCount;
+    private final String[] labels;
+    private final String[] names;
+    private final int[] types;
+    private final String[] typeNames;
+    private final String[] classNames;
+    private final int[] displaySizes;
+    private final int[] precisions;
+    private final int[] scales;
+    private final int[] nullables;
+    private final boolean[] signed;
+    private final String[] tableNames;
+    private final String[] schemaNames;
+    private final String[] catalogNames;
+
+    private final ResultSetMetaData metaData;
+
+    MetaDataSnapshot(ResultSetMetaData source) throws SQLException {
+        columnCount = source.getColumnCount();
+        labels = new String[columnCount];
+        names = new String[columnCount];
+        types = new int[columnCount];
+        typeNames = new String[columnCount];
+        classNames = new String[columnCount];
+        displaySizes = new int[columnCount];
+        precisions = new int[columnCount];
+        scales = new int[columnCount];
+        nullables = new int[columnCount];
+        signed = new boolean[columnCount];
+        tableNames = new String[columnCount];
+        schemaNames = new String[columnCount];
+        catalogNames = new String[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            int column = i + 1;
+            labels[i] = source.getColumnLabel(column);
+            names[i] = source.getColumnName(column);
+            types[i] = source.getColumnType(column);
+            typeNames[i] = source.getColumnTypeName(column);
+            classNames[i] = source.getColumnClassName(column);
+            displaySizes[i] = source.getColumnDisplaySize(column);
+            precisions[i] = source.getPrecision(column);
+            scales[i] = source.getScale(column);
+            nullables[i] = source.isNullable(column);
+            signed[i] = source.isSigned(column);
+            tableNames[i] = source.getTableName(column);
+            schemaNames[i] = source.getSchemaName(column);
+            catalogNames[i] = source.getCatalogName(column);
+        }
+        metaData = (ResultSetMetaData) Proxy.newProxyInstance(ResultSetMetaData.class.getClassLoader(), new Class<?>[] {ResultSetMetaData.class}, this);
+    }
+
+    ResultSetMetaData metaData() {
+        return metaData;
+    }
+
+    int columnCount() {
+        return columnCount;
+    }
+
+    int columnType(int column) {
+        return types[column - 1];
+    }
+
+    int precision(int column) {
+        return precisions[column - 1];
+    }
+
+    /**
+     * Find the column with the given label, or failing that the given name, ignoring case.
+     *
+     * @param label column label
+     * @return column index, starting from one
+     * @throws SQLException if there is no such column
+     */
+    int findColumn(String label) throws SQLException {
+        for (int i = 0; i < columnCount; i++) {
+            if (labels[i] != null && labels[i].equalsIgnoreCase(label)) {
+                return i + 1;
+            }
+        }
+        for (int i = 0; i < columnCount; i++) {
+            if (names[i] != null && names[i].equalsIgnoreCase(label)) {
+                return i + 1;
+            }
+        }
+        throw new SQLException("No such column: " + label);
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "getColumnCount":
+                return columnCount;
+            case "getColumnLabel":
+                return labels[column(args)];
+            case "getColumnName":
+                return names[column(args)];
+            case "getColumnType":
+                return types[column(args)];
+            case "getColumnTypeName":
+                return typeNames[column(args)];
+            case "getColumnClassName":
+                return classNames[column(args)];
+            case "getColumnDisplaySize":
+                return displaySizes[column(args)];
+            case "getPrecision":
+                return precisions[column(args)];
+            case "getScale":
+                return scales[column(args)];
+            case "isNullable":
+                return nullables[column(args)];
+            case "isSigned":
+                return signed[column(args)];
+            case "getTableName":
+                return tableNames[column(args)];
+            case "getSchemaName":
+                return schemaNames[column(args)];
+            case "getCatalogName":
+                return catalogNames[column(args)];
+            case "isWrapperFor":
+                return false;
+            case "toString":
+                return "MetaDataSnapshot" + Arrays.toString(labels);
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            default:
+                throw new SQLFeatureNotSupportedException("Not available from a meta data snapshot: " + method.getName());
+        }
+    }
+
+    private int column(Object[] args) throws SQLException {
+        int column = (Integer) args[0];
+        if (column < 1 || column > columnCount) {
+            throw new SQLException("Invalid column index: " + column);
+        }
+        return column - 1;
+    }
+
+}
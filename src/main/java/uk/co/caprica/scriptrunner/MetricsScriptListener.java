@@ -0,0 +1,357 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.caprica.scriptrunner;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A listener that collects statement latency metrics.
+ * <p>
+ * Latencies are recorded in fixed-size histograms, so the cost of recording a statement is constant and no per-statement
+ * state is retained other than for the slowest statements.
+ * <p>
+ * The metrics are reset at the start of each script, and can be inspected or reported once the script has finished.
+ */
+public class MetricsScriptListener extends ScriptAdapter implements StatementTimingListener {
+
+    private static final int DEFAULT_SLOWEST = 10;
+
+    private static final Comparator<StatementTiming> BY_TOTAL_TIME = Comparator.comparingLong(StatementTiming::getTotalNanos);
+
+    private final int slowestCount;
+
+    private final Histogram totalHistogram = new Histogram();
+
+    private final Histogram executeHistogram = new Histogram();
+
+    private final Histogram firstRowHistogram = new Histogram();
+
+    private final Map<StatementType, Histogram> typeHistograms = new EnumMap<>(StatementType.class);
+
+    /**
+     * The slowest statements, with the fastest of them at the head of the queue.
+     */
+    private final PriorityQueue<StatementTiming> slowest;
+
+    private long rowCount;
+
+    private long fetchNanos;
+
+    private long listenerNanos;
+
+    private int failedCount;
+
+    private int retryCount;
+
+    private long retryDelayMillis;
+
+    public MetricsScriptListener() {
+        this(DEFAULT_SLOWEST);
+    }
+
+    /**
+     * Create a listener.
+     *
+     * @param slowestCount number of slowest statements to keep
+     */
+    public MetricsScriptListener(int slowestCount) {
+        this.slowestCount = slowestCount;
+        this.slowest = new PriorityQueue<>(Math.max(1, slowestCount + 1), BY_TOTAL_TIME);
+        for (StatementType type : StatementType.values()) {
+            typeHistograms.put(type, new Histogram());
+        }
+    }
+
+    @Override
+    public synchronized void beginScript() {
+        totalHistogram.reset();
+        executeHistogram.reset();
+        firstRowHistogram.reset();
+        for (Histogram histogram : typeHistograms.values()) {
+            histogram.reset();
+        }
+        slowest.clear();
+        rowCount = 0;
+        fetchNanos = 0;
+        listenerNanos = 0;
+        failedCount = 0;
+        retryCount = 0;
+        retryDelayMillis = 0;
+    }
+
+    @Override
+    public synchronized void retry(String message, int attempt, long delay) {
+        retryCount++;
+        retryDelayMillis += delay;
+    }
+
+    @Override
+    public synchronized void statementTiming(StatementTiming statementTiming) {
+        long totalNanos = statementTiming.getTotalNanos();
+        totalHistogram.record(totalNanos);
+        executeHistogram.record(statementTiming.getExecuteNanos());
+        if (statementTiming.getFirstRowNanos() >= 0) {
+            firstRowHistogram.record(statementTiming.getFirstRowNanos());
+        }
+        typeHistograms.get(StatementType.of(statementTiming.getSql())).record(totalNanos);
+        rowCount += statementTiming.getRowCount();
+        fetchNanos += statementTiming.getFetchNanos();
+        listenerNanos += statementTiming.getListenerNanos();
+        if (statementTiming.isFailed()) {
+            failedCount++;
+        }
+        if (slowestCount > 0) {
+            if (slowest.size() < slowestCount) {
+                slowest.add(statementTiming);
+            } else if (totalNanos > slowest.peek().getTotalNanos()) {
+                slowest.poll();
+                slowest.add(statementTiming);
+            }
+        }
+    }
+
+    /**
+     * Get the histogram of total statement times, including fetching rows and listeners.
+     *
+     * @return histogram
+     */
+    public synchronized Histogram getTotalHistogram() {
+        return totalHistogram.copy();
+    }
+
+    /**
+     * Get the histogram of statement execution times.
+     *
+     * @return histogram
+     */
+    public synchronized Histogram getExecuteHistogram() {
+        return executeHistogram.copy();
+    }
+
+    /**
+     * Get the histogram of times to first row, for statements that returned rows.
+     *
+     * @return histogram
+     */
+    public synchronized Histogram getFirstRowHistogram() {
+        return firstRowHistogram.copy();
+    }
+
+    /**
+     * Get the slowest statements by total time.
+     *
+     * @return statement timings, slowest first
+     */
+    public synchronized List<StatementTiming> getSlowest() {
+        List<StatementTiming> result = new ArrayList<>(slowest);
+        result.sort(Collections.reverseOrder(BY_TOTAL_TIME));
+        return result;
+    }
+
+    public synchronized long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Get the overall number of rows fetched per second, not including the time spent in listeners.
+     *
+     * @return fetch rate
+     */
+    public synchronized double getRowsPerSecond() {
+        return rowCount > 0 && fetchNanos > 0 ? rowCount * (double) TimeUnit.SECONDS.toNanos(1) / fetchNanos : 0;
+    }
+
+    public synchronized long getListenerNanos() {
+        return listenerNanos;
+    }
+
+    public synchronized int getFailedCount() {
+        return failedCount;
+    }
+
+    public synchronized int getRetryCount() {
+        return retryCount;
+    }
+
+    /**
+     * Get the total time spent waiting before retries, in milliseconds.
+     *
+     * @return retry delay
+     */
+    public synchronized long getRetryDelayMillis() {
+        return retryDelayMillis;
+    }
+
+    /**
+     * Write a summary of the metrics.
+     *
+     * @param out writer to write the summary to
+     */
+    public synchronized void report(PrintWriter out) {
+        out.printf("Statement latency (ms)      count       p50       p90       p99       max%n");
+        printHistogram(out, "All", totalHistogram);
+        printHistogram(out, "  Execute", executeHistogram);
+        printHistogram(out, "  First row", firstRowHistogram);
+        for (Map.Entry<StatementType, Histogram> entry : typeHistograms.entrySet()) {
+            if (entry.getValue().getCount() > 0) {
+                printHistogram(out, "  " + entry.getKey(), entry.getValue());
+            }
+        }
+        out.println();
+        out.printf("     Rows: %d (%.0f rows/s)%n", rowCount, getRowsPerSecond());
+        out.printf("Listeners: %.3f ms%n", listenerNanos / 1e6);
+        out.printf("   Failed: %d%n", failedCount);
+        out.printf("  Retries: %d (%d ms delay)%n", retryCount, retryDelayMillis);
+        out.println();
+        List<StatementTiming> slowest = getSlowest();
+        if (!slowest.isEmpty()) {
+            out.printf("Slowest statements (ms)%n");
+            for (StatementTiming timing : slowest) {
+                out.printf("%12.3f  %s%n", timing.getTotalNanos() / 1e6, firstLine(timing.getSql()));
+            }
+            out.println();
+        }
+        out.flush();
+    }
+
+    private static void printHistogram(PrintWriter out, String name, Histogram histogram) {
+        out.printf("%-20s %12d %9.3f %9.3f %9.3f %9.3f%n", name, histogram.getCount(), histogram.getPercentile(50) / 1e6, histogram.getPercentile(90) / 1e6, histogram.getPercentile(99) / 1e6, histogram.getMax() / 1e6);
+    }
+
+    private static String firstLine(String sql) {
+        int end = 0;
+        while (end < sql.length() && end < 100 && sql.charAt(end) != '\n' && sql.charAt(end) != '\r') {
+            end++;
+        }
+        return end < sql.length() ? sql.substring(0, end) + "..." : sql;
+    }
+
+    /**
+     * A histogram of latencies with logarithmic buckets.
+     * <p>
+     * Each power of two is divided into eight buckets, so recorded values are accurate to within 12.5%.
+     */
+    public static final class Histogram {
+
+        private static final int SUB_BUCKET_BITS = 3;
+
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+        private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+        private final long[] counts;
+
+        private long count;
+
+        private long sum;
+
+        private long max;
+
+        Histogram() {
+            this.counts = new long[BUCKETS];
+        }
+
+        private Histogram(Histogram source) {
+            this.counts = source.counts.clone();
+            this.count = source.count;
+            this.sum = source.sum;
+            this.max = source.max;
+        }
+
+        void record(long nanos) {
+            long value = Math.max(0, nanos);
+            counts[bucket(value)]++;
+            count++;
+            sum += value;
+            max = Math.max(max, value);
+        }
+
+        private void reset() {
+            Arrays.fill(counts, 0);
+            count = 0;
+            sum = 0;
+            max = 0;
+        }
+
+        private Histogram copy() {
+            return new Histogram(this);
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return count > 0 ? (double) sum / count : 0;
+        }
+
+        /**
+         * Get the value at a given percentile.
+         *
+         * @param percentile percentile, from 0 to 100
+         * @return upper bound of the bucket containing the percentile, in nanoseconds
+         */
+        public long getPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(max, upperBound(i));
+                }
+            }
+            return max;
+        }
+
+        private static int bucket(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+        }
+
+        private static long upperBound(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+            long subBucket = bucket % SUB_BUCKETS;
+            long width = 1L << (exponent - SUB_BUCKET_BITS);
+            return ((SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS)) + width - 1;
+        }
+
+    }
+
+}
@@ -0,0 +1,638 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.caprica.scriptrunner;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * An SQL script runner that executes independent sections of a script concurrently.
+ * <p>
+ * A script is divided into sections by comment directives:
+ * <ul>
+ *     <li><code>-- @PARALLEL</code> starts a new section, that may run concurrently with the other sections before it;</li>
+ *     <li><code>-- @BARRIER</code> waits for all preceding sections to complete before continuing.</li>
+ * </ul>
+ * A script without any directives is a single section and so runs sequentially.
+ * <p>
+ * Each section runs in its own transaction on its own connection obtained from the data source, and is committed when
+ * the section completes (unless auto-commit is enabled).
+ * <p>
+ * Other directives, such as <code>-- @COMMIT</code> and <code>-- @TIMEOUT</code>, apply within the section they appear
+ * in.
+ * <p>
+ * Every setting applies to each section as it would to a script run by a {@link ScriptRunner}, the script timeout for
+ * example limits each section rather than the whole script.
+ * <p>
+ * Listener events are delivered for each statement as a group, so the output of concurrently executing statements is
+ * not interleaved. The section directives are not reported, and a single end-of-script event is delivered with the
+ * totals for all sections.
+ */
+public class ParallelScriptRunner {
+
+    private static final Pattern PARALLEL_PATTERN = Pattern.compile("^\\s*((--)|(//))?\\s*(//)?\\s*@PARALLEL\\b", Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern BARRIER_PATTERN = Pattern.compile("^\\s*((--)|(//))?\\s*(//)?\\s*@BARRIER\\b", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Maximum number of rows of a result set a section buffers while another section holds the event lock.
+     */
+    static final int MAX_BUFFERED_ROWS = 10000;
+
+    private final DataSource dataSource;
+
+    private final List<ScriptListener> listenerList = new CopyOnWriteArrayList<>();
+
+    /**
+     * Script runner holding the settings, shared by every section.
+     * <p>
+     * Each section runs in its own execution of this script runner, so no setting needs to be copied to the sections.
+     * Listeners are never added to it, the events of each section are reported to a listener for that section instead.
+     */
+    private final ScriptRunner settings = new ScriptRunner();
+
+    private int workers = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Lock held while delivering the events for a single statement to the listeners.
+     */
+    private final ReentrantLock eventLock = new ReentrantLock();
+
+    public ParallelScriptRunner(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    public void addScriptListener(ScriptListener listener) {
+        listenerList.add(listener);
+    }
+
+    public void removeScriptListener(ScriptListener listener) {
+        listenerList.remove(listener);
+    }
+
+    /**
+     * Set the maximum number of sections to execute concurrently, each uses its own connection.
+     *
+     * @param workers number of worker threads
+     */
+    public void setWorkers(int workers) {
+        this.workers = workers;
+    }
+
+    public void setStopOnError(boolean stopOnError) {
+        settings.setStopOnError(stopOnError);
+    }
+
+    public void setThrowWarning(boolean throwWarning) {
+        settings.setThrowWarning(throwWarning);
+    }
+
+    public void setAutoCommit(boolean autoCommit) {
+        settings.setAutoCommit(autoCommit);
+    }
+
+    public void setRemoveCRs(boolean removeCRs) {
+        settings.setRemoveCRs(removeCRs);
+    }
+
+    public void setBackslashEscapes(boolean backslashEscapes) {
+        settings.setBackslashEscapes(backslashEscapes);
+    }
+
+    public void setNestedComments(boolean nestedComments) {
+        settings.setNestedComments(nestedComments);
+    }
+
+    public void setEscapeProcessing(boolean escapeProcessing) {
+        settings.setEscapeProcessing(escapeProcessing);
+    }
+
+    public void setBatchSize(int batchSize) {
+        settings.setBatchSize(batchSize);
+    }
+
+    public void setChunkSize(int chunkSize) {
+        settings.setChunkSize(chunkSize);
+    }
+
+    public void setChunkLength(int chunkLength) {
+        settings.setChunkLength(chunkLength);
+    }
+
+    public void setFetchSize(int fetchSize) {
+        settings.setFetchSize(fetchSize);
+    }
+
+    public void setMaxRows(int maxRows) {
+        settings.setMaxRows(maxRows);
+    }
+
+    public void setStreamResults(boolean streamResults) {
+        settings.setStreamResults(streamResults);
+    }
+
+    public void setRowLimit(int rowLimit) {
+        settings.setRowLimit(rowLimit);
+    }
+
+    public void setCommitEveryStatements(int commitEveryStatements) {
+        settings.setCommitEveryStatements(commitEveryStatements);
+    }
+
+    public void setCommitEveryRows(int commitEveryRows) {
+        settings.setCommitEveryRows(commitEveryRows);
+    }
+
+    public void setCommitEveryMillis(long commitEveryMillis) {
+        settings.setCommitEveryMillis(commitEveryMillis);
+    }
+
+    public void setStatementTimeout(int statementTimeout) {
+        settings.setStatementTimeout(statementTimeout);
+    }
+
+    /**
+     * Set the maximum time each section may execute for.
+     *
+     * @param scriptTimeout timeout, in seconds
+     * @see ScriptRunner#setScriptTimeout(int)
+     */
+    public void setScriptTimeout(int scriptTimeout) {
+        settings.setScriptTimeout(scriptTimeout);
+    }
+
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        settings.setRetryPolicy(retryPolicy);
+    }
+
+    public void setStatementCacheSize(int statementCacheSize) {
+        settings.setStatementCacheSize(statementCacheSize);
+    }
+
+    public void setExplainDialect(ExplainDialect explainDialect) {
+        settings.setExplainDialect(explainDialect);
+    }
+
+    public void setExplainOnly(boolean explainOnly) {
+        settings.setExplainOnly(explainOnly);
+    }
+
+    public void setMaxCost(double maxCost) {
+        settings.setMaxCost(maxCost);
+    }
+
+    public void setLogWriter(PrintWriter logWriter) {
+        settings.setLogWriter(logWriter);
+    }
+
+    public void setErrorLogWriter(PrintWriter errorLogWriter) {
+        settings.setErrorLogWriter(errorLogWriter);
+    }
+
+    public void setDelimiter(String delimiter) {
+        settings.setDelimiter(delimiter);
+    }
+
+    public void setFullLineDelimiter(boolean fullLineDelimiter) {
+        settings.setFullLineDelimiter(fullLineDelimiter);
+    }
+
+    /**
+     * Run a script.
+     *
+     * @param reader reader for the script
+     * @return totals for all of the sections of the script
+     */
+    public ScriptResult runScript(Reader reader) {
+        Totals totals = new Totals();
+        long startTime = System.currentTimeMillis();
+        long duration;
+
+        notifyListeners(ScriptListener::beginScript);
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        ScriptLexer lexer = settings.lexer(reader);
+        Sections sections = new Sections(executor, totals, lexer);
+        try {
+            lexer.run(sections);
+            String pending = lexer.pending();
+            if (pending.length() > 0) {
+                throw new RuntimeException("Line missing end-of-line terminator (" + lexer.delimiter() + ") => " + pending);
+            }
+            sections.barrier();
+        } catch (IOException | SQLException e) {
+            throw new RuntimeException("Error reading script.  Cause: " + e, e);
+        } finally {
+            sections.awaitQuietly();
+            executor.shutdownNow();
+            duration = System.currentTimeMillis() - startTime;
+            notifyListeners(listener -> listener.endScript(totals.updateCount, totals.successCount, totals.warningCount, totals.errorCount, duration));
+        }
+        return new ScriptResult(totals.updateCount, totals.successCount, totals.warningCount, totals.errorCount, duration, null);
+    }
+
+    private void runSection(List<ScriptPlan.Entry> entries, Totals totals) {
+        try (Connection connection = dataSource.getConnection()) {
+            settings.runEntries(connection, entries, timed() ? new TimedSectionListener(totals) : new SectionListener(totals));
+        } catch (SQLException e) {
+            throw new RuntimeException("Could not obtain a connection. Cause: " + e, e);
+        }
+    }
+
+    private boolean timed() {
+        return listenerList.stream().anyMatch(listener -> listener instanceof StatementTimingListener);
+    }
+
+    private void notifyListeners(Consumer<ScriptListener> consumer) {
+        for (ScriptListener listener : listenerList) {
+            consumer.accept(listener);
+        }
+    }
+
+    /**
+     * Collects statements into sections and submits them for execution.
+     * <p>
+     * Comments other than the section directives are kept with the statements, so that the other directives, such as
+     * "@COMMIT" and "@TIMEOUT", apply within the section they appear in.
+     */
+    private final class Sections implements ScriptLexer.Handler {
+
+        private final ExecutorService executor;
+
+        private final Totals totals;
+
+        private final ScriptLexer lexer;
+
+        private final List<Future<?>> running = new ArrayList<>();
+
+        private List<ScriptPlan.Entry> section = new ArrayList<>();
+
+        private Sections(ExecutorService executor, Totals totals, ScriptLexer lexer) {
+            this.executor = executor;
+            this.totals = totals;
+            this.lexer = lexer;
+        }
+
+        @Override
+        public void comment(String comment) {
+            if (PARALLEL_PATTERN.matcher(comment).find()) {
+                submit();
+            } else if (BARRIER_PATTERN.matcher(comment).find()) {
+                barrier();
+            } else {
+                add(ScriptPlan.Kind.COMMENT, comment);
+            }
+        }
+
+        @Override
+        public void delimiter(String delimiter) {
+            add(ScriptPlan.Kind.DELIMITER, delimiter);
+        }
+
+        @Override
+        public void statement(String sql) {
+            add(ScriptPlan.Kind.STATEMENT, sql);
+        }
+
+        private void add(ScriptPlan.Kind kind, String text) {
+            section.add(new ScriptPlan.Entry(kind, text, lexer.offset(), lexer.line()));
+        }
+
+        private void submit() {
+            // Stop submitting sections as soon as one has failed
+            if (running.stream().anyMatch(Future::isDone)) {
+                for (Future<?> future : running) {
+                    if (future.isDone()) {
+                        await(future);
+                    }
+                }
+            }
+            if (!section.isEmpty()) {
+                List<ScriptPlan.Entry> entries = section;
+                running.add(executor.submit(() -> runSection(entries, totals)));
+                section = new ArrayList<>();
+            }
+        }
+
+        /**
+         * Submit the current section, then wait for all sections to complete.
+         *
+         * @throws RuntimeException if any section failed
+         */
+        private void barrier() {
+            submit();
+            RuntimeException failure = null;
+            for (Future<?> future : running) {
+                try {
+                    await(future);
+                } catch (RuntimeException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+            running.clear();
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        private void await(Future<?> future) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted waiting for script sections to complete", e);
+            }
+        }
+
+        /**
+         * Wait for any sections still running, without submitting any more.
+         */
+        private void awaitQuietly() {
+            section.clear();
+            try {
+                barrier();
+            } catch (RuntimeException e) {
+                // Already reported, or superseded by the failure currently propagating
+            }
+        }
+
+    }
+
+    /**
+     * Forwards the events for each section to the listeners, grouping the events for each statement.
+     * <p>
+     * Events are buffered, and delivered while holding the event lock when the next statement starts if the lock is free,
+     * otherwise later. A result set is delivered directly from the open cursor if the lock is free when it starts, and
+     * the lock is then held until its last row has been delivered, otherwise its rows are copied into the buffer so that
+     * the section does not wait for the other sections. Once the buffer holds {@link #MAX_BUFFERED_ROWS} rows, the
+     * section waits for the lock and delivers the rest of the result set directly.
+     */
+    private class SectionListener implements ScriptListener {
+
+        private final Totals totals;
+
+        final List<Consumer<ScriptListener>> pending = new ArrayList<>();
+
+        /**
+         * Meta data for the result set currently being buffered, <code>null</code> if the result set is being delivered
+         * directly.
+         */
+        private MetaDataSnapshot metaData;
+
+        /**
+         * Number of rows in the buffer.
+         */
+        private int bufferedRows;
+
+        private SectionListener(Totals totals) {
+            this.totals = totals;
+        }
+
+        @Override
+        public Set<ScriptEvent> interests() {
+            Set<ScriptEvent> interests = EnumSet.of(ScriptEvent.SQL, ScriptEvent.NO_MORE_ROWS, ScriptEvent.END_SCRIPT);
+            for (ScriptListener listener : listenerList) {
+                interests.addAll(listener.interests());
+            }
+            // How the rows are delivered is decided by the result set event
+            if (interests.contains(ScriptEvent.ROW) || interests.contains(ScriptEvent.ROW_COUNT)) {
+                interests.add(ScriptEvent.RESULT_SET);
+            }
+            return interests;
+        }
+
+        @Override
+        public void beginScript() {
+        }
+
+        @Override
+        public void beginFile(String name) {
+        }
+
+        @Override
+        public void comment(String comment) {
+            pending.add(listener -> listener.comment(comment));
+        }
+
+        @Override
+        public void sql(String sql) {
+            flush();
+            pending.add(listener -> listener.sql(sql));
+        }
+
+        @Override
+        public void plan(QueryPlan plan) {
+            pending.add(listener -> listener.plan(plan));
+        }
+
+        @Override
+        public void success() {
+            pending.add(ScriptListener::success);
+        }
+
+        @Override
+        public void error(String error) {
+            pending.add(listener -> listener.error(error));
+        }
+
+        @Override
+        public void cancelled(String message) {
+            pending.add(listener -> listener.cancelled(message));
+        }
+
+        @Override
+        public void retry(String message, int attempt, long delay) {
+            pending.add(listener -> listener.retry(message, attempt, delay));
+        }
+
+        @Override
+        public void updateCount(int updateCount) {
+            pending.add(listener -> listener.updateCount(updateCount));
+        }
+
+        @Override
+        public void resultSet(ResultSetMetaData resultSetMetaData) {
+            // A result set that failed part way through may not have released the lock
+            if (eventLock.isHeldByCurrentThread() || eventLock.tryLock()) {
+                // The lock is held until the last row has been delivered
+                metaData = null;
+                deliver();
+                notifyListeners(listener -> listener.resultSet(resultSetMetaData));
+            } else {
+                try {
+                    metaData = new MetaDataSnapshot(resultSetMetaData);
+                } catch (SQLException e) {
+                    throw new RuntimeException("Could not capture result set meta data. Cause: " + e, e);
+                }
+                ResultSetMetaData snapshot = metaData.metaData();
+                pending.add(listener -> listener.resultSet(snapshot));
+                bufferedRows = 0;
+            }
+        }
+
+        @Override
+        public void row(ResultSet resultSet) {
+            if (metaData != null && bufferedRows == MAX_BUFFERED_ROWS) {
+                // Wait for the other sections rather than buffer the whole result set
+                eventLock.lock();
+                metaData = null;
+                deliver();
+            }
+            if (metaData == null) {
+                notifyListeners(listener -> listener.row(resultSet));
+            } else {
+                bufferedRows++;
+                RowSnapshot row = new RowSnapshot();
+                try {
+                    row.capture(resultSet, metaData, 0);
+                } catch (SQLException e) {
+                    throw new RuntimeException("Could not capture row. Cause: " + e, e);
+                }
+                pending.add(listener -> listener.row(row.resultSet()));
+            }
+        }
+
+        @Override
+        public void rowCount(long rowCount) {
+            if (metaData == null) {
+                notifyListeners(listener -> listener.rowCount(rowCount));
+            } else {
+                pending.add(listener -> listener.rowCount(rowCount));
+            }
+        }
+
+        @Override
+        public void noMoreRows() {
+            if (metaData == null) {
+                notifyListeners(ScriptListener::noMoreRows);
+                release();
+            } else {
+                pending.add(ScriptListener::noMoreRows);
+                metaData = null;
+            }
+        }
+
+        @Override
+        public void commit() {
+            pending.add(ScriptListener::commit);
+        }
+
+        @Override
+        public void endFile(String name, int updateCount, int successCount, int warningCount, int errorCount, long duration) {
+        }
+
+        @Override
+        public void endScript(int updateCount, int successCount, int warningCount, int errorCount, long duration) {
+            release();
+            metaData = null;
+            if (!pending.isEmpty()) {
+                eventLock.lock();
+                try {
+                    deliver();
+                } finally {
+                    eventLock.unlock();
+                }
+            }
+            totals.add(updateCount, successCount, warningCount, errorCount);
+        }
+
+        private void flush() {
+            // Reading a result set may have failed before all of the rows were delivered
+            release();
+            metaData = null;
+            if (!pending.isEmpty() && eventLock.tryLock()) {
+                try {
+                    deliver();
+                } finally {
+                    eventLock.unlock();
+                }
+            }
+        }
+
+        private void deliver() {
+            for (Consumer<ScriptListener> event : pending) {
+                notifyListeners(event);
+            }
+            pending.clear();
+        }
+
+        private void release() {
+            while (eventLock.isHeldByCurrentThread()) {
+                eventLock.unlock();
+            }
+        }
+
+    }
+
+    /**
+     * A section listener that also forwards statement timings, only used if statements need to be timed.
+     */
+    private final class TimedSectionListener extends SectionListener implements StatementTimingListener {
+
+        private TimedSectionListener(Totals totals) {
+            super(totals);
+        }
+
+        @Override
+        public void statementTiming(StatementTiming statementTiming) {
+            pending.add(listener -> {
+                if (listener instanceof StatementTimingListener) {
+                    ((StatementTimingListener) listener).statementTiming(statementTiming);
+                }
+            });
+        }
+
+    }
+
+    private static final class Totals {
+
+        private int updateCount;
+        private int successCount;
+        private int warningCount;
+        private int errorCount;
+
+        private synchronized void add(int updateCount, int successCount, int warningCount, int errorCount) {
+            this.updateCount += updateCount;
+            this.successCount += successCount;
+            this.warningCount += warningCount;
+            this.errorCount += errorCount;
+        }
+
+    }
+
+}
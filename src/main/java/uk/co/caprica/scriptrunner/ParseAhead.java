@@ -0,0 +1,175 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.caprica.scriptrunner;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Runs a lexer on a separate thread, parsing ahead of the thread that handles the statements.
+ * <p>
+ * Lexer events are passed through a bounded queue, so the parser blocks when it gets too far ahead. Events are handled
+ * on the calling thread in exactly the same order as if the lexer had been run directly, and a failure on either side
+ * stops both.
+ */
+final class ParseAhead {
+
+    private enum Type {
+        COMMENT,
+        DELIMITER,
+        STATEMENT,
+        END,
+        FAILURE
+    }
+
+    private static final class Event {
+
+        private static final Event END = new Event(Type.END, null, null);
+
+        private final Type type;
+
+        private final String text;
+
+        private final Throwable failure;
+
+        private Event(Type type, String text, Throwable failure) {
+            this.type = type;
+            this.text = text;
+            this.failure = failure;
+        }
+
+    }
+
+    private final ScriptLexer lexer;
+
+    private final BlockingQueue<Event> queue;
+
+    ParseAhead(ScriptLexer lexer, int depth) {
+        this.lexer = lexer;
+        this.queue = new ArrayBlockingQueue<>(depth);
+    }
+
+    void run(ScriptLexer.Handler handler) throws IOException, SQLException {
+        Thread parser = new Thread(this::parse, "script-runner-parse-ahead");
+        parser.setDaemon(true);
+        parser.start();
+        try {
+            handle(handler);
+        } finally {
+            parser.interrupt();
+            joinUninterruptibly(parser);
+        }
+    }
+
+    private void parse() {
+        try {
+            lexer.run(new ScriptLexer.Handler() {
+                @Override
+                public void comment(String comment) throws InterruptedIOException {
+                    put(new Event(Type.COMMENT, comment, null));
+                }
+
+                @Override
+                public void delimiter(String delimiter) throws InterruptedIOException {
+                    put(new Event(Type.DELIMITER, delimiter, null));
+                }
+
+                @Override
+                public void statement(String sql) throws InterruptedIOException {
+                    put(new Event(Type.STATEMENT, sql, null));
+                }
+            });
+            put(Event.END);
+        } catch (InterruptedIOException e) {
+            // The handler has stopped, so there is no-one to report to
+        } catch (Throwable t) {
+            try {
+                put(new Event(Type.FAILURE, null, t));
+            } catch (InterruptedIOException e) {
+                // As above
+            }
+        }
+    }
+
+    private void handle(ScriptLexer.Handler handler) throws IOException, SQLException {
+        for (;;) {
+            Event event = take();
+            switch (event.type) {
+                case COMMENT:
+                    handler.comment(event.text);
+                    break;
+                case DELIMITER:
+                    handler.delimiter(event.text);
+                    break;
+                case STATEMENT:
+                    handler.statement(event.text);
+                    break;
+                case END:
+                    return;
+                case FAILURE:
+                    rethrow(event.failure);
+            }
+        }
+    }
+
+    private void put(Event event) throws InterruptedIOException {
+        try {
+            queue.put(event);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Parse-ahead stopped");
+        }
+    }
+
+    private Event take() throws InterruptedIOException {
+        try {
+            return queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for the next statement");
+        }
+    }
+
+    private static void rethrow(Throwable t) throws IOException, SQLException {
+        if (t instanceof IOException) {
+            throw (IOException) t;
+        } else if (t instanceof SQLException) {
+            throw (SQLException) t;
+        } else if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else {
+            throw (Error) t;
+        }
+    }
+
+    private static void joinUninterruptibly(Thread thread) {
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package uk.co.caprica.scriptrunner;
+
+/**
+ * The database's estimate of the work needed to execute a statement, obtained with EXPLAIN.
+ */
+public final class QueryPlan {
+
+    private final double cost;
+
+    private final long rows;
+
+    private final boolean fullScan;
+
+    private final String text;
+
+    /**
+     * Create a plan.
+     *
+     * @param cost estimated total cost, in the database's own units, or -1 if not estimated
+     * @param rows estimated number of rows produced by the largest step of the plan, or -1 if not estimated
+     * @param fullScan <code>true</code> if the plan reads every row of a table
+     * @param text plan as described by the database
+     */
+    public QueryPlan(double cost, long rows, boolean fullScan, String text) {
+        this.cost = cost;
+        this.rows = rows;
+        this.fullScan = fullScan;
+        this.text = text;
+    }
+
+    /**
+     * Get the estimated total cost of the statement.
+     * <p>
+     * Costs are only comparable between statements on the same database.
+     *
+     * @return cost, or -1 if the database does not estimate a cost
+     */
+    public double getCost() {
+        return cost;
+    }
+
+    /**
+     * Get the estimated number of rows produced by the largest step of the plan, such as a scan or a sort.
+     *
+     * @return number of rows, or -1 if the database does not estimate the number of rows
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    public boolean isFullScan() {
+        return fullScan;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    @Override
+    public String toString() {
+        return "QueryPlan[cost=" + cost + ",rows=" + rows + ",fullScan=" + fullScan + "]";
+    }
+
+}
@@ -0,0 +1,194 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package uk.co.caprica.scriptrunner;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Opens a sequence of scripts one after another, reading the start of the next script on a separate thread while the
+ * current one is executed.
+ * <p>
+ * Only the next script is read ahead, and only up to a bounded number of characters, the rest of it is read as it is
+ * executed. Opening, and decompressing, the next script therefore overlaps with executing the current one without the
+ * whole script being held in memory.
+ */
+final class ReadAhead implements AutoCloseable {
+
+    private static final int INITIAL_BUFFER_SIZE = 8192;
+
+    private final List<ScriptFile> files;
+
+    private final int length;
+
+    private int next;
+
+    private FutureTask<Reader> pending;
+
+    /**
+     * Create a read ahead.
+     *
+     * @param files scripts, in order
+     * @param length maximum number of characters to read ahead, or zero to open each script only when it is needed
+     */
+    ReadAhead(List<ScriptFile> files, int length) {
+        this.files = files;
+        this.length = length;
+    }
+
+    /**
+     * Open the next script, and start reading ahead the one after it.
+     *
+     * @return reader for the script
+     * @throws IOException if the script could not be opened or read
+     */
+    Reader next() throws IOException {
+        Reader reader;
+        if (pending != null) {
+            FutureTask<Reader> task = pending;
+            pending = null;
+            reader = await(task);
+        } else {
+            reader = files.get(next).open();
+        }
+        next++;
+        if (length > 0 && next < files.size()) {
+            ScriptFile file = files.get(next);
+            pending = new FutureTask<>(() -> readAhead(file));
+            Thread thread = new Thread(pending, "script-runner-read-ahead");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        return reader;
+    }
+
+    /**
+     * Close the script that has been read ahead, if it was never needed.
+     */
+    @Override
+    public void close() {
+        if (pending != null) {
+            try {
+                await(pending).close();
+            } catch (IOException | RuntimeException e) {
+                // The script was never going to be run, so the failure does not matter
+            }
+            pending = null;
+        }
+    }
+
+    private Reader readAhead(ScriptFile file) throws IOException {
+        Reader reader = file.open();
+        try {
+            char[] buffer = new char[Math.min(length, INITIAL_BUFFER_SIZE)];
+            int count = 0;
+            for (;;) {
+                int read = reader.read(buffer, count, buffer.length - count);
+                if (read == -1) {
+                    // The whole script fits in the buffer, so it is not kept open
+                    reader.close();
+                    return new PrefixReader(buffer, count, null);
+                }
+                count += read;
+                if (count == buffer.length) {
+                    if (buffer.length == length) {
+                        return new PrefixReader(buffer, count, reader);
+                    }
+                    buffer = Arrays.copyOf(buffer, (int) Math.min((long) buffer.length * 2, length));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            reader.close();
+            throw e;
+        }
+    }
+
+    private static Reader await(FutureTask<Reader> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for the next script");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * A reader that gives the characters read ahead, followed by the rest of the script.
+     */
+    private static final class PrefixReader extends Reader {
+
+        private char[] prefix;
+
+        private final int prefixLength;
+
+        private int position;
+
+        private final Reader rest;
+
+        private PrefixReader(char[] prefix, int prefixLength, Reader rest) {
+            this.prefix = prefix;
+            this.prefixLength = prefixLength;
+            this.rest = rest;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (prefix != null) {
+                int count = Math.min(len, prefixLength - position);
+                System.arraycopy(prefix, position, cbuf, off, count);
+                position += count;
+                if (position == prefixLength) {
+                    // Release the buffer as soon as it has been consumed
+                    prefix = null;
+                }
+                if (count > 0) {
+                    return count;
+                }
+            }
+            return rest != null ? rest.read(cbuf, off, len) : -1;
+        }
+
+        @Override
+        public void close() throws IOException {
+            prefix = null;
+            if (rest != null) {
+                rest.close();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package uk.co.caprica.scriptrunner;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A listener that captures every result set in memory, in a compact columnar form.
+ * <p>
+ * This makes the output of a script available to the caller once the script has run, for example to make assertions on
+ * it in tests, at a fraction of the memory cost of keeping each row as an array of objects. Only the rows delivered to
+ * the listeners are captured, so a row limit set on the script runner also limits what is captured.
+ * <p>
+ * The results are reset at the start of each script. Events must not be sent to this listener from more than one thread
+ * at a time.
+ */
+public class ResultCaptureListener extends ScriptAdapter {
+
+    private final List<CapturedResult> results = new ArrayList<>();
+
+    private String sql;
+
+    private String[] labels;
+
+    private CapturedColumn[] columns;
+
+    private int rowCount;
+
+    /**
+     * Get the result sets captured from the most recent script, in the order they were produced.
+     *
+     * @return captured result sets
+     */
+    public List<CapturedResult> getResults() {
+        return Collections.unmodifiableList(results);
+    }
+
+    @Override
+    public void beginScript() {
+        results.clear();
+        columns = null;
+    }
+
+    @Override
+    public void sql(String sql) {
+        this.sql = sql;
+    }
+
+    @Override
+    public void resultSet(ResultSetMetaData resultSetMetaData) {
+        try {
+            int columnCount = resultSetMetaData.getColumnCount();
+            labels = new String[columnCount];
+            columns = new CapturedColumn[columnCount];
+            for (int column = 1; column <= columnCount; column++) {
+                labels[column - 1] = resultSetMetaData.getColumnLabel(column);
+                columns[column - 1] = CapturedColumn.of(resultSetMetaData, column);
+            }
+            rowCount = 0;
+        } catch (SQLException e) {
+            throw new RuntimeException("Could not capture result set meta data. Cause: " + e, e);
+        }
+    }
+
+    @Override
+    public void row(ResultSet resultSet) {
+        try {
+            for (int column = 0; column < columns.length; column++) {
+                columns[column].add(resultSet, column + 1);
+            }
+            rowCount++;
+        } catch (SQLException e) {
+            throw new RuntimeException("Could not capture row. Cause: " + e, e);
+        }
+    }
+
+    @Override
+    public void noMoreRows() {
+        if (columns == null) {
+            return;
+        }
+        for (CapturedColumn column : columns) {
+            column.trim();
+        }
+        results.add(new CapturedResult(sql, labels, columns, rowCount));
+        labels = null;
+        columns = null;
+    }
+
+}
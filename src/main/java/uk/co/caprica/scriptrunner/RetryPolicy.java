@@ -0,0 +1,140 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package uk.co.caprica.scriptrunner;
+
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Specification of which statement failures are transient, and how to retry them.
+ * <p>
+ * A failure is transient if the SQLState or the vendor error code of the exception, or of any exception chained to it,
+ * is one of those configured. By default these are the standard serialization failure SQLState "40001", which is also
+ * used by MySQL and SQL Server for deadlocks, and the PostgreSQL deadlock SQLState "40P01".
+ * <p>
+ * The delay before each retry grows exponentially up to a maximum, and a random delay of up to that amount is used so
+ * that competing scripts do not retry in lock-step.
+ */
+public class RetryPolicy {
+
+    private static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+    private static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 100;
+
+    private static final long DEFAULT_MAX_BACKOFF_MILLIS = 5000;
+
+    private final Set<String> sqlStates = new HashSet<>();
+
+    private final Set<Integer> vendorCodes = new HashSet<>();
+
+    private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+
+    private long initialBackoffMillis = DEFAULT_INITIAL_BACKOFF_MILLIS;
+
+    private long maxBackoffMillis = DEFAULT_MAX_BACKOFF_MILLIS;
+
+    public RetryPolicy() {
+        sqlStates.add("40001");
+        sqlStates.add("40P01");
+    }
+
+    /**
+     * Treat failures with the given SQLState as transient.
+     *
+     * @param sqlState SQLState
+     */
+    public void addSqlState(String sqlState) {
+        sqlStates.add(sqlState);
+    }
+
+    /**
+     * Treat failures with the given vendor error code as transient, for example 1205 for a MySQL lock wait timeout.
+     *
+     * @param vendorCode vendor error code
+     */
+    public void addVendorCode(int vendorCode) {
+        vendorCodes.add(vendorCode);
+    }
+
+    /**
+     * Set the maximum number of attempts, including the first.
+     *
+     * @param maxAttempts maximum number of attempts
+     */
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Set the delay before the first retry, doubled for each retry after that.
+     *
+     * @param initialBackoffMillis delay, in milliseconds
+     */
+    public void setInitialBackoffMillis(long initialBackoffMillis) {
+        this.initialBackoffMillis = initialBackoffMillis;
+    }
+
+    /**
+     * Set the maximum delay before a retry.
+     *
+     * @param maxBackoffMillis delay, in milliseconds
+     */
+    public void setMaxBackoffMillis(long maxBackoffMillis) {
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Is a failure transient, so that retrying may succeed?
+     *
+     * @param e exception
+     * @return <code>true</code> if the failure is transient
+     */
+    public boolean isTransient(SQLException e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof SQLException) {
+                for (SQLException next = (SQLException) t; next != null; next = next.getNextException()) {
+                    if (sqlStates.contains(next.getSQLState()) || vendorCodes.contains(next.getErrorCode())) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the delay before the next attempt.
+     *
+     * @param attempt number of the attempt that failed, starting from one
+     * @return delay, in milliseconds
+     */
+    long backoffMillis(int attempt) {
+        long ceiling = initialBackoffMillis << Math.min(attempt - 1, 30);
+        if (ceiling <= 0 || ceiling > maxBackoffMillis) {
+            ceiling = maxBackoffMillis;
+        }
+        return ceiling > 0 ? ThreadLocalRandom.current().nextLong(ceiling + 1) : 0;
+    }
+
+}
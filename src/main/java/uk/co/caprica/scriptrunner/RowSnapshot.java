@@ -0,0 +1,273 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.caprica.scriptrunner;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+
+/**
+ * A copy of the values in the current row of a result set, presented as a read-only single-row {@link ResultSet}.
+ * <p>
+ * The snapshot is reusable, capturing a new row replaces the previous values. Both the object and the string value of
+ * each column are captured, so that both {@link ResultSet#getObject(int)} and {@link ResultSet#getString(int)} give the
+ * same results that the driver would have given.
+ */
+final class RowSnapshot implements InvocationHandler {
+
+    private final ResultSet resultSet;
+
+    private MetaDataSnapshot metaData;
+
+    private Object[] objects = new Object[0];
+
+    private String[] strings = new String[0];
+
+    private int row;
+
+    private boolean wasNull;
+
+    RowSnapshot() {
+        resultSet = (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[] {ResultSet.class}, this);
+    }
+
+    ResultSet resultSet() {
+        return resultSet;
+    }
+
+    /**
+     * Capture the values in the current row of a result set.
+     *
+     * @param source result set
+     * @param metaData meta data for the result set
+     * @param previewLength maximum number of characters, or bytes, of a large value to capture, or zero for no limit
+     * @throws SQLException if an error occurs
+     */
+    void capture(ResultSet source, MetaDataSnapshot metaData, int previewLength) throws SQLException {
+        this.metaData = metaData;
+        int columnCount = metaData.columnCount();
+        if (objects.length < columnCount) {
+            objects = new Object[columnCount];
+            strings = new String[columnCount];
+        }
+        for (int column = 1; column <= columnCount; column++) {
+            int type = metaData.columnType(column);
+            if (previewLength > 0 && ValuePreview.isStreamed(type, metaData.precision(column))) {
+                capturePreview(source, column, type, previewLength);
+                continue;
+            }
+            Object value = source.getObject(column);
+            objects[column - 1] = value;
+            strings[column - 1] = value instanceof String && isCharacterType(type) ? (String) value : source.getString(column);
+        }
+        row = source.getRow();
+    }
+
+    /**
+     * Capture the start of a large value, which is all that is available from the snapshot.
+     * <p>
+     * A binary value is captured as bytes, with a string value in hexadecimal.
+     */
+    private void capturePreview(ResultSet source, int column, int type, int previewLength) throws SQLException {
+        if (ValuePreview.isBinary(type)) {
+            byte[] value = ValuePreview.readBytes(source, column, previewLength);
+            objects[column - 1] = value;
+            strings[column - 1] = value != null ? ValuePreview.hex(value, value.length * 2) : null;
+        } else {
+            String value = ValuePreview.readChars(source, column, previewLength);
+            objects[column - 1] = value;
+            strings[column - 1] = value;
+        }
+    }
+
+    /**
+     * Release the references to the captured values.
+     */
+    void clear() {
+        for (int i = 0; i < objects.length; i++) {
+            objects[i] = null;
+            strings[i] = null;
+        }
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "getString":
+                return string(args);
+            case "getObject":
+                return object(args);
+            case "getBoolean":
+                return toBoolean(object(args));
+            case "getByte":
+                return (byte) toLong(object(args));
+            case "getShort":
+                return (short) toLong(object(args));
+            case "getInt":
+                return (int) toLong(object(args));
+            case "getLong":
+                return toLong(object(args));
+            case "getFloat":
+                return (float) toDouble(object(args));
+            case "getDouble":
+                return toDouble(object(args));
+            case "getBigDecimal":
+                return toBigDecimal(object(args));
+            case "getBytes":
+                return as(byte[].class, object(args), method);
+            case "getDate":
+                return as(Date.class, object(args), method);
+            case "getTime":
+                return as(Time.class, object(args), method);
+            case "getTimestamp":
+                return as(Timestamp.class, object(args), method);
+            case "wasNull":
+                return wasNull;
+            case "findColumn":
+                return metaData.findColumn((String) args[0]);
+            case "getMetaData":
+                return metaData.metaData();
+            case "getRow":
+                return row;
+            case "isClosed":
+                return false;
+            case "close":
+                return null;
+            case "isWrapperFor":
+                return false;
+            case "toString":
+                return "RowSnapshot[row=" + row + "]";
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            default:
+                throw new SQLFeatureNotSupportedException("Not available from a row snapshot: " + method.getName());
+        }
+    }
+
+    private int column(Object[] args) throws SQLException {
+        int column = args[0] instanceof String ? metaData.findColumn((String) args[0]) : (Integer) args[0];
+        if (column < 1 || column > metaData.columnCount()) {
+            throw new SQLException("Invalid column index: " + column);
+        }
+        return column - 1;
+    }
+
+    private Object object(Object[] args) throws SQLException {
+        Object value = objects[column(args)];
+        wasNull = value == null;
+        if (args.length > 1 && args[1] instanceof Class && value != null) {
+            Class<?> type = (Class<?>) args[1];
+            if (!type.isInstance(value)) {
+                throw new SQLException("Value is not a " + type.getName());
+            }
+        }
+        return value;
+    }
+
+    private String string(Object[] args) throws SQLException {
+        String value = strings[column(args)];
+        wasNull = value == null;
+        return value;
+    }
+
+    private static boolean isCharacterType(int type) {
+        switch (type) {
+            case Types.CHAR:
+            case Types.VARCHAR:
+            case Types.LONGVARCHAR:
+            case Types.NCHAR:
+            case Types.NVARCHAR:
+            case Types.LONGNVARCHAR:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean toBoolean(Object value) {
+        if (value == null) {
+            return false;
+        } else if (value instanceof Boolean) {
+            return (Boolean) value;
+        } else if (value instanceof Number) {
+            return ((Number) value).intValue() != 0;
+        } else {
+            String text = value.toString().trim();
+            return text.equalsIgnoreCase("true") || text.equals("1");
+        }
+    }
+
+    private static long toLong(Object value) throws SQLException {
+        if (value == null) {
+            return 0;
+        } else if (value instanceof Number) {
+            return ((Number) value).longValue();
+        } else if (value instanceof Boolean) {
+            return (Boolean) value ? 1 : 0;
+        } else {
+            try {
+                return new BigDecimal(value.toString().trim()).longValue();
+            } catch (NumberFormatException e) {
+                throw new SQLException("Value is not a number: " + value, e);
+            }
+        }
+    }
+
+    private static double toDouble(Object value) throws SQLException {
+        if (value == null) {
+            return 0;
+        } else if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        } else {
+            try {
+                return Double.parseDouble(value.toString().trim());
+            } catch (NumberFormatException e) {
+                throw new SQLException("Value is not a number: " + value, e);
+            }
+        }
+    }
+
+    private static BigDecimal toBigDecimal(Object value) throws SQLException {
+        if (value == null || value instanceof BigDecimal) {
+            return (BigDecimal) value;
+        } else {
+            try {
+                return new BigDecimal(value.toString().trim());
+            } catch (NumberFormatException e) {
+                throw new SQLException("Value is not a number: " + value, e);
+            }
+        }
+    }
+
+    private static Object as(Class<?> type, Object value, Method method) throws SQLException {
+        if (value == null || type.isInstance(value)) {
+            return value;
+        }
+        throw new SQLFeatureNotSupportedException("Not available from a row snapshot: " + method.getName() + " for a " + value.getClass().getName());
+    }
+
+}
@@ -18,16 +18,47 @@ package uk.co.caprica.scriptrunner;
 
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
 
 /**
  * Empty implementation for a {@link ScriptListener}.
+ * <p>
+ * The interests of a sub-class are the events for which it overrides the listener method.
  */
 public class ScriptAdapter implements ScriptListener {
 
+    private static final ClassValue<Set<ScriptEvent>> INTERESTS = new ClassValue<Set<ScriptEvent>>() {
+        @Override
+        protected Set<ScriptEvent> computeValue(Class<?> type) {
+            Set<ScriptEvent> interests = EnumSet.noneOf(ScriptEvent.class);
+            for (ScriptEvent event : ScriptEvent.values()) {
+                try {
+                    if (type.getMethod(event.methodName(), event.parameterTypes()).getDeclaringClass() != ScriptAdapter.class) {
+                        interests.add(event);
+                    }
+                } catch (NoSuchMethodException e) {
+                    throw new RuntimeException("Could not find listener method. Cause: " + e, e);
+                }
+            }
+            return Collections.unmodifiableSet(interests);
+        }
+    };
+
+    @Override
+    public Set<ScriptEvent> interests() {
+        return INTERESTS.get(getClass());
+    }
+
     @Override
     public void beginScript() {
     }
 
+    @Override
+    public void beginFile(String name) {
+    }
+
     @Override
     public void comment(String comment) {
     }
@@ -36,6 +67,10 @@ public class ScriptAdapter implements ScriptListener {
     public void sql(String sql) {
     }
 
+    @Override
+    public void plan(QueryPlan plan) {
+    }
+
     @Override
     public void success() {
     }
@@ -44,6 +79,14 @@ public class ScriptAdapter implements ScriptListener {
     public void error(String error) {
     }
 
+    @Override
+    public void cancelled(String message) {
+    }
+
+    @Override
+    public void retry(String message, int attempt, long delay) {
+    }
+
     @Override
     public void updateCount(int updateCount) {
     }
@@ -56,10 +99,22 @@ public class ScriptAdapter implements ScriptListener {
     public void row(ResultSet resultSet) {
     }
 
+    @Override
+    public void rowCount(long rowCount) {
+    }
+
     @Override
     public void noMoreRows() {
     }
 
+    @Override
+    public void commit() {
+    }
+
+    @Override
+    public void endFile(String name, int updateCount, int successCount, int warningCount, int errorCount, long duration) {
+    }
+
     @Override
     public void endScript(int updateCount, int successCount, int warningCount, int errorCount, long duration) {
     }
@@ -0,0 +1,73 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package uk.co.caprica.scriptrunner;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+
+/**
+ * Events that may be delivered to a {@link ScriptListener}, one for each listener method.
+ */
+public enum ScriptEvent {
+
+    BEGIN_SCRIPT("beginScript"),
+    BEGIN_FILE("beginFile", String.class),
+    COMMENT("comment", String.class),
+    SQL("sql", String.class),
+    PLAN("plan", QueryPlan.class),
+    SUCCESS("success"),
+    ERROR("error", String.class),
+    CANCELLED("cancelled", String.class),
+    RETRY("retry", String.class, int.class, long.class),
+    UPDATE_COUNT("updateCount", int.class),
+    RESULT_SET("resultSet", ResultSetMetaData.class),
+    ROW("row", ResultSet.class),
+    ROW_COUNT("rowCount", long.class),
+    NO_MORE_ROWS("noMoreRows"),
+    COMMIT("commit"),
+    END_FILE("endFile", String.class, int.class, int.class, int.class, int.class, long.class),
+    END_SCRIPT("endScript", int.class, int.class, int.class, int.class, long.class);
+
+    private final String methodName;
+
+    private final Class<?>[] parameterTypes;
+
+    ScriptEvent(String methodName, Class<?>... parameterTypes) {
+        this.methodName = methodName;
+        this.parameterTypes = parameterTypes;
+    }
+
+    /**
+     * Get the name of the listener method that receives this event.
+     *
+     * @return method name
+     */
+    String methodName() {
+        return methodName;
+    }
+
+    /**
+     * Get the parameter types of the listener method that receives this event.
+     *
+     * @return parameter types
+     */
+    Class<?>[] parameterTypes() {
+        return parameterTypes.clone();
+    }
+
+}
@@ -0,0 +1,183 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.caprica.scriptrunner;
+
+import java.io.Reader;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Executes the same script against many databases concurrently.
+ * <p>
+ * The script is parsed once, and then executed against each target with its own connection by a single shared script
+ * runner. At most the configured number of targets are executed at the same time.
+ * <p>
+ * A journal set by the configuration is not used, each target runs the whole script.
+ * <p>
+ * Where the Java runtime supports virtual threads each target is executed on its own virtual thread, otherwise a fixed
+ * size pool of threads is used.
+ */
+public class ScriptExecutor implements AutoCloseable {
+
+    private final int concurrency;
+
+    private final Semaphore permits;
+
+    private final ExecutorService executor;
+
+    private Consumer<ScriptRunner> configuration = scriptRunner -> {};
+
+    /**
+     * Create an executor.
+     *
+     * @param concurrency maximum number of targets to execute at the same time
+     */
+    public ScriptExecutor(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be at least 1");
+        }
+        this.concurrency = concurrency;
+        this.permits = new Semaphore(concurrency);
+        this.executor = createExecutor(concurrency);
+    }
+
+    /**
+     * Set the configuration to apply to the script runner, for example to set the delimiter or add listeners.
+     * <p>
+     * The configuration is applied once for each call to execute, and the configured script runner is shared by all of
+     * the targets, so listeners added by the configuration receive events from many threads and must be thread-safe.
+     *
+     * @param configuration script runner configuration
+     */
+    public void setConfiguration(Consumer<ScriptRunner> configuration) {
+        this.configuration = configuration;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Execute a script against each of the targets.
+     * <p>
+     * The script is parsed once, with the settings applied by the configuration.
+     *
+     * @param reader reader for the script
+     * @param targets targets to execute the script against
+     * @return futures for the result of each target, in the same order as the targets
+     */
+    public List<CompletableFuture<ScriptResult>> execute(Reader reader, Collection<? extends ConnectionSource> targets) {
+        ScriptRunner scriptRunner = createScriptRunner();
+        return execute(scriptRunner, scriptRunner.compileScript(reader), targets);
+    }
+
+    /**
+     * Execute a compiled script against each of the targets.
+     * <p>
+     * Each future completes normally, if a target could not be executed the result reports the failure.
+     *
+     * @param plan compiled script
+     * @param targets targets to execute the script against
+     * @return futures for the result of each target, in the same order as the targets
+     */
+    public List<CompletableFuture<ScriptResult>> execute(ScriptPlan plan, Collection<? extends ConnectionSource> targets) {
+        return execute(createScriptRunner(), plan, targets);
+    }
+
+    /**
+     * Stop accepting new work, targets already submitted are still executed.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    private ScriptRunner createScriptRunner() {
+        ScriptRunner scriptRunner = new ScriptRunner();
+        configuration.accept(scriptRunner);
+        return scriptRunner;
+    }
+
+    private List<CompletableFuture<ScriptResult>> execute(ScriptRunner scriptRunner, ScriptPlan plan, Collection<? extends ConnectionSource> targets) {
+        List<CompletableFuture<ScriptResult>> results = new ArrayList<>(targets.size());
+        for (ConnectionSource target : targets) {
+            results.add(CompletableFuture.supplyAsync(() -> executeWithPermit(scriptRunner, plan, target), executor));
+        }
+        return results;
+    }
+
+    private ScriptResult executeWithPermit(ScriptRunner scriptRunner, ScriptPlan plan, ConnectionSource target) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new ScriptResult(0, 0, 0, 0, 0, e);
+        }
+        try {
+            return execute(scriptRunner, plan, target);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private ScriptResult execute(ScriptRunner scriptRunner, ScriptPlan plan, ConnectionSource target) {
+        long startTime = System.currentTimeMillis();
+        try (Connection connection = target.getConnection()) {
+            // A single journal can not record the progress of many targets
+            return scriptRunner.executePlan(connection, plan, false);
+        } catch (Throwable t) {
+            return new ScriptResult(0, 0, 0, 0, System.currentTimeMillis() - startTime, t);
+        }
+    }
+
+    /**
+     * Create an executor service that uses virtual threads if they are available, or a bounded pool of platform threads
+     * otherwise.
+     */
+    private static ExecutorService createExecutor(int concurrency) {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return Executors.newFixedThreadPool(concurrency, new WorkerThreadFactory());
+        }
+    }
+
+    private static final class WorkerThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "script-runner-executor-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+
+    }
+
+}
@@ -0,0 +1,52 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package uk.co.caprica.scriptrunner;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Specification for a single script supplied by a {@link ScriptSource}.
+ */
+public interface ScriptFile {
+
+    /**
+     * Get the name of the script, used to report it.
+     *
+     * @return name
+     */
+    String getName();
+
+    /**
+     * Get the size of the script, used only to size buffers up front.
+     *
+     * @return size in bytes, or zero if not known
+     */
+    long getSize();
+
+    /**
+     * Open the script for reading.
+     * <p>
+     * The reader is closed by the caller.
+     *
+     * @return reader for the script
+     * @throws IOException if the script could not be opened
+     */
+    Reader open() throws IOException;
+
+}
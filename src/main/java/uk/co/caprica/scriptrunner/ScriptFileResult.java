@@ -0,0 +1,75 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package uk.co.caprica.scriptrunner;
+
+/**
+ * The outcome of executing one of the scripts from a {@link ScriptSource}.
+ */
+public final class ScriptFileResult {
+
+    private final String name;
+    private final int updateCount;
+    private final int successCount;
+    private final int warningCount;
+    private final int errorCount;
+    private final long duration;
+
+    ScriptFileResult(String name, int updateCount, int successCount, int warningCount, int errorCount, long duration) {
+        this.name = name;
+        this.updateCount = updateCount;
+        this.successCount = successCount;
+        this.warningCount = warningCount;
+        this.errorCount = errorCount;
+        this.duration = duration;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getUpdateCount() {
+        return updateCount;
+    }
+
+    public int getSuccessCount() {
+        return successCount;
+    }
+
+    public int getWarningCount() {
+        return warningCount;
+    }
+
+    public int getErrorCount() {
+        return errorCount;
+    }
+
+    /**
+     * Get the time taken to execute the script.
+     *
+     * @return duration, in milliseconds
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ScriptFileResult[name=%s,updates=%d,successes=%d,warnings=%d,errors=%d,duration=%d]", name, updateCount, successCount, warningCount, errorCount, duration);
+    }
+
+}
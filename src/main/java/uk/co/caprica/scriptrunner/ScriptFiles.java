@@ -0,0 +1,313 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package uk.co.caprica.scriptrunner;
+
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * The script files supplied by the standard script sources.
+ */
+final class ScriptFiles {
+
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Orders names with runs of digits compared by their numeric value, and everything else compared ignoring case.
+     */
+    static final Comparator<String> NAME_ORDER = ScriptFiles::compareNames;
+
+    private ScriptFiles() {
+    }
+
+    static List<ScriptFile> file(Path path, Charset charset) throws IOException {
+        if (isArchive(path.getFileName().toString())) {
+            return archive(path, charset);
+        }
+        return Collections.singletonList(new PathFile(path, charset));
+    }
+
+    static List<ScriptFile> directory(Path directory, Charset charset) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                if ((isScript(name) || isArchive(name)) && Files.isRegularFile(path)) {
+                    paths.add(path);
+                }
+            }
+        }
+        paths.sort(Comparator.comparing(path -> path.getFileName().toString(), NAME_ORDER));
+        List<ScriptFile> files = new ArrayList<>(paths.size());
+        for (Path path : paths) {
+            files.addAll(file(path, charset));
+        }
+        return files;
+    }
+
+    static List<ScriptFile> resources(ClassLoader classLoader, Charset charset, String... names) throws IOException {
+        List<ScriptFile> files = new ArrayList<>(names.length);
+        for (String name : names) {
+            if (isArchive(name)) {
+                throw new IOException("Archives can not be read from the class path: " + name);
+            }
+            files.add(new ResourceFile(classLoader, name.startsWith("/") ? name.substring(1) : name, charset));
+        }
+        return files;
+    }
+
+    /**
+     * List the scripts in an archive, in name order.
+     * <p>
+     * Only the central directory of the archive is read here, the entries are decompressed when they are opened.
+     */
+    private static List<ScriptFile> archive(Path path, Charset charset) throws IOException {
+        List<ZipEntry> entries = new ArrayList<>();
+        try (ZipFile zipFile = new ZipFile(path.toFile())) {
+            Enumeration<? extends ZipEntry> enumeration = zipFile.entries();
+            while (enumeration.hasMoreElements()) {
+                ZipEntry entry = enumeration.nextElement();
+                if (!entry.isDirectory() && isScript(entry.getName())) {
+                    entries.add(entry);
+                }
+            }
+        }
+        entries.sort(Comparator.comparing(ZipEntry::getName, NAME_ORDER));
+        List<ScriptFile> files = new ArrayList<>(entries.size());
+        for (ZipEntry entry : entries) {
+            files.add(new ArchiveFile(path, entry.getName(), Math.max(entry.getSize(), 0), charset));
+        }
+        return files;
+    }
+
+    private static boolean isScript(String name) {
+        String lowerName = name.toLowerCase(Locale.ROOT);
+        return lowerName.endsWith(".sql") || lowerName.endsWith(".sql.gz");
+    }
+
+    private static boolean isArchive(String name) {
+        return name.toLowerCase(Locale.ROOT).endsWith(".zip");
+    }
+
+    private static boolean isCompressed(String name) {
+        return name.toLowerCase(Locale.ROOT).endsWith(".gz");
+    }
+
+    /**
+     * Create a reader for a stream, decompressing it if necessary.
+     * <p>
+     * The stream is closed if the reader can not be created.
+     */
+    private static Reader reader(InputStream in, String name, Charset charset) throws IOException {
+        try {
+            return new InputStreamReader(isCompressed(name) ? new GZIPInputStream(in, GZIP_BUFFER_SIZE) : in, charset);
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    private static int compareNames(String a, String b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            char ca = a.charAt(i);
+            char cb = b.charAt(j);
+            if (isDigit(ca) && isDigit(cb)) {
+                int startA = i;
+                int startB = j;
+                while (i < a.length() && isDigit(a.charAt(i))) {
+                    i++;
+                }
+                while (j < b.length() && isDigit(b.charAt(j))) {
+                    j++;
+                }
+                // Compare the numbers without their leading zeros, a longer number is a bigger one
+                while (startA < i - 1 && a.charAt(startA) == '0') {
+                    startA++;
+                }
+                while (startB < j - 1 && b.charAt(startB) == '0') {
+                    startB++;
+                }
+                int result = Integer.compare(i - startA, j - startB);
+                for (int k = 0; result == 0 && k < i - startA; k++) {
+                    result = Character.compare(a.charAt(startA + k), b.charAt(startB + k));
+                }
+                if (result != 0) {
+                    return result;
+                }
+            } else {
+                int result = Character.compare(Character.toLowerCase(ca), Character.toLowerCase(cb));
+                if (result != 0) {
+                    return result;
+                }
+                i++;
+                j++;
+            }
+        }
+        int result = Integer.compare(a.length() - i, b.length() - j);
+        return result != 0 ? result : a.compareTo(b);
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static final class PathFile implements ScriptFile {
+
+        private final Path path;
+
+        private final Charset charset;
+
+        private PathFile(Path path, Charset charset) {
+            this.path = path;
+            this.charset = charset;
+        }
+
+        @Override
+        public String getName() {
+            return path.toString();
+        }
+
+        @Override
+        public long getSize() {
+            try {
+                return isCompressed(path.toString()) ? 0 : Files.size(path);
+            } catch (IOException e) {
+                return 0;
+            }
+        }
+
+        @Override
+        public Reader open() throws IOException {
+            if (isCompressed(path.toString())) {
+                return reader(Files.newInputStream(path), path.toString(), charset);
+            }
+            return new MappedFileReader(path, charset);
+        }
+
+    }
+
+    private static final class ArchiveFile implements ScriptFile {
+
+        private final Path path;
+
+        private final String entryName;
+
+        private final long size;
+
+        private final Charset charset;
+
+        private ArchiveFile(Path path, String entryName, long size, Charset charset) {
+            this.path = path;
+            this.entryName = entryName;
+            this.size = size;
+            this.charset = charset;
+        }
+
+        @Override
+        public String getName() {
+            return path + "!/" + entryName;
+        }
+
+        @Override
+        public long getSize() {
+            return isCompressed(entryName) ? 0 : size;
+        }
+
+        @Override
+        public Reader open() throws IOException {
+            ZipFile zipFile = new ZipFile(path.toFile());
+            try {
+                ZipEntry entry = zipFile.getEntry(entryName);
+                if (entry == null) {
+                    throw new FileNotFoundException("No such entry: " + getName());
+                }
+                // Closing the reader closes the archive
+                InputStream in = new FilterInputStream(zipFile.getInputStream(entry)) {
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            zipFile.close();
+                        }
+                    }
+                };
+                return reader(in, entryName, charset);
+            } catch (IOException | RuntimeException e) {
+                zipFile.close();
+                throw e;
+            }
+        }
+
+    }
+
+    private static final class ResourceFile implements ScriptFile {
+
+        private final ClassLoader classLoader;
+
+        private final String name;
+
+        private final Charset charset;
+
+        private ResourceFile(ClassLoader classLoader, String name, Charset charset) {
+            this.classLoader = classLoader;
+            this.name = name;
+            this.charset = charset;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public long getSize() {
+            return 0;
+        }
+
+        @Override
+        public Reader open() throws IOException {
+            InputStream in = classLoader.getResourceAsStream(name);
+            if (in == null) {
+                throw new FileNotFoundException("No such resource: " + name);
+            }
+            return reader(in, name, charset);
+        }
+
+    }
+
+}
@@ -0,0 +1,619 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.caprica.scriptrunner;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.SQLException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Single-pass streaming tokenizer that splits a script into statements and comments.
+ * <p>
+ * The script is read in blocks into a reused buffer, there is no line-by-line processing. Delimiters are recognised
+ * only outside of string literals, quoted identifiers, comments and PostgreSQL dollar-quoted bodies.
+ * <p>
+ * A line that starts with "--" or "//" is a comment line, it is reported as a comment and never forms part of a
+ * statement, and may contain an "@DELIMITER" directive to change the delimiter. Any other comment that appears before
+ * the start of a statement is also reported as a comment, whereas comments that appear within a statement are left
+ * in the statement text. MySQL conditional comments ("/*!") and optimizer hints ("/*+") are always statement text,
+ * since the database executes them.
+ * <p>
+ * Block comments nest only if nested comments are enabled (as is needed for PostgreSQL scripts), otherwise a block
+ * comment ends at the first "*&#47;". A block comment that is not closed by the end of the script is left pending, so
+ * it is reported as a missing terminator.
+ * <p>
+ * Backslash escapes within string literals are recognised only for PostgreSQL "E" strings, unless backslash escapes
+ * are enabled for all string literals (as is needed for MySQL scripts).
+ * <p>
+ * Line endings within a statement are normalised to the platform line separator, and blank lines within a statement
+ * are dropped.
+ */
+final class ScriptLexer {
+
+    /**
+     * Specification for a component that handles the events produced by the lexer.
+     */
+    interface Handler {
+
+        void comment(String comment) throws IOException, SQLException;
+
+        void delimiter(String delimiter) throws IOException, SQLException;
+
+        void statement(String sql) throws IOException, SQLException;
+
+    }
+
+    private static final Pattern DELIMITER_PATTERN = Pattern.compile("^\\s*((--)|(//))?\\s*(//)?\\s*@DELIMITER\\s+([^\\s]+)", Pattern.CASE_INSENSITIVE);
+
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator", "\n");
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final int MAXIMUM_DOLLAR_TAG_LENGTH = 64;
+
+    /**
+     * Lookup table for characters that may start something other than plain statement text.
+     */
+    private static final boolean[] SPECIAL = new boolean[128];
+
+    static {
+        for (char c : "\n\r-/'\"`$".toCharArray()) {
+            SPECIAL[c] = true;
+        }
+    }
+
+    private final Reader reader;
+
+    private final char[] buffer = new char[BUFFER_SIZE];
+
+    private int position;
+    private int limit;
+
+    /**
+     * Number of characters of the input that have already been discarded from the buffer.
+     */
+    private long consumed;
+
+    /**
+     * Current line number in the input, starting from one.
+     */
+    private int line = 1;
+
+    private long statementOffset;
+    private int statementLine;
+
+    private long commentOffset;
+    private int commentStartLine;
+
+    private long eventOffset;
+    private int eventLine;
+
+    private final StringBuilder statement = new StringBuilder(256);
+    private final StringBuilder comment = new StringBuilder(80);
+
+    private String delimiter;
+
+    /**
+     * First character of the delimiter, or zero if delimiters are only recognised on a line of their own.
+     */
+    private char delimiterStart;
+
+    private final boolean fullLineDelimiter;
+
+    private final boolean backslashEscapes;
+
+    private final boolean nestedComments;
+
+    /**
+     * Does the pending statement contain anything other than whitespace?
+     */
+    private boolean code;
+
+    /**
+     * Has only whitespace been seen so far on the current line?
+     */
+    private boolean blankLine = true;
+
+    /**
+     * Is the current line a comment line?
+     */
+    private boolean commentLine;
+
+    /**
+     * Index in the pending statement at which the current line starts.
+     */
+    private int lineStart;
+
+    ScriptLexer(Reader reader, String delimiter, boolean fullLineDelimiter, boolean backslashEscapes, boolean nestedComments) {
+        this.reader = reader;
+        this.fullLineDelimiter = fullLineDelimiter;
+        this.backslashEscapes = backslashEscapes;
+        this.nestedComments = nestedComments;
+        setDelimiter(delimiter);
+    }
+
+    private void setDelimiter(String delimiter) {
+        this.delimiter = delimiter;
+        this.delimiterStart = fullLineDelimiter ? 0 : delimiter.charAt(0);
+    }
+
+    /**
+     * Get the current statement delimiter, which may have been changed by the script.
+     *
+     * @return delimiter
+     */
+    String delimiter() {
+        return delimiter;
+    }
+
+    /**
+     * Get the pending text that has not yet been terminated by a delimiter.
+     * <p>
+     * After a handler fails, this is the text of the statement that was being handled.
+     *
+     * @return trimmed pending statement text, may be empty but never <code>null</code>
+     */
+    String pending() {
+        return statement.toString().trim();
+    }
+
+    /**
+     * Get the offset in the input of the start of the statement or comment currently being handled.
+     *
+     * @return character offset, starting from zero
+     */
+    long offset() {
+        return eventOffset;
+    }
+
+    /**
+     * Get the line number in the input of the start of the statement or comment currently being handled.
+     *
+     * @return line number, starting from one
+     */
+    int line() {
+        return eventLine;
+    }
+
+    void run(Handler handler) throws IOException, SQLException {
+        while (available(1)) {
+            char c = buffer[position];
+            if (isDelimiterStart(c) && matches(delimiter)) {
+                position += delimiter.length();
+                blankLine = false;
+                endOfStatement(handler, statement.length());
+                continue;
+            }
+            switch (c) {
+                case '\n':
+                case '\r':
+                    endOfLine(handler);
+                    break;
+                case '-':
+                    if (matches("--")) {
+                        if (blankLine) {
+                            commentLine(handler);
+                        } else {
+                            lineComment(handler);
+                        }
+                    } else {
+                        appendCode(1);
+                    }
+                    break;
+                case '/':
+                    if (blankLine && matches("//")) {
+                        commentLine(handler);
+                    } else if (matches("/*")) {
+                        blockComment(handler);
+                    } else {
+                        appendCode(1);
+                    }
+                    break;
+                case '\'':
+                    quoted(c, backslashEscapes || isEscapeStringPrefix());
+                    break;
+                case '"':
+                case '`':
+                    quoted(c, false);
+                    break;
+                case '$':
+                    int tagLength = isIdentifierPart(lastChar()) ? 0 : dollarTagLength();
+                    if (tagLength > 0) {
+                        dollarQuoted(new String(buffer, position, tagLength));
+                    } else {
+                        appendCode(1);
+                    }
+                    break;
+                default:
+                    appendPlain();
+                    break;
+            }
+        }
+        if (fullLineDelimiter && lineIsDelimiter()) {
+            endOfStatement(handler, lineStart);
+        }
+    }
+
+    private boolean isDelimiterStart(char c) {
+        return c == delimiterStart && c != 0;
+    }
+
+    private static boolean isSpecial(char c) {
+        return c < SPECIAL.length && SPECIAL[c];
+    }
+
+    /**
+     * Append a run of characters that have no special meaning to the pending statement in one go.
+     */
+    private void appendPlain() {
+        boolean text = false;
+        int start = position;
+        int end = position;
+        while (end < limit) {
+            char c = buffer[end];
+            if (end > start && (isSpecial(c) || isDelimiterStart(c))) {
+                break;
+            }
+            if (c > ' ' && c < 0x7f || !Character.isWhitespace(c)) {
+                if (!text && !code) {
+                    markStatementStart(end);
+                }
+                text = true;
+            } else if (!code && !text) {
+                // Leading whitespace is never part of a statement
+                position++;
+            }
+            end++;
+        }
+        if (text) {
+            code = true;
+            blankLine = false;
+        }
+        if (code) {
+            statement.append(buffer, position, end - position);
+        }
+        position = end;
+    }
+
+    private void appendCode(int count) {
+        if (!code) {
+            markStatementStart(position);
+        }
+        statement.append(buffer, position, count);
+        position += count;
+        code = true;
+        blankLine = false;
+    }
+
+    private void endOfLine(Handler handler) throws IOException, SQLException {
+        consumeLineEnding();
+        if (commentLine) {
+            commentLine = false;
+        } else if (fullLineDelimiter && lineIsDelimiter()) {
+            endOfStatement(handler, lineStart);
+        } else if (blankLine) {
+            statement.setLength(lineStart);
+        } else if (code) {
+            statement.append(LINE_SEPARATOR);
+        }
+        lineStart = statement.length();
+        blankLine = true;
+    }
+
+    private void endOfStatement(Handler handler, int end) throws IOException, SQLException {
+        int start = 0;
+        while (start < end && Character.isWhitespace(statement.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(statement.charAt(end - 1))) {
+            end--;
+        }
+        if (start < end) {
+            eventOffset = statementOffset;
+            eventLine = statementLine;
+            handler.statement(statement.substring(start, end));
+        }
+        statement.setLength(0);
+        code = false;
+        lineStart = 0;
+    }
+
+    private boolean lineIsDelimiter() {
+        int start = lineStart;
+        int end = statement.length();
+        while (start < end && Character.isWhitespace(statement.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(statement.charAt(end - 1))) {
+            end--;
+        }
+        return end - start == delimiter.length() && statement.indexOf(delimiter, start) == start;
+    }
+
+    /**
+     * A comment occupying an entire line, never part of a statement.
+     */
+    private void commentLine(Handler handler) throws IOException, SQLException {
+        statement.setLength(lineStart);
+        commentLine = true;
+        markCommentStart();
+        readToEndOfLine(comment);
+        emitComment(handler);
+    }
+
+    /**
+     * A comment that follows something else on the same line.
+     */
+    private void lineComment(Handler handler) throws IOException, SQLException {
+        if (code) {
+            readToEndOfLine(statement);
+        } else {
+            markCommentStart();
+            readToEndOfLine(comment);
+            emitComment(handler);
+        }
+    }
+
+    private void blockComment(Handler handler) throws IOException, SQLException {
+        StringBuilder target = code || isExecutableComment() ? statement : comment;
+        if (target == comment) {
+            markCommentStart();
+        } else if (!code) {
+            markStatementStart(position);
+            code = true;
+        }
+        int depth = 0;
+        boolean closed = false;
+        while (available(1)) {
+            if (matches("/*") && (depth == 0 || nestedComments)) {
+                depth++;
+                copy(target, 2);
+            } else if (matches("*/")) {
+                copy(target, 2);
+                if (--depth == 0) {
+                    closed = true;
+                    break;
+                }
+            } else {
+                copyChar(target);
+            }
+            copyRun(target, '/', '*');
+        }
+        blankLine = false;
+        if (target == comment) {
+            if (closed) {
+                emitComment(handler);
+            } else {
+                // Leave the unclosed comment pending, so that it is reported as a missing terminator
+                statementOffset = commentOffset;
+                statementLine = commentStartLine;
+                statement.append(comment);
+                comment.setLength(0);
+                code = true;
+            }
+        }
+    }
+
+    /**
+     * Is the block comment at the current position one that the database executes, a MySQL conditional comment or an
+     * optimizer hint?
+     */
+    private boolean isExecutableComment() throws IOException {
+        return available(3) && (buffer[position + 2] == '!' || buffer[position + 2] == '+');
+    }
+
+    private void quoted(char quote, boolean backslashEscapes) throws IOException {
+        if (!code) {
+            markStatementStart(position);
+        }
+        code = true;
+        blankLine = false;
+        copy(statement, 1);
+        while (available(1)) {
+            copyRun(statement, quote, backslashEscapes ? '\\' : quote);
+            if (!available(1)) {
+                break;
+            }
+            char c = buffer[position];
+            if (c == quote) {
+                if (available(2) && buffer[position + 1] == quote) {
+                    copy(statement, 2);
+                } else {
+                    copy(statement, 1);
+                    return;
+                }
+            } else if (c == '\\' && backslashEscapes && available(2)) {
+                copy(statement, 2);
+            } else {
+                copyChar(statement);
+            }
+        }
+    }
+
+    private void dollarQuoted(String tag) throws IOException {
+        if (!code) {
+            markStatementStart(position);
+        }
+        code = true;
+        blankLine = false;
+        copy(statement, tag.length());
+        while (available(1)) {
+            if (matches(tag)) {
+                copy(statement, tag.length());
+                return;
+            }
+            copyChar(statement);
+            copyRun(statement, '$', '$');
+        }
+    }
+
+    /**
+     * Get the length of the dollar-quote tag (e.g. "$$" or "$body$") at the current position.
+     *
+     * @return length of the tag, including both dollar signs, or zero if there is no tag here
+     */
+    private int dollarTagLength() throws IOException {
+        for (int length = 1; length < MAXIMUM_DOLLAR_TAG_LENGTH && available(length + 1); length++) {
+            char c = buffer[position + length];
+            if (c == '$') {
+                return length + 1;
+            }
+            if (!(Character.isLetter(c) || c == '_' || length > 1 && Character.isDigit(c))) {
+                return 0;
+            }
+        }
+        return 0;
+    }
+
+    private boolean isEscapeStringPrefix() {
+        int length = statement.length();
+        return length > 0 && (statement.charAt(length - 1) == 'E' || statement.charAt(length - 1) == 'e') && (length == 1 || !isIdentifierPart(statement.charAt(length - 2)));
+    }
+
+    private char lastChar() {
+        return statement.length() > 0 ? statement.charAt(statement.length() - 1) : ' ';
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+
+    private void readToEndOfLine(StringBuilder target) throws IOException {
+        while (available(1) && buffer[position] != '\n' && buffer[position] != '\r') {
+            copyRun(target, '\n', '\r');
+        }
+    }
+
+    private void emitComment(Handler handler) throws IOException, SQLException {
+        int end = comment.length();
+        while (end > 0 && Character.isWhitespace(comment.charAt(end - 1))) {
+            end--;
+        }
+        String text = comment.substring(0, end);
+        comment.setLength(0);
+        eventOffset = commentOffset;
+        eventLine = commentStartLine;
+        if (text.indexOf('@') != -1) {
+            Matcher matcher = DELIMITER_PATTERN.matcher(text);
+            if (matcher.find()) {
+                setDelimiter(matcher.group(5));
+                handler.delimiter(delimiter);
+            }
+        }
+        handler.comment(text);
+    }
+
+    private void markStatementStart(int index) {
+        statementOffset = consumed + index;
+        statementLine = line;
+    }
+
+    private void markCommentStart() {
+        commentOffset = consumed + position;
+        commentStartLine = line;
+    }
+
+    /**
+     * Copy the next character to the target, normalising any line ending.
+     */
+    private void copyChar(StringBuilder target) throws IOException {
+        char c = buffer[position];
+        if (c == '\n' || c == '\r') {
+            consumeLineEnding();
+            target.append(LINE_SEPARATOR);
+            if (target == statement) {
+                lineStart = statement.length();
+            }
+        } else {
+            target.append(c);
+            position++;
+        }
+    }
+
+    /**
+     * Copy characters from the buffer to the target up to, but not including, either of the given characters or a line
+     * ending, or the end of the buffer.
+     */
+    private void copyRun(StringBuilder target, char stop1, char stop2) {
+        int end = position;
+        while (end < limit) {
+            char c = buffer[end];
+            if (c == stop1 || c == stop2 || c == '\n' || c == '\r') {
+                break;
+            }
+            end++;
+        }
+        target.append(buffer, position, end - position);
+        position = end;
+    }
+
+    private void copy(StringBuilder target, int count) {
+        target.append(buffer, position, count);
+        position += count;
+    }
+
+    private void consumeLineEnding() throws IOException {
+        if (buffer[position++] == '\r' && available(1) && buffer[position] == '\n') {
+            position++;
+        }
+        line++;
+    }
+
+    private boolean matches(String text) throws IOException {
+        int length = text.length();
+        if (!available(length)) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer[position + i] != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Ensure that at least the requested number of characters are available in the buffer, reading more input if
+     * necessary.
+     *
+     * @param count number of characters required
+     * @return <code>true</code> if the characters are available; <code>false</code> if the end of the input was reached first
+     * @throws IOException if an error occurs reading the input
+     */
+    private boolean available(int count) throws IOException {
+        if (limit - position >= count) {
+            return true;
+        }
+        if (position > 0) {
+            consumed += position;
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+        while (limit < count) {
+            int read = reader.read(buffer, limit, buffer.length - limit);
+            if (read == -1) {
+                return false;
+            }
+            limit += read;
+        }
+        return true;
+    }
+
+}
@@ -18,30 +18,118 @@ package uk.co.caprica.scriptrunner;
 
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
+import java.util.EnumSet;
+import java.util.Set;
 
 /**
  * Specification for a component interested in script events.
  */
 public interface ScriptListener {
 
+    /**
+     * Get the events this listener consumes.
+     * <p>
+     * The script runner skips work, such as reading the rows of a result set, when no listener consumes the events that
+     * work would produce. Events outside this set may still be delivered if another listener consumes them.
+     * <p>
+     * The set is read at the start of each script run, and not again during the run, so a change to it applies from the
+     * next run.
+     *
+     * @return events consumed by this listener, by default all events
+     */
+    default Set<ScriptEvent> interests() {
+        return EnumSet.allOf(ScriptEvent.class);
+    }
+
     void beginScript();
 
+    /**
+     * Report that one of the scripts from a script source is about to be executed.
+     *
+     * @param name name of the script
+     */
+    default void beginFile(String name) {
+    }
+
     void comment(String comment);
 
     void sql(String sql);
 
+    /**
+     * Report the plan of the statement that was just reported, when statements are explained.
+     * <p>
+     * In explain-only mode this is reported instead of the results of the statement.
+     *
+     * @param plan database's estimate of the work needed to execute the statement
+     */
+    default void plan(QueryPlan plan) {
+    }
+
     void success();
 
     void error(String error);
 
+    /**
+     * Report that a statement was cancelled because it, or the script, ran for longer than the timeout.
+     * <p>
+     * A cancelled statement is counted as an error.
+     *
+     * @param message description of the cancellation
+     */
+    default void cancelled(String message) {
+    }
+
+    /**
+     * Report that a statement failed with a transient error and is about to be retried.
+     * <p>
+     * When a transaction is in progress, the statements executed since the last commit are rolled back and executed
+     * again before the failed statement, so their events are delivered again.
+     *
+     * @param message description of the failure
+     * @param attempt number of the attempt about to be made, starting from two
+     * @param delay delay before the attempt, in milliseconds
+     */
+    default void retry(String message, int attempt, long delay) {
+    }
+
     void updateCount(int updateCount);
 
     void resultSet(ResultSetMetaData resultSetMetaData);
 
     void row(ResultSet resultSet);
 
+    /**
+     * Report the total number of rows in the result set, which may be more than the number of rows delivered if the
+     * number of rows per result set has been limited.
+     *
+     * @param rowCount total number of rows
+     */
+    default void rowCount(long rowCount) {
+    }
+
     void noMoreRows();
 
+    /**
+     * Report that the transaction has been committed, this is not reported when auto-commit is enabled.
+     */
+    default void commit() {
+    }
+
+    /**
+     * Report that one of the scripts from a script source has been executed, or has failed.
+     * <p>
+     * The counts are for this script alone, the totals for all of the scripts are reported at the end of the run.
+     *
+     * @param name name of the script
+     * @param updateCount number of rows updated
+     * @param successCount number of statements that succeeded
+     * @param warningCount number of statements that produced a warning
+     * @param errorCount number of statements that failed
+     * @param duration time taken to execute the script, in milliseconds
+     */
+    default void endFile(String name, int updateCount, int successCount, int warningCount, int errorCount, long duration) {
+    }
+
     void endScript(int updateCount, int successCount, int warningCount, int errorCount, long duration);
 
 }
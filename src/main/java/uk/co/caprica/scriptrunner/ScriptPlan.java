@@ -0,0 +1,290 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.caprica.scriptrunner;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable, pre-parsed script.
+ * <p>
+ * A plan holds everything the script runner needs to execute a script (the statements, comments and delimiter changes in
+ * the order they appear) so a script that is executed repeatedly need only be parsed once. A plan is not tied to any
+ * connection or script runner, and may be executed concurrently by any number of script runners.
+ */
+public final class ScriptPlan {
+
+    /**
+     * Kind of plan entry.
+     */
+    public enum Kind {
+        COMMENT,
+        DELIMITER,
+        STATEMENT
+    }
+
+    /**
+     * An entry in a plan.
+     */
+    public static final class Entry {
+
+        private final Kind kind;
+        private final String text;
+        private final long offset;
+        private final int line;
+
+        Entry(Kind kind, String text, long offset, int line) {
+            this.kind = kind;
+            this.text = text;
+            this.offset = offset;
+            this.line = line;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * Get the offset of the start of the entry in the script.
+         *
+         * @return character offset, starting from zero
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * Get the line number of the start of the entry in the script.
+         *
+         * @return line number, starting from one
+         */
+        public int getLine() {
+            return line;
+        }
+
+        @Override
+        public String toString() {
+            return kind + "@" + line + ": " + text;
+        }
+
+    }
+
+    private static final String HEX_DIGITS = "0123456789abcdef";
+
+    private final List<Entry> entries;
+
+    private final int statementCount;
+
+    private final String remainder;
+
+    private final String hash;
+
+    private ScriptPlan(List<Entry> entries, int statementCount, String remainder, String hash) {
+        this.entries = Collections.unmodifiableList(entries);
+        this.statementCount = statementCount;
+        this.remainder = remainder;
+        this.hash = hash;
+    }
+
+    /**
+     * Parse a script into a plan.
+     *
+     * @param reader reader for the script, this is not closed
+     * @param delimiter initial statement delimiter
+     * @param fullLineDelimiter <code>true</code> if the delimiter is only recognised on a line of its own
+     * @param backslashEscapes <code>true</code> if backslash escapes are used in all string literals
+     * @return plan
+     * @throws IOException if an error occurs reading the script
+     */
+    public static ScriptPlan compile(Reader reader, String delimiter, boolean fullLineDelimiter, boolean backslashEscapes) throws IOException {
+        return compile(reader, delimiter, fullLineDelimiter, backslashEscapes, false);
+    }
+
+    /**
+     * Parse a script into a plan.
+     *
+     * @param reader reader for the script, this is not closed
+     * @param delimiter initial statement delimiter
+     * @param fullLineDelimiter <code>true</code> if the delimiter is only recognised on a line of its own
+     * @param backslashEscapes <code>true</code> if backslash escapes are used in all string literals
+     * @param nestedComments <code>true</code> if block comments nest
+     * @return plan
+     * @throws IOException if an error occurs reading the script
+     */
+    public static ScriptPlan compile(Reader reader, String delimiter, boolean fullLineDelimiter, boolean backslashEscapes, boolean nestedComments) throws IOException {
+        HashingReader hashingReader = new HashingReader(reader);
+        ScriptLexer lexer = new ScriptLexer(hashingReader, delimiter, fullLineDelimiter, backslashEscapes, nestedComments);
+        ArrayList<Entry> entries = new ArrayList<>();
+        int[] statementCount = new int[1];
+        try {
+            lexer.run(new ScriptLexer.Handler() {
+                @Override
+                public void comment(String comment) {
+                    entries.add(new Entry(Kind.COMMENT, comment, lexer.offset(), lexer.line()));
+                }
+
+                @Override
+                public void delimiter(String delimiter) {
+                    entries.add(new Entry(Kind.DELIMITER, delimiter, lexer.offset(), lexer.line()));
+                }
+
+                @Override
+                public void statement(String sql) {
+                    entries.add(new Entry(Kind.STATEMENT, sql, lexer.offset(), lexer.line()));
+                    statementCount[0]++;
+                }
+            });
+        } catch (SQLException e) {
+            // Not possible, the handler does not execute anything
+            throw new IllegalStateException(e);
+        }
+        entries.trimToSize();
+        return new ScriptPlan(entries, statementCount[0], lexer.pending(), hashingReader.hash());
+    }
+
+    /**
+     * Get the entries in the plan.
+     *
+     * @return unmodifiable list of entries, in script order
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    public int getStatementCount() {
+        return statementCount;
+    }
+
+    /**
+     * Get any text at the end of the script that was not terminated by a delimiter.
+     *
+     * @return trimmed text, empty if the script was properly terminated
+     */
+    public String getRemainder() {
+        return remainder;
+    }
+
+    /**
+     * Get the SHA-256 hash of the script text.
+     *
+     * @return hex-encoded hash
+     */
+    public String getHash() {
+        return hash;
+    }
+
+    /**
+     * Compute the SHA-256 hash of script text, the same hash as would be given by a plan compiled from it.
+     *
+     * @param script script text
+     * @return hex-encoded hash
+     */
+    static String hash(CharSequence script) {
+        MessageDigest digest = sha256();
+        byte[] bytes = new byte[8192];
+        int length = script.length();
+        for (int start = 0; start < length; start += bytes.length / 2) {
+            int end = Math.min(length, start + bytes.length / 2);
+            update(digest, bytes, script, start, end);
+        }
+        return hex(digest.digest());
+    }
+
+    private static void update(MessageDigest digest, byte[] bytes, CharSequence chars, int start, int end) {
+        int count = 0;
+        for (int i = start; i < end; i++) {
+            char c = chars.charAt(i);
+            bytes[count++] = (byte) (c >> 8);
+            bytes[count++] = (byte) c;
+        }
+        digest.update(bytes, 0, count);
+    }
+
+    private static void update(MessageDigest digest, byte[] bytes, char[] chars, int start, int end) {
+        int count = 0;
+        for (int i = start; i < end; i++) {
+            char c = chars[i];
+            bytes[count++] = (byte) (c >> 8);
+            bytes[count++] = (byte) c;
+        }
+        digest.update(bytes, 0, count);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX_DIGITS.charAt((bytes[i] >> 4) & 0xf);
+            hex[i * 2 + 1] = HEX_DIGITS.charAt(bytes[i] & 0xf);
+        }
+        return new String(hex);
+    }
+
+    /**
+     * A reader that computes a hash of everything read through it.
+     */
+    private static final class HashingReader extends Reader {
+
+        private final Reader reader;
+
+        private final MessageDigest digest = sha256();
+
+        private final byte[] bytes = new byte[16384];
+
+        private HashingReader(Reader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            int read = reader.read(buffer, offset, Math.min(length, bytes.length / 2));
+            if (read > 0) {
+                update(digest, bytes, buffer, offset, offset + read);
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+
+        private String hash() {
+            return hex(digest.digest());
+        }
+
+    }
+
+}
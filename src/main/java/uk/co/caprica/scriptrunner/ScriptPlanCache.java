@@ -0,0 +1,80 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.caprica.scriptrunner;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A bounded in-memory cache of script plans, keyed by the hash of the script text and the settings used to parse it.
+ * <p>
+ * A cache may be shared by any number of script runners, see {@link ScriptRunner#setScriptPlanCache(ScriptPlanCache)}.
+ */
+public final class ScriptPlanCache {
+
+    private final Cache<String, ScriptPlan> cache;
+
+    /**
+     * Create a cache.
+     *
+     * @param maximumSize maximum number of plans to keep, the least recently used plans are discarded first
+     */
+    public ScriptPlanCache(int maximumSize) {
+        this.cache = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public long getHitCount() {
+        return cache.stats().hitCount();
+    }
+
+    public long getMissCount() {
+        return cache.stats().missCount();
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * Get the plan for a script, compiling it if it is not already cached.
+     *
+     * @param script script text
+     * @param delimiter initial statement delimiter
+     * @param fullLineDelimiter <code>true</code> if the delimiter is only recognised on a line of its own
+     * @param backslashEscapes <code>true</code> if backslash escapes are used in all string literals
+     * @param nestedComments <code>true</code> if block comments nest
+     * @return plan
+     * @throws IOException if an error occurs compiling the script
+     */
+    ScriptPlan plan(String script, String delimiter, boolean fullLineDelimiter, boolean backslashEscapes, boolean nestedComments) throws IOException {
+        String key = ScriptPlan.hash(script) + (fullLineDelimiter ? 'F' : '-') + (backslashEscapes ? 'B' : '-') + (nestedComments ? 'N' : '-') + delimiter;
+        try {
+            return cache.get(key, () -> ScriptPlan.compile(new StringReader(script), delimiter, fullLineDelimiter, backslashEscapes, nestedComments));
+        } catch (ExecutionException e) {
+            throw (IOException) e.getCause();
+        }
+    }
+
+}
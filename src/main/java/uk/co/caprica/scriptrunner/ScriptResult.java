@@ -0,0 +1,110 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.caprica.scriptrunner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of executing a script.
+ */
+public final class ScriptResult {
+
+    private final int updateCount;
+    private final int successCount;
+    private final int warningCount;
+    private final int errorCount;
+    private final long duration;
+    private final Throwable failure;
+    private final List<ScriptFileResult> fileResults;
+
+    ScriptResult(int updateCount, int successCount, int warningCount, int errorCount, long duration, Throwable failure) {
+        this(updateCount, successCount, warningCount, errorCount, duration, failure, Collections.emptyList());
+    }
+
+    ScriptResult(int updateCount, int successCount, int warningCount, int errorCount, long duration, Throwable failure, List<ScriptFileResult> fileResults) {
+        this.updateCount = updateCount;
+        this.successCount = successCount;
+        this.warningCount = warningCount;
+        this.errorCount = errorCount;
+        this.duration = duration;
+        this.failure = failure;
+        this.fileResults = Collections.unmodifiableList(new ArrayList<>(fileResults));
+    }
+
+    public int getUpdateCount() {
+        return updateCount;
+    }
+
+    public int getSuccessCount() {
+        return successCount;
+    }
+
+    public int getWarningCount() {
+        return warningCount;
+    }
+
+    public int getErrorCount() {
+        return errorCount;
+    }
+
+    /**
+     * Get the time taken to execute the script.
+     *
+     * @return duration, in milliseconds
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * Get the reason the script did not complete.
+     *
+     * @return failure, or <code>null</code> if the script completed
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    /**
+     * Get the outcome of each of the scripts, when the scripts were run from a {@link ScriptSource}.
+     * <p>
+     * The counts of this result are the totals for all of the scripts. A script that was not started because an earlier
+     * one failed has no result.
+     *
+     * @return result of each script, in the order they were run, empty if not run from a script source
+     */
+    public List<ScriptFileResult> getFileResults() {
+        return fileResults;
+    }
+
+    /**
+     * Did the script complete without any errors?
+     *
+     * @return <code>true</code> if the script completed and no statement failed
+     */
+    public boolean isSuccess() {
+        return failure == null && errorCount == 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ScriptResult[updates=%d,successes=%d,warnings=%d,errors=%d,duration=%d,failure=%s]", updateCount, successCount, warningCount, errorCount, duration, failure);
+    }
+
+}
@@ -16,17 +16,33 @@
 
 package uk.co.caprica.scriptrunner;
 
-import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.BatchUpdateException;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTimeoutException;
 import java.sql.SQLWarning;
+import java.sql.Savepoint;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -34,6 +50,10 @@ import java.util.regex.Pattern;
 /**
  * An SQL script runner.
  * <p>
+ * Each run of a script has its own execution state, so once configured a script runner may be shared between threads
+ * and used to run scripts on different connections at the same time. Changes to the settings are not guaranteed to be
+ * seen by other threads, so a shared script runner should be configured before it is shared.
+ * <p>
  * Original implementation from the MyBatis project licensed under the Apache License 2.0.
  */
 public class ScriptRunner {
@@ -42,25 +62,65 @@ public class ScriptRunner {
 
     private static final String DEFAULT_DELIMITER = ";";
 
-    private static final Pattern DELIMITER_PATTERN = Pattern.compile("^\\s*((--)|(//))?\\s*(//)?\\s*@DELIMITER\\s+([^\\s]+)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern COMMIT_PATTERN = Pattern.compile("^\\s*((--)|(//))?\\s*(//)?\\s*@COMMIT\\b", Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern TIMEOUT_PATTERN = Pattern.compile("^\\s*((--)|(//))?\\s*(//)?\\s*@TIMEOUT\\s+(\\d{1,9})\\b", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Time allowed for the driver to enforce a query timeout itself, before the watchdog cancels the statement.
+     */
+    private static final long WATCHDOG_GRACE_MILLIS = 1000;
+
+    /**
+     * Fetch size used when streaming results from a driver that uses cursor-based fetching, if none has been set.
+     */
+    private static final int DEFAULT_STREAMING_FETCH_SIZE = 1000;
+
+    private static final int DEFAULT_STATEMENT_CACHE_SIZE = 64;
+
+    private static final int DEFAULT_READ_AHEAD_LENGTH = 256 * 1024;
 
     private final Connection connection;
 
-    private final List<ScriptListener> listenerList = new ArrayList<>();
+    private final List<ScriptListener> listenerList = new CopyOnWriteArrayList<>();
+
+    /**
+     * Prepared statement caches, for each connection that has run a script with variables.
+     */
+    private final Map<Connection, StatementCache> statementCaches = new IdentityHashMap<>();
 
     private boolean stopOnError;
     private boolean throwWarning;
     private boolean autoCommit;
     private boolean sendFullScript;
     private boolean removeCRs;
+    private boolean backslashEscapes;
+    private boolean nestedComments;
     private boolean escapeProcessing = true;
+    private int batchSize;
+    private int chunkSize;
+    private int chunkLength;
+    private int parseAhead;
+    private int readAheadLength = DEFAULT_READ_AHEAD_LENGTH;
+    private int fetchSize;
+    private int maxRows;
+    private boolean streamResults;
+    private int rowLimit;
+    private int commitEveryStatements;
+    private int commitEveryRows;
+    private long commitEveryMillis;
+    private int statementTimeout;
+    private int scriptTimeout;
+
+    private RetryPolicy retryPolicy;
+    private int statementCacheSize = DEFAULT_STATEMENT_CACHE_SIZE;
+    private ExplainDialect explainDialect;
+    private boolean explainOnly;
+    private double maxCost;
 
-    private int updateCount;
-    private int successCount;
-    private int warningCount;
-    private int errorCount;
-    private long startTime;
-    private long endTime;
+    private ScriptPlanCache scriptPlanCache;
+
+    private Path journalPath;
 
     private PrintWriter logWriter = new PrintWriter(System.out);
     private PrintWriter errorLogWriter = new PrintWriter(System.err);
@@ -68,10 +128,30 @@ public class ScriptRunner {
     private String delimiter = DEFAULT_DELIMITER;
     private boolean fullLineDelimiter;
 
+    /**
+     * Create a script runner without a connection, scripts must be run with an explicit connection.
+     */
+    public ScriptRunner() {
+        this(null);
+    }
+
     public ScriptRunner(Connection connection) {
         this.connection = connection;
     }
 
+    /**
+     * Add a listener.
+     * <p>
+     * If the listener is a {@link StatementTimingListener}, statements will also be timed.
+     * <p>
+     * Only the events in the {@link ScriptListener#interests() interests} of the registered listeners are produced, so
+     * for example the rows of a result set are not read at all if no listener consumes rows, row counts or timings.
+     * <p>
+     * Listeners may be added and removed at any time, runs that are already in progress are not affected. A listener
+     * added to a script runner that is running scripts concurrently receives events from each run on that run's thread.
+     *
+     * @param listener listener to add
+     */
     public void addScriptListener(ScriptListener listener) {
         listenerList.add(listener);
     }
@@ -100,10 +180,352 @@ public class ScriptRunner {
         this.removeCRs = removeCRs;
     }
 
+    /**
+     * Set whether or not a backslash escapes the next character in all string literals, as is the default for MySQL.
+     *
+     * @param backslashEscapes <code>true</code> if backslash escapes are used in string literals
+     */
+    public void setBackslashEscapes(boolean backslashEscapes) {
+        this.backslashEscapes = backslashEscapes;
+    }
+
+    /**
+     * Set whether or not block comments nest, as they do for PostgreSQL.
+     * <p>
+     * By default a block comment ends at the first end of comment, as it does for MySQL and Oracle.
+     *
+     * @param nestedComments <code>true</code> if block comments nest
+     */
+    public void setNestedComments(boolean nestedComments) {
+        this.nestedComments = nestedComments;
+    }
+
     public void setEscapeProcessing(boolean escapeProcessing) {
         this.escapeProcessing = escapeProcessing;
     }
 
+    /**
+     * Set the maximum number of consecutive DML statements to send to the database in a single JDBC batch.
+     * <p>
+     * A pending batch is executed early whenever a statement that can not be batched (a query, DDL and so on) or a
+     * delimiter change is encountered.
+     * <p>
+     * A value less than 2 disables batching, which is the default.
+     *
+     * @param batchSize maximum number of statements in a batch
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Set the maximum number of statements to send to the database together in a single multi-statement string.
+     * <p>
+     * This is a middle ground between sending the full script and sending each statement separately: one round trip is
+     * made for each chunk of statements, but the results are still matched back to each statement and reported to the
+     * listeners individually. Only drivers that accept multiple statements in one execution and return a result for
+     * each can be used, such as PostgreSQL, or MySQL and MariaDB with "allowMultiQueries" enabled.
+     * <p>
+     * Only queries, DML and DDL are chunked, since other statements such as procedure calls may produce any number of
+     * results. Statements that are batched, see {@link #setBatchSize(int)}, are not chunked, nor is a statement with its
+     * own timeout.
+     * <p>
+     * When a statement in a chunk fails, the statements before it whose results were received are reported as having
+     * succeeded, and the statements after it are sent again in a new chunk. This matches drivers that stop at the first
+     * failure, but some databases, PostgreSQL included, execute a multi-statement string in a single implicit
+     * transaction, so when auto-commit is enabled the whole chunk is rolled back on failure. Chunking is best used
+     * with stop on error set, or without auto-commit.
+     * <p>
+     * A value less than 2 disables chunking by number of statements, which is the default.
+     *
+     * @param chunkSize maximum number of statements in a chunk
+     */
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Set the length of statement text after which a chunk is sent to the database.
+     * <p>
+     * A value of zero, the default, disables chunking by length.
+     *
+     * @param chunkLength length of a chunk, in characters
+     * @see #setChunkSize(int)
+     */
+    public void setChunkLength(int chunkLength) {
+        this.chunkLength = chunkLength;
+    }
+
+    /**
+     * Set the number of parsed statements that may be queued ahead of execution.
+     * <p>
+     * When set, the script is parsed on a separate thread while statements are executed on the calling thread, so
+     * the cost of parsing is overlapped with waiting on the database. When the queue is full, parsing waits for
+     * execution to catch up.
+     * <p>
+     * A value of zero, the default, parses and executes on the calling thread.
+     *
+     * @param parseAhead maximum number of statements to queue
+     */
+    public void setParseAhead(int parseAhead) {
+        this.parseAhead = parseAhead;
+    }
+
+    /**
+     * Set how much of the next script to read while the current one is executed, when running the scripts from a
+     * script source.
+     * <p>
+     * The next script is opened, decompressed if necessary, and read up to this length on a separate thread, the rest of
+     * it is read as it is executed. A value of zero opens each script only when it is about to be executed. The default
+     * is 256K characters.
+     *
+     * @param readAheadLength number of characters to read ahead
+     * @see #runScripts(ScriptSource)
+     */
+    public void setReadAheadLength(int readAheadLength) {
+        this.readAheadLength = readAheadLength;
+    }
+
+    /**
+     * Set the number of rows the driver should fetch from the database at a time when reading a result set.
+     * <p>
+     * A value of zero, the default, uses the driver default.
+     *
+     * @param fetchSize number of rows to fetch at a time
+     */
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * Set the maximum number of rows the database should return for any result set, further rows are silently dropped
+     * by the driver.
+     * <p>
+     * A value of zero, the default, means no limit.
+     *
+     * @param maxRows maximum number of rows
+     */
+    public void setMaxRows(int maxRows) {
+        this.maxRows = maxRows;
+    }
+
+    /**
+     * Set whether or not to stream result sets from the database rather than let the driver read them fully into memory.
+     * <p>
+     * Result sets are always read forward-only and read-only. Drivers that need it are also switched into their streaming
+     * mode: for MySQL and MariaDB rows are streamed one at a time unless a fetch size has been set, for PostgreSQL queries
+     * are executed with auto-commit temporarily disabled since cursor-based fetching requires a transaction.
+     *
+     * @param streamResults <code>true</code> to stream result sets
+     */
+    public void setStreamResults(boolean streamResults) {
+        this.streamResults = streamResults;
+    }
+
+    /**
+     * Set the maximum number of rows of each result set to deliver to the listeners.
+     * <p>
+     * Unlike {@link #setMaxRows(int)} the remaining rows are still read, so that the total number of rows can be
+     * reported.
+     * <p>
+     * A value of zero, the default, means no limit.
+     *
+     * @param rowLimit maximum number of rows to deliver
+     */
+    public void setRowLimit(int rowLimit) {
+        this.rowLimit = rowLimit;
+    }
+
+    /**
+     * Set a cache for the plans compiled by {@link #compileScript(Reader)}, so that a script that has been compiled
+     * before, with the same settings, is not parsed again.
+     *
+     * @param scriptPlanCache cache, may be shared with other script runners, or <code>null</code> for no cache
+     */
+    public void setScriptPlanCache(ScriptPlanCache scriptPlanCache) {
+        this.scriptPlanCache = scriptPlanCache;
+    }
+
+    /**
+     * Set a file in which to record the progress of a script, so that if the script does not complete it can be resumed
+     * from where it stopped by running it again.
+     * <p>
+     * Progress is recorded only at commit points: after every statement when auto-commit is enabled, otherwise whenever
+     * the transaction is committed. When a script is resumed, the statements already committed are skipped without
+     * being executed, and the script must be unchanged up to that point. The file is deleted when the script completes.
+     * <p>
+     * The journal does not apply when sending the full script, nor to scripts executed by a {@link ScriptExecutor}.
+     *
+     * @param journalPath path to the journal file, or <code>null</code> for no journal
+     */
+    public void setJournal(Path journalPath) {
+        this.journalPath = journalPath;
+    }
+
+    /**
+     * Set the number of statements after which to commit, when auto-commit is not enabled.
+     * <p>
+     * Committing periodically keeps transactions on the database to a manageable size when executing large scripts,
+     * without paying for a commit after every statement. The periodic commit settings may be combined, a commit is made
+     * as soon as any one of them is reached. Commits are only made between statements, never part way through a batch.
+     * <p>
+     * A commit can also be requested at any point in a script with a "-- @COMMIT" comment.
+     * <p>
+     * A value of zero, the default, means the number of statements does not trigger a commit.
+     *
+     * @param commitEveryStatements number of statements
+     */
+    public void setCommitEveryStatements(int commitEveryStatements) {
+        this.commitEveryStatements = commitEveryStatements;
+    }
+
+    /**
+     * Set the number of rows affected after which to commit, when auto-commit is not enabled.
+     *
+     * @param commitEveryRows number of rows affected
+     * @see #setCommitEveryStatements(int)
+     */
+    public void setCommitEveryRows(int commitEveryRows) {
+        this.commitEveryRows = commitEveryRows;
+    }
+
+    /**
+     * Set the time after which to commit, when auto-commit is not enabled.
+     *
+     * @param commitEveryMillis time since the previous commit, in milliseconds
+     * @see #setCommitEveryStatements(int)
+     */
+    public void setCommitEveryMillis(long commitEveryMillis) {
+        this.commitEveryMillis = commitEveryMillis;
+    }
+
+    /**
+     * Set the maximum time any one statement may execute for before it is cancelled.
+     * <p>
+     * The timeout is set as the query timeout of each statement, and is also enforced by a watchdog that cancels the
+     * statement if the driver does not. A cancelled statement is reported to the listeners as cancelled rather than as
+     * an error, but otherwise counts as an error, so the script stops if stop on error is set.
+     * <p>
+     * The timeout for a single statement can be set in the script with a "-- @TIMEOUT seconds" comment before it, a
+     * value of zero meaning no timeout. A statement with its own timeout is never batched.
+     * <p>
+     * A value of zero, the default, means no timeout.
+     *
+     * @param statementTimeout timeout, in seconds
+     */
+    public void setStatementTimeout(int statementTimeout) {
+        this.statementTimeout = statementTimeout;
+    }
+
+    /**
+     * Set the maximum time the whole script may execute for.
+     * <p>
+     * Each statement is given no more than the time remaining, and once the time is used up the script fails whether
+     * or not stop on error is set.
+     * <p>
+     * A value of zero, the default, means no timeout.
+     *
+     * @param scriptTimeout timeout, in seconds
+     */
+    public void setScriptTimeout(int scriptTimeout) {
+        this.scriptTimeout = scriptTimeout;
+    }
+
+    /**
+     * Set a policy for retrying statements that fail with a transient error, such as a deadlock or a serialization
+     * failure.
+     * <p>
+     * With auto-commit enabled, only the failed statement is executed again. Otherwise the transaction is rolled back and
+     * every statement executed since the last commit is executed again before the failed statement, and a commit that
+     * fails with a transient error is retried in the same way. The statements since the last commit are kept in memory
+     * for this, so large scripts should commit periodically. The maximum number of attempts applies to each statement
+     * with auto-commit enabled, otherwise to each transaction.
+     * <p>
+     * With auto-commit enabled, a batch that fails is not retried, since some of its statements may have been committed.
+     * <p>
+     * A statement that is cancelled because of a timeout is never retried.
+     *
+     * @param retryPolicy retry policy, or <code>null</code> for no retries, the default
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Set the maximum number of prepared statements to keep open for each connection, for statements that contain script
+     * variables.
+     * <p>
+     * Keeping the statements open lets repeated statements, within a script and across runs on the same connection,
+     * skip preparation on the database. The least recently used statement is closed when the cache is full. The size
+     * applies to the caches of connections first used after it is set.
+     * <p>
+     * A value of zero disables the cache, each statement is then prepared and closed every time it is executed. The
+     * default is 64.
+     *
+     * @param statementCacheSize maximum number of statements for each connection
+     * @see #runScript(Connection, Reader, Map)
+     */
+    public void setStatementCacheSize(int statementCacheSize) {
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    /**
+     * Close all of the cached prepared statements, of every connection.
+     * <p>
+     * This must not be called while scripts are running.
+     */
+    public void clearStatementCache() {
+        synchronized (statementCaches) {
+            for (StatementCache statementCache : statementCaches.values()) {
+                statementCache.close();
+            }
+            statementCaches.clear();
+        }
+    }
+
+    /**
+     * Set the dialect used to explain statements, and explain every query and DML statement before it is executed.
+     * <p>
+     * The plan of each statement is reported to the listeners after the statement itself. A statement that the database
+     * cannot explain is still executed.
+     * <p>
+     * Explained statements are not batched or chunked, and nothing is explained when sending the full script.
+     *
+     * @param explainDialect dialect, or <code>null</code> to only explain statements in explain-only mode or when a
+     *                       maximum cost is set, using the dialect for the database of the connection
+     * @see StandardExplainDialect
+     */
+    public void setExplainDialect(ExplainDialect explainDialect) {
+        this.explainDialect = explainDialect;
+    }
+
+    /**
+     * Set whether to explain the statements of a script instead of executing them.
+     * <p>
+     * The script is split into statements exactly as it would be for a normal run. Each query and DML statement is
+     * explained, and counted as a success, or as an error if it could not be explained. No statement is executed, so the
+     * plan of a statement that depends on an earlier statement in the script, such as one that creates a table, can not
+     * be obtained. Explain-only mode overrides sending the full script, and no journal is kept.
+     *
+     * @param explainOnly <code>true</code> to explain without executing; <code>false</code> to execute, the default
+     */
+    public void setExplainOnly(boolean explainOnly) {
+        this.explainOnly = explainOnly;
+    }
+
+    /**
+     * Set the maximum estimated cost of a statement.
+     * <p>
+     * Every query and DML statement is explained before it is executed, and a statement with a higher estimated cost is
+     * refused instead, counting as an error. Costs are in the units of the database, and statements on a database that
+     * does not estimate a cost are never refused.
+     *
+     * @param maxCost maximum cost, or zero for no maximum, the default
+     */
+    public void setMaxCost(double maxCost) {
+        this.maxCost = maxCost;
+    }
+
     public void setLogWriter(PrintWriter logWriter) {
         this.logWriter = logWriter;
     }
@@ -120,202 +542,356 @@ public class ScriptRunner {
         this.fullLineDelimiter = fullLineDelimiter;
     }
 
-    public void runScript(Reader reader) {
-        reset();
+    /**
+     * Run a script using the connection this script runner was created with.
+     *
+     * @param reader reader for the script
+     * @return result of the script
+     */
+    public ScriptResult runScript(Reader reader) {
+        return runScript(connection(), reader);
+    }
 
-        startTime = System.currentTimeMillis();
+    /**
+     * Run a script using the given connection.
+     * <p>
+     * Each run has its own execution state, so the same script runner may run scripts on different connections at the
+     * same time. A delimiter change made by a script lasts only until the end of that script.
+     *
+     * @param connection connection to execute the script with
+     * @param reader reader for the script
+     * @return result of the script
+     */
+    public ScriptResult runScript(Connection connection, Reader reader) {
+        return runScript(connection, reader, 0, null);
+    }
 
-        notifyBeginScript();
-        setAutoCommit();
-        try {
-            if (sendFullScript) {
-                executeFullScript(reader);
-            } else {
-                executeLineByLine(reader);
-            }
-        } finally {
-            rollbackConnection();
-            endTime = System.currentTimeMillis();
-            notifyEndScript(updateCount, successCount, warningCount, errorCount, endTime - startTime);
-        }
+    /**
+     * Run a script with variables, using the connection this script runner was created with.
+     *
+     * @param reader reader for the script
+     * @param variables values of the script variables
+     * @return result of the script
+     * @see #runScript(Connection, Reader, Map)
+     */
+    public ScriptResult runScript(Reader reader, Map<String, ?> variables) {
+        return runScript(connection(), reader, variables);
     }
 
-    private void executeFullScript(Reader reader) {
-        StringBuilder script = new StringBuilder();
-        try {
-            BufferedReader lineReader = new BufferedReader(reader);
-            String line;
-            while ((line = lineReader.readLine()) != null) {
-                script.append(line);
-                script.append(LINE_SEPARATOR);
-            }
-            String command = script.toString().trim();
-            notifySql(command);
-            executeStatement(command);
-            notifySuccess();
-            commitConnection();
-        } catch (Exception e) {
-            notifyError(e.getMessage());
-            String message = "Error executing: " + script + ".  Cause: " + e;
-            printlnError(message);
-            throw new RuntimeException(message, e);
-        }
+    /**
+     * Run a script with variables using the given connection.
+     * <p>
+     * A script variable is written as "${name}" anywhere a parameter marker could be used, outside of string literals,
+     * quoted identifiers and comments. Statements that contain variables are executed as prepared statements, with the
+     * value of each variable bound as a parameter rather than inserted into the text, and are kept open in a cache for
+     * the connection so that executing the same statement again does not prepare it again, see
+     * {@link #setStatementCacheSize(int)}. A variable with no entry in the map is an error, a variable mapped to
+     * <code>null</code> is bound as null. A statement with variables must not also contain a "?" outside of literals and
+     * comments, as a parameter marker or an operator, use "??" instead where the driver accepts it.
+     * <p>
+     * Statements that contain variables are never batched or chunked.
+     *
+     * @param connection connection to execute the script with
+     * @param reader reader for the script
+     * @param variables values of the script variables
+     * @return result of the script
+     */
+    public ScriptResult runScript(Connection connection, Reader reader, Map<String, ?> variables) {
+        return runScript(connection, reader, 0, variables);
     }
 
-    private void executeLineByLine(Reader reader) {
-        StringBuilder command = new StringBuilder();
-        try {
-            BufferedReader lineReader = new BufferedReader(reader);
-            String line;
-            while ((line = lineReader.readLine()) != null) {
-                handleLine(command, line);
-            }
-            commitConnection();
-            checkForMissingLineTerminator(command);
-        } catch (Exception e) {
-            String message = "Error executing: " + command + ".  Cause: " + e;
-            printlnError(message);
-            throw new RuntimeException(message, e);
-        }
+    /**
+     * Run a script from a file.
+     * <p>
+     * The file is memory-mapped, or read through a buffer if it is large, and decoded incrementally, so unless the full
+     * script is being sent to the database as a single statement the script text is never held in memory in its
+     * entirety.
+     *
+     * @param path path to the script file
+     * @param charset character set of the script file
+     * @return result of the script
+     */
+    public ScriptResult runScript(Path path, Charset charset) {
+        return runScript(connection(), path, charset);
     }
 
-    private void setAutoCommit() {
-        try {
-            if (autoCommit != connection.getAutoCommit()) {
-                connection.setAutoCommit(autoCommit);
-            }
-        } catch (Throwable t) {
-            throw new RuntimeException("Could not set AutoCommit to " + autoCommit + ". Cause: " + t, t);
+    /**
+     * Run a script from a file using the given connection.
+     *
+     * @param connection connection to execute the script with
+     * @param path path to the script file
+     * @param charset character set of the script file
+     * @return result of the script
+     * @see #runScript(Path, Charset)
+     */
+    public ScriptResult runScript(Connection connection, Path path, Charset charset) {
+        try (MappedFileReader reader = new MappedFileReader(path, charset)) {
+            return runScript(connection, reader, Files.size(path), null);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not read script " + path + ". Cause: " + e, e);
         }
     }
 
-    private void commitConnection() {
+    /**
+     * Run every script from a source, in order, as a single run.
+     * <p>
+     * The scripts are opened lazily and read as a stream, see {@link #setReadAheadLength(int)}. The listeners are told of
+     * the beginning and end of the run once, and of the beginning and end of each script. The result gives the totals for
+     * all of the scripts, and the counts for each script, see {@link ScriptResult#getFileResults()}.
+     * <p>
+     * Each script is executed as it would be on its own: it starts with the configured delimiter, and the transaction is
+     * committed at the end of it. A script that fails with stop on error set stops the run.
+     *
+     * @param source source of the scripts
+     * @return result of the scripts
+     */
+    public ScriptResult runScripts(ScriptSource source) {
+        return runScripts(connection(), source);
+    }
+
+    /**
+     * Run every script from a source using the given connection.
+     *
+     * @param connection connection to execute the scripts with
+     * @param source source of the scripts
+     * @return result of the scripts
+     * @see #runScripts(ScriptSource)
+     */
+    public ScriptResult runScripts(Connection connection, ScriptSource source) {
+        List<ScriptFile> files;
         try {
-            if (!connection.getAutoCommit()) {
-                connection.commit();
-            }
-        } catch (Throwable t) {
-            throw new RuntimeException("Could not commit transaction. Cause: " + t, t);
+            files = source.getScripts();
+        } catch (IOException e) {
+            throw new RuntimeException("Could not list scripts. Cause: " + e, e);
         }
+        boolean fullScript = sendFullScript && !explainOnly;
+        return completed(new Execution(connection, null).run(!fullScript, execution -> execution.executeFiles(files, fullScript)));
+    }
+
+    /**
+     * Run a script that has already been compiled.
+     * <p>
+     * The script is not parsed again, and the send full script setting does not apply.
+     *
+     * @param plan compiled script
+     * @return result of the script
+     */
+    public ScriptResult runScript(ScriptPlan plan) {
+        return runScript(connection(), plan);
+    }
+
+    /**
+     * Run a script that has already been compiled using the given connection.
+     *
+     * @param connection connection to execute the script with
+     * @param plan compiled script
+     * @return result of the script
+     * @see #runScript(ScriptPlan)
+     */
+    public ScriptResult runScript(Connection connection, ScriptPlan plan) {
+        return completed(executePlan(connection, plan, true));
+    }
+
+    /**
+     * Run a script that has already been compiled, with variables, using the connection this script runner was created
+     * with.
+     *
+     * @param plan compiled script
+     * @param variables values of the script variables
+     * @return result of the script
+     * @see #runScript(Connection, Reader, Map)
+     */
+    public ScriptResult runScript(ScriptPlan plan, Map<String, ?> variables) {
+        return runScript(connection(), plan, variables);
     }
 
-    private void rollbackConnection() {
+    /**
+     * Run a script that has already been compiled, with variables, using the given connection.
+     *
+     * @param connection connection to execute the script with
+     * @param plan compiled script
+     * @param variables values of the script variables
+     * @return result of the script
+     * @see #runScript(Connection, Reader, Map)
+     */
+    public ScriptResult runScript(Connection connection, ScriptPlan plan, Map<String, ?> variables) {
+        return completed(new Execution(connection, variables).run(true, execution -> execution.executePlan(plan)));
+    }
+
+    /**
+     * Compile a script into a plan that can be run any number of times, by this or any other script runner.
+     * <p>
+     * The script is parsed using the current delimiter, full line delimiter, backslash escapes and nested comments settings.
+     *
+     * @param reader reader for the script
+     * @return compiled script
+     */
+    public ScriptPlan compileScript(Reader reader) {
         try {
-            if (!connection.getAutoCommit()) {
-                connection.rollback();
+            if (scriptPlanCache != null) {
+                return scriptPlanCache.plan(readFully(reader), delimiter, fullLineDelimiter, backslashEscapes, nestedComments);
+            } else {
+                return ScriptPlan.compile(reader, delimiter, fullLineDelimiter, backslashEscapes, nestedComments);
             }
-        } catch (Throwable t) {
+        } catch (IOException e) {
+            throw new RuntimeException("Could not compile script. Cause: " + e, e);
         }
     }
 
-    private void checkForMissingLineTerminator(StringBuilder command) {
-        if (command != null && command.toString().trim().length() > 0) {
-            throw new RuntimeException("Line missing end-of-line terminator (" + delimiter + ") => " + command);
+    /**
+     * Compile a script from a file.
+     *
+     * @param path path to the script file
+     * @param charset character set of the script file
+     * @return compiled script
+     * @see #compileScript(Reader)
+     */
+    public ScriptPlan compileScript(Path path, Charset charset) {
+        try (MappedFileReader reader = new MappedFileReader(path, charset)) {
+            return compileScript(reader);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not read script " + path + ". Cause: " + e, e);
         }
     }
 
-    private void handleLine(StringBuilder command, String line) throws SQLException {
-        String trimmedLine = line.trim();
-        if (lineIsComment(trimmedLine)) {
-            Matcher matcher = DELIMITER_PATTERN.matcher(trimmedLine);
-            if (matcher.find()) {
-                delimiter = matcher.group(5);
+    private ScriptResult runScript(Connection connection, Reader reader, long sizeHint, Map<String, ?> variables) {
+        boolean fullScript = sendFullScript && !explainOnly;
+        return completed(new Execution(connection, variables).run(!fullScript, execution -> {
+            if (fullScript) {
+                execution.executeFullScript(reader, sizeHint);
+            } else {
+                execution.executeLineByLine(reader);
             }
-            notifyComment(trimmedLine);
-        } else if (commandReadyToExecute(trimmedLine)) {
-            command.append(line.substring(0, line.lastIndexOf(delimiter)));
-            command.append(LINE_SEPARATOR);
-            executeStatement(command.toString().trim());
-            command.setLength(0);
-        } else if (trimmedLine.length() > 0) {
-            command.append(line);
-            command.append(LINE_SEPARATOR);
-        }
+        }));
     }
 
-    private boolean lineIsComment(String trimmedLine) {
-        return trimmedLine.startsWith("//") || trimmedLine.startsWith("--");
+    /**
+     * Run a compiled script, reporting rather than throwing a failure.
+     *
+     * @param connection connection to execute the script with
+     * @param plan compiled script
+     * @param journaled <code>true</code> if the journal, if set, applies
+     * @return result of the script
+     */
+    ScriptResult executePlan(Connection connection, ScriptPlan plan, boolean journaled) {
+        return new Execution(connection, null).run(journaled, execution -> execution.executePlan(plan));
     }
 
-    private boolean commandReadyToExecute(String trimmedLine) {
-        return !fullLineDelimiter && trimmedLine.contains(delimiter) || fullLineDelimiter && trimmedLine.equals(delimiter);
+    /**
+     * Run part of a script that has already been parsed, reporting to the given listener instead of the listeners added
+     * to this script runner.
+     * <p>
+     * The entries are executed the same way as those of a compiled plan, so directives in comments are still applied.
+     *
+     * @param connection connection to execute the entries with
+     * @param entries entries to execute, in order
+     * @param listener listener for this run
+     * @return result of the entries
+     */
+    ScriptResult runEntries(Connection connection, List<ScriptPlan.Entry> entries, ScriptListener listener) {
+        return completed(new Execution(connection, null, Collections.singletonList(listener)).run(false, execution -> execution.executeEntries(entries, "")));
     }
 
-    private void executeStatement(String command) throws SQLException {
-        notifySql(command);
+    /**
+     * Create a lexer for a script, with the current delimiter, full line delimiter, backslash escapes and nested comments
+     * settings.
+     *
+     * @param reader reader for the script
+     * @return lexer
+     */
+    ScriptLexer lexer(Reader reader) {
+        return new ScriptLexer(reader, delimiter, fullLineDelimiter, backslashEscapes, nestedComments);
+    }
 
-        Statement statement = connection.createStatement();
-        try {
-            statement.setEscapeProcessing(escapeProcessing);
-            String sql = command;
-            if (removeCRs) {
-                sql = sql.replaceAll("\r\n", "\n");
-            }
-            try {
-                boolean hasResults = statement.execute(sql);
+    private Connection connection() {
+        if (connection == null) {
+            throw new IllegalStateException("No connection");
+        }
+        return connection;
+    }
 
-                successCount++;
+    /**
+     * Get the prepared statement cache for a connection, creating it if necessary.
+     *
+     * @param connection connection
+     * @return statement cache
+     */
+    private StatementCache statementCache(Connection connection) {
+        synchronized (statementCaches) {
+            StatementCache statementCache = statementCaches.get(connection);
+            if (statementCache == null) {
+                // Discard the caches of connections that have since been closed
+                statementCaches.values().removeIf(cache -> isClosed(cache.connection()));
+                statementCache = new StatementCache(connection, statementCacheSize);
+                statementCaches.put(connection, statementCache);
+            }
+            return statementCache;
+        }
+    }
 
-                if (hasResults) {
-//                    notifyResultSet();
-                } else {
-                    updateCount += statement.getUpdateCount();
-                    notifyUpdateCount(statement.getUpdateCount());
-                }
+    private static boolean isClosed(Connection connection) {
+        try {
+            return connection.isClosed();
+        } catch (SQLException e) {
+            return true;
+        }
+    }
 
-                while (!(!hasResults && statement.getUpdateCount() == -1)) {
-                    checkWarnings(statement);
-                    printResults(statement, hasResults);
-                    hasResults = statement.getMoreResults();
-                }
-            } catch (SQLWarning e) {
-                warningCount++;
-                throw e;
-            } catch (SQLException e) {
-                errorCount++;
+    private static ScriptResult completed(ScriptResult result) {
+        if (result.getFailure() != null) {
+            throw (RuntimeException) result.getFailure();
+        }
+        return result;
+    }
 
-                if (stopOnError) {
-                    throw e;
-                } else {
-                    String message = "Error executing: " + command + ".  Cause: " + e;
-                    printlnError(message);
+    /**
+     * Read the full script, normalising line endings to the platform line separator.
+     * <p>
+     * The trimmed script is created directly from the buffer, rather than from an intermediate untrimmed copy.
+     *
+     * @param reader reader for the script
+     * @param sizeHint expected size of the script, used to size the buffer up front, or zero if not known
+     * @return trimmed script text
+     * @throws IOException if an error occurs reading the script
+     */
+    private String readFullScript(Reader reader, long sizeHint) throws IOException {
+        StringBuilder script = new StringBuilder((int) Math.min(Math.max(sizeHint, 16), Integer.MAX_VALUE - 8));
+        char[] buffer = new char[8192];
+        boolean afterCR = false;
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+            int start = 0;
+            for (int i = 0; i < read; i++) {
+                char c = buffer[i];
+                if (c == '\n' && afterCR) {
+                    start = i + 1;
+                } else if (c == '\n' || c == '\r') {
+                    script.append(buffer, start, i - start).append(LINE_SEPARATOR);
+                    start = i + 1;
                 }
+                afterCR = c == '\r';
             }
-        } finally {
-            try {
-                statement.close();
-            } catch (Exception e) {
-                // Ignore to workaround a bug in some connection pools
-            }
+            script.append(buffer, start, read - start);
         }
-    }
-
-    private void checkWarnings(Statement statement) throws SQLException {
-        if (!throwWarning) {
-            return;
+        int start = 0;
+        int end = script.length();
+        while (start < end && Character.isWhitespace(script.charAt(start))) {
+            start++;
         }
-        // In Oracle, CREATE PROCEDURE, FUNCTION, etc. returns warning
-        // instead of throwing exception if there is compilation error.
-        SQLWarning warning = statement.getWarnings();
-        if (warning != null) {
-            throw warning;
+        while (end > start && Character.isWhitespace(script.charAt(end - 1))) {
+            end--;
         }
+        return script.substring(start, end);
     }
 
-    private void printResults(Statement statement, boolean hasResults) {
-        if (!hasResults) {
-            return;
-        }
-        try (ResultSet rs = statement.getResultSet()) {
-            ResultSetMetaData md = rs.getMetaData();
-            notifyResultSet(md);
-            while (rs.next()) {
-                notifyRow(rs);
-            }
-            notifyNoMoreRows();
-        } catch (SQLException e) {
-            printlnError("Error printing results: " + e.getMessage());
+    private static String readFully(Reader reader) throws IOException {
+        StringBuilder script = new StringBuilder();
+        char[] buffer = new char[8192];
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+            script.append(buffer, 0, read);
         }
+        return script.toString();
     }
 
     private void print(Object o) {
@@ -339,59 +915,1454 @@ public class ScriptRunner {
         }
     }
 
-    private void reset() {
-        this.updateCount = 0;
-        this.successCount = 0;
-        this.warningCount = 0;
-        this.errorCount = 0;
-        this.startTime = 0;
-        this.endTime = 0;
-    }
+    /**
+     * The state of a single run of a script.
+     * <p>
+     * The settings and listeners of the script runner are copied when the run starts, so changing them does not affect
+     * a run that is already in progress.
+     */
+    private final class Execution {
 
-    private void notifyBeginScript() {
-        notifyListeners(ScriptListener::beginScript);
-    }
+        private final Connection connection;
 
-    private void notifyComment(String comment) {
-        notifyListeners(scriptListener -> scriptListener.comment(comment));
-    }
+        /**
+         * Values of the script variables, or <code>null</code> if the script has none.
+         */
+        private final Map<String, ?> variables;
 
-    private void notifySql(String sql) {
-        notifyListeners(scriptListener -> scriptListener.sql(sql));
-    }
+        private final List<ScriptListener> listenerList;
 
-    private void notifySuccess() {
-        notifyListeners(ScriptListener::success);
-    }
+        private final List<StatementTimingListener> timingListenerList = new ArrayList<>();
 
-    private void notifyError(String error) {
-        notifyListeners(scriptListener -> scriptListener.error(error));
-    }
+        /**
+         * Events consumed by at least one listener.
+         */
+        private final Set<ScriptEvent> interests = EnumSet.noneOf(ScriptEvent.class);
 
-    private void notifyUpdateCount(int updateCount) {
-        notifyListeners(scriptListener -> scriptListener.updateCount(updateCount));
-    }
+        private final boolean stopOnError = ScriptRunner.this.stopOnError;
+        private final boolean throwWarning = ScriptRunner.this.throwWarning;
+        private final boolean autoCommit = ScriptRunner.this.autoCommit;
+        private final boolean removeCRs = ScriptRunner.this.removeCRs;
+        private final boolean backslashEscapes = ScriptRunner.this.backslashEscapes;
+        private final boolean nestedComments = ScriptRunner.this.nestedComments;
+        private final boolean escapeProcessing = ScriptRunner.this.escapeProcessing;
+        private final int batchSize = ScriptRunner.this.batchSize;
+        private final int chunkSize = ScriptRunner.this.chunkSize;
+        private final int chunkLength = ScriptRunner.this.chunkLength;
+        private final int parseAhead = ScriptRunner.this.parseAhead;
+        private final int readAheadLength = ScriptRunner.this.readAheadLength;
+        private final int fetchSize = ScriptRunner.this.fetchSize;
+        private final int maxRows = ScriptRunner.this.maxRows;
+        private final boolean streamResults = ScriptRunner.this.streamResults;
+        private final int rowLimit = ScriptRunner.this.rowLimit;
+        private final int commitEveryStatements = ScriptRunner.this.commitEveryStatements;
+        private final int commitEveryRows = ScriptRunner.this.commitEveryRows;
+        private final long commitEveryMillis = ScriptRunner.this.commitEveryMillis;
+        private final int statementTimeout = ScriptRunner.this.statementTimeout;
+        private final int scriptTimeout = ScriptRunner.this.scriptTimeout;
+        private final RetryPolicy retryPolicy = ScriptRunner.this.retryPolicy;
+        private final int statementCacheSize = ScriptRunner.this.statementCacheSize;
+        private final boolean explainOnly = ScriptRunner.this.explainOnly;
+        private final double maxCost = ScriptRunner.this.maxCost;
+        private final boolean explain = ScriptRunner.this.explainDialect != null || explainOnly || maxCost > 0;
+        private final Path journalPath = ScriptRunner.this.journalPath;
+        private final boolean fullLineDelimiter = ScriptRunner.this.fullLineDelimiter;
 
-    private void notifyResultSet(ResultSetMetaData resultSetMetaData) {
-        notifyListeners(scriptListener -> scriptListener.resultSet(resultSetMetaData));
-    }
+        /**
+         * Current delimiter, which may be changed by the script.
+         */
+        private String delimiter = ScriptRunner.this.delimiter;
 
-    private void notifyRow(ResultSet resultSet) {
-        notifyListeners(scriptListener -> scriptListener.row(resultSet));
-    }
+        private int updateCount;
+        private int successCount;
+        private int warningCount;
+        private int errorCount;
+        private int statementsSinceCommit;
+        private int updateCountAtCommit;
+        private int successCountAtCommit;
+        private int warningCountAtCommit;
+        private int errorCountAtCommit;
+        private long commitTime = System.nanoTime();
+        private boolean committed;
 
-    private void notifyNoMoreRows() {
-        notifyListeners(ScriptListener::noMoreRows);
-    }
+        /**
+         * Time by which the script must complete, or zero if there is no script timeout.
+         */
+        private long deadline;
 
-    private void notifyEndScript(int updateCount, int successCount, int warningCount, int errorCount, long duration) {
-        notifyListeners(scriptListener -> scriptListener.endScript(updateCount, successCount, warningCount, errorCount, duration));
-    }
+        /**
+         * Timeout set by a directive for the next statement, in seconds, or -1 if none.
+         */
+        private int nextStatementTimeout = -1;
+
+        /**
+         * Statements executed since the last commit, to execute again if the transaction has to be retried.
+         */
+        private final List<String> unit = new ArrayList<>();
+
+        /**
+         * Number of the current attempt at the transaction, or at the current statement with auto-commit enabled.
+         */
+        private int attempt = 1;
+
+        /**
+         * Journal for the script, if any.
+         */
+        private Journal journal;
+
+        private final List<String> batch = new ArrayList<>();
+
+        private final List<ScriptFileResult> fileResults = new ArrayList<>();
+
+        private final List<String> chunk = new ArrayList<>();
+
+        /**
+         * Length of the statements in the pending chunk.
+         */
+        private int pendingChunkLength;
+
+        private String command;
+
+        private final Timer timer = new Timer();
+
+        /**
+         * Execution time of the most recent batch, divided evenly between the statements in it.
+         */
+        private long batchNanos;
+
+        /**
+         * Whether or not the most recent batch or chunk was cancelled.
+         */
+        private boolean batchCancelled;
+
+        /**
+         * Prepared statement cache for the connection, looked up when first needed.
+         */
+        private StatementCache statementCache;
+
+        /**
+         * Name of the database product, looked up when first needed.
+         */
+        private String databaseProductName;
+
+        /**
+         * Dialect used to explain statements, for the database of the connection if none was set.
+         */
+        private ExplainDialect explainDialect = ScriptRunner.this.explainDialect;
+
+        private final ScriptLexer.Handler lexerHandler = new ScriptLexer.Handler() {
+            @Override
+            public void comment(String comment) throws SQLException {
+                if (journal != null && journal.skipping()) {
+                    return;
+                }
+                boolean directive = comment.indexOf('@') != -1;
+                boolean commit = directive && COMMIT_PATTERN.matcher(comment).find();
+                // Statements before the comment are executed first so the events arrive in script order, the batch is
+                // only kept across a comment nobody listens for
+                if (commit || wants(ScriptEvent.COMMENT)) {
+                    flush();
+                }
+                notifyComment(comment);
+                if (commit) {
+                    commitConnection();
+                } else if (directive) {
+                    Matcher timeout = TIMEOUT_PATTERN.matcher(comment);
+                    if (timeout.find()) {
+                        nextStatementTimeout = Integer.parseInt(timeout.group(5));
+                    }
+                }
+            }
+
+            @Override
+            public void delimiter(String newDelimiter) throws SQLException {
+                flush();
+                delimiter = newDelimiter;
+            }
+
+            @Override
+            public void statement(String sql) throws SQLException {
+                if (journal != null && journal.skip(sql)) {
+                    return;
+                }
+                command = sql;
+                executeCommand(sql);
+                command = null;
+            }
+        };
+
+        private Execution(Connection connection, Map<String, ?> variables) {
+            this(connection, variables, ScriptRunner.this.listenerList);
+        }
+
+        private Execution(Connection connection, Map<String, ?> variables, List<ScriptListener> listenerList) {
+            this.connection = connection;
+            this.variables = variables;
+            this.listenerList = new ArrayList<>(listenerList);
+            for (ScriptListener listener : listenerList) {
+                if (listener instanceof StatementTimingListener) {
+                    timingListenerList.add((StatementTimingListener) listener);
+                }
+                interests.addAll(listener.interests());
+            }
+        }
+
+        private ScriptResult run(boolean journaled, Consumer<Execution> script) {
+            long startTime = System.currentTimeMillis();
+            long duration;
+            RuntimeException failure = null;
+            deadline = scriptTimeout > 0 ? System.nanoTime() + TimeUnit.SECONDS.toNanos(scriptTimeout) : 0;
+            journal = journaled && journalPath != null && !explainOnly ? openJournal() : null;
+            notifyBeginScript();
+            try {
+                setAutoCommit();
+                script.accept(this);
+                finishJournal();
+            } catch (RuntimeException e) {
+                failure = e;
+            } finally {
+                rollbackConnection();
+                closeJournal();
+                duration = System.currentTimeMillis() - startTime;
+                notifyEndScript(updateCount, successCount, warningCount, errorCount, duration);
+            }
+            return new ScriptResult(updateCount, successCount, warningCount, errorCount, duration, failure, fileResults);
+        }
+
+        private void executeFullScript(Reader reader, long sizeHint) {
+            String script = null;
+            int errorCountAtStart = errorCount;
+            try {
+                script = readFullScript(reader, sizeHint);
+                notifySql(script);
+                executeRetrying(script);
+                notifySuccess();
+                commitConnection();
+            } catch (Exception e) {
+                // A failed statement has already been reported
+                if (errorCount == errorCountAtStart) {
+                    notifyError(e.getMessage());
+                }
+                String message = "Error executing: " + script + ".  Cause: " + e;
+                printlnError(message);
+                throw new RuntimeException(message, e);
+            }
+        }
+
+        private void executeFiles(List<ScriptFile> files, boolean fullScript) {
+            try (ReadAhead readAhead = new ReadAhead(files, readAheadLength)) {
+                for (ScriptFile file : files) {
+                    executeFile(file, readAhead, fullScript);
+                }
+            }
+        }
+
+        private void executeFile(ScriptFile file, ReadAhead readAhead, boolean fullScript) {
+            long startTime = System.currentTimeMillis();
+            int updateCountAtStart = updateCount;
+            int successCountAtStart = successCount;
+            int warningCountAtStart = warningCount;
+            int errorCountAtStart = errorCount;
+            notifyBeginFile(file.getName());
+            delimiter = ScriptRunner.this.delimiter;
+            try (Reader reader = readAhead.next()) {
+                if (fullScript) {
+                    executeFullScript(reader, file.getSize());
+                } else {
+                    executeLineByLine(reader);
+                }
+            } catch (IOException e) {
+                String message = "Could not read script " + file.getName() + ". Cause: " + e;
+                printlnError(message);
+                throw new RuntimeException(message, e);
+            } finally {
+                ScriptFileResult result = new ScriptFileResult(file.getName(), updateCount - updateCountAtStart, successCount - successCountAtStart, warningCount - warningCountAtStart, errorCount - errorCountAtStart, System.currentTimeMillis() - startTime);
+                fileResults.add(result);
+                notifyEndFile(result);
+            }
+        }
 
-    private void notifyListeners(Consumer<ScriptListener> consumer) {
-        for (ScriptListener listener : listenerList) {
-            consumer.accept(listener);
+        private void executeLineByLine(Reader reader) {
+            ScriptLexer lexer = new ScriptLexer(reader, delimiter, fullLineDelimiter, backslashEscapes, nestedComments);
+            try {
+                if (parseAhead > 0) {
+                    new ParseAhead(lexer, parseAhead).run(lexerHandler);
+                } else {
+                    lexer.run(lexerHandler);
+                }
+                flush();
+                commitConnection();
+                checkForMissingLineTerminator(lexer.pending());
+            } catch (Exception e) {
+                throw executionFailed(command != null ? command : lexer.pending(), e);
+            }
+        }
+
+        private void executePlan(ScriptPlan plan) {
+            executeEntries(plan.getEntries(), plan.getRemainder());
+        }
+
+        private void executeEntries(List<ScriptPlan.Entry> entries, String remainder) {
+            try {
+                for (ScriptPlan.Entry entry : entries) {
+                    switch (entry.getKind()) {
+                        case COMMENT:
+                            lexerHandler.comment(entry.getText());
+                            break;
+                        case DELIMITER:
+                            lexerHandler.delimiter(entry.getText());
+                            break;
+                        case STATEMENT:
+                            lexerHandler.statement(entry.getText());
+                            break;
+                    }
+                }
+                flush();
+                commitConnection();
+                checkForMissingLineTerminator(remainder);
+            } catch (Exception e) {
+                throw executionFailed(command != null ? command : remainder, e);
+            }
+        }
+
+        private RuntimeException executionFailed(String command, Exception e) {
+            String message = "Error executing: " + command + ".  Cause: " + e;
+            printlnError(message);
+            return new RuntimeException(message, e);
+        }
+
+        private void setAutoCommit() {
+            try {
+                if (autoCommit != connection.getAutoCommit()) {
+                    connection.setAutoCommit(autoCommit);
+                }
+            } catch (Throwable t) {
+                throw new RuntimeException("Could not set AutoCommit to " + autoCommit + ". Cause: " + t, t);
+            }
+        }
+
+        private void commitConnection() {
+            if (committed && statementsSinceCommit == 0) {
+                // Nothing has been executed since the last commit
+                return;
+            }
+            boolean committed = false;
+            try {
+                if (!connection.getAutoCommit()) {
+                    commitRetrying();
+                    committed = true;
+                }
+            } catch (Throwable t) {
+                throw new RuntimeException("Could not commit transaction. Cause: " + t, t);
+            }
+            statementsSinceCommit = 0;
+            updateCountAtCommit = updateCount;
+            successCountAtCommit = successCount;
+            warningCountAtCommit = warningCount;
+            errorCountAtCommit = errorCount;
+            unit.clear();
+            attempt = 1;
+            commitTime = System.nanoTime();
+            checkpoint();
+            if (committed) {
+                this.committed = true;
+                notifyCommit();
+            }
+        }
+
+        /**
+         * Reached a point at which a commit may be made, commit if auto-commit is enabled or a periodic commit is due.
+         */
+        private void commitPoint() {
+            if (autoCommit) {
+                checkpoint();
+            } else if (commitEveryStatements > 0 && statementsSinceCommit >= commitEveryStatements ||
+                       commitEveryRows > 0 && updateCount - updateCountAtCommit >= commitEveryRows ||
+                       commitEveryMillis > 0 && System.nanoTime() - commitTime >= TimeUnit.MILLISECONDS.toNanos(commitEveryMillis)) {
+                commitConnection();
+            }
         }
+
+        /**
+         * Record in the journal that a statement has been executed, whether or not it succeeded.
+         *
+         * @param command statement
+         */
+        private void completed(String command) {
+            statementsSinceCommit++;
+            if (retriesTransactions()) {
+                unit.add(command);
+            }
+            if (journal != null) {
+                journal.completed(command);
+            }
+        }
+
+        private Journal openJournal() {
+            try {
+                return new Journal(journalPath);
+            } catch (IOException e) {
+                throw new RuntimeException("Could not open journal " + journalPath + ". Cause: " + e, e);
+            }
+        }
+
+        /**
+         * Record in the journal that the statements executed so far have been committed.
+         */
+        private void checkpoint() {
+            if (journal != null) {
+                try {
+                    journal.checkpoint();
+                } catch (IOException e) {
+                    throw new RuntimeException("Could not write journal " + journalPath + ". Cause: " + e, e);
+                }
+            }
+        }
+
+        private void finishJournal() {
+            if (journal != null) {
+                try {
+                    journal.finish();
+                } catch (IOException e) {
+                    throw new RuntimeException("Could not delete journal " + journalPath + ". Cause: " + e, e);
+                }
+            }
+        }
+
+        private void closeJournal() {
+            if (journal != null) {
+                try {
+                    journal.close();
+                } catch (IOException e) {
+                    // Nothing can be done
+                }
+                journal = null;
+            }
+        }
+
+        private void rollbackConnection() {
+            try {
+                if (!connection.getAutoCommit()) {
+                    connection.rollback();
+                }
+            } catch (Throwable t) {
+            }
+        }
+
+        private void checkForMissingLineTerminator(String command) {
+            if (command.length() > 0) {
+                throw new RuntimeException("Line missing end-of-line terminator (" + delimiter + ") => " + command);
+            }
+        }
+
+        private void executeCommand(String command) throws SQLException {
+            if (explainOnly) {
+                explainCommand(command);
+                return;
+            }
+            StatementType type = StatementType.of(command);
+            boolean single = nextStatementTimeout >= 0 || variables != null && StatementTemplate.mayContainVariables(command) || explain && StatementType.isExplainable(command);
+            if (batchSize > 1 && !single && type.isBatchable()) {
+                flushChunk();
+                batch.add(command);
+                if (batch.size() >= batchSize) {
+                    flushBatch();
+                }
+            } else if ((chunkSize > 1 || chunkLength > 0) && !single && type.isChunkable() && !(streamResults && requiresTransactionToStream(command))) {
+                flushBatch();
+                chunk.add(command);
+                pendingChunkLength += command.length();
+                if (chunkSize > 1 && chunk.size() >= chunkSize || chunkLength > 0 && pendingChunkLength >= chunkLength) {
+                    flushChunk();
+                }
+            } else {
+                flush();
+                executeRetrying(command);
+                completed(command);
+                commitPoint();
+            }
+        }
+
+        /**
+         * Execute any statements waiting to be sent to the database in a batch or a chunk.
+         *
+         * @throws SQLException if an error occurs and stop on error is set
+         */
+        private void flush() throws SQLException {
+            flushBatch();
+            flushChunk();
+        }
+
+        private void flushBatch() throws SQLException {
+            if (batch.isEmpty()) {
+                return;
+            }
+            List<String> commands = new ArrayList<>(batch);
+            batch.clear();
+            while (!commands.isEmpty()) {
+                try {
+                    commands = executeBatch(commands);
+                } catch (RetryableException e) {
+                    // The whole transaction has been executed again, so all of the commands must be resubmitted
+                    retry(e.getCause());
+                }
+            }
+            commitPoint();
+        }
+
+        /**
+         * Execute a batch of commands, reporting the outcome of each command individually.
+         *
+         * @param commands commands to execute
+         * @return commands that were not executed because the driver stopped processing the batch at a failure, these must be resubmitted
+         * @throws SQLException if an error occurs and stop on error is set
+         */
+        private List<String> executeBatch(List<String> commands) throws SQLException {
+            long timeout = timeoutMillis(statementTimeout);
+            Statement statement = connection.createStatement();
+            Watchdog watchdog = null;
+            batchCancelled = false;
+            try {
+                statement.setEscapeProcessing(escapeProcessing);
+                for (String command : commands) {
+                    String sql = command;
+                    if (removeCRs) {
+                        sql = sql.replaceAll("\r\n", "\n");
+                    }
+                    statement.addBatch(sql);
+                }
+
+                int[] counts;
+                long start = timed() ? System.nanoTime() : 0;
+                try {
+                    watchdog = watch(statement, timeout);
+                    counts = statement.executeBatch();
+                    batchNanos = timed() ? (System.nanoTime() - start) / commands.size() : 0;
+                } catch (BatchUpdateException e) {
+                    batchNanos = timed() ? (System.nanoTime() - start) / commands.size() : 0;
+                    batchCancelled = isCancellation(e, watchdog);
+                    if (!batchCancelled && retriesTransactions() && canRetry(e)) {
+                        throw new RetryableException(e);
+                    }
+                    counts = e.getUpdateCounts() != null ? e.getUpdateCounts() : new int[0];
+                    return reportBatchFailure(commands, counts, e);
+                } catch (SQLException e) {
+                    batchNanos = timed() ? (System.nanoTime() - start) / commands.size() : 0;
+                    batchCancelled = isCancellation(e, watchdog);
+                    if (!batchCancelled && retriesTransactions() && canRetry(e)) {
+                        throw new RetryableException(e);
+                    }
+                    // Not possible to know which commands executed, so they must all be considered to have failed
+                    for (String command : commands) {
+                        notifySql(command);
+                        batchError(command, e);
+                    }
+                    return Collections.emptyList();
+                }
+
+                for (int i = 0; i < commands.size(); i++) {
+                    notifySql(commands.get(i));
+                    batchSuccess(commands.get(i), counts[i]);
+                }
+
+                try {
+                    checkWarnings(statement);
+                } catch (SQLWarning e) {
+                    warningCount++;
+                    throw e;
+                }
+                return Collections.emptyList();
+            } finally {
+                if (watchdog != null) {
+                    watchdog.close();
+                }
+                try {
+                    statement.close();
+                } catch (Exception e) {
+                    // Ignore to workaround a bug in some connection pools
+                }
+            }
+        }
+
+        private List<String> reportBatchFailure(List<String> commands, int[] counts, BatchUpdateException e) throws SQLException {
+            int executed = Math.min(counts.length, commands.size());
+            for (int i = 0; i < executed; i++) {
+                notifySql(commands.get(i));
+                if (counts[i] == Statement.EXECUTE_FAILED) {
+                    batchError(commands.get(i), e);
+                } else {
+                    batchSuccess(commands.get(i), counts[i]);
+                }
+            }
+            if (executed == commands.size()) {
+                return Collections.emptyList();
+            }
+            // The driver stopped processing the batch at the first failure, so the remaining commands never executed
+            String failed = commands.get(executed);
+            notifySql(failed);
+            batchError(failed, e);
+            return commands.subList(executed + 1, commands.size());
+        }
+
+        private void flushChunk() throws SQLException {
+            if (chunk.isEmpty()) {
+                return;
+            }
+            List<String> commands = new ArrayList<>(chunk);
+            chunk.clear();
+            pendingChunkLength = 0;
+            while (!commands.isEmpty()) {
+                commands = executeChunk(commands);
+            }
+            commitPoint();
+        }
+
+        /**
+         * Execute a chunk of commands as a single multi-statement string, reporting the results of each command
+         * individually.
+         *
+         * @param commands commands to execute
+         * @return commands that were not executed because the driver stopped at a failure, these must be resubmitted
+         * @throws SQLException if an error occurs and stop on error is set
+         */
+        private List<String> executeChunk(List<String> commands) throws SQLException {
+            long timeout = timeoutMillis(statementTimeout);
+            Statement statement = createStatement();
+            Watchdog watchdog = null;
+            batchCancelled = false;
+            // Number of commands whose results have been received
+            int received = 0;
+            try {
+                statement.setEscapeProcessing(escapeProcessing);
+                StringBuilder sql = new StringBuilder();
+                for (String command : commands) {
+                    if (sql.length() > 0) {
+                        // The delimiter goes on its own line in case the previous command ends with a line comment
+                        sql.append(LINE_SEPARATOR).append(';').append(LINE_SEPARATOR);
+                    }
+                    sql.append(removeCRs ? command.replaceAll("\r\n", "\n") : command);
+                }
+                try {
+                    try {
+                        watchdog = watch(statement, timeout);
+                        if (timed()) {
+                            timer.start();
+                        }
+                        boolean hasResults = statement.execute(sql.toString());
+                        for (;;) {
+                            String command = commands.get(received);
+                            if (timed()) {
+                                timer.executed();
+                            }
+                            notifySql(command);
+                            successCount++;
+                            if (!hasResults) {
+                                updateCount += statement.getUpdateCount();
+                                notifyUpdateCount(statement.getUpdateCount());
+                            }
+                            checkWarnings(statement);
+                            printResults(statement, hasResults);
+                            if (timed()) {
+                                notifyStatementTiming(timer.timing(command, false));
+                            }
+                            completed(command);
+                            if (++received == commands.size()) {
+                                break;
+                            }
+                            if (timed()) {
+                                timer.start();
+                            }
+                            hasResults = statement.getMoreResults();
+                            if (!hasResults && statement.getUpdateCount() == -1) {
+                                throw new RuntimeException("The driver returned " + received + " results for a chunk of " + commands.size() + " statements, it does not support chunking");
+                            }
+                        }
+                    } finally {
+                        if (watchdog != null) {
+                            watchdog.close();
+                        }
+                    }
+                } catch (SQLWarning e) {
+                    warningCount++;
+                    throw e;
+                } catch (SQLException e) {
+                    batchCancelled = isCancellation(e, watchdog);
+                    if (!batchCancelled && retriesTransactions() && canRetry(e)) {
+                        // The commands already received are executed again along with the rest of the transaction
+                        retry(e);
+                        return commands.subList(received, commands.size());
+                    }
+                    String failed = commands.get(received);
+                    notifySql(failed);
+                    statementError(failed, e, timed() ? timer.timing(failed, true) : null);
+                    return commands.subList(received + 1, commands.size());
+                }
+                return Collections.emptyList();
+            } finally {
+                try {
+                    statement.close();
+                } catch (Exception e) {
+                    // Ignore to workaround a bug in some connection pools
+                }
+            }
+        }
+
+        private void batchSuccess(String command, int count) {
+            successCount++;
+            if (timed()) {
+                notifyStatementTiming(new StatementTiming(command, batchNanos, batchNanos, -1, 0, 0, 0, true, false));
+            }
+            // Drivers may report SUCCESS_NO_INFO rather than an actual count
+            if (count >= 0) {
+                updateCount += count;
+                notifyUpdateCount(count);
+            }
+            completed(command);
+        }
+
+        private void batchError(String command, SQLException e) throws SQLException {
+            statementError(command, e, timed() ? new StatementTiming(command, batchNanos, batchNanos, -1, 0, 0, 0, true, true) : null);
+        }
+
+        /**
+         * Report a failed statement from a batch or a chunk.
+         *
+         * @param command statement
+         * @param e failure
+         * @param timing timing for the statement, or <code>null</code> if not timed
+         * @throws SQLException if stop on error is set
+         */
+        private void statementError(String command, SQLException e, StatementTiming timing) throws SQLException {
+            errorCount++;
+            if (batchCancelled) {
+                notifyCancelled(e.getMessage());
+            } else {
+                notifyError(e.getMessage());
+            }
+            if (timing != null) {
+                notifyStatementTiming(timing);
+            }
+            if (stopOnError || batchCancelled && scriptExpired()) {
+                // With auto-commit, the statements in the batch or chunk before this one have been committed
+                if (autoCommit) {
+                    checkpoint();
+                }
+                if (!stopOnError) {
+                    throw scriptTimedOut();
+                }
+                // Report the failed statement, not the one that caused the batch or chunk to be sent
+                this.command = command;
+                throw e;
+            } else {
+                String message = "Error executing: " + command + ".  Cause: " + e;
+                printlnError(message);
+            }
+            completed(command);
+        }
+
+        private void executeStatement(String command) throws SQLException {
+            long timeout = timeoutMillis(nextStatementTimeout >= 0 ? nextStatementTimeout : statementTimeout);
+            nextStatementTimeout = -1;
+            notifySql(command);
+
+            String sql = command;
+            if (removeCRs) {
+                sql = sql.replaceAll("\r\n", "\n");
+            }
+            StatementTemplate template = variables != null ? StatementTemplate.parse(sql, backslashEscapes) : null;
+            if (explain && StatementType.isExplainable(command) && !preflight(command, sql, template)) {
+                return;
+            }
+
+            boolean restoreAutoCommit = streamResults && requiresTransactionToStream(command);
+            if (restoreAutoCommit) {
+                connection.setAutoCommit(false);
+            }
+            Statement statement = template != null ? prepareStatement(template.sql()) : createStatement();
+            Watchdog watchdog = null;
+            boolean failed = false;
+            if (timed()) {
+                timer.start();
+            }
+            try {
+                statement.setEscapeProcessing(escapeProcessing);
+                try {
+                    if (template != null) {
+                        template.bind((PreparedStatement) statement, variables);
+                    }
+                    watchdog = watch(statement, timeout);
+                    boolean hasResults;
+                    try {
+                        hasResults = template != null ? ((PreparedStatement) statement).execute() : statement.execute(sql);
+                    } finally {
+                        if (watchdog != null) {
+                            watchdog.close();
+                        }
+                    }
+                    if (timed()) {
+                        timer.executed();
+                    }
+
+                    successCount++;
+
+                    if (hasResults) {
+    //                    notifyResultSet();
+                    } else {
+                        updateCount += statement.getUpdateCount();
+                        notifyUpdateCount(statement.getUpdateCount());
+                    }
+
+                    while (!(!hasResults && statement.getUpdateCount() == -1)) {
+                        checkWarnings(statement);
+                        printResults(statement, hasResults);
+                        hasResults = statement.getMoreResults();
+                    }
+                } catch (SQLWarning e) {
+                    warningCount++;
+                    throw e;
+                } catch (SQLException e) {
+                    failed = true;
+                    boolean cancelled = isCancellation(e, watchdog);
+                    if (!cancelled && canRetry(e)) {
+                        throw new RetryableException(e);
+                    }
+
+                    errorCount++;
+                    if (cancelled) {
+                        notifyCancelled(e.getMessage());
+                        if (!stopOnError && scriptExpired()) {
+                            throw scriptTimedOut();
+                        }
+                    } else {
+                        notifyError(e.getMessage());
+                    }
+                    if (stopOnError) {
+                        throw e;
+                    } else {
+                        String message = "Error executing: " + command + ".  Cause: " + e;
+                        printlnError(message);
+                    }
+                }
+            } finally {
+                // A cached statement stays open for the next execution
+                if (template == null || statementCacheSize <= 0) {
+                    try {
+                        statement.close();
+                    } catch (Exception e) {
+                        // Ignore to workaround a bug in some connection pools
+                    }
+                }
+                if (restoreAutoCommit) {
+                    // Enabling auto-commit again commits the transaction that was opened for the cursor
+                    connection.setAutoCommit(true);
+                }
+                if (timed()) {
+                    notifyStatementTiming(timer.timing(command, failed));
+                }
+            }
+        }
+
+        /**
+         * Explain a statement, in explain-only mode, without executing it.
+         *
+         * @param command statement
+         * @throws SQLException if the statement could not be explained, or was refused, and stop on error is set
+         */
+        private void explainCommand(String command) throws SQLException {
+            nextStatementTimeout = -1;
+            notifySql(command);
+            if (StatementType.isExplainable(command)) {
+                String sql = command;
+                if (removeCRs) {
+                    sql = sql.replaceAll("\r\n", "\n");
+                }
+                preflight(command, sql, variables != null ? StatementTemplate.parse(sql, backslashEscapes) : null);
+            }
+        }
+
+        /**
+         * Explain a statement and report its plan, refusing the statement if its estimated cost is too high.
+         *
+         * @param command statement
+         * @param sql statement text to explain
+         * @param template variables in the statement, or <code>null</code> if none
+         * @return <code>true</code> if the statement should now be executed
+         * @throws SQLException if the statement was refused, or could not be explained in explain-only mode, and stop on
+         *                      error is set
+         */
+        private boolean preflight(String command, String sql, StatementTemplate template) throws SQLException {
+            QueryPlan plan;
+            // Some databases, PostgreSQL in particular, will not continue a transaction after an error
+            Savepoint savepoint = setSavepoint();
+            try {
+                plan = explain(sql, template);
+                releaseSavepoint(savepoint);
+            } catch (SQLException e) {
+                if (savepoint != null) {
+                    rollbackToSavepoint(savepoint);
+                } else if (explainOnly) {
+                    // Nothing has been executed, so the whole transaction can be rolled back
+                    rollbackConnection();
+                }
+                if (!explainOnly) {
+                    // Let the statement report its own error, if it has one
+                    printlnError("Could not explain: " + command + ".  Cause: " + e);
+                    return true;
+                }
+                errorCount++;
+                notifyError(e.getMessage());
+                if (stopOnError) {
+                    throw e;
+                }
+                printlnError("Error explaining: " + command + ".  Cause: " + e);
+                return false;
+            }
+            notifyPlan(plan);
+            if (maxCost > 0 && plan.getCost() > maxCost) {
+                String message = String.format("Refused, estimated cost %.2f exceeds the maximum of %.2f", plan.getCost(), maxCost);
+                errorCount++;
+                notifyError(message);
+                if (stopOnError) {
+                    throw new SQLException(message);
+                }
+                printlnError("Error executing: " + command + ".  Cause: " + message);
+                return false;
+            }
+            if (explainOnly) {
+                successCount++;
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Set a savepoint, if a transaction is open and the driver supports savepoints.
+         *
+         * @return savepoint, or <code>null</code> if none was set
+         * @throws SQLException if an error occurs
+         */
+        private Savepoint setSavepoint() throws SQLException {
+            if (connection.getAutoCommit()) {
+                return null;
+            }
+            try {
+                return connection.setSavepoint();
+            } catch (SQLFeatureNotSupportedException e) {
+                return null;
+            }
+        }
+
+        private void releaseSavepoint(Savepoint savepoint) {
+            if (savepoint != null) {
+                try {
+                    connection.releaseSavepoint(savepoint);
+                } catch (SQLException e) {
+                    // Not every driver supports releasing a savepoint, it is released by the commit anyway
+                }
+            }
+        }
+
+        private void rollbackToSavepoint(Savepoint savepoint) {
+            try {
+                connection.rollback(savepoint);
+            } catch (SQLException e) {
+                printlnError("Could not roll back to savepoint. Cause: " + e);
+            }
+        }
+
+        private QueryPlan explain(String sql, StatementTemplate template) throws SQLException {
+            if (explainDialect == null) {
+                explainDialect = StandardExplainDialect.forDatabase(connection.getMetaData().getDatabaseProductName());
+                if (explainDialect == null) {
+                    throw new SQLException("No explain dialect for " + connection.getMetaData().getDatabaseProductName());
+                }
+            }
+            String explainSql = explainDialect.explain(template != null ? template.sql() : sql);
+            Statement statement = template != null ? connection.prepareStatement(explainSql) : connection.createStatement();
+            try {
+                ResultSet resultSet;
+                if (template != null) {
+                    template.bind((PreparedStatement) statement, variables);
+                    resultSet = ((PreparedStatement) statement).executeQuery();
+                } else {
+                    resultSet = statement.executeQuery(explainSql);
+                }
+                try {
+                    return explainDialect.plan(resultSet);
+                } finally {
+                    resultSet.close();
+                }
+            } finally {
+                try {
+                    statement.close();
+                } catch (Exception e) {
+                    // Ignore to workaround a bug in some connection pools
+                }
+            }
+        }
+
+        /**
+         * Execute a statement, retrying it if it fails with a transient error.
+         *
+         * @param command statement
+         * @throws SQLException if an error occurs and stop on error is set
+         */
+        private void executeRetrying(String command) throws SQLException {
+            for (;;) {
+                try {
+                    executeStatement(command);
+                    break;
+                } catch (RetryableException e) {
+                    retry(e.getCause());
+                }
+            }
+            if (!retriesTransactions()) {
+                attempt = 1;
+            }
+        }
+
+        private void commitRetrying() throws SQLException {
+            for (;;) {
+                try {
+                    connection.commit();
+                    return;
+                } catch (SQLException e) {
+                    if (!retriesTransactions() || !canRetry(e)) {
+                        throw e;
+                    }
+                    retry(e);
+                }
+            }
+        }
+
+        private boolean retriesTransactions() {
+            return retryPolicy != null && !autoCommit;
+        }
+
+        private boolean canRetry(SQLException e) {
+            return retryPolicy != null && attempt < retryPolicy.getMaxAttempts() && retryPolicy.isTransient(e);
+        }
+
+        /**
+         * Wait before the next attempt and, when auto-commit is not enabled, roll back the transaction and execute the
+         * statements since the last commit again, repeating until they succeed or fail with an error that can not be
+         * retried.
+         *
+         * @param cause transient failure
+         * @throws SQLException if the retry is interrupted, or a statement fails and stop on error is set
+         */
+        private void retry(SQLException cause) throws SQLException {
+            for (;;) {
+                long delay = retryPolicy.backoffMillis(attempt);
+                attempt++;
+                if (retriesTransactions()) {
+                    connection.rollback();
+                    updateCount = updateCountAtCommit;
+                    successCount = successCountAtCommit;
+                    warningCount = warningCountAtCommit;
+                    errorCount = errorCountAtCommit;
+                }
+                notifyRetry(cause.getMessage(), attempt, delay);
+                printlnError("Retrying after " + delay + " ms, attempt " + attempt + ".  Cause: " + cause);
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw cause;
+                }
+                if (!retriesTransactions()) {
+                    return;
+                }
+                try {
+                    for (String command : unit) {
+                        executeStatement(command);
+                    }
+                    return;
+                } catch (RetryableException e) {
+                    cause = e.getCause();
+                }
+            }
+        }
+
+        /**
+         * Get the time a statement may execute for, which is never more than the time remaining for the script.
+         *
+         * @param seconds timeout for the statement, in seconds, or zero for no timeout
+         * @return timeout, in milliseconds, or zero for no timeout
+         */
+        private long timeoutMillis(int seconds) {
+            long timeout = TimeUnit.SECONDS.toMillis(seconds);
+            if (deadline != 0) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    RuntimeException e = scriptTimedOut();
+                    notifyCancelled(e.getMessage());
+                    throw e;
+                }
+                timeout = timeout > 0 ? Math.min(timeout, remaining) : remaining;
+            }
+            return timeout;
+        }
+
+        private boolean scriptExpired() {
+            return deadline != 0 && System.nanoTime() - deadline >= 0;
+        }
+
+        private RuntimeException scriptTimedOut() {
+            return new RuntimeException("Script timed out after " + scriptTimeout + " seconds");
+        }
+
+        /**
+         * Apply a timeout to a statement, both as the query timeout and with a watchdog in case the driver ignores it.
+         *
+         * @param statement statement
+         * @param timeout timeout, in milliseconds, or zero for no timeout
+         * @return watchdog, or <code>null</code> if there is no timeout
+         * @throws SQLException if an error occurs
+         */
+        private Watchdog watch(Statement statement, long timeout) throws SQLException {
+            if (timeout <= 0) {
+                return null;
+            }
+            statement.setQueryTimeout((int) Math.min(Integer.MAX_VALUE, (timeout + 999) / 1000));
+            return new Watchdog(statement, timeout + WATCHDOG_GRACE_MILLIS);
+        }
+
+        /**
+         * Did a statement with a timeout fail because it was cancelled?
+         *
+         * @param e exception
+         * @param watchdog watchdog for the statement, or <code>null</code> if there was no timeout
+         * @return <code>true</code> if the statement was cancelled
+         */
+        private boolean isCancellation(SQLException e, Watchdog watchdog) {
+            return watchdog != null && (watchdog.fired() || e instanceof SQLTimeoutException || "57014".equals(e.getSQLState()));
+        }
+
+        private Statement createStatement() throws SQLException {
+            Statement statement = streamResults ? connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY) : connection.createStatement();
+            configure(statement, false);
+            return statement;
+        }
+
+        /**
+         * Get a prepared statement, from the statement cache for the connection if there is one.
+         *
+         * @param sql statement text
+         * @return statement
+         * @throws SQLException if an error occurs
+         */
+        private PreparedStatement prepareStatement(String sql) throws SQLException {
+            if (statementCacheSize <= 0) {
+                PreparedStatement statement = connection.prepareStatement(sql);
+                configure(statement, false);
+                return statement;
+            }
+            if (statementCache == null) {
+                statementCache = statementCache(connection);
+            }
+            PreparedStatement statement = statementCache.prepare(sql);
+            // A cached statement keeps the settings and warnings of its previous execution
+            statement.clearWarnings();
+            statement.setQueryTimeout(0);
+            configure(statement, true);
+            return statement;
+        }
+
+        private void configure(Statement statement, boolean reused) throws SQLException {
+            if (fetchSize > 0) {
+                statement.setFetchSize(fetchSize);
+            } else if (streamResults) {
+                // The MySQL and MariaDB drivers only stream row by row with this particular fetch size
+                statement.setFetchSize(isDatabase("mysql") || isDatabase("mariadb") ? Integer.MIN_VALUE : DEFAULT_STREAMING_FETCH_SIZE);
+            } else if (reused) {
+                statement.setFetchSize(0);
+            }
+            if (maxRows > 0 || reused) {
+                statement.setMaxRows(maxRows);
+            }
+        }
+
+        /**
+         * The PostgreSQL driver ignores the fetch size and reads the entire result set unless a transaction is open.
+         *
+         * @param command command about to be executed
+         * @return <code>true</code> if auto-commit must be disabled for the command
+         * @throws SQLException if an error occurs
+         */
+        private boolean requiresTransactionToStream(String command) throws SQLException {
+            return isDatabase("postgresql") && connection.getAutoCommit() && StatementType.of(command) == StatementType.QUERY;
+        }
+
+        private boolean isDatabase(String name) throws SQLException {
+            if (databaseProductName == null) {
+                databaseProductName = connection.getMetaData().getDatabaseProductName().toLowerCase(Locale.ROOT);
+            }
+            return databaseProductName.contains(name);
+        }
+
+        private void checkWarnings(Statement statement) throws SQLException {
+            if (!throwWarning) {
+                return;
+            }
+            // In Oracle, CREATE PROCEDURE, FUNCTION, etc. returns warning
+            // instead of throwing exception if there is compilation error.
+            SQLWarning warning = statement.getWarnings();
+            if (warning != null) {
+                throw warning;
+            }
+        }
+
+        private void printResults(Statement statement, boolean hasResults) {
+            if (!hasResults) {
+                return;
+            }
+            try (ResultSet rs = statement.getResultSet()) {
+                if (wants(ScriptEvent.RESULT_SET)) {
+                    notifyResultSet(rs.getMetaData());
+                }
+                if (timed()) {
+                    notifyRowCount(fetchRowsTimed(rs));
+                } else if (wants(ScriptEvent.ROW) || wants(ScriptEvent.ROW_COUNT)) {
+                    notifyRowCount(fetchRows(rs));
+                }
+                notifyNoMoreRows();
+            } catch (SQLException e) {
+                printlnError("Error printing results: " + e.getMessage());
+            }
+        }
+
+        private long fetchRows(ResultSet rs) throws SQLException {
+            if (!wants(ScriptEvent.ROW)) {
+                return countRows(rs);
+            }
+            long rowCount = 0;
+            while (rs.next()) {
+                if (rowLimit <= 0 || rowCount < rowLimit) {
+                    notifyRow(rs);
+                }
+                rowCount++;
+            }
+            return rowCount;
+        }
+
+        private long countRows(ResultSet rs) throws SQLException {
+            long rowCount = 0;
+            while (rs.next()) {
+                rowCount++;
+            }
+            return rowCount;
+        }
+
+        private long fetchRowsTimed(ResultSet rs) throws SQLException {
+            boolean rows = wants(ScriptEvent.ROW);
+            long rowCount = 0;
+            long listenerNanos = 0;
+            long start = System.nanoTime();
+            while (rs.next()) {
+                if (rowCount == 0) {
+                    timer.firstRow(System.nanoTime());
+                }
+                if (rows && (rowLimit <= 0 || rowCount < rowLimit)) {
+                    long fetched = System.nanoTime();
+                    notifyRow(rs);
+                    listenerNanos += System.nanoTime() - fetched;
+                }
+                rowCount++;
+            }
+            timer.fetched(System.nanoTime() - start - listenerNanos, listenerNanos, rowCount);
+            return rowCount;
+        }
+
+        private boolean timed() {
+            return !timingListenerList.isEmpty();
+        }
+
+        private boolean wants(ScriptEvent event) {
+            return interests.contains(event);
+        }
+
+        private void notifyBeginScript() {
+            if (wants(ScriptEvent.BEGIN_SCRIPT)) {
+                notifyListeners(ScriptListener::beginScript);
+            }
+        }
+
+        private void notifyBeginFile(String name) {
+            if (wants(ScriptEvent.BEGIN_FILE)) {
+                notifyListeners(scriptListener -> scriptListener.beginFile(name));
+            }
+        }
+
+        private void notifyComment(String comment) {
+            if (wants(ScriptEvent.COMMENT)) {
+                notifyListeners(scriptListener -> scriptListener.comment(comment));
+            }
+        }
+
+        private void notifySql(String sql) {
+            if (wants(ScriptEvent.SQL)) {
+                notifyListeners(scriptListener -> scriptListener.sql(sql));
+            }
+        }
+
+        private void notifySuccess() {
+            if (wants(ScriptEvent.SUCCESS)) {
+                notifyListeners(ScriptListener::success);
+            }
+        }
+
+        private void notifyPlan(QueryPlan plan) {
+            if (wants(ScriptEvent.PLAN)) {
+                notifyListeners(scriptListener -> scriptListener.plan(plan));
+            }
+        }
+
+        private void notifyError(String error) {
+            if (wants(ScriptEvent.ERROR)) {
+                notifyListeners(scriptListener -> scriptListener.error(error));
+            }
+        }
+
+        private void notifyCancelled(String message) {
+            if (wants(ScriptEvent.CANCELLED)) {
+                notifyListeners(scriptListener -> scriptListener.cancelled(message));
+            }
+        }
+
+        private void notifyRetry(String message, int attempt, long delay) {
+            if (wants(ScriptEvent.RETRY)) {
+                notifyListeners(scriptListener -> scriptListener.retry(message, attempt, delay));
+            }
+        }
+
+        private void notifyUpdateCount(int updateCount) {
+            if (wants(ScriptEvent.UPDATE_COUNT)) {
+                notifyListeners(scriptListener -> scriptListener.updateCount(updateCount));
+            }
+        }
+
+        private void notifyResultSet(ResultSetMetaData resultSetMetaData) {
+            if (wants(ScriptEvent.RESULT_SET)) {
+                notifyListeners(scriptListener -> scriptListener.resultSet(resultSetMetaData));
+            }
+        }
+
+        private void notifyRow(ResultSet resultSet) {
+            for (ScriptListener listener : listenerList) {
+                listener.row(resultSet);
+            }
+        }
+
+        private void notifyRowCount(long rowCount) {
+            if (wants(ScriptEvent.ROW_COUNT)) {
+                notifyListeners(scriptListener -> scriptListener.rowCount(rowCount));
+            }
+        }
+
+        private void notifyNoMoreRows() {
+            if (wants(ScriptEvent.NO_MORE_ROWS)) {
+                notifyListeners(ScriptListener::noMoreRows);
+            }
+        }
+
+        private void notifyCommit() {
+            if (wants(ScriptEvent.COMMIT)) {
+                notifyListeners(ScriptListener::commit);
+            }
+        }
+
+        private void notifyEndFile(ScriptFileResult result) {
+            if (wants(ScriptEvent.END_FILE)) {
+                notifyListeners(scriptListener -> scriptListener.endFile(result.getName(), result.getUpdateCount(), result.getSuccessCount(), result.getWarningCount(), result.getErrorCount(), result.getDuration()));
+            }
+        }
+
+        private void notifyEndScript(int updateCount, int successCount, int warningCount, int errorCount, long duration) {
+            if (wants(ScriptEvent.END_SCRIPT)) {
+                notifyListeners(scriptListener -> scriptListener.endScript(updateCount, successCount, warningCount, errorCount, duration));
+            }
+        }
+
+        private void notifyStatementTiming(StatementTiming statementTiming) {
+            for (StatementTimingListener listener : timingListenerList) {
+                listener.statementTiming(statementTiming);
+            }
+        }
+
+        private void notifyListeners(Consumer<ScriptListener> consumer) {
+            for (ScriptListener listener : listenerList) {
+                consumer.accept(listener);
+            }
+        }
+
+    }
+
+    /**
+     * A transient failure of a statement that is to be retried.
+     */
+    private static final class RetryableException extends SQLException {
+
+        private static final long serialVersionUID = 1L;
+
+        private RetryableException(SQLException cause) {
+            super(cause.getMessage(), cause.getSQLState(), cause.getErrorCode(), cause);
+        }
+
+        @Override
+        public synchronized SQLException getCause() {
+            return (SQLException) super.getCause();
+        }
+
+    }
+
+    /**
+     * Accumulates the timings for the statement currently executing.
+     */
+    private static final class Timer {
+
+        private long start;
+        private boolean executed;
+        private long executeNanos;
+        private long firstRowNanos;
+        private long fetchNanos;
+        private long listenerNanos;
+        private long rowCount;
+
+        private void start() {
+            start = System.nanoTime();
+            executed = false;
+            executeNanos = 0;
+            firstRowNanos = -1;
+            fetchNanos = 0;
+            listenerNanos = 0;
+            rowCount = 0;
+        }
+
+        private void executed() {
+            executeNanos = System.nanoTime() - start;
+            executed = true;
+        }
+
+        private void firstRow(long fetched) {
+            if (firstRowNanos < 0) {
+                firstRowNanos = fetched - start;
+            }
+        }
+
+        private void fetched(long fetchNanos, long listenerNanos, long rowCount) {
+            this.fetchNanos += fetchNanos;
+            this.listenerNanos += listenerNanos;
+            this.rowCount += rowCount;
+        }
+
+        private StatementTiming timing(String sql, boolean failed) {
+            long totalNanos = System.nanoTime() - start;
+            // A statement that failed during execution has no other timings
+            long executeNanos = executed ? this.executeNanos : totalNanos;
+            return new StatementTiming(sql, totalNanos, executeNanos, firstRowNanos, fetchNanos, listenerNanos, rowCount, false, failed);
+        }
+
     }
 
 }
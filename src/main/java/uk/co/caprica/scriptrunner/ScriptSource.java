@@ -0,0 +1,101 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package uk.co.caprica.scriptrunner;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Specification for a component that supplies an ordered set of scripts, to be run one after another.
+ * <p>
+ * The standard sources treat a file with a name ending ".gz" as a gzip compressed script, decompressed as it is read, and
+ * a file with a name ending ".zip" as an archive of scripts, run in name order. Archives must be files, they can not be
+ * read from the class path.
+ *
+ * @see ScriptRunner#runScripts(ScriptSource)
+ */
+@FunctionalInterface
+public interface ScriptSource {
+
+    /**
+     * Get the scripts, in the order they are to be run.
+     * <p>
+     * Scripts are only listed here, each one is opened when it is about to be read.
+     *
+     * @return scripts
+     * @throws IOException if the scripts could not be listed
+     */
+    List<ScriptFile> getScripts() throws IOException;
+
+    /**
+     * Create a source for a single file, which may be compressed or an archive.
+     *
+     * @param path path to the file
+     * @param charset character set of the scripts
+     * @return source
+     */
+    static ScriptSource file(Path path, Charset charset) {
+        return () -> ScriptFiles.file(path, charset);
+    }
+
+    /**
+     * Create a source for the files in a directory with a name ending ".sql", ".sql.gz" or ".zip".
+     * <p>
+     * The files are run in name order, with runs of digits compared by their numeric value so that "V2" comes before
+     * "V10". Sub-directories are not included.
+     *
+     * @param directory path to the directory
+     * @param charset character set of the scripts
+     * @return source
+     */
+    static ScriptSource directory(Path directory, Charset charset) {
+        return () -> ScriptFiles.directory(directory, charset);
+    }
+
+    /**
+     * Create a source for resources on the class path, run in the order given.
+     *
+     * @param classLoader class loader to find the resources with
+     * @param charset character set of the scripts
+     * @param names names of the resources
+     * @return source
+     */
+    static ScriptSource classpath(ClassLoader classLoader, Charset charset, String... names) {
+        return () -> ScriptFiles.resources(classLoader, charset, names);
+    }
+
+    /**
+     * Create a source that supplies the scripts of each of the given sources in turn.
+     *
+     * @param sources sources
+     * @return source
+     */
+    static ScriptSource of(ScriptSource... sources) {
+        return () -> {
+            List<ScriptFile> scripts = new ArrayList<>();
+            for (ScriptSource source : sources) {
+                scripts.addAll(source.getScripts());
+            }
+            return scripts;
+        };
+    }
+
+}
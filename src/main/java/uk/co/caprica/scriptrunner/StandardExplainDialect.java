@@ -0,0 +1,140 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package uk.co.caprica.scriptrunner;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Explain dialects for the databases supported out of the box.
+ */
+public enum StandardExplainDialect implements ExplainDialect {
+
+    /**
+     * PostgreSQL, reading the cost and rows of each step from the text form of the plan.
+     */
+    POSTGRESQL {
+        @Override
+        public String explain(String sql) {
+            return "EXPLAIN " + sql;
+        }
+
+        @Override
+        public QueryPlan plan(ResultSet resultSet) throws SQLException {
+            String text = readText(resultSet);
+            double cost = -1;
+            long rows = -1;
+            Matcher matcher = POSTGRESQL_STEP_PATTERN.matcher(text);
+            while (matcher.find()) {
+                // The first step is the top of the plan, its cost includes the cost of every other step
+                if (cost < 0) {
+                    cost = Double.parseDouble(matcher.group(1));
+                }
+                rows = Math.max(rows, Long.parseLong(matcher.group(2)));
+            }
+            return new QueryPlan(cost, rows, text.contains("Seq Scan"), text);
+        }
+    },
+
+    /**
+     * MySQL and MariaDB, reading the cost and rows from the JSON form of the plan.
+     */
+    MYSQL {
+        @Override
+        public String explain(String sql) {
+            return "EXPLAIN FORMAT=JSON " + sql;
+        }
+
+        @Override
+        public QueryPlan plan(ResultSet resultSet) throws SQLException {
+            String text = readText(resultSet);
+            double cost = -1;
+            long rows = -1;
+            Matcher costMatcher = MYSQL_COST_PATTERN.matcher(text);
+            if (costMatcher.find()) {
+                cost = Double.parseDouble(costMatcher.group(1));
+            }
+            Matcher rowsMatcher = MYSQL_ROWS_PATTERN.matcher(text);
+            while (rowsMatcher.find()) {
+                rows = Math.max(rows, Long.parseLong(rowsMatcher.group(1)));
+            }
+            return new QueryPlan(cost, rows, MYSQL_FULL_SCAN_PATTERN.matcher(text).find(), text);
+        }
+    },
+
+    /**
+     * H2, which does not estimate a cost or a number of rows, so only full scans are reported.
+     */
+    H2 {
+        @Override
+        public String explain(String sql) {
+            return "EXPLAIN " + sql;
+        }
+
+        @Override
+        public QueryPlan plan(ResultSet resultSet) throws SQLException {
+            String text = readText(resultSet);
+            return new QueryPlan(-1, -1, text.contains(".tableScan"), text);
+        }
+    };
+
+    private static final Pattern POSTGRESQL_STEP_PATTERN = Pattern.compile("\\(cost=[0-9.]+\\.\\.([0-9.]+) rows=(\\d+)");
+
+    private static final Pattern MYSQL_COST_PATTERN = Pattern.compile("\"(?:query_)?cost\"\\s*:\\s*\"?([0-9.]+)");
+
+    private static final Pattern MYSQL_ROWS_PATTERN = Pattern.compile("\"(?:rows_examined_per_scan|rows_produced_per_join|rows)\"\\s*:\\s*\"?(\\d+)");
+
+    private static final Pattern MYSQL_FULL_SCAN_PATTERN = Pattern.compile("\"access_type\"\\s*:\\s*\"ALL\"");
+
+    /**
+     * Get the dialect for a database.
+     *
+     * @param databaseProductName database product name, as reported by the driver
+     * @return dialect, or <code>null</code> if the database is not supported
+     */
+    public static StandardExplainDialect forDatabase(String databaseProductName) {
+        String name = databaseProductName.toLowerCase(Locale.ROOT);
+        if (name.contains("postgresql")) {
+            return POSTGRESQL;
+        } else if (name.contains("mysql") || name.contains("mariadb")) {
+            return MYSQL;
+        } else if (name.contains("h2")) {
+            return H2;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Read every row of the first column of a result set, one row per line.
+     */
+    private static String readText(ResultSet resultSet) throws SQLException {
+        StringBuilder sb = new StringBuilder();
+        while (resultSet.next()) {
+            if (sb.length() > 0) {
+                sb.append('\n');
+            }
+            sb.append(resultSet.getString(1));
+        }
+        return sb.toString();
+    }
+
+}
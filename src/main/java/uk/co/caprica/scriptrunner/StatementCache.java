@@ -0,0 +1,94 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package uk.co.caprica.scriptrunner;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bounded cache of the prepared statements of one connection, keyed by statement text.
+ * <p>
+ * The least recently used statement is closed when the cache is full. A cache must not be used by more than one thread
+ * at a time, just as the connection itself must not.
+ */
+final class StatementCache {
+
+    private final Connection connection;
+
+    private final Map<String, PreparedStatement> statements;
+
+    StatementCache(Connection connection, int maximumSize) {
+        this.connection = connection;
+        this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() > maximumSize) {
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    Connection connection() {
+        return connection;
+    }
+
+    /**
+     * Get a prepared statement for the given text, preparing it if it is not already cached.
+     *
+     * @param sql statement text
+     * @return prepared statement, which must not be closed by the caller
+     * @throws SQLException if the statement could not be prepared
+     */
+    PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement statement = statements.get(sql);
+        if (statement != null && !statement.isClosed()) {
+            return statement;
+        }
+        statement = connection.prepareStatement(sql);
+        statements.put(sql, statement);
+        return statement;
+    }
+
+    /**
+     * Close all of the cached statements.
+     */
+    void close() {
+        List<PreparedStatement> closing = new ArrayList<>(statements.values());
+        statements.clear();
+        for (PreparedStatement statement : closing) {
+            closeQuietly(statement);
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (Exception e) {
+            // Ignore to workaround a bug in some connection pools
+        }
+    }
+
+}
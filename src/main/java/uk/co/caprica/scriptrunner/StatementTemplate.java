@@ -0,0 +1,235 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package uk.co.caprica.scriptrunner;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A statement containing "${name}" script variables, rewritten with a JDBC parameter marker in place of each variable.
+ * <p>
+ * Variables are recognised only outside of string literals, quoted identifiers, comments and PostgreSQL dollar-quoted
+ * bodies, following the same rules as {@link ScriptLexer}.
+ * <p>
+ * A statement with variables can not also contain a "?" outside of those places, whether a parameter marker or an
+ * operator like the PostgreSQL JSON "?", "?|" and "?&amp;" operators, since it would be taken as another parameter. A
+ * driver that accepts "??" for a literal "?" in a prepared statement, like the PostgreSQL driver, can use that instead.
+ */
+final class StatementTemplate {
+
+    private final String sql;
+
+    private final List<String> names;
+
+    private StatementTemplate(String sql, List<String> names) {
+        this.sql = sql;
+        this.names = names;
+    }
+
+    /**
+     * Does a statement possibly contain variables?
+     * <p>
+     * This is a quick check that does not exclude variable references inside literals or comments.
+     *
+     * @param sql statement
+     * @return <code>false</code> if the statement certainly contains no variables
+     */
+    static boolean mayContainVariables(String sql) {
+        return sql.indexOf("${") != -1;
+    }
+
+    /**
+     * Parse a statement.
+     *
+     * @param sql statement
+     * @param backslashEscapes <code>true</code> if backslash escapes are used in all string literals
+     * @return template, or <code>null</code> if the statement contains no variables
+     * @throws SQLException if the statement contains variables and a "?"
+     */
+    static StatementTemplate parse(String sql, boolean backslashEscapes) throws SQLException {
+        if (!mayContainVariables(sql)) {
+            return null;
+        }
+        StringBuilder text = new StringBuilder(sql.length());
+        List<String> names = new ArrayList<>();
+        int marker = -1;
+        int length = sql.length();
+        int i = 0;
+        while (i < length) {
+            char c = sql.charAt(i);
+            int end;
+            switch (c) {
+                case '\'':
+                    boolean escapes = backslashEscapes || i > 0 && (sql.charAt(i - 1) == 'E' || sql.charAt(i - 1) == 'e') && (i == 1 || !isIdentifierPart(sql.charAt(i - 2)));
+                    end = endOfQuoted(sql, i, c, escapes);
+                    break;
+                case '"':
+                case '`':
+                    end = endOfQuoted(sql, i, c, false);
+                    break;
+                case '-':
+                    end = sql.startsWith("--", i) ? endOfLine(sql, i) : i + 1;
+                    break;
+                case '/':
+                    end = sql.startsWith("/*", i) ? endOfBlockComment(sql, i) : i + 1;
+                    break;
+                case '?':
+                    if (sql.startsWith("??", i)) {
+                        end = i + 2;
+                    } else {
+                        if (marker == -1) {
+                            marker = i;
+                        }
+                        end = i + 1;
+                    }
+                    break;
+                case '$':
+                    int close = sql.startsWith("${", i) ? sql.indexOf('}', i + 2) : -1;
+                    if (close != -1 && isName(sql, i + 2, close)) {
+                        names.add(sql.substring(i + 2, close));
+                        text.append('?');
+                        i = close + 1;
+                        continue;
+                    }
+                    int tagLength = i > 0 && isIdentifierPart(sql.charAt(i - 1)) ? 0 : dollarTagLength(sql, i);
+                    end = tagLength > 0 ? endOfDollarQuoted(sql, i, sql.substring(i, i + tagLength)) : i + 1;
+                    break;
+                default:
+                    end = i + 1;
+                    break;
+            }
+            text.append(sql, i, end);
+            i = end;
+        }
+        if (names.isEmpty()) {
+            return null;
+        }
+        if (marker != -1) {
+            throw new SQLException("Script variables can not be used in a statement containing a \"?\" at position " + (marker + 1) + ", use \"??\" if the driver supports it");
+        }
+        return new StatementTemplate(text.toString(), Collections.unmodifiableList(names));
+    }
+
+    /**
+     * Get the statement with a parameter marker in place of each variable.
+     *
+     * @return statement text
+     */
+    String sql() {
+        return sql;
+    }
+
+    List<String> names() {
+        return names;
+    }
+
+    /**
+     * Bind the values of the variables as the parameters of a prepared statement.
+     *
+     * @param statement statement
+     * @param variables values of the variables
+     * @throws SQLException if a variable has no value, or an error occurs
+     */
+    void bind(PreparedStatement statement, Map<String, ?> variables) throws SQLException {
+        for (int i = 0; i < names.size(); i++) {
+            String name = names.get(i);
+            Object value = variables.get(name);
+            if (value != null) {
+                statement.setObject(i + 1, value);
+            } else if (variables.containsKey(name)) {
+                statement.setNull(i + 1, Types.NULL);
+            } else {
+                throw new SQLException("No value for script variable: " + name);
+            }
+        }
+    }
+
+    private static boolean isName(String sql, int start, int end) {
+        if (start == end) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            char c = sql.charAt(i);
+            if (!(Character.isLetterOrDigit(c) || c == '_' || c == '.' || c == '-')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int endOfQuoted(String sql, int start, char quote, boolean backslashEscapes) {
+        int length = sql.length();
+        int i = start + 1;
+        while (i < length) {
+            char c = sql.charAt(i);
+            if (c == quote) {
+                if (i + 1 < length && sql.charAt(i + 1) == quote) {
+                    i += 2;
+                } else {
+                    return i + 1;
+                }
+            } else if (c == '\\' && backslashEscapes) {
+                i += 2;
+            } else {
+                i++;
+            }
+        }
+        return length;
+    }
+
+    private static int endOfLine(String sql, int start) {
+        int i = start;
+        while (i < sql.length() && sql.charAt(i) != '\n' && sql.charAt(i) != '\r') {
+            i++;
+        }
+        return i;
+    }
+
+    private static int endOfBlockComment(String sql, int start) {
+        int end = sql.indexOf("*/", start + 2);
+        return end != -1 ? end + 2 : sql.length();
+    }
+
+    private static int dollarTagLength(String sql, int start) {
+        for (int i = start + 1; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (c == '$') {
+                return i - start + 1;
+            }
+            if (!(Character.isLetter(c) || c == '_' || i > start + 1 && Character.isDigit(c))) {
+                return 0;
+            }
+        }
+        return 0;
+    }
+
+    private static int endOfDollarQuoted(String sql, int start, String tag) {
+        int end = sql.indexOf(tag, start + tag.length());
+        return end != -1 ? end + tag.length() : sql.length();
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+
+}
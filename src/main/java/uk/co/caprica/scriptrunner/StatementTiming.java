@@ -0,0 +1,132 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.caprica.scriptrunner;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timings for the execution of a single statement.
+ * <p>
+ * All times are in nanoseconds. For a statement executed as part of a batch, the execution time is the time taken by
+ * the whole batch divided evenly between the statements in it.
+ */
+public final class StatementTiming {
+
+    private final String sql;
+    private final long totalNanos;
+    private final long executeNanos;
+    private final long firstRowNanos;
+    private final long fetchNanos;
+    private final long listenerNanos;
+    private final long rowCount;
+    private final boolean batched;
+    private final boolean failed;
+
+    StatementTiming(String sql, long totalNanos, long executeNanos, long firstRowNanos, long fetchNanos, long listenerNanos, long rowCount, boolean batched, boolean failed) {
+        this.sql = sql;
+        this.totalNanos = totalNanos;
+        this.executeNanos = executeNanos;
+        this.firstRowNanos = firstRowNanos;
+        this.fetchNanos = fetchNanos;
+        this.listenerNanos = listenerNanos;
+        this.rowCount = rowCount;
+        this.batched = batched;
+        this.failed = failed;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * Get the time taken by the driver to execute the statement, up to the point where the first result is available.
+     *
+     * @return execution time
+     */
+    public long getExecuteNanos() {
+        return executeNanos;
+    }
+
+    /**
+     * Get the time from the start of execution until the first row of the first result set was fetched.
+     *
+     * @return time to first row, or -1 if the statement did not return any rows
+     */
+    public long getFirstRowNanos() {
+        return firstRowNanos;
+    }
+
+    /**
+     * Get the time spent fetching rows from the driver, not including the time spent in listeners.
+     *
+     * @return fetch time
+     */
+    public long getFetchNanos() {
+        return fetchNanos;
+    }
+
+    /**
+     * Get the time spent in listeners handling the result set events for the statement.
+     *
+     * @return listener time
+     */
+    public long getListenerNanos() {
+        return listenerNanos;
+    }
+
+    /**
+     * Get the total number of rows fetched, over all result sets returned by the statement.
+     *
+     * @return number of rows
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Get the number of rows fetched per second.
+     *
+     * @return fetch rate, or zero if no rows were fetched
+     */
+    public double getRowsPerSecond() {
+        return rowCount > 0 && fetchNanos > 0 ? rowCount * (double) TimeUnit.SECONDS.toNanos(1) / fetchNanos : 0;
+    }
+
+    /**
+     * Get the total time taken by the statement, from the start of execution until the statement was closed, including
+     * fetching rows and listeners.
+     *
+     * @return total time
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public boolean isBatched() {
+        return batched;
+    }
+
+    public boolean isFailed() {
+        return failed;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("StatementTiming[total=%d,execute=%d,firstRow=%d,fetch=%d,listener=%d,rows=%d,batched=%s,failed=%s]", totalNanos, executeNanos, firstRowNanos, fetchNanos, listenerNanos, rowCount, batched, failed);
+    }
+
+}
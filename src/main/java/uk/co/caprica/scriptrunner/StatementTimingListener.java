@@ -0,0 +1,29 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.caprica.scriptrunner;
+
+/**
+ * Specification for a component interested in how long each statement takes to execute.
+ * <p>
+ * Statements are only timed when a listener implementing this interface has been added to the script runner, so there
+ * is no timing overhead otherwise.
+ */
+public interface StatementTimingListener extends ScriptListener {
+
+    void statementTiming(StatementTiming statementTiming);
+
+}
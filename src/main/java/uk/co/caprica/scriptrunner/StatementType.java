@@ -0,0 +1,164 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.caprica.scriptrunner;
+
+import java.util.Locale;
+
+/**
+ * Broad classification of an SQL statement, determined from its leading keyword.
+ */
+enum StatementType {
+
+    QUERY,
+    DML,
+    DDL,
+    OTHER;
+
+    /**
+     * Can statements of this type be executed as part of a JDBC batch?
+     *
+     * @return <code>true</code> if the statement can be batched
+     */
+    boolean isBatchable() {
+        return this == DML;
+    }
+
+    /**
+     * Can statements of this type be sent to the database together with others in a single multi-statement string?
+     * <p>
+     * Only statements known to produce exactly one result, either a result set or an update count, qualify, so that the
+     * results can be matched back to the statements.
+     *
+     * @return <code>true</code> if the statement can be chunked
+     */
+    boolean isChunkable() {
+        return this != OTHER;
+    }
+
+    static StatementType of(String sql) {
+        int start = keywordStart(sql);
+        int end = keywordEnd(sql, start);
+        switch (sql.substring(start, end).toUpperCase(Locale.ROOT)) {
+            case "SELECT":
+            case "WITH":
+            case "VALUES":
+            case "TABLE":
+            case "SHOW":
+            case "EXPLAIN":
+            case "DESCRIBE":
+            case "DESC":
+                return QUERY;
+            case "INSERT":
+            case "UPDATE":
+            case "DELETE":
+            case "MERGE":
+            case "UPSERT":
+            case "REPLACE":
+                // A DML statement that returns rows must be executed as a query
+                return containsKeyword(sql, "RETURNING", end) ? QUERY : DML;
+            case "CREATE":
+            case "ALTER":
+            case "DROP":
+            case "TRUNCATE":
+            case "RENAME":
+            case "COMMENT":
+            case "GRANT":
+            case "REVOKE":
+                return DDL;
+            default:
+                return OTHER;
+        }
+    }
+
+    /**
+     * Can the database estimate the cost of a statement with EXPLAIN?
+     * <p>
+     * Queries and DML statements qualify, except for queries that are themselves about the schema or a plan.
+     *
+     * @param sql statement
+     * @return <code>true</code> if the statement can be explained
+     */
+    static boolean isExplainable(String sql) {
+        switch (of(sql)) {
+            case QUERY:
+                int start = keywordStart(sql);
+                switch (sql.substring(start, keywordEnd(sql, start)).toUpperCase(Locale.ROOT)) {
+                    case "SHOW":
+                    case "EXPLAIN":
+                    case "DESCRIBE":
+                    case "DESC":
+                        return false;
+                    default:
+                        return true;
+                }
+            case DML:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static int keywordStart(String sql) {
+        int start = skipComments(sql, 0);
+        while (start < sql.length() && sql.charAt(start) == '(') {
+            start = skipComments(sql, start + 1);
+        }
+        return start;
+    }
+
+    private static int keywordEnd(String sql, int start) {
+        int end = start;
+        while (end < sql.length() && Character.isLetter(sql.charAt(end))) {
+            end++;
+        }
+        return end;
+    }
+
+    private static int skipComments(String sql, int index) {
+        int length = sql.length();
+        while (index < length) {
+            char c = sql.charAt(index);
+            if (Character.isWhitespace(c)) {
+                index++;
+            } else if (sql.startsWith("--", index)) {
+                int end = sql.indexOf('\n', index);
+                index = end != -1 ? end + 1 : length;
+            } else if (sql.startsWith("/*", index)) {
+                int end = sql.indexOf("*/", index + 2);
+                index = end != -1 ? end + 2 : length;
+            } else {
+                break;
+            }
+        }
+        return index;
+    }
+
+    private static boolean containsKeyword(String sql, String keyword, int from) {
+        int last = sql.length() - keyword.length();
+        for (int i = from; i <= last; i++) {
+            if (sql.regionMatches(true, i, keyword, 0, keyword.length()) && !isIdentifierPart(sql, i - 1) && !isIdentifierPart(sql, i + keyword.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isIdentifierPart(String sql, int index) {
+        return index >= 0 && index < sql.length() && (Character.isLetterOrDigit(sql.charAt(index)) || sql.charAt(index) == '_');
+    }
+
+}
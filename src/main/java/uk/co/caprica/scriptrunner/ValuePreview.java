@@ -0,0 +1,172 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package uk.co.caprica.scriptrunner;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+
+/**
+ * Bounded reading of large column values.
+ * <p>
+ * Large objects, binary data and very long character data are read through the streams of the result set, so only as
+ * much of the value as is needed is read. Whether that avoids loading the whole value depends on the driver, some drivers
+ * always load complete rows.
+ */
+final class ValuePreview {
+
+    /**
+     * Precision above which a character or binary column is treated as large.
+     */
+    private static final int LARGE_PRECISION = 4000;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private ValuePreview() {
+    }
+
+    /**
+     * Should values of a column be read through a stream?
+     *
+     * @param type SQL type of the column, from {@link Types}
+     * @param precision precision of the column, zero or less if not known
+     * @return <code>true</code> if values of the column may be large
+     */
+    static boolean isStreamed(int type, int precision) {
+        switch (type) {
+            case Types.CLOB:
+            case Types.NCLOB:
+            case Types.LONGVARCHAR:
+            case Types.LONGNVARCHAR:
+            case Types.BLOB:
+            case Types.LONGVARBINARY:
+                return true;
+            case Types.VARCHAR:
+            case Types.NVARCHAR:
+            case Types.BINARY:
+            case Types.VARBINARY:
+            // Driver specific types, like JSON, and XML are read as text
+            case Types.OTHER:
+            case Types.SQLXML:
+                return precision <= 0 || precision > LARGE_PRECISION;
+            default:
+                return false;
+        }
+    }
+
+    static boolean isBinary(int type) {
+        switch (type) {
+            case Types.BLOB:
+            case Types.LONGVARBINARY:
+            case Types.VARBINARY:
+            case Types.BINARY:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Read the start of a character value.
+     *
+     * @param resultSet result set
+     * @param column column index, starting from one
+     * @param length maximum number of characters to read
+     * @return up to the given number of characters of the value, or <code>null</code> if the value is null
+     * @throws SQLException if an error occurs
+     */
+    static String readChars(ResultSet resultSet, int column, int length) throws SQLException {
+        try (Reader reader = resultSet.getCharacterStream(column)) {
+            if (reader == null) {
+                return null;
+            }
+            char[] buffer = new char[length];
+            int position = 0;
+            int read;
+            while (position < length && (read = reader.read(buffer, position, length - position)) != -1) {
+                position += read;
+            }
+            return new String(buffer, 0, position);
+        } catch (IOException e) {
+            throw new SQLException("Could not read column " + column + ". Cause: " + e, e);
+        }
+    }
+
+    /**
+     * Read the start of a binary value.
+     *
+     * @param resultSet result set
+     * @param column column index, starting from one
+     * @param length maximum number of bytes to read
+     * @return up to the given number of bytes of the value, or <code>null</code> if the value is null
+     * @throws SQLException if an error occurs
+     */
+    static byte[] readBytes(ResultSet resultSet, int column, int length) throws SQLException {
+        try (InputStream in = resultSet.getBinaryStream(column)) {
+            if (in == null) {
+                return null;
+            }
+            byte[] buffer = new byte[length];
+            int position = 0;
+            int read;
+            while (position < length && (read = in.read(buffer, position, length - position)) != -1) {
+                position += read;
+            }
+            return position == length ? buffer : Arrays.copyOf(buffer, position);
+        } catch (IOException e) {
+            throw new SQLException("Could not read column " + column + ". Cause: " + e, e);
+        }
+    }
+
+    /**
+     * Read the start of a large value, as text.
+     * <p>
+     * Binary values are rendered in hexadecimal, two characters for each byte.
+     *
+     * @param resultSet result set
+     * @param column column index, starting from one
+     * @param type SQL type of the column
+     * @param length maximum number of characters to return
+     * @return text, or <code>null</code> if the value is null
+     * @throws SQLException if an error occurs
+     */
+    static String readText(ResultSet resultSet, int column, int type, int length) throws SQLException {
+        if (isBinary(type)) {
+            return hex(readBytes(resultSet, column, (length + 1) / 2), length);
+        } else {
+            return readChars(resultSet, column, length);
+        }
+    }
+
+    static String hex(byte[] value, int length) {
+        if (value == null) {
+            return null;
+        }
+        char[] text = new char[Math.min(length, value.length * 2)];
+        for (int i = 0; i < text.length; i++) {
+            int b = value[i >> 1];
+            text[i] = HEX_DIGITS[(i & 1) == 0 ? (b >> 4) & 0xf : b & 0xf];
+        }
+        return new String(text);
+    }
+
+}
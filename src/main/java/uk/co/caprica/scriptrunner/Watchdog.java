@@ -0,0 +1,100 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package uk.co.caprica.scriptrunner;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Cancels a statement that is still executing after a timeout, for drivers that do not enforce the query timeout
+ * themselves.
+ * <p>
+ * All watchdogs share a single daemon thread.
+ */
+final class Watchdog implements AutoCloseable {
+
+    private final Statement statement;
+
+    private final AtomicBoolean armed = new AtomicBoolean(true);
+
+    private final ScheduledFuture<?> future;
+
+    private volatile boolean fired;
+
+    /**
+     * Start watching a statement.
+     *
+     * @param statement statement to cancel
+     * @param timeoutMillis time after which to cancel the statement, in milliseconds
+     */
+    Watchdog(Statement statement, long timeoutMillis) {
+        this.statement = statement;
+        this.future = Scheduler.INSTANCE.schedule(this::cancel, timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Has the statement been cancelled by this watchdog?
+     *
+     * @return <code>true</code> if the statement was cancelled
+     */
+    boolean fired() {
+        return fired;
+    }
+
+    /**
+     * Stop watching the statement, it will not be cancelled after this returns.
+     */
+    @Override
+    public void close() {
+        if (armed.compareAndSet(true, false)) {
+            future.cancel(false);
+        }
+    }
+
+    private void cancel() {
+        if (armed.compareAndSet(true, false)) {
+            fired = true;
+            try {
+                statement.cancel();
+            } catch (SQLException e) {
+                // The statement may have completed in the meantime
+            }
+        }
+    }
+
+    private static final class Scheduler {
+
+        private static final ScheduledThreadPoolExecutor INSTANCE = create();
+
+        private static ScheduledThreadPoolExecutor create() {
+            ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+                Thread thread = new Thread(runnable, "script-runner-watchdog");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.setRemoveOnCancelPolicy(true);
+            return scheduler;
+        }
+
+    }
+
+}
@@ -0,0 +1,237 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.caprica.scriptrunner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AsyncScriptListenerTest {
+
+    private Connection connection;
+
+    private Statement statement;
+
+    private Values values;
+
+    private AsyncScriptListener listener;
+
+    @Before
+    public void before() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:");
+        statement = connection.createStatement();
+        values = new Values();
+        listener = new AsyncScriptListener(values);
+    }
+
+    @After
+    public void after() throws SQLException {
+        listener.close();
+        connection.close();
+    }
+
+    @Test
+    public void rowThatCanNotBeCapturedIsNotDelivered() throws SQLException {
+        ResultSet resultSet = statement.executeQuery("select x from system_range(1, 3)");
+        listener.resultSet(resultSet.getMetaData());
+        resultSet.next();
+        listener.row(resultSet);
+        resultSet.next();
+        try {
+            listener.row(failing(resultSet));
+            fail("Expected the row capture to fail");
+        } catch (RuntimeException e) {
+            assertEquals(SQLException.class, e.getCause().getClass());
+        }
+        resultSet.next();
+        listener.row(resultSet);
+        listener.noMoreRows();
+        listener.close();
+        List<String> expected = new ArrayList<>();
+        expected.add("1");
+        expected.add("3");
+        assertEquals(expected, values.values);
+    }
+
+    @Test
+    public void eventsAreDeliveredInOrderOnAnotherThread() {
+        List<String> events = Collections.synchronizedList(new ArrayList<>());
+        Set<Thread> threads = Collections.synchronizedSet(new HashSet<>());
+        listener = new AsyncScriptListener(new ScriptAdapter() {
+            @Override
+            public void sql(String sql) {
+                threads.add(Thread.currentThread());
+                events.add("sql " + sql.trim());
+            }
+
+            @Override
+            public void row(ResultSet resultSet) {
+                try {
+                    events.add("row " + resultSet.getString(1));
+                } catch (SQLException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+
+            @Override
+            public void endScript(int updateCount, int successCount, int warningCount, int errorCount, long duration) {
+                events.add("end " + successCount);
+            }
+        }, 2, AsyncScriptListener.OverflowPolicy.BLOCK);
+        ScriptRunner scriptRunner = new ScriptRunner(connection);
+        scriptRunner.addScriptListener(listener);
+        scriptRunner.runScript(new StringReader("select x from system_range(1, 3);\nselect 'a';\n"));
+        // Every event has been delivered by the time the script runner returns
+        assertEquals(Arrays.asList("sql select x from system_range(1, 3)", "row 1", "row 2", "row 3", "sql select 'a'", "row a", "end 2"), events);
+        assertEquals(1, threads.size());
+        assertFalse(threads.contains(Thread.currentThread()));
+    }
+
+    @Test
+    public void rowsAreDroppedWhenFull() throws SQLException, InterruptedException {
+        CountDownLatch delivering = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Values values = new Values() {
+            @Override
+            public void row(ResultSet resultSet) {
+                delivering.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                super.row(resultSet);
+            }
+        };
+        listener = new AsyncScriptListener(values, 2, AsyncScriptListener.OverflowPolicy.DROP);
+        ResultSet resultSet = statement.executeQuery("select x from system_range(1, 10)");
+        listener.resultSet(resultSet.getMetaData());
+        resultSet.next();
+        listener.row(resultSet);
+        // The first row holds one slot while it is delivered, the second row takes the other, the rest are dropped
+        delivering.await();
+        while (resultSet.next()) {
+            listener.row(resultSet);
+        }
+        release.countDown();
+        listener.endScript(0, 1, 0, 0, 0);
+        assertEquals(Arrays.asList("1", "2"), values.values);
+        assertEquals(8, listener.getDroppedRows());
+    }
+
+    @Test
+    public void blockPolicyDeliversEveryRow() throws SQLException {
+        Values values = new Values();
+        listener = new AsyncScriptListener(values, 1, AsyncScriptListener.OverflowPolicy.BLOCK);
+        ResultSet resultSet = statement.executeQuery("select x from system_range(1, 1000)");
+        listener.resultSet(resultSet.getMetaData());
+        while (resultSet.next()) {
+            listener.row(resultSet);
+        }
+        listener.endScript(0, 1, 0, 0, 0);
+        assertEquals(1000, values.values.size());
+        assertEquals("1000", values.values.get(999));
+        assertEquals(0, listener.getDroppedRows());
+    }
+
+    @Test
+    public void delegateFailureIsThrownFromEndScript() {
+        List<String> events = new ArrayList<>();
+        listener = new AsyncScriptListener(new ScriptAdapter() {
+            @Override
+            public void sql(String sql) {
+                throw new IllegalStateException("Listener failed on " + sql);
+            }
+
+            @Override
+            public void success() {
+                events.add("success");
+            }
+        });
+        listener.sql("select 1");
+        listener.success();
+        try {
+            listener.endScript(0, 1, 0, 0, 0);
+            fail("Expected the delegate failure to be thrown");
+        } catch (RuntimeException e) {
+            assertEquals(IllegalStateException.class, e.getCause().getClass());
+        }
+        // Delivery carried on after the failure
+        assertEquals(Collections.singletonList("success"), events);
+    }
+
+    @Test
+    public void interestsFollowDelegate() {
+        Set<ScriptEvent> interests = listener.interests();
+        assertTrue(interests.contains(ScriptEvent.ROW));
+        assertTrue(interests.contains(ScriptEvent.RESULT_SET));
+        assertTrue(interests.contains(ScriptEvent.END_SCRIPT));
+        assertFalse(interests.contains(ScriptEvent.SQL));
+    }
+
+    /**
+     * Wrap a result set so that getting any value fails.
+     */
+    private static ResultSet failing(ResultSet resultSet) {
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[] {ResultSet.class}, (proxy, method, args) -> {
+            if (method.getName().startsWith("get")) {
+                throw new SQLException("Value not available");
+            }
+            try {
+                return method.invoke(resultSet, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        });
+    }
+
+    private static class Values extends ScriptAdapter {
+
+        final List<String> values = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void row(ResultSet resultSet) {
+            try {
+                values.add(resultSet.getString(1));
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.caprica.scriptrunner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertEquals;
+
+public class DefaultScriptListenerTest {
+
+    private static final String NL = System.lineSeparator();
+
+    private Connection connection;
+
+    private StringWriter output;
+
+    private DefaultScriptListener listener;
+
+    @Before
+    public void before() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:");
+        output = new StringWriter();
+        listener = new DefaultScriptListener(new PrintWriter(output));
+    }
+
+    @After
+    public void after() throws SQLException {
+        connection.close();
+    }
+
+    @Test
+    public void rowsArePaddedAndLineBreaksReplaced() throws SQLException {
+        render("select cast(a as varchar(6)) as a, cast(b as varchar(4)) as bb from (values " +
+            "('one', 'x'), " +
+            "('longer', 'yyyy'), " +
+            "(null, 'a' || char(13) || char(10) || 'b'), " +
+            "('c' || char(10) || 'd', char(13))" +
+            ") as v(a, b) order by a nulls first", 0);
+        assertEquals(
+            "+======+====+" + NL +
+            "|A     |BB  |" + NL +
+            "+======+====+" + NL +
+            "|NULL  |a\u240db |" + NL +
+            "|c\u240dd   |\u240d   |" + NL +
+            "|longer|yyyy|" + NL +
+            "|one   |x   |" + NL +
+            "+======+====+" + NL + NL,
+            output.toString()
+        );
+    }
+
+    @Test
+    public void rowsNotShownAreCounted() throws SQLException {
+        render("select cast(x as varchar(2)) as x from system_range(1, 5)", 2);
+        assertEquals(
+            "+==+" + NL +
+            "|X |" + NL +
+            "+==+" + NL +
+            "|1 |" + NL +
+            "|2 |" + NL +
+            "+==+" + NL +
+            "2 of 5 row(s) shown" + NL + NL,
+            output.toString()
+        );
+    }
+
+    @Test
+    public void wideColumnIsLimitedAndLargeValueRead() throws SQLException {
+        render("select cast(repeat('ab', 5000) as clob) as c", 0);
+        String[] lines = output.toString().split(NL);
+        assertEquals(5, lines.length);
+        assertEquals("|" + repeat("ab", 20) + "|", lines[3]);
+    }
+
+    /**
+     * Render a query as a script runner would, showing at most the given number of rows, or all if zero.
+     */
+    private void render(String sql, int shown) throws SQLException {
+        try (Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery(sql)) {
+            listener.resultSet(resultSet.getMetaData());
+            long rowCount = 0;
+            while (resultSet.next()) {
+                if (shown == 0 || rowCount < shown) {
+                    listener.row(resultSet);
+                }
+                rowCount++;
+            }
+            listener.rowCount(rowCount);
+            listener.noMoreRows();
+        }
+    }
+
+    private static String repeat(String value, int count) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            result.append(value);
+        }
+        return result.toString();
+    }
+
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.caprica.scriptrunner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+import static org.junit.Assert.assertEquals;
+
+public class ExportScriptListenerTest {
+
+    private static final String SCRIPT =
+        "select 'plain' as a, 'with,comma' as b, 'say \"hi\"' as c, 'line' || char(10) || 'break' as d, " +
+        "cast(null as varchar) as e, 12.50 as f, cast(1.5 as double) as g, X'0102ff' as h, 'a\\b' || char(9) || char(1) as i;\n";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Connection connection;
+
+    @Before
+    public void before() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:");
+    }
+
+    @After
+    public void after() throws SQLException {
+        connection.close();
+    }
+
+    @Test
+    public void csvValuesAreQuotedWhenNecessary() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("result.csv");
+        run(new CsvScriptListener(path), SCRIPT);
+        assertEquals(
+            "A,B,C,D,E,F,G,H,I\r\n" +
+            "plain,\"with,comma\",\"say \"\"hi\"\"\",\"line\nbreak\",,12.50,1.5,AQL/,a\\b\t\u0001\r\n",
+            read(path)
+        );
+    }
+
+    @Test
+    public void csvQuotesAreDoubledAtEitherEnd() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("result.csv");
+        CsvScriptListener listener = new CsvScriptListener(path);
+        listener.setHeader(false);
+        listener.setSeparator('\t');
+        run(listener, "select '\"' as a, '\"\"x\"' as b, 'a,b' as c, 'a' || char(9) || 'b' as d;\n");
+        assertEquals("\"\"\"\"\t\"\"\"\"\"x\"\"\"\ta,b\t\"a\tb\"\r\n", read(path));
+    }
+
+    @Test
+    public void jsonValuesAreEscaped() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("result.jsonl");
+        run(new JsonLinesScriptListener(path), SCRIPT);
+        assertEquals(
+            "{\"A\":\"plain\",\"B\":\"with,comma\",\"C\":\"say \\\"hi\\\"\",\"D\":\"line\\nbreak\",\"E\":null,\"F\":12.50," +
+            "\"G\":1.5,\"H\":\"AQL/\",\"I\":\"a\\\\b\\t\\u0001\"}\n",
+            read(path)
+        );
+    }
+
+    @Test
+    public void jsonNamesAreEscaped() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("result.jsonl");
+        run(new JsonLinesScriptListener(path), "select 1 as \"x\"\"y\", 2 as \"a\\b\", cast('NaN' as double) as \"n\";\n");
+        assertEquals("{\"x\\\"y\":1,\"a\\\\b\":2,\"n\":null}\n", read(path));
+    }
+
+    private void run(ExportScriptListener listener, String script) {
+        ScriptRunner scriptRunner = new ScriptRunner(connection);
+        scriptRunner.setErrorLogWriter(null);
+        scriptRunner.addScriptListener(listener);
+        ScriptResult result = scriptRunner.runScript(new StringReader(script));
+        assertEquals(0, result.getErrorCount());
+    }
+
+    private static String read(Path path) throws IOException {
+        return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.caprica.scriptrunner;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class ExportWriterTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void base64MatchesEncoder() throws IOException {
+        Random random = new Random(1);
+        for (int length = 0; length < 40; length++) {
+            byte[] value = new byte[length];
+            random.nextBytes(value);
+            // A small buffer, so that the output is flushed part way through
+            assertEquals(Base64.getEncoder().encodeToString(value), write(out -> out.writeBase64(value), 20));
+        }
+    }
+
+    @Test
+    public void decimalMatchesPlainString() throws IOException {
+        for (String value : new String[] {"0", "0.00", "1", "-1", "12.5", "-0.05", "123456789.123456", "0.0000000000000001", "99999999999999999", "123456789012345678", "1E+3", "-1.23456789012345678901", "1E-20"}) {
+            BigDecimal decimal = new BigDecimal(value);
+            assertEquals(value, decimal.toPlainString(), write(out -> out.writeDecimal(decimal), 20));
+        }
+    }
+
+    @Test
+    public void doubleMatchesToString() throws IOException {
+        for (double value : new double[] {0, -0.0, 1, -1, 0.1, 0.2, 0.3, 1.5, -2.25, 100, 123.456, 0.001, 0.0001, 9999999, 1e7, 1e300, Double.MIN_VALUE, Double.MAX_VALUE, Math.PI, -Math.E}) {
+            assertEquals(Double.toString(value), write(out -> out.writeDouble(value), 20));
+        }
+    }
+
+    @Test
+    public void randomDoubleMatchesToString() throws IOException {
+        Random random = new Random(1);
+        for (int i = 0; i < 10000; i++) {
+            double value = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(12) - 4);
+            double rounded = Math.round(value * 1000) / 1000.0;
+            assertEquals(Double.toString(value), write(out -> out.writeDouble(value), 20));
+            assertEquals(Double.toString(rounded), write(out -> out.writeDouble(rounded), 20));
+        }
+    }
+
+    @Test
+    public void floatMatchesToString() throws IOException {
+        for (float value : new float[] {0, -0.0f, 1, -1, 0.1f, 1.5f, 16777216, 9999999, 1e7f, 1e30f, Float.MIN_VALUE, Float.MAX_VALUE}) {
+            assertEquals(Float.toString(value), write(out -> out.writeFloat(value), 20));
+        }
+    }
+
+    private String write(Writes writes, int bufferSize) throws IOException {
+        Path path = folder.newFile().toPath();
+        try (ExportWriter out = new ExportWriter(path, false, bufferSize)) {
+            writes.write(out);
+        }
+        return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+    }
+
+    private interface Writes {
+
+        void write(ExportWriter out) throws IOException;
+
+    }
+
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.caprica.scriptrunner;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class MappedFileReaderTest {
+
+    /**
+     * Characters of one to four bytes in UTF-8, so that some straddle any boundary.
+     */
+    private static final String SCRIPT =
+        "insert into t values ('é');\n" +
+        "-- € comment\n" +
+        "insert into t values ('😀 x', 'ab');\n" +
+        "select '€€€' from dual;\n" +
+        "update t set a = 'ééé' where b = 'x';\n";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void mappedFileIsReadWhole() throws IOException {
+        Path path = write(SCRIPT);
+        try (Reader reader = new MappedFileReader(path, StandardCharsets.UTF_8)) {
+            assertEquals(SCRIPT, read(reader, 1000));
+        }
+    }
+
+    @Test
+    public void charactersStraddlingBufferAreReadWhole() throws IOException {
+        Path path = write(SCRIPT);
+        for (int bufferSize = 4; bufferSize <= 16; bufferSize++) {
+            for (int readSize : new int[] {1, 3, 1000}) {
+                try (Reader reader = new MappedFileReader(path, StandardCharsets.UTF_8, 0, bufferSize)) {
+                    assertEquals("buffer " + bufferSize + ", read " + readSize, SCRIPT, read(reader, readSize));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void statementsStraddlingBufferAreCompiledWhole() throws IOException {
+        Path path = write(SCRIPT);
+        ScriptRunner scriptRunner = new ScriptRunner();
+        List<String> expected = entries(scriptRunner.compileScript(new StringReader(SCRIPT)));
+        assertEquals(5, expected.size());
+        for (int bufferSize : new int[] {4, 7, 13, 30}) {
+            try (Reader reader = new MappedFileReader(path, StandardCharsets.UTF_8, 0, bufferSize)) {
+                assertEquals("buffer " + bufferSize, expected, entries(scriptRunner.compileScript(reader)));
+            }
+        }
+    }
+
+    @Test
+    public void malformedInputIsReported() throws IOException {
+        Path path = folder.newFile().toPath();
+        Files.write(path, new byte[] {'a', 'b', (byte) 0xc3});
+        for (long maximumMappedSize : new long[] {0, 100}) {
+            try (Reader reader = new MappedFileReader(path, StandardCharsets.UTF_8, maximumMappedSize, 4)) {
+                read(reader, 100);
+                fail("Expected the truncated character to be reported");
+            } catch (CharacterCodingException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void emptyFileIsRead() throws IOException {
+        Path path = write("");
+        for (long maximumMappedSize : new long[] {0, 100}) {
+            try (Reader reader = new MappedFileReader(path, StandardCharsets.UTF_8, maximumMappedSize, 4)) {
+                assertEquals(-1, reader.read());
+            }
+        }
+    }
+
+    private Path write(String text) throws IOException {
+        Path path = folder.newFile().toPath();
+        Files.write(path, text.getBytes(StandardCharsets.UTF_8));
+        return path;
+    }
+
+    private static String read(Reader reader, int readSize) throws IOException {
+        StringBuilder result = new StringBuilder();
+        char[] chars = new char[readSize];
+        int read;
+        while ((read = reader.read(chars, 0, readSize)) != -1) {
+            result.append(chars, 0, read);
+        }
+        return result.toString();
+    }
+
+    private static List<String> entries(ScriptPlan plan) {
+        List<String> entries = new ArrayList<>();
+        for (ScriptPlan.Entry entry : plan.getEntries()) {
+            entries.add(entry.getKind() + " " + entry.getText());
+        }
+        return entries;
+    }
+
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.caprica.scriptrunner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsScriptListenerTest {
+
+    private static final String SCRIPT =
+        "create table t(id int primary key);\n" +
+        "insert into t select x from system_range(1, 100);\n" +
+        "insert into t values (1);\n" +
+        "select id from t;\n" +
+        "select id from t where id < 0;\n";
+
+    private Connection connection;
+
+    @Before
+    public void before() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:");
+    }
+
+    @After
+    public void after() throws SQLException {
+        connection.close();
+    }
+
+    @Test
+    public void everyStatementIsTimed() {
+        MetricsScriptListener metrics = new MetricsScriptListener(2);
+        run(metrics);
+        assertEquals(5, metrics.getTotalHistogram().getCount());
+        assertEquals(5, metrics.getExecuteHistogram().getCount());
+        // Only the query that returned rows has a time to first row
+        assertEquals(1, metrics.getFirstRowHistogram().getCount());
+        assertEquals(100, metrics.getRowCount());
+        assertEquals(1, metrics.getFailedCount());
+        assertTrue(metrics.getRowsPerSecond() > 0);
+        List<StatementTiming> slowest = metrics.getSlowest();
+        assertEquals(2, slowest.size());
+        assertTrue(slowest.get(0).getTotalNanos() >= slowest.get(1).getTotalNanos());
+        StringWriter report = new StringWriter();
+        metrics.report(new PrintWriter(report));
+        assertTrue(report.toString(), report.toString().contains("     Rows: 100 "));
+        assertTrue(report.toString(), report.toString().contains("   Failed: 1"));
+    }
+
+    @Test
+    public void metricsAreResetForEachScript() {
+        MetricsScriptListener metrics = new MetricsScriptListener();
+        run(metrics);
+        ScriptRunner scriptRunner = new ScriptRunner(connection);
+        scriptRunner.addScriptListener(metrics);
+        scriptRunner.runScript(new StringReader("select 1;\n"));
+        assertEquals(1, metrics.getTotalHistogram().getCount());
+        assertEquals(1, metrics.getRowCount());
+        assertEquals(0, metrics.getFailedCount());
+        assertEquals(1, metrics.getSlowest().size());
+    }
+
+    @Test
+    public void histogramIsAccurateToOneBucket() {
+        MetricsScriptListener.Histogram histogram = new MetricsScriptListener().getTotalHistogram();
+        assertEquals(0, histogram.getPercentile(50));
+        for (long value = 1; value <= 1000; value++) {
+            histogram.record(value * 1000);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000000, histogram.getMax());
+        assertEquals(500500, histogram.getMean(), 0.001);
+        for (int percentile : new int[] {1, 50, 90, 99}) {
+            long exact = percentile * 10000L;
+            long value = histogram.getPercentile(percentile);
+            assertTrue(percentile + " " + value, value >= exact && value <= exact * 1.125);
+        }
+        assertEquals(1000000, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        MetricsScriptListener.Histogram histogram = new MetricsScriptListener().getTotalHistogram();
+        histogram.record(-5);
+        histogram.record(3);
+        histogram.record(7);
+        assertEquals(0, histogram.getPercentile(33));
+        assertEquals(3, histogram.getPercentile(66));
+        assertEquals(7, histogram.getPercentile(100));
+    }
+
+    private void run(MetricsScriptListener metrics) {
+        ScriptRunner scriptRunner = new ScriptRunner(connection);
+        scriptRunner.setErrorLogWriter(null);
+        scriptRunner.addScriptListener(metrics);
+        scriptRunner.runScript(new StringReader(SCRIPT));
+    }
+
+}
@@ -0,0 +1,177 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.caprica.scriptrunner;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.io.StringReader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ParallelScriptRunnerEventTest {
+
+    private static final int SECTIONS = 4;
+
+    @Test
+    public void rowsOfConcurrentSectionsAreNotInterleaved() {
+        ParallelScriptRunner scriptRunner = new ParallelScriptRunner(dataSource("events"));
+        scriptRunner.setWorkers(SECTIONS);
+        Rows rows = new Rows();
+        scriptRunner.addScriptListener(rows);
+        StringBuilder script = new StringBuilder();
+        for (int section = 1; section <= SECTIONS; section++) {
+            if (section > 1) {
+                script.append("-- @PARALLEL\n");
+            }
+            // More rows than may be buffered, so a section that is kept waiting must stop buffering and wait its turn
+            script.append("select '").append(section).append("' || x from system_range(1, ").append(ParallelScriptRunner.MAX_BUFFERED_ROWS + 500).append(");\n");
+            script.append("select '").append(section).append("' || x from system_range(1, 10);\n");
+        }
+        ScriptResult result = scriptRunner.runScript(new StringReader(script.toString()));
+        assertEquals(SECTIONS * 2, result.getSuccessCount());
+        assertEquals(0, result.getErrorCount());
+        assertEquals(SECTIONS * (ParallelScriptRunner.MAX_BUFFERED_ROWS + 510), rows.count);
+        assertEquals(0, rows.interleaved);
+    }
+
+    @Test(timeout = 10000)
+    public void sectionReleasesLockAfterFailedResultSet() {
+        ParallelScriptRunner scriptRunner = new ParallelScriptRunner(failingFetch(dataSource("failing")));
+        scriptRunner.setWorkers(2);
+        scriptRunner.setErrorLogWriter(null);
+        Rows rows = new Rows();
+        scriptRunner.addScriptListener(rows);
+        ScriptResult result = scriptRunner.runScript(new StringReader(
+            "select '1' || x from system_range(1, 10);\n" +
+            "-- @PARALLEL\n" +
+            "select '2' || x from system_range(1, 10);\n"
+        ));
+        assertEquals(2, result.getSuccessCount());
+    }
+
+    /**
+     * Checks that the rows of each result set follow its statement.
+     */
+    private static final class Rows extends ScriptAdapter {
+
+        private String section;
+
+        private int count;
+
+        private int interleaved;
+
+        @Override
+        public void sql(String sql) {
+            section = sql.substring(8, 9);
+        }
+
+        @Override
+        public void row(ResultSet resultSet) {
+            try {
+                count++;
+                if (!resultSet.getString(1).startsWith(section)) {
+                    interleaved++;
+                }
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+    }
+
+    private static DataSource dataSource(String name) {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + name);
+        return dataSource;
+    }
+
+    /**
+     * Wrap a data source so that each statement reports three result sets, reading the first two of which fails after
+     * one row.
+     */
+    private static DataSource failingFetch(DataSource dataSource) {
+        return proxy(DataSource.class, (method, args) -> {
+            if (!method.getName().equals("getConnection")) {
+                return invoke(dataSource, method, args);
+            }
+            Connection connection = dataSource.getConnection();
+            return proxy(Connection.class, (connectionMethod, connectionArgs) -> {
+                if (!connectionMethod.getName().equals("createStatement")) {
+                    return invoke(connection, connectionMethod, connectionArgs);
+                }
+                Statement statement = connection.createStatement();
+                List<ResultSet> results = new ArrayList<>();
+                return proxy(Statement.class, (statementMethod, statementArgs) -> {
+                    switch (statementMethod.getName()) {
+                        case "execute":
+                            results.add(failing(connection.createStatement().executeQuery((String) statementArgs[0])));
+                            results.add(failing(connection.createStatement().executeQuery((String) statementArgs[0])));
+                            results.add(connection.createStatement().executeQuery((String) statementArgs[0]));
+                            return true;
+                        case "getResultSet":
+                            return results.get(0);
+                        case "getMoreResults":
+                            results.remove(0);
+                            return !results.isEmpty();
+                        case "getUpdateCount":
+                            return -1;
+                        default:
+                            return invoke(statement, statementMethod, statementArgs);
+                    }
+                });
+            });
+        });
+    }
+
+    private static ResultSet failing(ResultSet resultSet) {
+        int[] rows = {0};
+        return proxy(ResultSet.class, (method, args) -> {
+            if (method.getName().equals("next") && ++rows[0] > 1) {
+                throw new SQLException("Connection reset");
+            }
+            return invoke(resultSet, method, args);
+        });
+    }
+
+    private interface Handler {
+        Object invoke(Method method, Object[] args) throws Throwable;
+    }
+
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, (proxy, method, args) -> handler.invoke(method, args)));
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+}
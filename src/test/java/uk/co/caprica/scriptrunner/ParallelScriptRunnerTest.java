@@ -0,0 +1,257 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.caprica.scriptrunner;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.io.StringReader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ParallelScriptRunnerTest {
+
+    @Test(timeout = 10000)
+    public void sectionsRunConcurrently() {
+        // Each section waits for the other, so the script can only complete if they run at the same time
+        CountDownLatch latch = new CountDownLatch(2);
+        List<String> timedOut = Collections.synchronizedList(new ArrayList<>());
+        DataSource dataSource = onExecute(dataSource("concurrent"), sql -> {
+            if (sql.contains("wait")) {
+                latch.countDown();
+                if (!latch.await(5, TimeUnit.SECONDS)) {
+                    timedOut.add(sql);
+                }
+            }
+        });
+        ParallelScriptRunner scriptRunner = new ParallelScriptRunner(dataSource);
+        scriptRunner.setWorkers(2);
+        ScriptResult result = scriptRunner.runScript(new StringReader(
+            "select 'wait 1';\n" +
+            "-- @PARALLEL\n" +
+            "select 'wait 2';\n"
+        ));
+        assertEquals(2, result.getSuccessCount());
+        assertEquals(Collections.emptyList(), timedOut);
+    }
+
+    @Test
+    public void barrierWaitsForPrecedingSections() throws SQLException {
+        DataSource dataSource = dataSource("barrier;DB_CLOSE_DELAY=-1");
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("create table t(id int primary key)");
+            ParallelScriptRunner scriptRunner = new ParallelScriptRunner(dataSource);
+            scriptRunner.setWorkers(3);
+            Events events = new Events();
+            scriptRunner.addScriptListener(events);
+            ScriptResult result = scriptRunner.runScript(new StringReader(
+                "insert into t select x from system_range(1, 1000);\n" +
+                "-- @PARALLEL\n" +
+                "insert into t select x from system_range(1001, 2000);\n" +
+                "-- @PARALLEL\n" +
+                "insert into t select x from system_range(2001, 3000);\n" +
+                "-- @BARRIER\n" +
+                "select count(*) from t;\n"
+            ));
+            assertEquals(4, result.getSuccessCount());
+            assertEquals(3000, result.getUpdateCount());
+            assertTrue(events.events.toString(), events.events.contains("row 3000"));
+            statement.execute("drop all objects");
+        }
+    }
+
+    @Test
+    public void scriptWithoutDirectivesIsOneSection() {
+        AtomicInteger connections = new AtomicInteger();
+        DataSource dataSource = dataSource("single");
+        DataSource counting = proxy(DataSource.class, (method, args) -> {
+            if (method.getName().equals("getConnection")) {
+                connections.incrementAndGet();
+            }
+            return invoke(dataSource, method, args);
+        });
+        ParallelScriptRunner scriptRunner = new ParallelScriptRunner(counting);
+        ScriptResult result = scriptRunner.runScript(new StringReader(
+            "create table t(id int);\n" +
+            "insert into t values (1);\n" +
+            "select count(*) from t;\n"
+        ));
+        assertEquals(3, result.getSuccessCount());
+        assertEquals(1, connections.get());
+    }
+
+    @Test
+    public void directivesAreNotReportedAndScriptEndsOnce() {
+        ParallelScriptRunner scriptRunner = new ParallelScriptRunner(dataSource("events"));
+        scriptRunner.setWorkers(1);
+        scriptRunner.setErrorLogWriter(null);
+        Events events = new Events();
+        scriptRunner.addScriptListener(events);
+        ScriptResult result = scriptRunner.runScript(new StringReader(
+            "-- first\n" +
+            "select 1;\n" +
+            "-- @PARALLEL\n" +
+            "select 2 from missing_table;\n" +
+            "-- @BARRIER\n" +
+            "select 3;\n"
+        ));
+        assertEquals(2, result.getSuccessCount());
+        assertEquals(1, result.getErrorCount());
+        assertEquals(Arrays.asList(
+            "begin",
+            "comment -- first",
+            "sql select 1",
+            "row 1",
+            "sql select 2 from missing_table",
+            "error",
+            "sql select 3",
+            "row 3",
+            "end 2 1"
+        ), events.events);
+    }
+
+    @Test
+    public void failedSectionStopsScript() {
+        ParallelScriptRunner scriptRunner = new ParallelScriptRunner(dataSource("failed"));
+        scriptRunner.setWorkers(2);
+        scriptRunner.setStopOnError(true);
+        scriptRunner.setErrorLogWriter(null);
+        Events events = new Events();
+        scriptRunner.addScriptListener(events);
+        try {
+            scriptRunner.runScript(new StringReader(
+                "select 1 from missing_table;\n" +
+                "-- @PARALLEL\n" +
+                "select 2;\n" +
+                "-- @BARRIER\n" +
+                "select 3;\n"
+            ));
+            fail("Expected the script to fail");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("missing_table"));
+        }
+        assertTrue(events.events.toString(), !events.events.contains("sql select 3"));
+        assertEquals("end 1 1", events.events.get(events.events.size() - 1));
+    }
+
+    private static final class Events extends ScriptAdapter {
+
+        private final List<String> events = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void beginScript() {
+            events.add("begin");
+        }
+
+        @Override
+        public void comment(String comment) {
+            events.add("comment " + comment.trim());
+        }
+
+        @Override
+        public void sql(String sql) {
+            events.add("sql " + sql.trim());
+        }
+
+        @Override
+        public void row(ResultSet resultSet) {
+            try {
+                events.add("row " + resultSet.getString(1));
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public void error(String error) {
+            events.add("error");
+        }
+
+        @Override
+        public void endScript(int updateCount, int successCount, int warningCount, int errorCount, long duration) {
+            events.add("end " + successCount + " " + errorCount);
+        }
+    }
+
+    private static DataSource dataSource(String name) {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + name);
+        return dataSource;
+    }
+
+    private interface Action {
+        void accept(String sql) throws Exception;
+    }
+
+    /**
+     * Wrap a data source so that an action is taken before each statement is executed.
+     */
+    private static DataSource onExecute(DataSource dataSource, Action action) {
+        return proxy(DataSource.class, (method, args) -> {
+            if (!method.getName().equals("getConnection")) {
+                return invoke(dataSource, method, args);
+            }
+            Connection connection = dataSource.getConnection();
+            return proxy(Connection.class, (connectionMethod, connectionArgs) -> {
+                if (!connectionMethod.getName().equals("createStatement")) {
+                    return invoke(connection, connectionMethod, connectionArgs);
+                }
+                Statement statement = connection.createStatement();
+                return proxy(Statement.class, (statementMethod, statementArgs) -> {
+                    if (statementMethod.getName().equals("execute")) {
+                        action.accept((String) statementArgs[0]);
+                    }
+                    return invoke(statement, statementMethod, statementArgs);
+                });
+            });
+        });
+    }
+
+    private interface Handler {
+        Object invoke(Method method, Object[] args) throws Throwable;
+    }
+
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, (proxy, method, args) -> handler.invoke(method, args)));
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+}
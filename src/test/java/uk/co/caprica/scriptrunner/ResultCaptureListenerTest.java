@@ -0,0 +1,187 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.caprica.scriptrunner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ResultCaptureListenerTest {
+
+    private static final String SCRIPT =
+        "create table t(i int, b bigint, n decimal(10, 0), d decimal(10, 2), f double, z boolean, s varchar(10), dt date, tm time, ts timestamp(9), v varbinary(4));\n" +
+        "insert into t values (1, 10000000000, 123, 1.25, 0.5, true, 'a', date '2024-02-29', time '12:34:56', timestamp '2024-02-29 12:34:56.123456789', x'0102');\n" +
+        "insert into t values (null, null, null, null, null, null, null, null, null, null, null);\n" +
+        "insert into t values (-1, 0, 0, 0, 0, false, 'a', date '1969-12-31', time '00:00:00', timestamp '1969-12-31 23:59:59.5', x'');\n" +
+        "select i, b, n, d, f, z, s, dt, tm, ts, v as bytes from t order by i nulls last;\n";
+
+    private Connection connection;
+
+    private ScriptRunner scriptRunner;
+
+    @Before
+    public void before() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:");
+        scriptRunner = new ScriptRunner(connection);
+        scriptRunner.setAutoCommit(true);
+    }
+
+    @After
+    public void after() throws SQLException {
+        connection.close();
+    }
+
+    @Test
+    public void valuesAreCapturedByType() {
+        ResultCaptureListener listener = new ResultCaptureListener();
+        scriptRunner.addScriptListener(listener);
+        scriptRunner.runScript(new StringReader(SCRIPT));
+        assertCaptured(listener.getResults());
+    }
+
+    @Test
+    public void valuesAreCapturedFromRowSnapshots() {
+        ResultCaptureListener listener = new ResultCaptureListener();
+        try (AsyncScriptListener async = new AsyncScriptListener(listener)) {
+            scriptRunner.addScriptListener(async);
+            scriptRunner.runScript(new StringReader(SCRIPT));
+        }
+        assertCaptured(listener.getResults());
+    }
+
+    private static void assertCaptured(List<CapturedResult> results) {
+        assertEquals(1, results.size());
+        CapturedResult result = results.get(0);
+        assertTrue(result.getSql().trim().startsWith("select i, b"));
+        assertEquals(3, result.getRowCount());
+        assertEquals(11, result.getColumnCount());
+        assertEquals("BYTES", result.getColumnLabel(11));
+        assertEquals(7, result.findColumn("s"));
+        assertEquals(Types.INTEGER, result.getColumnType(1));
+
+        assertEquals(-1, result.getInt(0, 1));
+        assertEquals(Integer.valueOf(1), result.getObject(1, 1));
+        assertEquals(10000000000L, result.getLong(1, 2));
+        assertEquals(Long.valueOf(10000000000L), result.getObject(1, 2));
+        assertEquals(new BigDecimal("123"), result.getObject(1, 3));
+        assertEquals(new BigDecimal("1.25"), result.getObject(1, 4));
+        assertEquals(0.5, result.getDouble(1, 5), 0);
+        assertTrue(result.getBoolean(1, 6));
+        assertFalse(result.getBoolean(0, 6));
+        assertEquals("a", result.getString(0, 7));
+        assertEquals("a", result.getString(1, 7));
+        assertEquals(Date.valueOf("2024-02-29"), result.getObject(1, 8));
+        assertEquals(Date.valueOf("1969-12-31"), result.getObject(0, 8));
+        assertEquals(Time.valueOf("12:34:56"), result.getObject(1, 9));
+        assertEquals(Timestamp.valueOf("2024-02-29 12:34:56.123456789"), result.getObject(1, 10));
+        assertEquals(Timestamp.valueOf("1969-12-31 23:59:59.5"), result.getObject(0, 10));
+        assertArrayEquals(new byte[] {1, 2}, (byte[]) result.getObject(1, 11));
+        assertEquals("1", result.getString(1, 1));
+
+        // Zero values are not null, null values follow the JDBC conventions
+        for (int column = 1; column <= 11; column++) {
+            assertFalse(result.isNull(0, column));
+            assertTrue(result.isNull(2, column));
+            assertNull(result.getObject(2, column));
+        }
+        assertEquals(0, result.getLong(2, 1));
+        assertEquals(0, result.getDouble(2, 5), 0);
+        assertFalse(result.getBoolean(2, 6));
+        assertNull(result.getString(2, 7));
+    }
+
+    @Test
+    public void resultsAreCapturedInOrderAndResetForEachScript() {
+        ResultCaptureListener listener = new ResultCaptureListener();
+        scriptRunner.addScriptListener(listener);
+        scriptRunner.runScript(new StringReader("select 1 as a;\ncreate table t(id int);\nselect 'b' as b;\n"));
+        assertEquals(2, listener.getResults().size());
+        assertEquals("A", listener.getResults().get(0).getColumnLabel(1));
+        assertEquals("b", listener.getResults().get(1).getString(0, 1));
+
+        scriptRunner.runScript(new StringReader("select * from t;\n"));
+        assertEquals(1, listener.getResults().size());
+        assertEquals(0, listener.getResults().get(0).getRowCount());
+    }
+
+    @Test
+    public void manyDistinctStringsAreCapturedAsText() {
+        ResultCaptureListener listener = new ResultCaptureListener();
+        scriptRunner.addScriptListener(listener);
+        // More distinct values than the dictionary holds, with nulls and repeated values either side of the switch
+        scriptRunner.runScript(new StringReader("select case when mod(x, 1000) = 0 then null when mod(x, 3) = 0 then 'repeated' else 'vé' || x end from system_range(1, 100000);\n"));
+        CapturedResult result = listener.getResults().get(0);
+        assertEquals(100000, result.getRowCount());
+        for (int row = 0; row < result.getRowCount(); row++) {
+            long x = row + 1;
+            String expected = x % 1000 == 0 ? null : x % 3 == 0 ? "repeated" : "vé" + x;
+            assertEquals(expected, result.getString(row, 1));
+            assertEquals(expected == null, result.isNull(row, 1));
+        }
+    }
+
+    @Test
+    public void rowLimitLimitsCapture() {
+        ResultCaptureListener listener = new ResultCaptureListener();
+        scriptRunner.addScriptListener(listener);
+        scriptRunner.setRowLimit(5);
+        scriptRunner.runScript(new StringReader("select x from system_range(1, 100);\n"));
+        assertEquals(5, listener.getResults().get(0).getRowCount());
+        assertEquals(5, listener.getResults().get(0).getLong(4, 1));
+    }
+
+    @Test
+    public void invalidRowOrColumnIsRejected() {
+        ResultCaptureListener listener = new ResultCaptureListener();
+        scriptRunner.addScriptListener(listener);
+        scriptRunner.runScript(new StringReader("select 1 as a;\n"));
+        CapturedResult result = listener.getResults().get(0);
+        for (int[] cell : new int[][] {{1, 1}, {-1, 1}, {0, 0}, {0, 2}}) {
+            try {
+                result.getObject(cell[0], cell[1]);
+                fail("Expected an invalid row or column to be rejected");
+            } catch (IndexOutOfBoundsException e) {
+                // Expected
+            }
+        }
+        try {
+            result.findColumn("b");
+            fail("Expected an unknown column to be rejected");
+        } catch (IllegalArgumentException e) {
+            assertEquals("No such column: b", e.getMessage());
+        }
+    }
+
+}
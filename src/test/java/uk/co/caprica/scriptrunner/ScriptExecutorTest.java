@@ -0,0 +1,211 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.caprica.scriptrunner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ScriptExecutorTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<Connection> databases = new ArrayList<>();
+
+    @Before
+    public void before() throws SQLException {
+        for (int i = 0; i < 2; i++) {
+            Connection database = DriverManager.getConnection("jdbc:h2:mem:executor" + i + ";DB_CLOSE_DELAY=-1");
+            try (Statement statement = database.createStatement()) {
+                statement.execute("create table t(id int)");
+            }
+            databases.add(database);
+        }
+    }
+
+    @After
+    public void after() throws SQLException {
+        for (Connection database : databases) {
+            try (Statement statement = database.createStatement()) {
+                statement.execute("shutdown");
+            }
+        }
+    }
+
+    @Test
+    public void targetsDoNotUseJournal() throws SQLException {
+        Path journal = folder.getRoot().toPath().resolve("script.journal");
+        StringBuilder script = new StringBuilder();
+        for (int id = 1; id <= 100; id++) {
+            script.append("insert into t values (").append(id).append(");\n");
+        }
+
+        // Leave a journal from an interrupted run against another database, which committed the first 50 statements
+        try (Connection other = DriverManager.getConnection("jdbc:h2:mem:")) {
+            try (Statement statement = other.createStatement()) {
+                statement.execute("create table t(id int check (id <= 50))");
+            }
+            ScriptRunner scriptRunner = new ScriptRunner(other);
+            scriptRunner.setAutoCommit(true);
+            scriptRunner.setStopOnError(true);
+            scriptRunner.setJournal(journal);
+            scriptRunner.setErrorLogWriter(null);
+            try {
+                scriptRunner.runScript(new StringReader(script.toString()));
+            } catch (RuntimeException e) {
+                // Expected, the check constraint stops the script
+            }
+        }
+        assertTrue(Files.exists(journal));
+
+        try (ScriptExecutor executor = new ScriptExecutor(2)) {
+            executor.setConfiguration(scriptRunner -> {
+                scriptRunner.setAutoCommit(true);
+                scriptRunner.setJournal(journal);
+            });
+            List<CompletableFuture<ScriptResult>> results = executor.execute(new StringReader(script.toString()), Arrays.asList(
+                () -> DriverManager.getConnection("jdbc:h2:mem:executor0"),
+                () -> DriverManager.getConnection("jdbc:h2:mem:executor1")
+            ));
+            for (CompletableFuture<ScriptResult> result : results) {
+                assertNull(result.join().getFailure());
+                assertEquals(100, result.join().getUpdateCount());
+            }
+        }
+        assertTrue(Files.exists(journal));
+        for (Connection database : databases) {
+            assertEquals(100, count(database, "select count(distinct id) from t"));
+        }
+    }
+
+    @Test
+    public void eachTargetHasItsOwnResult() throws SQLException {
+        try (ScriptExecutor executor = new ScriptExecutor(2)) {
+            executor.setConfiguration(scriptRunner -> {
+                scriptRunner.setAutoCommit(true);
+                scriptRunner.setStopOnError(true);
+                scriptRunner.setErrorLogWriter(null);
+            });
+            List<CompletableFuture<ScriptResult>> results = executor.execute(new StringReader("insert into t values (1);\ninsert into t values (2);\n"), Arrays.asList(
+                () -> DriverManager.getConnection("jdbc:h2:mem:executor0"),
+                () -> {
+                    throw new SQLException("No connection");
+                },
+                () -> DriverManager.getConnection("jdbc:h2:mem:"),
+                () -> DriverManager.getConnection("jdbc:h2:mem:executor1")
+            ));
+            assertEquals(4, results.size());
+            assertTrue(results.get(0).join().isSuccess());
+            assertEquals(2, results.get(0).join().getUpdateCount());
+            assertEquals("No connection", results.get(1).join().getFailure().getMessage());
+            // The table does not exist in a new database
+            assertNotNull(results.get(2).join().getFailure());
+            assertEquals(0, results.get(2).join().getUpdateCount());
+            assertTrue(results.get(3).join().isSuccess());
+        }
+        for (Connection database : databases) {
+            assertEquals(2, count(database, "select count(*) from t"));
+        }
+    }
+
+    @Test
+    public void targetsAreExecutedConcurrentlyUpToTheLimit() throws IOException, SQLException {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maximum = new AtomicInteger();
+        // The first two targets wait for each other, so can only complete if they run at the same time
+        CountDownLatch together = new CountDownLatch(2);
+        List<Connection> connections = Collections.synchronizedList(new ArrayList<>());
+        try (ScriptExecutor executor = new ScriptExecutor(2)) {
+            executor.setConfiguration(scriptRunner -> scriptRunner.addScriptListener(new ScriptAdapter() {
+                @Override
+                public void beginScript() {
+                    maximum.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    together.countDown();
+                    try {
+                        together.await(5, TimeUnit.SECONDS);
+                        Thread.sleep(10);
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+
+                @Override
+                public void endScript(int updateCount, int successCount, int warningCount, int errorCount, long duration) {
+                    running.decrementAndGet();
+                }
+            }));
+            List<ConnectionSource> targets = new ArrayList<>();
+            for (int i = 0; i < 6; i++) {
+                targets.add(() -> {
+                    Connection connection = DriverManager.getConnection("jdbc:h2:mem:");
+                    connections.add(connection);
+                    return connection;
+                });
+            }
+            ScriptPlan plan = ScriptPlan.compile(new StringReader("create table t(id int);\ninsert into t values (1);\n"), ";", false, false);
+            for (CompletableFuture<ScriptResult> result : executor.execute(plan, targets)) {
+                assertTrue(result.join().isSuccess());
+                assertEquals(1, result.join().getUpdateCount());
+            }
+        }
+        assertEquals(0, together.getCount());
+        assertEquals(2, maximum.get());
+        assertEquals(6, connections.size());
+        for (Connection connection : connections) {
+            assertTrue(connection.isClosed());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void concurrencyMustBePositive() {
+        new ScriptExecutor(0);
+    }
+
+    private static int count(Connection connection, String sql) throws SQLException {
+        try (Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery(sql)) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+
+}
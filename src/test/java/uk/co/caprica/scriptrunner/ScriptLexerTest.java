@@ -0,0 +1,130 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.caprica.scriptrunner;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ScriptLexerTest {
+
+    @Test
+    public void delimiterInsideQuotesDoesNotEndStatement() throws IOException {
+        ScriptPlan plan = compile("select 'a;b', \"c;d\" from t;\nselect 'it''s;';\n", false);
+        assertEquals(entries("STATEMENT:select 'a;b', \"c;d\" from t", "STATEMENT:select 'it''s;'"), entries(plan));
+        assertEquals("", plan.getRemainder());
+    }
+
+    @Test
+    public void escapeStringAllowsBackslashEscapedQuote() throws IOException {
+        ScriptPlan plan = compile("select E'a\\';b';\n", false);
+        assertEquals(entries("STATEMENT:select E'a\\';b'"), entries(plan));
+    }
+
+    @Test
+    public void delimiterInsideDollarQuotesDoesNotEndStatement() throws IOException {
+        ScriptPlan plan = compile("create function f() returns int as $$ select 1; $$ language sql;\nselect $tag$ a;$$ b $tag$;\n", false);
+        assertEquals(entries("STATEMENT:create function f() returns int as $$ select 1; $$ language sql", "STATEMENT:select $tag$ a;$$ b $tag$"), entries(plan));
+    }
+
+    @Test
+    public void blockCommentsDoNotNestByDefault() throws IOException {
+        ScriptPlan plan = compile("/* a /* b */ select 1;\n", false);
+        assertEquals(entries("COMMENT:/* a /* b */", "STATEMENT:select 1"), entries(plan));
+    }
+
+    @Test
+    public void blockCommentsNestWhenEnabled() throws IOException {
+        ScriptPlan plan = compile("/* a /* b */ c */ select 1;\n", true);
+        assertEquals(entries("COMMENT:/* a /* b */ c */", "STATEMENT:select 1"), entries(plan));
+    }
+
+    @Test
+    public void conditionalCommentsAndHintsAreStatementText() throws IOException {
+        ScriptPlan plan = compile("/*!40101 SET NAMES utf8 */;\nselect /*+ INDEX(t) */ * from t;\n", false);
+        assertEquals(entries("STATEMENT:/*!40101 SET NAMES utf8 */", "STATEMENT:select /*+ INDEX(t) */ * from t"), entries(plan));
+    }
+
+    @Test
+    public void delimiterDirectiveChangesDelimiter() throws IOException {
+        ScriptPlan plan = compile("-- @DELIMITER //\ncreate procedure p() begin select 1; end//\n-- @DELIMITER ;\nselect 2;\n", false);
+        assertEquals(entries(
+            "DELIMITER://",
+            "COMMENT:-- @DELIMITER //",
+            "STATEMENT:create procedure p() begin select 1; end",
+            "DELIMITER:;",
+            "COMMENT:-- @DELIMITER ;",
+            "STATEMENT:select 2"
+        ), entries(plan));
+    }
+
+    @Test
+    public void lineCommentsAreReportedSeparately() throws IOException {
+        ScriptPlan plan = compile("select 1; -- trailing\n-- line comment\nselect 2", false);
+        assertEquals(entries("STATEMENT:select 1", "COMMENT:-- trailing", "COMMENT:-- line comment"), entries(plan));
+        assertEquals("select 2", plan.getRemainder());
+    }
+
+    @Test
+    public void unterminatedBlockCommentIsLeftPending() throws IOException {
+        ScriptPlan plan = compile("select 1;\n/* unterminated\nselect 2;\n", false);
+        assertEquals(entries("STATEMENT:select 1"), entries(plan));
+        assertEquals("/* unterminated\nselect 2;", plan.getRemainder());
+    }
+
+    @Test
+    public void unterminatedBlockCommentFailsScript() throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:h2:mem:")) {
+            ScriptRunner scriptRunner = new ScriptRunner(connection);
+            scriptRunner.setErrorLogWriter(null);
+            try {
+                scriptRunner.runScript(new StringReader("select 1;\n/* unterminated\nselect 2;\n"));
+                fail("Expected a missing terminator failure");
+            } catch (RuntimeException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("Line missing end-of-line terminator"));
+            }
+        }
+    }
+
+    private static ScriptPlan compile(String script, boolean nestedComments) throws IOException {
+        return ScriptPlan.compile(new StringReader(script), ";", false, false, nestedComments);
+    }
+
+    private static List<String> entries(ScriptPlan plan) {
+        List<String> result = new ArrayList<>();
+        for (ScriptPlan.Entry entry : plan.getEntries()) {
+            result.add(entry.getKind() + ":" + entry.getText());
+        }
+        return result;
+    }
+
+    private static List<String> entries(String... entries) {
+        return Arrays.asList(entries);
+    }
+
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.caprica.scriptrunner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ScriptPlanTest {
+
+    private static final String SCRIPT =
+        "create table t(id int primary key);\n" +
+        "-- a comment\n" +
+        "insert into t values (1);\n" +
+        "-- @DELIMITER /\n" +
+        "insert into t values (2)\n" +
+        "/\n" +
+        "select count(*) from t/\n";
+
+    private Connection connection;
+
+    @Before
+    public void before() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:");
+    }
+
+    @After
+    public void after() throws SQLException {
+        connection.close();
+    }
+
+    @Test
+    public void scriptIsCompiledToEntries() throws IOException {
+        ScriptPlan plan = ScriptPlan.compile(new StringReader(SCRIPT + "select 1"), ";", false, false);
+        List<String> entries = new ArrayList<>();
+        for (ScriptPlan.Entry entry : plan.getEntries()) {
+            entries.add(entry.getKind() + " " + entry.getLine() + " " + entry.getText().trim());
+        }
+        assertEquals(Arrays.asList(
+            "STATEMENT 1 create table t(id int primary key)",
+            "COMMENT 2 -- a comment",
+            "STATEMENT 3 insert into t values (1)",
+            "DELIMITER 4 /",
+            "COMMENT 4 -- @DELIMITER /",
+            "STATEMENT 5 insert into t values (2)",
+            "STATEMENT 7 select count(*) from t"
+        ), entries);
+        assertEquals(4, plan.getStatementCount());
+        assertEquals("select 1", plan.getRemainder());
+        assertEquals(ScriptPlan.hash(SCRIPT + "select 1"), plan.getHash());
+        assertNotEquals(ScriptPlan.hash(SCRIPT), plan.getHash());
+    }
+
+    @Test
+    public void planCanBeRunRepeatedly() {
+        ScriptRunner scriptRunner = new ScriptRunner(connection);
+        ScriptPlan plan = scriptRunner.compileScript(new StringReader(SCRIPT));
+        List<String> rows = new ArrayList<>();
+        scriptRunner.addScriptListener(new ScriptAdapter() {
+            @Override
+            public void row(ResultSet resultSet) {
+                try {
+                    rows.add(resultSet.getString(1));
+                } catch (SQLException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        for (int i = 0; i < 3; i++) {
+            ScriptResult result = scriptRunner.runScript(plan);
+            assertEquals(4, result.getSuccessCount());
+            assertEquals(0, result.getErrorCount());
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("drop table t");
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        assertEquals(3, rows.size());
+        assertEquals("2", rows.get(2));
+    }
+
+    @Test
+    public void unterminatedPlanFails() {
+        ScriptRunner scriptRunner = new ScriptRunner(connection);
+        scriptRunner.setErrorLogWriter(null);
+        ScriptPlan plan = scriptRunner.compileScript(new StringReader("select 1;\nselect 2"));
+        try {
+            scriptRunner.runScript(plan);
+            fail("Expected the script to fail");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("select 2"));
+        }
+    }
+
+    @Test
+    public void cachedPlanIsReusedForSameScriptAndSettings() {
+        ScriptPlanCache cache = new ScriptPlanCache(10);
+        ScriptRunner scriptRunner = new ScriptRunner(connection);
+        scriptRunner.setScriptPlanCache(cache);
+        ScriptPlan plan = scriptRunner.compileScript(new StringReader(SCRIPT));
+        assertSame(plan, scriptRunner.compileScript(new StringReader(SCRIPT)));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        // The plan depends on the settings used to parse the script
+        scriptRunner.setDelimiter("/");
+        assertNotSame(plan, scriptRunner.compileScript(new StringReader(SCRIPT)));
+        assertEquals(2, cache.size());
+        // Another script runner sharing the cache
+        ScriptRunner other = new ScriptRunner(connection);
+        other.setScriptPlanCache(cache);
+        assertSame(plan, other.compileScript(new StringReader(SCRIPT)));
+    }
+
+    @Test
+    public void cacheIsBounded() {
+        ScriptPlanCache cache = new ScriptPlanCache(2);
+        ScriptRunner scriptRunner = new ScriptRunner(connection);
+        scriptRunner.setScriptPlanCache(cache);
+        for (int i = 0; i < 5; i++) {
+            scriptRunner.compileScript(new StringReader("select " + i + ";\n"));
+        }
+        assertTrue(cache.size() <= 2);
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+    }
+
+}
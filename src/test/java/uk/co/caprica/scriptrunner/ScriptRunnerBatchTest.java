@@ -0,0 +1,143 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.caprica.scriptrunner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ScriptRunnerBatchTest {
+
+    private static final String SCRIPT =
+        "insert into t values (1);\n" +
+        "insert into t values (2);\n" +
+        "insert into t values (1);\n" +
+        "insert into t values (3);\n" +
+        "insert into t values (4);\n";
+
+    private Connection connection;
+
+    private final List<String> events = new ArrayList<>();
+
+    @Before
+    public void before() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:");
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("create table t(id int primary key)");
+        }
+    }
+
+    @After
+    public void after() throws SQLException {
+        connection.close();
+    }
+
+    @Test
+    public void failedStatementInBatchIsCountedOnce() throws SQLException {
+        for (int batchSize : new int[] {0, 2, 3, 10}) {
+            String message = "batch size " + batchSize;
+            events.clear();
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("delete from t");
+            }
+            ScriptResult result = scriptRunner(batchSize, false).runScript(new StringReader(SCRIPT));
+            assertEquals(message, 4, result.getUpdateCount());
+            assertEquals(message, 4, result.getSuccessCount());
+            assertEquals(message, 1, result.getErrorCount());
+            assertEquals(message, Arrays.asList("update 1", "update 1", "error", "update 1", "update 1"), events);
+            assertEquals(message, 4, rowCount());
+        }
+    }
+
+    @Test
+    public void stopOnErrorNamesFailedStatementInBatch() {
+        try {
+            scriptRunner(10, true).runScript(new StringReader(SCRIPT));
+            fail("Expected the script to fail");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Error executing: insert into t values (1).  Cause: "));
+        }
+        assertEquals(Arrays.asList("update 1", "update 1", "error"), events);
+    }
+
+    @Test
+    public void commentFollowsStatementsBeforeIt() throws SQLException {
+        String script =
+            "insert into t values (1);\n" +
+            "-- one\n" +
+            "insert into t values (2);\n" +
+            "insert into t values (3);\n" +
+            "-- @COMMIT\n" +
+            "insert into t values (4);\n";
+        for (int batchSize : new int[] {0, 10}) {
+            String message = "batch size " + batchSize;
+            events.clear();
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("delete from t");
+            }
+            scriptRunner(batchSize, false).runScript(new StringReader(script));
+            assertEquals(message, Arrays.asList("update 1", "comment -- one", "update 1", "update 1", "comment -- @COMMIT", "update 1"), events);
+        }
+    }
+
+    private ScriptRunner scriptRunner(int batchSize, boolean stopOnError) {
+        ScriptRunner scriptRunner = new ScriptRunner(connection);
+        scriptRunner.setAutoCommit(true);
+        scriptRunner.setBatchSize(batchSize);
+        scriptRunner.setStopOnError(stopOnError);
+        scriptRunner.setErrorLogWriter(null);
+        scriptRunner.addScriptListener(new ScriptAdapter() {
+            @Override
+            public void updateCount(int updateCount) {
+                events.add("update " + updateCount);
+            }
+
+            @Override
+            public void error(String error) {
+                events.add("error");
+            }
+
+            @Override
+            public void comment(String comment) {
+                events.add("comment " + comment.trim());
+            }
+        });
+        return scriptRunner;
+    }
+
+    private int rowCount() throws SQLException {
+        try (Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery("select count(*) from t")) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+
+}
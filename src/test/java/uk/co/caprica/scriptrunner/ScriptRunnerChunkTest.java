@@ -0,0 +1,185 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.caprica.scriptrunner;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ScriptRunnerChunkTest {
+
+    private static final String SCRIPT =
+        "create table t(id int primary key);\n" +
+        "insert into t values (1);\n" +
+        "insert into t values (2);\n" +
+        "select count(*) from t;\n" +
+        "-- counted\n" +
+        "insert into t values (1);\n" +
+        "insert into t values (3);\n" +
+        "select sum(id) from t;\n";
+
+    /**
+     * Number of times a statement was executed on the database, each chunk counting once.
+     */
+    private int executions;
+
+    @Test
+    public void chunksGiveSameEventsAsSingleStatements() throws SQLException {
+        List<String> expected = run(0);
+        assertEquals(7, executions);
+        for (int chunkSize : new int[] {2, 4, 10}) {
+            assertEquals("chunk size " + chunkSize, expected, run(chunkSize));
+            assertTrue("chunk size " + chunkSize, executions < 7);
+        }
+        assertEquals(Arrays.asList(
+            "sql create table t(id int primary key)",
+            "update 0",
+            "sql insert into t values (1)",
+            "update 1",
+            "sql insert into t values (2)",
+            "update 1",
+            "sql select count(*) from t",
+            "row 2",
+            "comment -- counted",
+            "sql insert into t values (1)",
+            "error",
+            "sql insert into t values (3)",
+            "update 1",
+            "sql select sum(id) from t",
+            "row 6"
+        ), expected);
+    }
+
+    @Test
+    public void driverWithoutMultipleResultsIsRejected() throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:h2:mem:")) {
+            ScriptRunner scriptRunner = new ScriptRunner(connection);
+            scriptRunner.setChunkSize(3);
+            scriptRunner.setErrorLogWriter(null);
+            scriptRunner.runScript(new StringReader("create table a(id int);\ninsert into a values (1);\ninsert into a values (2);\n"));
+            fail("Expected chunking to be rejected");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("does not support chunking"));
+        }
+    }
+
+    private List<String> run(int chunkSize) throws SQLException {
+        List<String> events = new ArrayList<>();
+        executions = 0;
+        try (Connection connection = DriverManager.getConnection("jdbc:h2:mem:")) {
+            ScriptRunner scriptRunner = new ScriptRunner(multipleResults(connection));
+            scriptRunner.setAutoCommit(true);
+            scriptRunner.setChunkSize(chunkSize);
+            scriptRunner.setErrorLogWriter(null);
+            scriptRunner.addScriptListener(new ScriptAdapter() {
+                @Override
+                public void sql(String sql) {
+                    events.add("sql " + sql.trim());
+                }
+
+                @Override
+                public void updateCount(int updateCount) {
+                    events.add("update " + updateCount);
+                }
+
+                @Override
+                public void row(ResultSet resultSet) {
+                    try {
+                        events.add("row " + resultSet.getString(1));
+                    } catch (SQLException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+
+                @Override
+                public void error(String error) {
+                    events.add("error");
+                }
+
+                @Override
+                public void comment(String comment) {
+                    events.add("comment " + comment.trim());
+                }
+            });
+            scriptRunner.runScript(new StringReader(SCRIPT));
+        }
+        return events;
+    }
+
+    /**
+     * Wrap a connection so that its statements accept several statements in one execution, returning a result for each
+     * and stopping at the first failure, as MySQL does with "allowMultiQueries" enabled.
+     */
+    private Connection multipleResults(Connection connection) {
+        Pattern separator = Pattern.compile(Pattern.quote(System.lineSeparator() + ";" + System.lineSeparator()));
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {Connection.class}, (proxy, method, args) -> {
+            if (!method.getName().equals("createStatement")) {
+                return invoke(connection, method, args);
+            }
+            Deque<String> remaining = new ArrayDeque<>();
+            Statement[] current = {connection.createStatement()};
+            boolean[] finished = {false};
+            return Proxy.newProxyInstance(Statement.class.getClassLoader(), new Class<?>[] {Statement.class}, (statementProxy, statementMethod, statementArgs) -> {
+                switch (statementMethod.getName()) {
+                    case "execute":
+                        executions++;
+                        finished[0] = false;
+                        remaining.addAll(Arrays.asList(separator.split((String) statementArgs[0])));
+                        return current[0].execute(remaining.poll());
+                    case "getMoreResults":
+                        if (remaining.isEmpty()) {
+                            finished[0] = true;
+                            return false;
+                        }
+                        current[0] = connection.createStatement();
+                        return current[0].execute(remaining.poll());
+                    case "getUpdateCount":
+                        return finished[0] ? -1 : current[0].getUpdateCount();
+                    default:
+                        return invoke(current[0], statementMethod, statementArgs);
+                }
+            });
+        });
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+}
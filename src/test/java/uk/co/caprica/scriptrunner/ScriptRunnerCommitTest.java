@@ -0,0 +1,171 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.caprica.scriptrunner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ScriptRunnerCommitTest {
+
+    private static final String URL = "jdbc:h2:mem:commits";
+
+    private static final String SCRIPT =
+        "insert into t values (1);\n" +
+        "insert into t values (2);\n" +
+        "insert into t values (3);\n" +
+        "insert into t values (4);\n" +
+        "insert into t values (5);\n";
+
+    private Connection connection;
+
+    /**
+     * Separate connection to the same database, it sees only the rows that have been committed.
+     */
+    private Connection observer;
+
+    private final List<String> events = new ArrayList<>();
+
+    @Before
+    public void before() throws SQLException {
+        connection = DriverManager.getConnection(URL);
+        observer = DriverManager.getConnection(URL);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("create table t(id int primary key)");
+        }
+    }
+
+    @After
+    public void after() throws SQLException {
+        try (Statement statement = observer.createStatement()) {
+            statement.execute("drop table t");
+        }
+        observer.close();
+        connection.close();
+    }
+
+    @Test
+    public void commitEveryStatements() throws SQLException {
+        ScriptRunner scriptRunner = scriptRunner();
+        scriptRunner.setCommitEveryStatements(2);
+        scriptRunner.runScript(new StringReader(SCRIPT));
+        assertEquals(Arrays.asList("update 1", "update 1", "commit 2", "update 1", "update 1", "commit 4", "update 1", "commit 5"), events);
+    }
+
+    @Test
+    public void commitEveryRows() throws SQLException {
+        ScriptRunner scriptRunner = scriptRunner();
+        scriptRunner.setCommitEveryRows(3);
+        scriptRunner.runScript(new StringReader(
+            "insert into t values (1), (2);\n" +
+            "insert into t values (3), (4);\n" +
+            "insert into t values (5), (6);\n" +
+            "update t set id = id + 10 where id > 4;\n" +
+            "insert into t values (7);\n"
+        ));
+        assertEquals(Arrays.asList("update 2", "update 2", "commit 4", "update 2", "update 2", "commit 6", "update 1", "commit 7"), events);
+    }
+
+    @Test
+    public void commitEveryMillis() throws SQLException {
+        ScriptRunner scriptRunner = scriptRunner();
+        scriptRunner.setCommitEveryMillis(1);
+        scriptRunner.addScriptListener(new ScriptAdapter() {
+            @Override
+            public void updateCount(int updateCount) {
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        scriptRunner.runScript(new StringReader("insert into t values (1);\ninsert into t values (2);\n"));
+        assertEquals(Arrays.asList("update 1", "commit 1", "update 1", "commit 2"), events);
+    }
+
+    @Test
+    public void commitDirective() throws SQLException {
+        scriptRunner().runScript(new StringReader(
+            "insert into t values (1);\n" +
+            "insert into t values (2);\n" +
+            "-- @COMMIT\n" +
+            "insert into t values (3);\n"
+        ));
+        assertEquals(Arrays.asList("update 1", "update 1", "commit 2", "update 1", "commit 3"), events);
+    }
+
+    @Test
+    public void commitIsNotMadePartWayThroughBatch() throws SQLException {
+        ScriptRunner scriptRunner = scriptRunner();
+        scriptRunner.setBatchSize(3);
+        scriptRunner.setCommitEveryStatements(2);
+        scriptRunner.runScript(new StringReader(SCRIPT));
+        assertEquals(Arrays.asList("update 1", "update 1", "update 1", "commit 3", "update 1", "update 1", "commit 5"), events);
+    }
+
+    @Test
+    public void periodicCommitsAreIgnoredWithAutoCommit() throws SQLException {
+        ScriptRunner scriptRunner = scriptRunner();
+        scriptRunner.setAutoCommit(true);
+        scriptRunner.setCommitEveryStatements(2);
+        scriptRunner.runScript(new StringReader(SCRIPT));
+        assertEquals(Arrays.asList("update 1", "update 1", "update 1", "update 1", "update 1"), events);
+        assertEquals(5, committedRowCount());
+    }
+
+    private ScriptRunner scriptRunner() {
+        ScriptRunner scriptRunner = new ScriptRunner(connection);
+        scriptRunner.setErrorLogWriter(null);
+        scriptRunner.addScriptListener(new ScriptAdapter() {
+            @Override
+            public void updateCount(int updateCount) {
+                events.add("update " + updateCount);
+            }
+
+            @Override
+            public void commit() {
+                try {
+                    events.add("commit " + committedRowCount());
+                } catch (SQLException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        return scriptRunner;
+    }
+
+    private int committedRowCount() throws SQLException {
+        try (Statement statement = observer.createStatement(); ResultSet resultSet = statement.executeQuery("select count(*) from t")) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+
+}
@@ -0,0 +1,156 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.caprica.scriptrunner;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ScriptRunnerConcurrencyTest {
+
+    private static final int RUNS = 4;
+
+    @Test
+    public void concurrentRunsHaveTheirOwnState() throws Exception {
+        // Every run waits for all of the others to start, so they are all in progress at the same time
+        CyclicBarrier started = new CyclicBarrier(RUNS);
+        Map<String, AtomicInteger> updates = new ConcurrentHashMap<>();
+        ScriptRunner scriptRunner = new ScriptRunner();
+        scriptRunner.setAutoCommit(true);
+        scriptRunner.addScriptListener(new ScriptAdapter() {
+            @Override
+            public void beginScript() {
+                try {
+                    started.await(5, TimeUnit.SECONDS);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+
+            @Override
+            public void updateCount(int updateCount) {
+                updates.computeIfAbsent(Thread.currentThread().getName(), name -> new AtomicInteger()).addAndGet(updateCount);
+            }
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(RUNS);
+        try {
+            List<Future<ScriptResult>> results = new ArrayList<>();
+            for (int run = 1; run <= RUNS; run++) {
+                // Each run uses a different delimiter, and executes a different number of statements
+                String delimiter = run % 2 == 0 ? "/" : ";";
+                StringBuilder script = new StringBuilder("-- @DELIMITER ").append(delimiter).append('\n');
+                script.append("create table t(id int)").append(delimiter).append('\n');
+                for (int id = 1; id <= run * 10; id++) {
+                    script.append("insert into t values (").append(id).append(')').append(delimiter).append('\n');
+                }
+                script.append("select count(*) from t").append(delimiter).append('\n');
+                results.add(executor.submit(() -> {
+                    try (Connection connection = DriverManager.getConnection("jdbc:h2:mem:")) {
+                        ScriptResult result = scriptRunner.runScript(connection, new StringReader(script.toString()));
+                        assertEquals(result.getUpdateCount(), count(connection));
+                        return result;
+                    }
+                }));
+            }
+            for (int run = 1; run <= RUNS; run++) {
+                ScriptResult result = results.get(run - 1).get(10, TimeUnit.SECONDS);
+                assertTrue(result.isSuccess());
+                assertEquals(run * 10, result.getUpdateCount());
+                assertEquals(run * 10 + 2, result.getSuccessCount());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        List<Integer> totals = new ArrayList<>();
+        for (AtomicInteger total : updates.values()) {
+            totals.add(total.get());
+        }
+        totals.sort(null);
+        assertEquals(RUNS, totals.size());
+        for (int run = 1; run <= RUNS; run++) {
+            assertEquals(run * 10, (int) totals.get(run - 1));
+        }
+    }
+
+    @Test
+    public void delimiterDirectiveDoesNotLeakIntoNextRun() throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:h2:mem:")) {
+            ScriptRunner scriptRunner = new ScriptRunner(connection);
+            scriptRunner.setAutoCommit(true);
+            assertEquals(1, scriptRunner.runScript(new StringReader("-- @DELIMITER /\nselect 1\n/\n")).getSuccessCount());
+            assertEquals(1, scriptRunner.runScript(new StringReader("select 1;\n")).getSuccessCount());
+        }
+    }
+
+    @Test
+    public void changesDuringRunApplyToNextRun() throws SQLException {
+        List<String> events = new ArrayList<>();
+        try (Connection connection = DriverManager.getConnection("jdbc:h2:mem:")) {
+            ScriptRunner scriptRunner = new ScriptRunner(connection);
+            scriptRunner.setAutoCommit(true);
+            ScriptListener late = new ScriptAdapter() {
+                @Override
+                public void sql(String sql) {
+                    events.add("late " + sql.trim());
+                }
+            };
+            scriptRunner.addScriptListener(new ScriptAdapter() {
+                @Override
+                public void sql(String sql) {
+                    events.add(sql.trim());
+                    // Neither affects the run in progress
+                    if (events.size() == 1) {
+                        scriptRunner.setDelimiter("/");
+                        scriptRunner.addScriptListener(late);
+                    }
+                }
+            });
+            ScriptResult result = scriptRunner.runScript(new StringReader("select 1;\nselect 2;\n"));
+            assertEquals(2, result.getSuccessCount());
+            assertEquals(2, events.size());
+            result = scriptRunner.runScript(new StringReader("select 3\n/\n"));
+            assertEquals(1, result.getSuccessCount());
+        }
+        assertEquals("[select 1, select 2, select 3, late select 3]", events.toString());
+    }
+
+    private static int count(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery("select count(*) from t")) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+
+}
@@ -0,0 +1,278 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.caprica.scriptrunner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ScriptRunnerExplainTest {
+
+    /**
+     * H2 does not estimate a cost, so give a full scan a high cost and anything else a low one.
+     */
+    private static final ExplainDialect SCAN_COST = new ExplainDialect() {
+        @Override
+        public String explain(String sql) {
+            return StandardExplainDialect.H2.explain(sql);
+        }
+
+        @Override
+        public QueryPlan plan(ResultSet resultSet) throws SQLException {
+            QueryPlan plan = StandardExplainDialect.H2.plan(resultSet);
+            return new QueryPlan(plan.isFullScan() ? 100 : 1, -1, plan.isFullScan(), plan.getText());
+        }
+    };
+
+    private Connection connection;
+
+    private final List<String> events = new ArrayList<>();
+
+    @Before
+    public void before() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:");
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("create table t(id int primary key, name varchar(10))");
+            statement.execute("insert into t values (1, 'a')");
+        }
+    }
+
+    @After
+    public void after() throws SQLException {
+        connection.close();
+    }
+
+    @Test
+    public void explainOnlyReportsPlansWithoutExecuting() throws SQLException {
+        ScriptRunner scriptRunner = scriptRunner();
+        scriptRunner.setExplainOnly(true);
+        ScriptResult result = scriptRunner.runScript(new StringReader(
+            "insert into t values (2, 'b');\n" +
+            "select * from t;\n" +
+            "select * from t where id = 1;\n" +
+            "drop table t;\n"
+        ));
+        assertEquals(Arrays.asList(
+            "sql insert into t values (2, 'b')", "plan false",
+            "sql select * from t", "plan true",
+            "sql select * from t where id = 1", "plan false",
+            "sql drop table t"
+        ), events);
+        assertEquals(3, result.getSuccessCount());
+        assertEquals(0, result.getErrorCount());
+        assertEquals(0, result.getUpdateCount());
+        assertEquals(1, count());
+    }
+
+    @Test
+    public void statementThatCanNotBeExplainedIsAnError() {
+        ScriptRunner scriptRunner = scriptRunner();
+        scriptRunner.setExplainOnly(true);
+        ScriptResult result = scriptRunner.runScript(new StringReader("select * from missing;\nselect * from t;\n"));
+        assertEquals(1, result.getSuccessCount());
+        assertEquals(1, result.getErrorCount());
+        assertEquals("error", events.get(1));
+
+        events.clear();
+        scriptRunner.setStopOnError(true);
+        try {
+            scriptRunner.runScript(new StringReader("select * from missing;\nselect * from t;\n"));
+            fail("Expected the script to fail");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Error executing: select * from missing"));
+        }
+        assertEquals(Arrays.asList("sql select * from missing", "error"), events);
+    }
+
+    @Test
+    public void statementOverMaxCostIsRefused() throws SQLException {
+        ScriptRunner scriptRunner = scriptRunner();
+        scriptRunner.setExplainDialect(SCAN_COST);
+        scriptRunner.setMaxCost(10);
+        ScriptResult result = scriptRunner.runScript(new StringReader(
+            "delete from t;\n" +
+            "update t set name = 'b' where id = 1;\n" +
+            "select name from t where id = 1;\n"
+        ));
+        assertEquals(Arrays.asList(
+            "sql delete from t", "plan true", "error",
+            "sql update t set name = 'b' where id = 1", "plan false", "update 1",
+            "sql select name from t where id = 1", "plan false", "row b"
+        ), events);
+        assertEquals(2, result.getSuccessCount());
+        assertEquals(1, result.getErrorCount());
+        assertEquals(1, count());
+    }
+
+    @Test
+    public void refusedStatementStopsScriptOnError() throws SQLException {
+        ScriptRunner scriptRunner = scriptRunner();
+        scriptRunner.setExplainDialect(SCAN_COST);
+        scriptRunner.setMaxCost(10);
+        scriptRunner.setStopOnError(true);
+        try {
+            scriptRunner.runScript(new StringReader("delete from t;\nselect 1;\n"));
+            fail("Expected the script to fail");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("Refused, estimated cost"));
+        }
+        assertEquals(Arrays.asList("sql delete from t", "plan true", "error"), events);
+        assertEquals(1, count());
+    }
+
+    @Test
+    public void failedExplainKeepsTransaction() throws SQLException {
+        StringWriter errors = new StringWriter();
+        ScriptRunner scriptRunner = scriptRunner();
+        scriptRunner.setAutoCommit(false);
+        scriptRunner.setErrorLogWriter(new PrintWriter(errors));
+        scriptRunner.setExplainDialect(new ExplainDialect() {
+            @Override
+            public String explain(String sql) {
+                return sql.contains("id = 3") ? "explain select * from missing" : StandardExplainDialect.H2.explain(sql);
+            }
+
+            @Override
+            public QueryPlan plan(ResultSet resultSet) throws SQLException {
+                return StandardExplainDialect.H2.plan(resultSet);
+            }
+        });
+        ScriptResult result = scriptRunner.runScript(new StringReader(
+            "insert into t values (2, 'b');\n" +
+            "insert into t select 3, 'c' from dual where 3 = 3 and 'id = 3' is not null;\n"
+        ));
+        // The statement that could not be explained is still executed, and the earlier insert is not rolled back
+        assertEquals(0, result.getErrorCount());
+        assertEquals(2, result.getUpdateCount());
+        assertTrue(errors.toString(), errors.toString().startsWith("Could not explain: insert into t select 3"));
+        assertEquals(3, count());
+    }
+
+    @Test
+    public void dialectIsChosenFromDatabaseProductName() {
+        assertSame(StandardExplainDialect.POSTGRESQL, StandardExplainDialect.forDatabase("PostgreSQL"));
+        assertSame(StandardExplainDialect.MYSQL, StandardExplainDialect.forDatabase("MySQL"));
+        assertSame(StandardExplainDialect.MYSQL, StandardExplainDialect.forDatabase("MariaDB"));
+        assertSame(StandardExplainDialect.H2, StandardExplainDialect.forDatabase("H2"));
+        assertNull(StandardExplainDialect.forDatabase("Oracle"));
+    }
+
+    @Test
+    public void postgresqlPlanIsRead() throws SQLException {
+        QueryPlan plan = plan(StandardExplainDialect.POSTGRESQL,
+            "Hash Join  (cost=1.09..36.02 rows=13 width=8)",
+            "  ->  Seq Scan on t  (cost=0.00..35.50 rows=2550 width=4)",
+            "  ->  Hash  (cost=1.04..1.04 rows=4 width=4)"
+        );
+        assertEquals(36.02, plan.getCost(), 0);
+        assertEquals(2550, plan.getRows());
+        assertTrue(plan.isFullScan());
+    }
+
+    @Test
+    public void mysqlPlanIsRead() throws SQLException {
+        QueryPlan plan = plan(StandardExplainDialect.MYSQL,
+            "{\"query_block\": {\"cost_info\": {\"query_cost\": \"1.25\"}, \"table\": {\"access_type\": \"ALL\", \"rows_examined_per_scan\": 10, \"rows_produced_per_join\": 3}}}"
+        );
+        assertEquals(1.25, plan.getCost(), 0);
+        assertEquals(10, plan.getRows());
+        assertTrue(plan.isFullScan());
+
+        plan = plan(StandardExplainDialect.MYSQL,
+            "{\"query_block\": {\"cost_info\": {\"query_cost\": \"0.35\"}, \"table\": {\"access_type\": \"const\", \"rows_examined_per_scan\": 1}}}"
+        );
+        assertFalse(plan.isFullScan());
+    }
+
+    /**
+     * Read a plan from a result set with one row for each line of text, as the database would return it.
+     */
+    private QueryPlan plan(ExplainDialect dialect, String... lines) throws SQLException {
+        StringBuilder sql = new StringBuilder("select * from (values ");
+        for (int i = 0; i < lines.length; i++) {
+            sql.append(i > 0 ? ", " : "").append("('").append(lines[i].replace("'", "''")).append("')");
+        }
+        sql.append(')');
+        try (Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery(sql.toString())) {
+            return dialect.plan(resultSet);
+        }
+    }
+
+    private ScriptRunner scriptRunner() {
+        ScriptRunner scriptRunner = new ScriptRunner(connection);
+        scriptRunner.setAutoCommit(true);
+        scriptRunner.setErrorLogWriter(null);
+        scriptRunner.addScriptListener(new ScriptAdapter() {
+            @Override
+            public void sql(String sql) {
+                events.add("sql " + sql.trim());
+            }
+
+            @Override
+            public void plan(QueryPlan plan) {
+                events.add("plan " + plan.isFullScan());
+            }
+
+            @Override
+            public void error(String error) {
+                events.add("error");
+            }
+
+            @Override
+            public void updateCount(int updateCount) {
+                events.add("update " + updateCount);
+            }
+
+            @Override
+            public void row(ResultSet resultSet) {
+                try {
+                    events.add("row " + resultSet.getString(1));
+                } catch (SQLException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        return scriptRunner;
+    }
+
+    private int count() throws SQLException {
+        try (Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery("select count(*) from t")) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.caprica.scriptrunner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ScriptRunnerInterestsTest {
+
+    private static final String SCRIPT = "select x from system_range(1, 5);\n";
+
+    private Connection connection;
+
+    /**
+     * Number of calls to each result set method.
+     */
+    private final Map<String, Integer> calls = new HashMap<>();
+
+    @Before
+    public void before() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:");
+    }
+
+    @After
+    public void after() throws SQLException {
+        connection.close();
+    }
+
+    @Test
+    public void rowsAreNotReadWithoutInterestedListener() {
+        ScriptRunner scriptRunner = new ScriptRunner(counting(connection));
+        List<String> sql = new ArrayList<>();
+        scriptRunner.addScriptListener(new ScriptAdapter() {
+            @Override
+            public void sql(String statement) {
+                sql.add(statement.trim());
+            }
+        });
+        ScriptResult result = scriptRunner.runScript(new StringReader(SCRIPT));
+        assertEquals(1, result.getSuccessCount());
+        assertEquals(1, sql.size());
+        assertNull(calls.get("next"));
+        assertNull(calls.get("getObject"));
+        assertNull(calls.get("getString"));
+    }
+
+    @Test
+    public void rowsAreCountedButNotReadForRowCount() {
+        ScriptRunner scriptRunner = new ScriptRunner(counting(connection));
+        long[] rowCount = new long[1];
+        scriptRunner.addScriptListener(new ScriptAdapter() {
+            @Override
+            public void rowCount(long count) {
+                rowCount[0] = count;
+            }
+        });
+        scriptRunner.runScript(new StringReader(SCRIPT));
+        assertEquals(5, rowCount[0]);
+        assertEquals(Integer.valueOf(6), calls.get("next"));
+        assertNull(calls.get("getObject"));
+        assertNull(calls.get("getString"));
+    }
+
+    @Test
+    public void interestsAreReadForEachRun() {
+        ScriptRunner scriptRunner = new ScriptRunner(counting(connection));
+        Set<ScriptEvent> interests = EnumSet.of(ScriptEvent.SQL);
+        List<String> rows = new ArrayList<>();
+        scriptRunner.addScriptListener(new ScriptAdapter() {
+            @Override
+            public Set<ScriptEvent> interests() {
+                return interests;
+            }
+
+            @Override
+            public void row(ResultSet resultSet) {
+                try {
+                    rows.add(resultSet.getString(1));
+                } catch (SQLException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        scriptRunner.runScript(new StringReader(SCRIPT));
+        assertEquals(0, rows.size());
+        assertNull(calls.get("next"));
+        interests.add(ScriptEvent.ROW);
+        scriptRunner.runScript(new StringReader(SCRIPT));
+        assertEquals(5, rows.size());
+    }
+
+    /**
+     * Wrap a connection so that the calls to the methods of its result sets are counted.
+     */
+    private Connection counting(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {Connection.class}, (proxy, method, args) -> {
+            Object result = invoke(connection, method, args);
+            return result instanceof Statement ? counting((Statement) result) : result;
+        });
+    }
+
+    private Statement counting(Statement statement) {
+        return (Statement) Proxy.newProxyInstance(Statement.class.getClassLoader(), new Class<?>[] {Statement.class}, (proxy, method, args) -> {
+            Object result = invoke(statement, method, args);
+            return result instanceof ResultSet ? counting((ResultSet) result) : result;
+        });
+    }
+
+    private ResultSet counting(ResultSet resultSet) {
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[] {ResultSet.class}, (proxy, method, args) -> {
+            calls.merge(method.getName(), 1, Integer::sum);
+            return invoke(resultSet, method, args);
+        });
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+}
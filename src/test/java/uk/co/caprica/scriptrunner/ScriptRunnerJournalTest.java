@@ -0,0 +1,170 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.caprica.scriptrunner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ScriptRunnerJournalTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Connection connection;
+
+    private Path journal;
+
+    private final List<String> executed = new ArrayList<>();
+
+    @Before
+    public void before() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:");
+        execute("create table t(id int)");
+        journal = folder.getRoot().toPath().resolve("script.journal");
+    }
+
+    @After
+    public void after() throws SQLException {
+        connection.close();
+    }
+
+    @Test
+    public void resumeWithAutoCommitSkipsExecutedStatements() throws SQLException {
+        String script = script("");
+        runAndFail(script, true);
+        assertTrue(Files.exists(journal));
+        assertEquals(5, count("select count(*) from t"));
+
+        execute("create table u(id int)");
+        executed.clear();
+        scriptRunner(true).runScript(new StringReader(script));
+        assertFalse(Files.exists(journal));
+        assertEquals(6, executed.size());
+        assertEquals("insert into u values (1)", executed.get(0));
+        assertEquals(10, count("select count(distinct id) from t"));
+        assertEquals(10, count("select count(*) from t"));
+    }
+
+    @Test
+    public void resumeWithoutAutoCommitRestartsFromLastCommit() throws SQLException {
+        String script = script("-- @COMMIT\n");
+        runAndFail(script, false);
+        assertTrue(Files.exists(journal));
+        assertEquals(3, count("select count(*) from t"));
+
+        execute("create table u(id int)");
+        executed.clear();
+        scriptRunner(false).runScript(new StringReader(script));
+        assertFalse(Files.exists(journal));
+        assertEquals("insert into t values (4)", executed.get(0));
+        assertEquals(10, count("select count(*) from t"));
+    }
+
+    @Test
+    public void resumeRejectsChangedScript() throws SQLException {
+        runAndFail(script(""), true);
+        execute("create table u(id int)");
+        try {
+            scriptRunner(true).runScript(new StringReader(script("").replace("values (2)", "values (20)")));
+            fail("Expected the changed script to be rejected");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("does not match"));
+        }
+        assertEquals(5, count("select count(*) from t"));
+    }
+
+    /**
+     * Create a script that fails at the sixth statement until table "u" is created.
+     *
+     * @param afterThird text to insert after the third statement
+     * @return script
+     */
+    private static String script(String afterThird) {
+        StringBuilder script = new StringBuilder();
+        for (int id = 1; id <= 5; id++) {
+            script.append("insert into t values (").append(id).append(");\n");
+            if (id == 3) {
+                script.append(afterThird);
+            }
+        }
+        script.append("insert into u values (1);\n");
+        for (int id = 6; id <= 10; id++) {
+            script.append("insert into t values (").append(id).append(");\n");
+        }
+        return script.toString();
+    }
+
+    private void runAndFail(String script, boolean autoCommit) {
+        try {
+            scriptRunner(autoCommit).runScript(new StringReader(script));
+            fail("Expected the script to fail");
+        } catch (RuntimeException e) {
+            // Expected, table "u" does not exist yet
+        }
+    }
+
+    private ScriptRunner scriptRunner(boolean autoCommit) {
+        ScriptRunner scriptRunner = new ScriptRunner(connection);
+        scriptRunner.setAutoCommit(autoCommit);
+        scriptRunner.setStopOnError(true);
+        scriptRunner.setJournal(journal);
+        scriptRunner.setErrorLogWriter(null);
+        scriptRunner.addScriptListener(new ScriptAdapter() {
+            @Override
+            public void sql(String sql) {
+                executed.add(sql);
+            }
+        });
+        return scriptRunner;
+    }
+
+    private void execute(String sql) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+        if (!connection.getAutoCommit()) {
+            connection.commit();
+        }
+    }
+
+    private int count(String sql) throws SQLException {
+        try (Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery(sql)) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+
+}
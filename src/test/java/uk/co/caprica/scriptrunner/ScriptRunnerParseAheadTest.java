@@ -0,0 +1,204 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.caprica.scriptrunner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ScriptRunnerParseAheadTest {
+
+    private static final String SCRIPT =
+        "create table t(id int primary key);\n" +
+        "-- first comment\n" +
+        "insert into t values (1);\n" +
+        "insert into t values (1);\n" +
+        "-- @DELIMITER /\n" +
+        "insert into t values (2)\n" +
+        "/\n" +
+        "-- @DELIMITER ;\n" +
+        "select count(*) from t;\n";
+
+    private Connection connection;
+
+    @Before
+    public void before() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:");
+    }
+
+    @After
+    public void after() throws SQLException {
+        connection.close();
+    }
+
+    @Test
+    public void eventsAreTheSameAsWithoutParseAhead() throws SQLException {
+        List<String> expected = Arrays.asList(
+            "sql create table t(id int primary key)",
+            "update 0",
+            "comment -- first comment",
+            "sql insert into t values (1)",
+            "update 1",
+            "sql insert into t values (1)",
+            "error",
+            "comment -- @DELIMITER /",
+            "sql insert into t values (2)",
+            "update 1",
+            "comment -- @DELIMITER ;",
+            "sql select count(*) from t",
+            "row 2",
+            "success 4",
+            "error 1"
+        );
+        for (int parseAhead : new int[] {0, 1, 2, 100}) {
+            assertEquals("parse ahead " + parseAhead, expected, run(parseAhead));
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("drop table t");
+            }
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void stopOnErrorStopsParser() {
+        StringBuilder script = new StringBuilder("select 1 from missing_table;\n");
+        for (int i = 0; i < 1000; i++) {
+            script.append("select ").append(i).append(";\n");
+        }
+        ScriptRunner scriptRunner = new ScriptRunner(connection);
+        scriptRunner.setParseAhead(2);
+        scriptRunner.setStopOnError(true);
+        scriptRunner.setErrorLogWriter(null);
+        try {
+            scriptRunner.runScript(new StringReader(script.toString()));
+            fail("Expected the script to fail");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Error executing: select 1 from missing_table"));
+        }
+        assertFalse(parserRunning());
+    }
+
+    @Test(timeout = 10000)
+    public void readFailureIsReported() {
+        Reader reader = new Reader() {
+            private final Reader script = new StringReader("select 1;\nselect 2;\n");
+
+            @Override
+            public int read(char[] cbuf, int off, int len) throws IOException {
+                int read = script.read(cbuf, off, Math.min(len, 4));
+                if (read == -1) {
+                    throw new IOException("Disk failed");
+                }
+                return read;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        List<String> events = new ArrayList<>();
+        ScriptRunner scriptRunner = new ScriptRunner(connection);
+        scriptRunner.setParseAhead(2);
+        scriptRunner.setErrorLogWriter(null);
+        scriptRunner.addScriptListener(new Events(events));
+        try {
+            scriptRunner.runScript(reader);
+            fail("Expected the script to fail");
+        } catch (RuntimeException e) {
+            assertEquals(IOException.class, e.getCause().getClass());
+        }
+        assertEquals("sql select 1", events.get(0));
+        assertEquals("sql select 2", events.get(2));
+        assertFalse(parserRunning());
+    }
+
+    private List<String> run(int parseAhead) {
+        List<String> events = new ArrayList<>();
+        ScriptRunner scriptRunner = new ScriptRunner(connection);
+        scriptRunner.setParseAhead(parseAhead);
+        scriptRunner.setErrorLogWriter(null);
+        scriptRunner.addScriptListener(new Events(events));
+        ScriptResult result = scriptRunner.runScript(new StringReader(SCRIPT));
+        events.add("success " + result.getSuccessCount());
+        events.add("error " + result.getErrorCount());
+        return events;
+    }
+
+    private static boolean parserRunning() {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("script-runner-parse-ahead") && thread.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class Events extends ScriptAdapter {
+
+        private final List<String> events;
+
+        private Events(List<String> events) {
+            this.events = events;
+        }
+
+        @Override
+        public void comment(String comment) {
+            events.add("comment " + comment.trim());
+        }
+
+        @Override
+        public void sql(String sql) {
+            events.add("sql " + sql.trim());
+        }
+
+        @Override
+        public void updateCount(int updateCount) {
+            events.add("update " + updateCount);
+        }
+
+        @Override
+        public void row(ResultSet resultSet) {
+            try {
+                events.add("row " + resultSet.getString(1));
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public void error(String error) {
+            events.add("error");
+        }
+    }
+
+}
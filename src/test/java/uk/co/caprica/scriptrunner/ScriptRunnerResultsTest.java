@@ -0,0 +1,206 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.caprica.scriptrunner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ScriptRunnerResultsTest {
+
+    private static final String SCRIPT = "select x from system_range(1, 10);\n";
+
+    private Connection connection;
+
+    /**
+     * Calls made to configure the connection and its statements.
+     */
+    private final List<String> calls = new ArrayList<>();
+
+    private final List<String> rows = new ArrayList<>();
+
+    private long rowCount;
+
+    @Before
+    public void before() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:");
+    }
+
+    @After
+    public void after() throws SQLException {
+        connection.close();
+    }
+
+    @Test
+    public void maxRowsLimitsRowsFromDatabase() {
+        ScriptRunner scriptRunner = scriptRunner("H2");
+        scriptRunner.setMaxRows(3);
+        scriptRunner.runScript(new StringReader(SCRIPT));
+        assertEquals(Arrays.asList("1", "2", "3"), rows);
+        assertEquals(3, rowCount);
+        assertEquals(Collections.singletonList("setMaxRows 3"), calls);
+    }
+
+    @Test
+    public void rowLimitLimitsRowsDeliveredButCountsAll() {
+        ScriptRunner scriptRunner = scriptRunner("H2");
+        scriptRunner.setRowLimit(3);
+        scriptRunner.runScript(new StringReader(SCRIPT));
+        assertEquals(Arrays.asList("1", "2", "3"), rows);
+        assertEquals(10, rowCount);
+        assertEquals(Collections.emptyList(), calls);
+    }
+
+    @Test
+    public void fetchSizeIsSetOnStatements() {
+        ScriptRunner scriptRunner = scriptRunner("H2");
+        scriptRunner.setFetchSize(5);
+        scriptRunner.runScript(new StringReader(SCRIPT));
+        assertEquals(10, rows.size());
+        assertEquals(Collections.singletonList("setFetchSize 5"), calls);
+    }
+
+    @Test
+    public void streamingUsesForwardOnlyStatementsAndDefaultFetchSize() {
+        ScriptRunner scriptRunner = scriptRunner("H2");
+        scriptRunner.setStreamResults(true);
+        scriptRunner.runScript(new StringReader(SCRIPT));
+        assertEquals(10, rows.size());
+        assertEquals(Arrays.asList("createStatement " + ResultSet.TYPE_FORWARD_ONLY + " " + ResultSet.CONCUR_READ_ONLY, "setFetchSize 1000"), calls);
+    }
+
+    @Test
+    public void streamingFromMySqlFetchesRowByRow() {
+        ScriptRunner scriptRunner = scriptRunner("MySQL");
+        scriptRunner.setStreamResults(true);
+        scriptRunner.runScript(new StringReader(SCRIPT));
+        assertEquals("setFetchSize " + Integer.MIN_VALUE, calls.get(1));
+    }
+
+    @Test
+    public void streamingFromPostgreSqlQueriesInTransaction() {
+        ScriptRunner scriptRunner = scriptRunner("PostgreSQL");
+        scriptRunner.setStreamResults(true);
+        scriptRunner.runScript(new StringReader("create table t(id int);\n" + SCRIPT));
+        assertEquals(10, rows.size());
+        // Only the query needs a transaction, auto-commit is enabled again once it has been read
+        assertEquals(Arrays.asList(
+            "createStatement " + ResultSet.TYPE_FORWARD_ONLY + " " + ResultSet.CONCUR_READ_ONLY,
+            "setFetchSize 1000",
+            "setAutoCommit false",
+            "createStatement " + ResultSet.TYPE_FORWARD_ONLY + " " + ResultSet.CONCUR_READ_ONLY,
+            "setFetchSize 1000",
+            "setAutoCommit true"
+        ), calls);
+    }
+
+    private ScriptRunner scriptRunner(String databaseProductName) {
+        ScriptRunner scriptRunner = new ScriptRunner(recording(databaseProductName));
+        scriptRunner.setAutoCommit(true);
+        scriptRunner.addScriptListener(new ScriptAdapter() {
+            @Override
+            public void row(ResultSet resultSet) {
+                try {
+                    rows.add(resultSet.getString(1));
+                } catch (SQLException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+
+            @Override
+            public void rowCount(long count) {
+                rowCount = count;
+            }
+        });
+        return scriptRunner;
+    }
+
+    /**
+     * Wrap the connection so that it reports the given database product name, and records the calls that configure it
+     * and its statements.
+     */
+    private Connection recording(String databaseProductName) {
+        DatabaseMetaData metaData = proxy(DatabaseMetaData.class, (method, args) -> {
+            if (method.getName().equals("getDatabaseProductName")) {
+                return databaseProductName;
+            }
+            return invoke(connection.getMetaData(), method, args);
+        });
+        return proxy(Connection.class, (method, args) -> {
+            switch (method.getName()) {
+                case "getMetaData":
+                    return metaData;
+                case "setAutoCommit":
+                    if ((Boolean) args[0] != connection.getAutoCommit()) {
+                        calls.add("setAutoCommit " + args[0]);
+                    }
+                    return invoke(connection, method, args);
+                case "createStatement":
+                    if (args != null) {
+                        calls.add("createStatement " + args[0] + " " + args[1]);
+                    }
+                    Statement statement = (Statement) invoke(connection, method, args);
+                    return proxy(Statement.class, (statementMethod, statementArgs) -> {
+                        if (statementMethod.getName().equals("setFetchSize")) {
+                            // Only recorded, since H2 does not accept the fetch size that MySQL uses for streaming
+                            calls.add("setFetchSize " + statementArgs[0]);
+                            return null;
+                        } else if (statementMethod.getName().equals("setMaxRows")) {
+                            calls.add("setMaxRows " + statementArgs[0]);
+                        }
+                        return invoke(statement, statementMethod, statementArgs);
+                    });
+                default:
+                    return invoke(connection, method, args);
+            }
+        });
+    }
+
+    private interface Handler {
+        Object invoke(Method method, Object[] args) throws Throwable;
+    }
+
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, (proxy, method, args) -> handler.invoke(method, args)));
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+}
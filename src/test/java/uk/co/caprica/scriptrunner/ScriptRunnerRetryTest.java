@@ -0,0 +1,190 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.caprica.scriptrunner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ScriptRunnerRetryTest {
+
+    private Connection connection;
+
+    /**
+     * Statements executed by the script runner, in order, including those that failed.
+     */
+    private final List<String> executed = new ArrayList<>();
+
+    private final List<Integer> retries = new ArrayList<>();
+
+    /**
+     * Number of times the failing statement still has to fail.
+     */
+    private int failures;
+
+    @Before
+    public void before() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:");
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("create table t(id int)");
+        }
+    }
+
+    @After
+    public void after() throws SQLException {
+        connection.close();
+    }
+
+    @Test
+    public void transientFailureReplaysUncommittedStatements() throws SQLException {
+        failures = 1;
+        ScriptResult result = scriptRunner(false, 3).runScript(new StringReader(
+            "insert into t values (1);\n" +
+            "-- @COMMIT\n" +
+            "insert into t values (2);\n" +
+            "insert into t values (3);\n"
+        ));
+        assertEquals(Arrays.asList(
+            "insert into t values (1)",
+            "insert into t values (2)",
+            "insert into t values (3)",
+            "insert into t values (2)",
+            "insert into t values (3)"
+        ), executed);
+        assertEquals(Arrays.asList(2), retries);
+        assertEquals(3, result.getUpdateCount());
+        assertEquals(3, result.getSuccessCount());
+        assertEquals(0, result.getErrorCount());
+        assertEquals(Arrays.asList(1, 2, 3), ids());
+    }
+
+    @Test
+    public void transientFailureWithAutoCommitRetriesOnlyFailedStatement() throws SQLException {
+        failures = 1;
+        ScriptResult result = scriptRunner(true, 3).runScript(new StringReader(
+            "insert into t values (2);\n" +
+            "insert into t values (3);\n"
+        ));
+        assertEquals(Arrays.asList(
+            "insert into t values (2)",
+            "insert into t values (3)",
+            "insert into t values (3)"
+        ), executed);
+        assertEquals(0, result.getErrorCount());
+        assertEquals(Arrays.asList(2, 3), ids());
+    }
+
+    @Test
+    public void exhaustedRetriesAreReportedAsError() throws SQLException {
+        failures = 5;
+        ScriptResult result = scriptRunner(true, 3).runScript(new StringReader(
+            "insert into t values (2);\n" +
+            "insert into t values (3);\n"
+        ));
+        assertEquals(Arrays.asList(2, 3), retries);
+        assertEquals(1, result.getSuccessCount());
+        assertEquals(1, result.getErrorCount());
+        assertEquals(Arrays.asList(2), ids());
+    }
+
+    private ScriptRunner scriptRunner(boolean autoCommit, int maxAttempts) {
+        RetryPolicy retryPolicy = new RetryPolicy();
+        retryPolicy.setMaxAttempts(maxAttempts);
+        retryPolicy.setInitialBackoffMillis(1);
+        ScriptRunner scriptRunner = new ScriptRunner(failing(connection));
+        scriptRunner.setAutoCommit(autoCommit);
+        scriptRunner.setRetryPolicy(retryPolicy);
+        scriptRunner.setErrorLogWriter(null);
+        scriptRunner.addScriptListener(new ScriptAdapter() {
+            @Override
+            public void retry(String message, int attempt, long delay) {
+                retries.add(attempt);
+            }
+        });
+        return scriptRunner;
+    }
+
+    /**
+     * Wrap a connection so that executing the statement that inserts 3 fails with a serialization failure.
+     */
+    private Connection failing(Connection connection) {
+        return proxy(Connection.class, connection, (method, args) -> {
+            if (method.equals("createStatement")) {
+                Statement statement = connection.createStatement();
+                return proxy(Statement.class, statement, (statementMethod, statementArgs) -> {
+                    if (statementMethod.equals("execute")) {
+                        String sql = (String) statementArgs[0];
+                        executed.add(sql);
+                        if (sql.contains("(3)") && failures > 0) {
+                            failures--;
+                            throw new SQLException("could not serialize access", "40001");
+                        }
+                    }
+                    return null;
+                });
+            }
+            return null;
+        });
+    }
+
+    private interface Interceptor {
+        Object intercept(String method, Object[] args) throws SQLException;
+    }
+
+    /**
+     * Create a proxy that gives the interceptor the first chance to handle each call, and passes the call on to the
+     * target if the interceptor returns <code>null</code>.
+     */
+    private static <T> T proxy(Class<T> type, T target, Interceptor interceptor) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, (proxy, method, args) -> {
+            Object result = interceptor.intercept(method.getName(), args);
+            if (result != null) {
+                return result;
+            }
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }));
+    }
+
+    private List<Integer> ids() throws SQLException {
+        List<Integer> ids = new ArrayList<>();
+        try (Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery("select id from t order by id")) {
+            while (resultSet.next()) {
+                ids.add(resultSet.getInt(1));
+            }
+        }
+        return ids;
+    }
+
+}
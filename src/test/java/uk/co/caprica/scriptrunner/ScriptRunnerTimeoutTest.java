@@ -0,0 +1,189 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.caprica.scriptrunner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ScriptRunnerTimeoutTest {
+
+    /**
+     * A query that takes far longer than any of the timeouts, H2 checks for cancellation as it iterates the rows.
+     */
+    private static final String SLOW = "select count(*) from system_range(1, 1000000000000) where mod(x, 7) = 8";
+
+    private Connection connection;
+
+    private final List<String> events = new ArrayList<>();
+
+    @Before
+    public void before() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:");
+    }
+
+    @After
+    public void after() throws SQLException {
+        connection.close();
+    }
+
+    @Test
+    public void statementTimeoutCancelsStatement() {
+        ScriptRunner scriptRunner = scriptRunner(connection);
+        scriptRunner.setStatementTimeout(1);
+        long startTime = System.nanoTime();
+        ScriptResult result = scriptRunner.runScript(new StringReader(SLOW + ";\nselect 1;\n"));
+        assertTrue(elapsedMillis(startTime) < 5000);
+        assertEquals(1, result.getSuccessCount());
+        assertEquals(1, result.getErrorCount());
+        assertEquals(Arrays.asList("slow", "cancelled", "select 1"), events);
+    }
+
+    @Test
+    public void cancelledStatementStopsScriptOnError() {
+        ScriptRunner scriptRunner = scriptRunner(connection);
+        scriptRunner.setStatementTimeout(1);
+        scriptRunner.setStopOnError(true);
+        try {
+            scriptRunner.runScript(new StringReader(SLOW + ";\nselect 1;\n"));
+            fail("Expected the script to fail");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Error executing: " + SLOW));
+        }
+        assertEquals(Arrays.asList("slow", "cancelled"), events);
+    }
+
+    @Test
+    public void timeoutDirectiveAppliesToNextStatement() {
+        ScriptRunner scriptRunner = scriptRunner(connection);
+        scriptRunner.setBatchSize(10);
+        ScriptResult result = scriptRunner.runScript(new StringReader(
+            "create table t(id int);\n" +
+            "-- @TIMEOUT 1\n" +
+            SLOW + ";\n" +
+            "insert into t values (1);\n" +
+            "insert into t values (2);\n"
+        ));
+        assertEquals(3, result.getSuccessCount());
+        assertEquals(1, result.getErrorCount());
+        assertEquals(Arrays.asList("create table t(id int)", "slow", "cancelled", "insert into t values (1)", "insert into t values (2)"), events);
+    }
+
+    @Test
+    public void scriptTimeoutFailsScript() {
+        ScriptRunner scriptRunner = scriptRunner(connection);
+        scriptRunner.setScriptTimeout(1);
+        long startTime = System.nanoTime();
+        try {
+            scriptRunner.runScript(new StringReader("select 1;\n" + SLOW + ";\nselect 2;\n"));
+            fail("Expected the script to fail");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("Script timed out after 1 seconds"));
+        }
+        assertTrue(elapsedMillis(startTime) < 5000);
+        // The script fails even though stop on error is not set, so the last statement is never executed
+        assertEquals(Arrays.asList("select 1", "slow", "cancelled"), events);
+    }
+
+    @Test
+    public void watchdogCancelsStatementWhenDriverIgnoresTimeout() {
+        List<String> queryTimeouts = new ArrayList<>();
+        Connection ignoringTimeouts = proxy(Connection.class, (method, args) -> {
+            if (method.getName().equals("createStatement")) {
+                Statement statement = (Statement) invoke(connection, method, args);
+                return proxy(Statement.class, (statementMethod, statementArgs) -> {
+                    if (statementMethod.getName().equals("setQueryTimeout")) {
+                        queryTimeouts.add(String.valueOf(statementArgs[0]));
+                        return null;
+                    }
+                    return invoke(statement, statementMethod, statementArgs);
+                });
+            }
+            return invoke(connection, method, args);
+        });
+        ScriptRunner scriptRunner = scriptRunner(ignoringTimeouts);
+        scriptRunner.setStatementTimeout(1);
+        long startTime = System.nanoTime();
+        ScriptResult result = scriptRunner.runScript(new StringReader(SLOW + ";\n"));
+        // The watchdog allows the driver a grace period before cancelling the statement itself
+        long elapsed = elapsedMillis(startTime);
+        assertTrue(String.valueOf(elapsed), elapsed >= 2000 && elapsed < 6000);
+        assertEquals(1, result.getErrorCount());
+        assertEquals(Arrays.asList("slow", "cancelled"), events);
+        assertEquals(Arrays.asList("1"), queryTimeouts);
+    }
+
+    private ScriptRunner scriptRunner(Connection connection) {
+        ScriptRunner scriptRunner = new ScriptRunner(connection);
+        scriptRunner.setAutoCommit(true);
+        scriptRunner.setErrorLogWriter(null);
+        scriptRunner.addScriptListener(new ScriptAdapter() {
+            @Override
+            public void sql(String sql) {
+                events.add(sql.trim().equals(SLOW) ? "slow" : sql.trim());
+            }
+
+            @Override
+            public void error(String error) {
+                events.add("error");
+            }
+
+            @Override
+            public void cancelled(String message) {
+                events.add("cancelled");
+            }
+        });
+        return scriptRunner;
+    }
+
+    private static long elapsedMillis(long startTime) {
+        return (System.nanoTime() - startTime) / 1000000;
+    }
+
+    private interface Handler {
+        Object invoke(Method method, Object[] args) throws Throwable;
+    }
+
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, (proxy, method, args) -> handler.invoke(method, args)));
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+}
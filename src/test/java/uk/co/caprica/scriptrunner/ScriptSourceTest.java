@@ -0,0 +1,164 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.caprica.scriptrunner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+
+public class ScriptSourceTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Connection connection;
+
+    private final List<String> files = new ArrayList<>();
+
+    @Before
+    public void before() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:");
+    }
+
+    @After
+    public void after() throws SQLException {
+        connection.close();
+    }
+
+    @Test
+    public void directoryScriptsRunInNameOrder() throws IOException, SQLException {
+        Path directory = folder.getRoot().toPath();
+        write(directory.resolve("V1.sql"), "create table t(id int, name varchar(20));\n");
+        write(directory.resolve("V10.sql"), "insert into t values (10, 'V10');\n");
+        gzip(directory.resolve("V2.sql.gz"), "insert into t values (2, 'V2');\n");
+        zip(directory.resolve("V3.zip"), "b.sql", "insert into t values (4, 'b');\n", "a.sql", "insert into t values (3, 'a');\n");
+        write(directory.resolve("notes.txt"), "not a script");
+
+        ScriptResult result = scriptRunner().runScripts(connection, ScriptSource.directory(directory, StandardCharsets.UTF_8));
+
+        assertEquals(Arrays.asList("V1.sql", "V2.sql.gz", "V3.zip!/a.sql", "V3.zip!/b.sql", "V10.sql"), files);
+        assertEquals(Arrays.asList("V2", "a", "b", "V10"), names());
+        assertEquals(5, result.getFileResults().size());
+        assertEquals(5, result.getSuccessCount());
+        assertEquals(4, result.getUpdateCount());
+        for (ScriptFileResult fileResult : result.getFileResults()) {
+            assertEquals(fileResult.getName(), 1, fileResult.getSuccessCount());
+        }
+    }
+
+    @Test
+    public void combinedSourcesRunInTurn() throws IOException, SQLException {
+        Path first = folder.newFile("first.sql").toPath();
+        Path second = folder.newFile("second.sql").toPath();
+        write(first, "create table t(id int, name varchar(20));\n");
+        write(second, "insert into t values (1, 'second');\n");
+
+        ScriptRunner scriptRunner = scriptRunner();
+        scriptRunner.setReadAheadLength(0);
+        scriptRunner.runScripts(connection, ScriptSource.of(ScriptSource.file(first, StandardCharsets.UTF_8), ScriptSource.file(second, StandardCharsets.UTF_8)));
+
+        assertEquals(Arrays.asList("first.sql", "second.sql"), files);
+        assertEquals(Arrays.asList("second"), names());
+    }
+
+    @Test
+    public void upperCaseExtensionsAreRecognisedInAnyLocale() throws IOException, SQLException {
+        Locale defaultLocale = Locale.getDefault();
+        // In Turkish, the lower case of "I" is a dotless i, so ".ZIP" would not match ".zip"
+        Locale.setDefault(new Locale("tr"));
+        try {
+            Path directory = folder.getRoot().toPath();
+            write(directory.resolve("A.SQL"), "create table t(id int, name varchar(20));\n");
+            gzip(directory.resolve("B.SQL.GZ"), "insert into t values (1, 'B');\n");
+            zip(directory.resolve("C.ZIP"), "C.SQL", "insert into t values (2, 'C');\n");
+
+            scriptRunner().runScripts(connection, ScriptSource.directory(directory, StandardCharsets.UTF_8));
+
+            assertEquals(Arrays.asList("A.SQL", "B.SQL.GZ", "C.ZIP!/C.SQL"), files);
+            assertEquals(Arrays.asList("B", "C"), names());
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+    private ScriptRunner scriptRunner() {
+        ScriptRunner scriptRunner = new ScriptRunner();
+        scriptRunner.setAutoCommit(true);
+        scriptRunner.setErrorLogWriter(null);
+        scriptRunner.addScriptListener(new ScriptAdapter() {
+            @Override
+            public void beginFile(String name) {
+                // Names are given relative to the temporary folder
+                files.add(name.substring(folder.getRoot().getPath().length() + 1));
+            }
+        });
+        return scriptRunner;
+    }
+
+    private List<String> names() throws SQLException {
+        List<String> names = new ArrayList<>();
+        try (Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery("select name from t order by id")) {
+            while (resultSet.next()) {
+                names.add(resultSet.getString(1));
+            }
+        }
+        return names;
+    }
+
+    private static void write(Path path, String script) throws IOException {
+        Files.write(path, script.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void gzip(Path path, String script) throws IOException {
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(path))) {
+            out.write(script.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void zip(Path path, String... entries) throws IOException {
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(path))) {
+            for (int i = 0; i < entries.length; i += 2) {
+                out.putNextEntry(new ZipEntry(entries[i]));
+                out.write(entries[i + 1].getBytes(StandardCharsets.UTF_8));
+                out.closeEntry();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.caprica.scriptrunner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class StatementCacheTest {
+
+    private Connection connection;
+
+    @Before
+    public void before() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:");
+    }
+
+    @After
+    public void after() throws SQLException {
+        connection.close();
+    }
+
+    @Test
+    public void statementIsReused() throws SQLException {
+        StatementCache cache = new StatementCache(connection, 2);
+        PreparedStatement statement = cache.prepare("select ?");
+        assertSame(statement, cache.prepare("select ?"));
+        assertNotSame(statement, cache.prepare("select ? + 1"));
+    }
+
+    @Test
+    public void leastRecentlyUsedStatementIsEvictedAndClosed() throws SQLException {
+        StatementCache cache = new StatementCache(connection, 2);
+        PreparedStatement first = cache.prepare("select ?");
+        PreparedStatement second = cache.prepare("select ? + 1");
+        // Using the first statement again leaves the second as the least recently used
+        assertSame(first, cache.prepare("select ?"));
+        PreparedStatement third = cache.prepare("select ? + 2");
+        assertTrue(second.isClosed());
+        assertFalse(first.isClosed());
+        assertFalse(third.isClosed());
+        assertSame(first, cache.prepare("select ?"));
+        assertNotSame(second, cache.prepare("select ? + 1"));
+    }
+
+    @Test
+    public void closedStatementIsPreparedAgain() throws SQLException {
+        StatementCache cache = new StatementCache(connection, 2);
+        PreparedStatement statement = cache.prepare("select ?");
+        statement.close();
+        PreparedStatement prepared = cache.prepare("select ?");
+        assertNotSame(statement, prepared);
+        assertFalse(prepared.isClosed());
+    }
+
+    @Test
+    public void closeClosesAllStatements() throws SQLException {
+        StatementCache cache = new StatementCache(connection, 2);
+        PreparedStatement first = cache.prepare("select ?");
+        PreparedStatement second = cache.prepare("select ? + 1");
+        cache.close();
+        assertTrue(first.isClosed());
+        assertTrue(second.isClosed());
+        assertFalse(connection.isClosed());
+    }
+
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.caprica.scriptrunner;
+
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StatementTemplateTest {
+
+    @Test
+    public void variablesAreReplacedByParameterMarkers() throws SQLException {
+        StatementTemplate template = StatementTemplate.parse("select * from t where a = ${a} and b in (${b.c}, ${a})", false);
+        assertEquals("select * from t where a = ? and b in (?, ?)", template.sql());
+        assertEquals(Arrays.asList("a", "b.c", "a"), template.names());
+    }
+
+    @Test
+    public void statementWithoutVariablesHasNoTemplate() throws SQLException {
+        assertNull(StatementTemplate.parse("select 1", false));
+        assertNull(StatementTemplate.parse("select '${a}'", false));
+        assertNull(StatementTemplate.parse("select ${}", false));
+        // Not a variable, so the "?" is left to the driver as before
+        assertNull(StatementTemplate.parse("select * from t where a = ? and b = '${b}'", false));
+    }
+
+    @Test
+    public void variablesInLiteralsAndCommentsAreUntouched() throws SQLException {
+        assertUntouched("select '${a}', ${x}");
+        assertUntouched("select 'it''s ${a}', ${x}");
+        assertUntouched("select \"${a}\", `${a}`, ${x}");
+        assertUntouched("select ${x} -- ${a}\n");
+        assertUntouched("select /* ${a} */ ${x}");
+        assertUntouched("select $$ ${a} $$, ${x}");
+        assertUntouched("select $body$ ${a} $$ ${a} $body$, ${x}");
+        assertUntouched("select E'\\' ${a}', ${x}");
+    }
+
+    @Test
+    public void backslashEscapesAreFollowedWhenEnabled() throws SQLException {
+        String sql = "select '\\' ${a} ', ${x}";
+        assertEquals(Collections.singletonList("x"), StatementTemplate.parse(sql, true).names());
+        assertEquals(Collections.singletonList("a"), StatementTemplate.parse(sql, false).names());
+    }
+
+    @Test
+    public void questionMarkWithVariablesIsRejected() {
+        for (String sql : new String[] {
+            "select * from t where a = ? and b = ${b}",
+            "select * from t where data ? 'key' and b = ${b}",
+            "select * from t where data ?| array['a'] and b = ${b}",
+            "select * from t where data ?& array['a'] and b = ${b}"
+        }) {
+            try {
+                StatementTemplate.parse(sql, false);
+                fail("Expected the statement to be rejected: " + sql);
+            } catch (SQLException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("\"?\""));
+            }
+        }
+    }
+
+    @Test
+    public void questionMarkInLiteralsAndCommentsIsAllowed() throws SQLException {
+        assertUntouched("select '?' -- ?\n, /* ? */ \"?\", $$?$$, ${x}");
+        StatementTemplate template = StatementTemplate.parse("select * from t where data ?? 'key' and b = ${b}", false);
+        assertEquals("select * from t where data ?? 'key' and b = ?", template.sql());
+    }
+
+    /**
+     * Check that only the trailing "${x}" variable is replaced.
+     */
+    private static void assertUntouched(String sql) throws SQLException {
+        StatementTemplate template = StatementTemplate.parse(sql, false);
+        assertEquals(sql, Collections.singletonList("x"), template.names());
+        assertEquals(sql.substring(0, sql.lastIndexOf("${x}")) + "?" + sql.substring(sql.lastIndexOf("${x}") + 4), template.sql());
+    }
+
+}
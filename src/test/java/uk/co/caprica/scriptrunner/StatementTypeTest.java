@@ -0,0 +1,93 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.caprica.scriptrunner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StatementTypeTest {
+
+    private Locale defaultLocale;
+
+    @Before
+    public void before() {
+        defaultLocale = Locale.getDefault();
+    }
+
+    @After
+    public void after() {
+        Locale.setDefault(defaultLocale);
+    }
+
+    @Test
+    public void classifiesLeadingKeyword() {
+        assertEquals(StatementType.QUERY, StatementType.of("select 1"));
+        assertEquals(StatementType.QUERY, StatementType.of("-- comment\n/* block */ (select 1)"));
+        assertEquals(StatementType.QUERY, StatementType.of("with x as (select 1) select * from x"));
+        assertEquals(StatementType.DML, StatementType.of("insert into t values (1)"));
+        assertEquals(StatementType.DML, StatementType.of("UPDATE t SET returning_flag = 1"));
+        assertEquals(StatementType.QUERY, StatementType.of("insert into t values (1) returning id"));
+        assertEquals(StatementType.DDL, StatementType.of("create table t(id int)"));
+        assertEquals(StatementType.OTHER, StatementType.of("call p()"));
+        assertEquals(StatementType.OTHER, StatementType.of(""));
+    }
+
+    @Test
+    public void onlyDmlIsBatchable() {
+        assertTrue(StatementType.DML.isBatchable());
+        assertFalse(StatementType.QUERY.isBatchable());
+        assertFalse(StatementType.DDL.isBatchable());
+        assertTrue(StatementType.DDL.isChunkable());
+        assertFalse(StatementType.OTHER.isChunkable());
+    }
+
+    @Test
+    public void classificationDoesNotDependOnDefaultLocale() {
+        // In Turkish, the upper case of "i" is a dotted capital I, so "insert" would not match "INSERT"
+        Locale.setDefault(new Locale("tr"));
+        assertEquals(StatementType.DML, StatementType.of("insert into t values (1)"));
+        assertEquals(StatementType.QUERY, StatementType.of("with x as (select 1) select * from x"));
+        assertEquals(StatementType.DDL, StatementType.of("drop index i"));
+        assertEquals(StatementType.DDL, StatementType.of("grant select on t to u"));
+    }
+
+    @Test
+    public void explainableStatements() {
+        assertTrue(StatementType.isExplainable("select * from t"));
+        assertTrue(StatementType.isExplainable("delete from t"));
+        assertFalse(StatementType.isExplainable("explain select * from t"));
+        assertFalse(StatementType.isExplainable("show tables"));
+        assertFalse(StatementType.isExplainable("describe t"));
+        assertFalse(StatementType.isExplainable("create table t(id int)"));
+    }
+
+    @Test
+    public void explainableDoesNotDependOnDefaultLocale() {
+        Locale.setDefault(new Locale("tr"));
+        assertTrue(StatementType.isExplainable("insert into t values (1)"));
+        assertFalse(StatementType.isExplainable("describe t"));
+        assertEquals(StandardExplainDialect.MYSQL, StandardExplainDialect.forDatabase("MARIADB"));
+    }
+
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.caprica.scriptrunner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ValuePreviewTest {
+
+    private Connection connection;
+
+    @Before
+    public void before() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:");
+    }
+
+    @After
+    public void after() throws SQLException {
+        connection.close();
+    }
+
+    @Test
+    public void binaryIsStreamedByPrecisionLikeVarbinary() {
+        assertTrue(ValuePreview.isBinary(Types.BINARY));
+        assertTrue(ValuePreview.isStreamed(Types.BINARY, 0));
+        assertTrue(ValuePreview.isStreamed(Types.BINARY, 100000));
+        assertFalse(ValuePreview.isStreamed(Types.BINARY, 16));
+        assertFalse(ValuePreview.isStreamed(Types.VARBINARY, 16));
+    }
+
+    @Test
+    public void otherAndXmlAreStreamedAsText() {
+        assertTrue(ValuePreview.isStreamed(Types.OTHER, 0));
+        assertTrue(ValuePreview.isStreamed(Types.OTHER, Integer.MAX_VALUE));
+        assertTrue(ValuePreview.isStreamed(Types.SQLXML, 0));
+        assertFalse(ValuePreview.isStreamed(Types.OTHER, 100));
+        assertFalse(ValuePreview.isBinary(Types.OTHER));
+        assertFalse(ValuePreview.isBinary(Types.SQLXML));
+    }
+
+    @Test
+    public void smallTypesAreNotStreamed() {
+        assertFalse(ValuePreview.isStreamed(Types.INTEGER, 0));
+        assertFalse(ValuePreview.isStreamed(Types.VARCHAR, 100));
+        assertTrue(ValuePreview.isStreamed(Types.VARCHAR, 0));
+        assertTrue(ValuePreview.isStreamed(Types.CLOB, 100));
+    }
+
+    @Test
+    public void readTextOfLargeBinaryIsBoundedHex() throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("create table t (b binary(10000), j json)");
+            statement.execute("insert into t values (cast(repeat('ab', 10000) as binary(10000)), '{\"a\":\"" + repeat('x', 10000) + "\"}' format json)");
+            statement.execute("insert into t values (null, null)");
+            try (ResultSet resultSet = statement.executeQuery("select b, j from t order by b nulls last")) {
+                ResultSetMetaData metaData = resultSet.getMetaData();
+                assertEquals(Types.BINARY, metaData.getColumnType(1));
+                assertTrue(ValuePreview.isStreamed(metaData.getColumnType(1), metaData.getPrecision(1)));
+                assertEquals(Types.OTHER, metaData.getColumnType(2));
+                assertTrue(ValuePreview.isStreamed(metaData.getColumnType(2), metaData.getPrecision(2)));
+                assertTrue(resultSet.next());
+                String binary = ValuePreview.readText(resultSet, 1, metaData.getColumnType(1), 8);
+                assertEquals(8, binary.length());
+                String json = ValuePreview.readText(resultSet, 2, metaData.getColumnType(2), 8);
+                assertEquals("{\"a\":\"xx", json);
+                assertTrue(resultSet.next());
+                assertNull(ValuePreview.readText(resultSet, 1, metaData.getColumnType(1), 8));
+                assertNull(ValuePreview.readText(resultSet, 2, metaData.getColumnType(2), 8));
+            }
+        }
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder result = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            result.append(c);
+        }
+        return result.toString();
+    }
+
+}